@@ -25,7 +25,7 @@ public abstract class ArtifactRequest implements IArtifactRequest {
 	protected IArtifactKey artifact;
 	protected String resolvedKey;
 	protected IArtifactRepository source;
-	protected IStatus result = DEFAULT_STATUS;
+	protected volatile IStatus result = DEFAULT_STATUS;
 	protected Transport transport = null;
 
 	public ArtifactRequest(IArtifactKey key, Transport transport) {
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * The installable units that take part in one resolution. Each unit is given a dense
+ * int id in the order in which it is added so that sets of units can be kept in a
+ * {@link BitSet} and maps keyed by unit in arrays.
+ * <p>
+ * Units are looked up by identity first since the same instances are passed around
+ * during a resolution. Only a unit that hasn't been seen before is hashed and compared
+ * using <code>equals</code>, so equal units that are different instances get the same id.
+ * </p>
+ * This class is not thread safe.
+ */
+public class IUUniverse {
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * A set view of the units whose ids are set in a {@link BitSet}.
+	 */
+	private class UnitSet extends AbstractSet<IInstallableUnit> {
+		private final BitSet ids;
+
+		UnitSet(BitSet ids) {
+			this.ids = ids;
+		}
+
+		public boolean contains(Object o) {
+			if (!(o instanceof IInstallableUnit))
+				return false;
+			int id = indexOf((IInstallableUnit) o);
+			return id >= 0 && ids.get(id);
+		}
+
+		public Iterator<IInstallableUnit> iterator() {
+			return new Iterator<IInstallableUnit>() {
+				private int next = ids.nextSetBit(0);
+
+				public boolean hasNext() {
+					return next >= 0;
+				}
+
+				public IInstallableUnit next() {
+					if (next < 0)
+						throw new NoSuchElementException();
+					IInstallableUnit iu = units[next];
+					next = ids.nextSetBit(next + 1);
+					return iu;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		public int size() {
+			return ids.cardinality();
+		}
+	}
+
+	// The units indexed by id
+	private IInstallableUnit[] units = new IInstallableUnit[INITIAL_CAPACITY];
+	private int size;
+
+	// Open addressing table keyed by unit identity. Holds id + 1, 0 means empty.
+	private IInstallableUnit[] identityKeys = new IInstallableUnit[INITIAL_CAPACITY * 2];
+	private int[] identityIds = new int[INITIAL_CAPACITY * 2];
+	private int identityCount;
+
+	// Open addressing table keyed by unit equality. Holds id + 1, 0 means empty.
+	private int[] equalityIds = new int[INITIAL_CAPACITY * 2];
+
+	/**
+	 * Returns the number of units in the universe.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the unit with the given id.
+	 */
+	public IInstallableUnit get(int id) {
+		if (id < 0 || id >= size)
+			throw new IndexOutOfBoundsException();
+		return units[id];
+	}
+
+	/**
+	 * Returns the id of the given unit or <code>-1</code> if it is not in the universe.
+	 */
+	public int indexOf(IInstallableUnit iu) {
+		int id = identityLookup(iu);
+		if (id >= 0)
+			return id;
+		id = equalityLookup(iu);
+		if (id >= 0)
+			// Next time this instance is looked up it will be found by identity
+			identityPut(iu, id);
+		return id;
+	}
+
+	/**
+	 * Returns the id of the given unit, adding the unit to the universe unless
+	 * it is already there.
+	 */
+	public int add(IInstallableUnit iu) {
+		int id = indexOf(iu);
+		if (id >= 0)
+			return id;
+		id = size++;
+		if (id == units.length) {
+			IInstallableUnit[] newUnits = new IInstallableUnit[id * 2];
+			System.arraycopy(units, 0, newUnits, 0, id);
+			units = newUnits;
+		}
+		units[id] = iu;
+		if (size * 2 > equalityIds.length)
+			rehashEquality();
+		else
+			equalityPut(iu, id);
+		identityPut(iu, id);
+		return id;
+	}
+
+	/**
+	 * Returns a read only set of the units whose ids are set in the given bit set. The
+	 * set reflects later changes of the bit set.
+	 */
+	public Set<IInstallableUnit> asSet(BitSet ids) {
+		return new UnitSet(ids);
+	}
+
+	/**
+	 * Returns a bit set with the ids of the given units, adding the units that are not
+	 * already in the universe.
+	 */
+	public BitSet addAll(Collection<IInstallableUnit> ius) {
+		BitSet ids = new BitSet(size + ius.size());
+		for (IInstallableUnit iu : ius)
+			ids.set(add(iu));
+		return ids;
+	}
+
+	private static int mix(int hash) {
+		// Spread the bits since the tables are indexed using the low bits only
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		return hash ^ (hash >>> 7) ^ (hash >>> 4);
+	}
+
+	private int identityLookup(IInstallableUnit iu) {
+		int mask = identityKeys.length - 1;
+		for (int slot = mix(System.identityHashCode(iu)) & mask;; slot = (slot + 1) & mask) {
+			IInstallableUnit key = identityKeys[slot];
+			if (key == null)
+				return -1;
+			if (key == iu)
+				return identityIds[slot] - 1;
+		}
+	}
+
+	private void identityPut(IInstallableUnit iu, int id) {
+		if ((identityCount + 1) * 2 > identityKeys.length) {
+			IInstallableUnit[] oldKeys = identityKeys;
+			int[] oldIds = identityIds;
+			identityKeys = new IInstallableUnit[oldKeys.length * 2];
+			identityIds = new int[oldKeys.length * 2];
+			for (int idx = 0; idx < oldKeys.length; ++idx)
+				if (oldKeys[idx] != null)
+					identitySlot(oldKeys[idx], oldIds[idx]);
+		}
+		identitySlot(iu, id + 1);
+		++identityCount;
+	}
+
+	private void identitySlot(IInstallableUnit iu, int value) {
+		int mask = identityKeys.length - 1;
+		int slot = mix(System.identityHashCode(iu)) & mask;
+		while (identityKeys[slot] != null)
+			slot = (slot + 1) & mask;
+		identityKeys[slot] = iu;
+		identityIds[slot] = value;
+	}
+
+	private int equalityLookup(IInstallableUnit iu) {
+		int mask = equalityIds.length - 1;
+		for (int slot = mix(iu.hashCode()) & mask;; slot = (slot + 1) & mask) {
+			int value = equalityIds[slot];
+			if (value == 0)
+				return -1;
+			if (units[value - 1].equals(iu))
+				return value - 1;
+		}
+	}
+
+	private void equalityPut(IInstallableUnit iu, int id) {
+		int mask = equalityIds.length - 1;
+		int slot = mix(iu.hashCode()) & mask;
+		while (equalityIds[slot] != 0)
+			slot = (slot + 1) & mask;
+		equalityIds[slot] = id + 1;
+	}
+
+	private void rehashEquality() {
+		equalityIds = new int[equalityIds.length * 2];
+		for (int id = 0; id < size; ++id)
+			equalityPut(units[id], id);
+	}
+}
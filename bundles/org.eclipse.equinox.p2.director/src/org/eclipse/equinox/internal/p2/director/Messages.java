@@ -56,6 +56,7 @@ public class Messages extends NLS {
 	public static String Planner_Unsatisfiable_problem;
 	public static String Planner_Unsatisfied_dependency;
 	public static String Planner_NoSolution;
+	public static String Planner_PartialExplanation;
 	public static String Planner_Unexpected_problem;
 	public static String Planner_actions_and_software_incompatible;
 	public static String Planner_can_not_install_preq;
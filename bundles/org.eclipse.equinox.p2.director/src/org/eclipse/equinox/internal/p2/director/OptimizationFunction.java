@@ -40,17 +40,7 @@ public class OptimizationFunction {
 		numberOfInstalledIUs = sizeOf(lastState);
 		List<WeightedObject<? extends Object>> weightedObjects = new ArrayList<WeightedObject<? extends Object>>();
 
-		Set<IInstallableUnit> transitiveClosure; //The transitive closure of the IUs we are adding (this also means updating)
-		if (newRoots.isEmpty()) {
-			transitiveClosure = Collections.<IInstallableUnit> emptySet();
-		} else {
-			IQueryable<IInstallableUnit> queryable = new Slicer(picker, selectionContext, false).slice(newRoots.toArray(new IInstallableUnit[newRoots.size()]), new NullProgressMonitor());
-			if (queryable == null) {
-				transitiveClosure = Collections.<IInstallableUnit> emptySet();
-			} else {
-				transitiveClosure = queryable.query(QueryUtil.ALL_UNITS, new NullProgressMonitor()).toSet();
-			}
-		}
+		Set<IInstallableUnit> transitiveClosure = getTransitiveClosure(newRoots); //The transitive closure of the IUs we are adding (this also means updating)
 
 		Set<Entry<String, Map<Version, IInstallableUnit>>> s = slice.entrySet();
 		final BigInteger POWER = BigInteger.valueOf(numberOfInstalledIUs > 0 ? numberOfInstalledIUs + 1 : 2);
@@ -103,7 +93,101 @@ public class OptimizationFunction {
 		maxWeight = maxWeight.multiply(POWER).add(BigInteger.ONE);
 
 		//Now we deal the optional IUs,
-		long countOptional = 1;
+		List<IInstallableUnit> requestedPatches = getRequestedPatches(metaIu);
+		long countOptional = requestedPatches.size() + 1;
+
+		// and we make sure that patches are always favored
+		BigInteger patchWeight = maxWeight.multiply(POWER).multiply(BigInteger.valueOf(countOptional)).negate();
+		for (Iterator<IInstallableUnit> iterator = requestedPatches.iterator(); iterator.hasNext();) {
+			weightedObjects.add(WeightedObject.newWO(iterator.next(), patchWeight));
+		}
+		return weightedObjects;
+	}
+
+	/**
+	 * Creates the criteria of a lexicographic optimization, most important first, following the priorities
+	 * of {@link #createOptimizationFunction(IInstallableUnit, Collection)}: the requested patches, then the
+	 * optional requirements, then the versions of the IUs. An IU weighted <code>POWER^n</code> by the weighted
+	 * function is weighted 1 in the criterion of the level <code>n</code> and higher levels come first, so no
+	 * coefficient grows with the size of the profile.
+	 * <p>
+	 * The solutions are the same as those of the weighted function as long as an IU of a level only competes
+	 * with fewer than <code>POWER</code> IUs of lower levels, <code>POWER - 1</code> being the number of
+	 * installed IUs. On small
+	 * profiles they may differ: with nothing installed <code>POWER</code> is 2, and the weighted function prefers
+	 * one IU in its third newest version (weight 8) over three IUs in their second newest version (weight 12),
+	 * whereas the lexicographic criteria never accept an older version to keep newer versions of other IUs.
+	 * </p>
+	 */
+	public List<List<WeightedObject<? extends Object>>> createLexicographicOptimizationFunction(IInstallableUnit metaIu, Collection<IInstallableUnit> newRoots) {
+		Set<IInstallableUnit> transitiveClosure = getTransitiveClosure(newRoots);
+		List<List<WeightedObject<? extends Object>>> levels = new ArrayList<List<WeightedObject<? extends Object>>>();
+		for (Entry<String, Map<Version, IInstallableUnit>> entry : slice.entrySet()) {
+			List<IInstallableUnit> conflictingEntries = new ArrayList<IInstallableUnit>(entry.getValue().values());
+			if (conflictingEntries.size() == 1) {
+				IInstallableUnit iu = conflictingEntries.get(0);
+				if (iu != metaIu)
+					addToLevel(levels, 1, iu);
+				continue;
+			}
+			Collections.sort(conflictingEntries, Collections.reverseOrder());
+			int level = 1;
+			boolean foundInstalled = false;
+			boolean foundRoot = false;
+			for (IInstallableUnit iu : conflictingEntries) {
+				if (!foundRoot && isInstalled(iu) && !transitiveClosure.contains(iu)) {
+					foundInstalled = true;
+					addToLevel(levels, 0, iu);
+				} else if (!foundInstalled && !foundRoot && isRoot(iu, newRoots)) {
+					foundRoot = true;
+					addToLevel(levels, 0, iu);
+				} else {
+					addToLevel(levels, level, iu);
+				}
+				level++;
+			}
+		}
+
+		List<List<WeightedObject<? extends Object>>> criteria = new ArrayList<List<WeightedObject<? extends Object>>>(levels.size() + 2);
+		List<WeightedObject<? extends Object>> patches = new ArrayList<WeightedObject<? extends Object>>();
+		for (IInstallableUnit patch : getRequestedPatches(metaIu))
+			patches.add(WeightedObject.newWO(patch, BigInteger.ONE.negate()));
+		if (!patches.isEmpty())
+			criteria.add(patches);
+		List<WeightedObject<? extends Object>> optionals = new ArrayList<WeightedObject<? extends Object>>(optionalRequirementVariable.size());
+		for (AbstractVariable var : optionalRequirementVariable)
+			optionals.add(WeightedObject.newWO(var, BigInteger.ONE.negate()));
+		if (!optionals.isEmpty())
+			criteria.add(optionals);
+		for (int level = levels.size() - 1; level >= 0; level--) {
+			if (levels.get(level) != null)
+				criteria.add(levels.get(level));
+		}
+		return criteria;
+	}
+
+	private static void addToLevel(List<List<WeightedObject<? extends Object>>> levels, int level, IInstallableUnit iu) {
+		while (levels.size() <= level)
+			levels.add(null);
+		List<WeightedObject<? extends Object>> objects = levels.get(level);
+		if (objects == null) {
+			objects = new ArrayList<WeightedObject<? extends Object>>();
+			levels.set(level, objects);
+		}
+		objects.add(WeightedObject.newWO(iu, BigInteger.ONE));
+	}
+
+	private Set<IInstallableUnit> getTransitiveClosure(Collection<IInstallableUnit> newRoots) {
+		if (newRoots.isEmpty())
+			return Collections.<IInstallableUnit> emptySet();
+		IQueryable<IInstallableUnit> queryable = new Slicer(picker, selectionContext, false).slice(newRoots.toArray(new IInstallableUnit[newRoots.size()]), new NullProgressMonitor());
+		if (queryable == null)
+			return Collections.<IInstallableUnit> emptySet();
+		return queryable.query(QueryUtil.ALL_UNITS, new NullProgressMonitor()).toSet();
+	}
+
+	//The patches that the request asks for as optional IUs
+	private List<IInstallableUnit> getRequestedPatches(IInstallableUnit metaIu) {
 		List<IInstallableUnit> requestedPatches = new ArrayList<IInstallableUnit>();
 		Collection<IRequirement> reqs = metaIu.getRequirements();
 		for (IRequirement req : reqs) {
@@ -112,19 +196,11 @@ public class OptimizationFunction {
 			IQueryResult<IInstallableUnit> matches = picker.query(QueryUtil.createMatchQuery(req.getMatches()), null);
 			for (Iterator<IInstallableUnit> iterator = matches.iterator(); iterator.hasNext();) {
 				IInstallableUnit match = iterator.next();
-				if (match instanceof IInstallableUnitPatch) {
+				if (match instanceof IInstallableUnitPatch)
 					requestedPatches.add(match);
-					countOptional = countOptional + 1;
-				}
 			}
 		}
-
-		// and we make sure that patches are always favored
-		BigInteger patchWeight = maxWeight.multiply(POWER).multiply(BigInteger.valueOf(countOptional)).negate();
-		for (Iterator<IInstallableUnit> iterator = requestedPatches.iterator(); iterator.hasNext();) {
-			weightedObjects.add(WeightedObject.newWO(iterator.next(), patchWeight));
-		}
-		return weightedObjects;
+		return requestedPatches;
 	}
 
 	protected boolean isInstalled(IInstallableUnit iu) {
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import java.net.URI;
+import org.eclipse.equinox.internal.p2.engine.ProvisioningPlan;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProvisioningListener;
+import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.index.IIndexProvider;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * The plans computed by a planner for the last requests, so that a request that is resolved
+ * again against the same state gets the plan at once. A plan is found again for a request
+ * with the same profile id and timestamp, the same changes, the same properties and repository
+ * locations of the provisioning context, and the same units in the repositories of the context.
+ * <p>
+ * The least recently used plans are evicted when the cache is full. The plans of a profile are
+ * evicted when the profile changes, and all the plans are evicted when a repository changes.
+ * The cache keeps its own copies of the plans and hands out a new copy for each request, that
+ * refers to the provisioning context of the request, so callers may modify the plans they get.
+ * </p>
+ */
+public class PlanCache implements SynchronousProvisioningListener {
+	/**
+	 * The number of plans kept by the planner. The plans are not cached unless the value is
+	 * greater than zero.
+	 */
+	public static final String PROP_PLAN_CACHE_SIZE = "eclipse.p2.planner.cacheSize"; //$NON-NLS-1$
+
+	/**
+	 * What a plan depends on. The request is copied so that it can be changed afterwards.
+	 */
+	static final class Key {
+		private final String profileId;
+		private final long timestamp;
+		private final Set<IInstallableUnit> additions;
+		private final Set<IInstallableUnit> removals;
+		private final Map<String, String> propertiesToAdd;
+		private final Set<String> propertiesToRemove;
+		private final Map<IInstallableUnit, Map<String, String>> iuPropertiesToAdd;
+		private final Map<IInstallableUnit, Set<String>> iuPropertiesToRemove;
+		private final Set<IRequirement> extraRequirements;
+		private final Map<String, String> contextProperties;
+		private final List<URI> metadataRepositories;
+		private final List<URI> artifactRepositories;
+		private final long metadataFingerprint;
+		private final long extraIUsFingerprint;
+		private final int hashCode;
+		//The invalidations of the cache when the key was created, not part of the identity of the key
+		final int generation;
+
+		Key(ProfileChangeRequest request, ProvisioningContext context, long metadataFingerprint, long extraIUsFingerprint, int generation) {
+			IProfile profile = request.getProfile();
+			this.profileId = profile.getProfileId();
+			this.timestamp = profile.getTimestamp();
+			this.additions = new HashSet<IInstallableUnit>(request.getAdditions());
+			this.removals = new HashSet<IInstallableUnit>(request.getRemovals());
+			this.propertiesToAdd = new HashMap<String, String>(request.getPropertiesToAdd());
+			this.propertiesToRemove = new HashSet<String>(Arrays.asList(request.getPropertiesToRemove()));
+			this.iuPropertiesToAdd = new HashMap<IInstallableUnit, Map<String, String>>();
+			for (Map.Entry<IInstallableUnit, Map<String, String>> entry : request.getInstallableUnitProfilePropertiesToAdd().entrySet())
+				iuPropertiesToAdd.put(entry.getKey(), new HashMap<String, String>(entry.getValue()));
+			this.iuPropertiesToRemove = new HashMap<IInstallableUnit, Set<String>>();
+			for (Map.Entry<IInstallableUnit, List<String>> entry : request.getInstallableUnitProfilePropertiesToRemove().entrySet())
+				iuPropertiesToRemove.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+			Collection<IRequirement> requirements = request.getExtraRequirements();
+			this.extraRequirements = requirements == null ? Collections.<IRequirement> emptySet() : new HashSet<IRequirement>(requirements);
+			this.contextProperties = new HashMap<String, String>(context.getProperties());
+			this.metadataRepositories = asList(context.getMetadataRepositoryLocations());
+			this.artifactRepositories = asList(context.getArtifactRepositoryLocations());
+			this.metadataFingerprint = metadataFingerprint;
+			this.extraIUsFingerprint = extraIUsFingerprint;
+			this.generation = generation;
+
+			int result = profileId.hashCode();
+			result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+			result = 31 * result + additions.hashCode();
+			result = 31 * result + removals.hashCode();
+			result = 31 * result + propertiesToAdd.hashCode();
+			result = 31 * result + propertiesToRemove.hashCode();
+			result = 31 * result + iuPropertiesToAdd.hashCode();
+			result = 31 * result + iuPropertiesToRemove.hashCode();
+			result = 31 * result + extraRequirements.hashCode();
+			result = 31 * result + this.contextProperties.hashCode();
+			result = 31 * result + (metadataRepositories == null ? 0 : metadataRepositories.hashCode());
+			result = 31 * result + (artifactRepositories == null ? 0 : artifactRepositories.hashCode());
+			result = 31 * result + (int) (metadataFingerprint ^ (metadataFingerprint >>> 32));
+			result = 31 * result + (int) (extraIUsFingerprint ^ (extraIUsFingerprint >>> 32));
+			hashCode = result;
+		}
+
+		//Null locations stand for all the known repositories
+		private static List<URI> asList(URI[] locations) {
+			return locations == null ? null : Arrays.asList(locations);
+		}
+
+		private static boolean equal(List<URI> first, List<URI> second) {
+			return first == null ? second == null : first.equals(second);
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && timestamp == other.timestamp && metadataFingerprint == other.metadataFingerprint && extraIUsFingerprint == other.extraIUsFingerprint && profileId.equals(other.profileId) && additions.equals(other.additions) && removals.equals(other.removals) && propertiesToAdd.equals(other.propertiesToAdd) && propertiesToRemove.equals(other.propertiesToRemove) && iuPropertiesToAdd.equals(other.iuPropertiesToAdd) && iuPropertiesToRemove.equals(other.iuPropertiesToRemove) && extraRequirements.equals(other.extraRequirements) && contextProperties.equals(other.contextProperties) && equal(metadataRepositories, other.metadataRepositories) && equal(artifactRepositories, other.artifactRepositories);
+		}
+	}
+
+	private final int maxSize;
+	private final LinkedHashMap<Key, IProvisioningPlan> plans;
+	private int generation = 0;
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Creates a cache keeping at most the given number of plans.
+	 */
+	public PlanCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.plans = new LinkedHashMap<Key, IProvisioningPlan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, IProvisioningPlan> eldest) {
+				return size() > PlanCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns whether the plan of the given request can be cached, which is when the profile
+	 * of the request is a saved state of the profile.
+	 */
+	static boolean isCacheable(IProfileChangeRequest request) {
+		return ((ProfileChangeRequest) request).getProfile().getTimestamp() > 0;
+	}
+
+	/**
+	 * Returns the key of the plan of the given cacheable request. The metadata is the one that
+	 * the given context provides, it is passed in so that it is only loaded once per request.
+	 */
+	Key createKey(ProfileChangeRequest request, ProvisioningContext context, IQueryable<IInstallableUnit> metadata) {
+		int currentGeneration;
+		synchronized (this) {
+			currentGeneration = generation;
+		}
+		long metadataFingerprint = fingerprint(everything(metadata));
+		long extraIUsFingerprint = fingerprint(context.getExtraInstallableUnits().iterator());
+		return new Key(request, context, metadataFingerprint, extraIUsFingerprint, currentGeneration);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Iterator<IInstallableUnit> everything(IQueryable<IInstallableUnit> metadata) {
+		if (metadata instanceof IIndexProvider<?>)
+			return ((IIndexProvider<IInstallableUnit>) metadata).everything();
+		return metadata.query(QueryUtil.createIUAnyQuery(), null).iterator();
+	}
+
+	/*
+	 * Identifies the given units by their ids and versions, so that the units decoded again by a
+	 * repository that doesn't keep them have the same fingerprint. A unit that is added or removed
+	 * changes the fingerprint, a unit whose content is replaced is noticed by the repository event.
+	 * The sum doesn't depend on the order of the units.
+	 */
+	private static long fingerprint(Iterator<IInstallableUnit> units) {
+		long result = 0;
+		int count = 0;
+		while (units.hasNext()) {
+			IInstallableUnit unit = units.next();
+			result += 31L * unit.getId().hashCode() + unit.getVersion().hashCode();
+			count++;
+		}
+		return 31 * result + count;
+	}
+
+	/**
+	 * Returns a copy of the plan cached for the given key that refers to the given context
+	 * instead of the one of the request that computed the plan, or <code>null</code>.
+	 */
+	IProvisioningPlan get(Key key, ProvisioningContext context) {
+		IProvisioningPlan plan;
+		synchronized (this) {
+			plan = plans.get(key);
+			if (plan == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		return copy(plan, plan.getContext(), context);
+	}
+
+	/**
+	 * Caches a copy of the given plan, unless the cache was invalidated since the key was created
+	 * or the plan can't be copied.
+	 */
+	void put(Key key, IProvisioningPlan plan) {
+		IProvisioningPlan copy = copy(plan, null, null);
+		if (copy == null)
+			return;
+		synchronized (this) {
+			if (key.generation == generation)
+				plans.put(key, copy);
+		}
+	}
+
+	/**
+	 * Returns a copy of the given plan that shares the operands, which are immutable, or
+	 * <code>null</code> when the plan was not created by the default engine. The plans that
+	 * refer to the given old context refer to the new context in the copy.
+	 */
+	static IProvisioningPlan copy(IProvisioningPlan plan, ProvisioningContext oldContext, ProvisioningContext newContext) {
+		if (!(plan instanceof ProvisioningPlan))
+			return null;
+		IProvisioningPlan installerPlan = plan.getInstallerPlan();
+		IProvisioningPlan installerPlanCopy = null;
+		if (installerPlan != null) {
+			installerPlanCopy = copy(installerPlan, oldContext, newContext);
+			if (installerPlanCopy == null)
+				return null;
+		}
+		ProvisioningContext context = plan.getContext() == oldContext ? newContext : plan.getContext();
+		ProvisioningPlan copy = new ProvisioningPlan(plan.getStatus(), plan.getProfile(), ((ProvisioningPlan) plan).getOperands(), context, installerPlanCopy);
+		copy.setFuturePlan(plan.getFutureState());
+		return copy;
+	}
+
+	/**
+	 * Returns the number of requests whose plan was found in the cache.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests whose plan was not found in the cache.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of plans in the cache.
+	 */
+	public synchronized int size() {
+		return plans.size();
+	}
+
+	/**
+	 * Returns the largest number of plans kept by the cache.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Evicts all the plans.
+	 */
+	public synchronized void clear() {
+		generation++;
+		plans.clear();
+	}
+
+	/**
+	 * Evicts the plans of the given profile, and the plans whose installer plan is for the given profile.
+	 */
+	public synchronized void invalidate(String profileId) {
+		generation++;
+		for (Iterator<IProvisioningPlan> it = plans.values().iterator(); it.hasNext();) {
+			IProvisioningPlan plan = it.next();
+			IProvisioningPlan installerPlan = plan.getInstallerPlan();
+			if (profileId.equals(plan.getProfile().getProfileId()) || (installerPlan != null && profileId.equals(installerPlan.getProfile().getProfileId())))
+				it.remove();
+		}
+	}
+
+	public void notify(EventObject o) {
+		if (o instanceof IProfileEvent) {
+			invalidate(((IProfileEvent) o).getProfileId());
+		} else if (o instanceof RepositoryEvent) {
+			if (((RepositoryEvent) o).getKind() != RepositoryEvent.DISCOVERED)
+				clear();
+		}
+	}
+
+	public synchronized String toString() {
+		return "PlanCache[size=" + plans.size() + ", maxSize=" + maxSize + ", hits=" + hits + ", misses=" + misses + ']'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.TranslationSupport;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.KeyWithLocale;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.metadata.index.IIndexProvider;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * The installable units available to the planner: the units of the metadata repositories
+ * of the provisioning context and the extra units of the request, with one unit per id and
+ * version. When several units have the same id and version the first one is kept, unless a
+ * later one is complete where the first one is a partial IU. The extra units come first.
+ * <p>
+ * The units of the repositories are streamed once to find the ones that are kept, no copy of
+ * them is made. The queries are answered with the indexes of the repositories, from which the
+ * units that are not kept are filtered out, so the indexes don't have to be rebuilt for each plan.
+ * </p>
+ */
+public class PlannerInput extends IndexProvider<IInstallableUnit> {
+	private final IQueryable<IInstallableUnit> metadata;
+	//The unit kept for each id and version. A unit is equal to the other units of same id and version.
+	private final Map<IInstallableUnit, IInstallableUnit> units = new HashMap<IInstallableUnit, IInstallableUnit>();
+	//The extra units that are kept, answered by their own indexes
+	private final Map<IInstallableUnit, IInstallableUnit> extraUnits = new HashMap<IInstallableUnit, IInstallableUnit>();
+	private final QueryableArray extras;
+	private TranslationSupport translationSupport;
+
+	/**
+	 * Iterates over the units kept among the given units of the repositories.
+	 */
+	private class KeptIterator implements Iterator<IInstallableUnit> {
+		private final Iterator<IInstallableUnit> candidates;
+		private IInstallableUnit next;
+
+		KeptIterator(Iterator<IInstallableUnit> candidates) {
+			this.candidates = candidates;
+		}
+
+		public boolean hasNext() {
+			while (next == null && candidates.hasNext()) {
+				IInstallableUnit candidate = candidates.next();
+				//An extra unit is answered by the extra units, and units added to a repository afterwards are not part of the input
+				if (!extraUnits.containsKey(candidate))
+					next = units.get(candidate);
+			}
+			return next != null;
+		}
+
+		public IInstallableUnit next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			IInstallableUnit result = next;
+			next = null;
+			return result;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * The index of a member, made of the index of the repositories and the one of the extra units.
+	 */
+	private class KeptIndex implements IIndex<IInstallableUnit> {
+		private final IIndex<IInstallableUnit> metadataIndex;
+		private final IIndex<IInstallableUnit> extrasIndex;
+
+		KeptIndex(IIndex<IInstallableUnit> metadataIndex, IIndex<IInstallableUnit> extrasIndex) {
+			this.metadataIndex = metadataIndex;
+			this.extrasIndex = extrasIndex;
+		}
+
+		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+			Iterator<IInstallableUnit> metadataCandidates = metadataIndex.getCandidates(ctx, variable, booleanExpr);
+			if (metadataCandidates == null)
+				return null;
+			Iterator<IInstallableUnit> extrasCandidates = extrasIndex.getCandidates(ctx, variable, booleanExpr);
+			if (extrasCandidates == null)
+				return null;
+			List<IInstallableUnit> result = new ArrayList<IInstallableUnit>();
+			while (extrasCandidates.hasNext())
+				result.add(extrasCandidates.next());
+			for (Iterator<IInstallableUnit> kept = new KeptIterator(metadataCandidates); kept.hasNext();)
+				result.add(kept.next());
+			return result.iterator();
+		}
+	}
+
+	/**
+	 * Creates the input of the planner.
+	 * @param additionalSource Extra units, can be <code>null</code>
+	 * @param extraIUs Extra units, taking precedence over the additional source
+	 * @param metadata The units of the repositories
+	 * @param monitor A progress monitor
+	 */
+	public PlannerInput(IInstallableUnit[] additionalSource, Collection<IInstallableUnit> extraIUs, IQueryable<IInstallableUnit> metadata, IProgressMonitor monitor) {
+		this.metadata = metadata;
+		if (additionalSource != null) {
+			for (int i = 0; i < additionalSource.length; i++)
+				putExtra(additionalSource[i]);
+		}
+		for (IInstallableUnit iu : extraIUs)
+			putExtra(iu);
+		SubMonitor sub = SubMonitor.convert(monitor, 1);
+		for (Iterator<IInstallableUnit> it = everythingInMetadata(sub.newChild(1)); it.hasNext();) {
+			IInstallableUnit iu = it.next();
+			IInstallableUnit currentIU = units.get(iu);
+			if (currentIU == null) {
+				units.put(iu, iu);
+			} else if (hasHigherFidelity(iu, currentIU)) {
+				//Remove first so that the unit replaces the key equal to it
+				units.remove(iu);
+				units.put(iu, iu);
+				extraUnits.remove(iu);
+			}
+		}
+		sub.done();
+		extras = new QueryableArray(extraUnits.values().toArray(new IInstallableUnit[extraUnits.size()]));
+	}
+
+	private void putExtra(IInstallableUnit iu) {
+		units.remove(iu);
+		units.put(iu, iu);
+		extraUnits.remove(iu);
+		extraUnits.put(iu, iu);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Iterator<IInstallableUnit> everythingInMetadata(IProgressMonitor monitor) {
+		if (metadata instanceof IIndexProvider<?>)
+			return ((IIndexProvider<IInstallableUnit>) metadata).everything();
+		return metadata.query(QueryUtil.createIUAnyQuery(), monitor).iterator();
+	}
+
+	static boolean hasHigherFidelity(IInstallableUnit iu, IInstallableUnit currentIU) {
+		if (Boolean.valueOf(currentIU.getProperty(IInstallableUnit.PROP_PARTIAL_IU)).booleanValue() && !Boolean.valueOf(iu.getProperty(IInstallableUnit.PROP_PARTIAL_IU)).booleanValue())
+			return true;
+		return false;
+	}
+
+	/**
+	 * Returns whether the input has a unit with the id and version of the given unit.
+	 */
+	public boolean contains(IInstallableUnit iu) {
+		return units.containsKey(iu);
+	}
+
+	/**
+	 * Returns the number of units of the input.
+	 */
+	public int size() {
+		return units.size();
+	}
+
+	public Iterator<IInstallableUnit> everything() {
+		return Collections.unmodifiableCollection(units.values()).iterator();
+	}
+
+	public IIndex<IInstallableUnit> getIndex(String memberName) {
+		//Without the indexes of the repositories, the queries go through all the units
+		if (!(metadata instanceof IIndexProvider<?>))
+			return null;
+		@SuppressWarnings("unchecked")
+		IIndex<IInstallableUnit> metadataIndex = ((IIndexProvider<IInstallableUnit>) metadata).getIndex(memberName);
+		IIndex<IInstallableUnit> extrasIndex = extras.getIndex(memberName);
+		if (metadataIndex == null || extrasIndex == null)
+			return null;
+		return new KeptIndex(metadataIndex, extrasIndex);
+	}
+
+	public synchronized Object getManagedProperty(Object client, String memberName, Object key) {
+		if (!(client instanceof IInstallableUnit))
+			return null;
+		IInstallableUnit iu = (IInstallableUnit) client;
+		if (InstallableUnit.MEMBER_TRANSLATED_PROPERTIES.equals(memberName)) {
+			if (translationSupport == null)
+				translationSupport = new TranslationSupport(this);
+			return key instanceof KeyWithLocale ? translationSupport.getIUProperty(iu, (KeyWithLocale) key) : translationSupport.getIUProperty(iu, key.toString());
+		}
+		return null;
+	}
+}
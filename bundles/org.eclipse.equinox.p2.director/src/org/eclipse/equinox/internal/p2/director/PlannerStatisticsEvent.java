@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.EventObject;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+
+/**
+ * An event published on the provisioning event bus once the planner has computed the plan
+ * of a request. It reports the time spent in each stage of the planning, the size of the problem
+ * given to the solver and the work done by the solver, without having to turn tracing on.
+ * Stages that did not run for the request report a time of zero.
+ */
+public class PlannerStatisticsEvent extends EventObject {
+
+	private static final long serialVersionUID = -3150419578313271066L;
+
+	public static final int STAGE_GATHER = 0;
+	public static final int STAGE_SLICE = 1;
+	public static final int STAGE_ENCODE = 2;
+	public static final int STAGE_SOLVE = 3;
+	public static final int STAGE_BACK_TO_IU = 4;
+	public static final int STAGE_EXPLANATION = 5;
+	public static final int STAGE_GENERATE_PLAN = 6;
+
+	private static final int STAGES = 7;
+
+	private final long[] times = new long[STAGES];
+	private int sliceSize;
+	private int variables;
+	private int constraints;
+	private long decisions;
+	private long conflicts;
+	private long propagations;
+	private IStatus status;
+
+	public PlannerStatisticsEvent(IProfileChangeRequest request) {
+		super(request);
+	}
+
+	public IProfileChangeRequest getRequest() {
+		return (IProfileChangeRequest) getSource();
+	}
+
+	/**
+	 * Returns the time spent in the given stage, in milliseconds.
+	 * @param stage One of the <code>STAGE_</code> constants of this class
+	 */
+	public long getTime(int stage) {
+		return times[stage];
+	}
+
+	/**
+	 * Returns the time spent in all the stages, in milliseconds.
+	 */
+	public long getTotalTime() {
+		long total = 0;
+		for (int i = 0; i < STAGES; i++)
+			total += times[i];
+		return total;
+	}
+
+	/**
+	 * Returns the number of IUs in the slice given to the solver.
+	 */
+	public int getSliceSize() {
+		return sliceSize;
+	}
+
+	public int getNumberOfVariables() {
+		return variables;
+	}
+
+	public int getNumberOfConstraints() {
+		return constraints;
+	}
+
+	public long getDecisions() {
+		return decisions;
+	}
+
+	public long getConflicts() {
+		return conflicts;
+	}
+
+	public long getPropagations() {
+		return propagations;
+	}
+
+	/**
+	 * Returns the status of the plan computed for the request.
+	 */
+	public IStatus getStatus() {
+		return status;
+	}
+
+	void addTime(int stage, long time) {
+		times[stage] += time;
+	}
+
+	void setSliceSize(int sliceSize) {
+		this.sliceSize = sliceSize;
+	}
+
+	void setStatus(IStatus status) {
+		this.status = status;
+	}
+
+	//The size of the problem and the work of the solver are the ones of the last solved problem
+	void setSolverStatistics(Projector projector) {
+		variables = projector.getNumberOfVariables();
+		constraints = projector.getNumberOfConstraints();
+		decisions = projector.getDecisions();
+		conflicts = projector.getConflicts();
+		propagations = projector.getPropagations();
+		addTime(STAGE_SOLVE, projector.getSolveTime());
+		addTime(STAGE_BACK_TO_IU, projector.getBackToIUTime());
+	}
+
+	public String toString() {
+		StringBuffer result = new StringBuffer("PlannerStatisticsEvent["); //$NON-NLS-1$
+		result.append("gather=").append(times[STAGE_GATHER]); //$NON-NLS-1$
+		result.append(", slice=").append(times[STAGE_SLICE]); //$NON-NLS-1$
+		result.append(", encode=").append(times[STAGE_ENCODE]); //$NON-NLS-1$
+		result.append(", solve=").append(times[STAGE_SOLVE]); //$NON-NLS-1$
+		result.append(", backToIU=").append(times[STAGE_BACK_TO_IU]); //$NON-NLS-1$
+		result.append(", explanation=").append(times[STAGE_EXPLANATION]); //$NON-NLS-1$
+		result.append(", generatePlan=").append(times[STAGE_GENERATE_PLAN]); //$NON-NLS-1$
+		result.append(", sliceSize=").append(sliceSize); //$NON-NLS-1$
+		result.append(", variables=").append(variables); //$NON-NLS-1$
+		result.append(", constraints=").append(constraints); //$NON-NLS-1$
+		result.append(", decisions=").append(decisions); //$NON-NLS-1$
+		result.append(", conflicts=").append(conflicts); //$NON-NLS-1$
+		result.append(", propagations=").append(propagations); //$NON-NLS-1$
+		result.append(']');
+		return result.toString();
+	}
+}
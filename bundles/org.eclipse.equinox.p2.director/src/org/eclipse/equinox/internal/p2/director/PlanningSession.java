@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+
+/**
+ * A sequence of planning requests against the same profile and provisioning context. The
+ * session keeps the installable units gathered for the first request and the encoding of
+ * the problem. A follow-up request whose slice is part of the problem only has its entry
+ * point encoded and is solved assuming that the units outside of its slice are not installed,
+ * everything else is reused. A request that reaches units outside of the problem, or that is
+ * made against another state of the profile, is planned from scratch and its problem is kept
+ * in turn.
+ * <p>
+ * Requests using a user defined optimization function are always planned from scratch.
+ * </p>
+ * @see SimplePlanner#createPlanningSession(ProvisioningContext)
+ */
+public class PlanningSession {
+	private final SimplePlanner planner;
+	private final ProvisioningContext context;
+
+	// The state the kept problem was created for
+	private String profileId;
+	private long profileTimestamp;
+	private Map<String, String> selectionContext;
+	private boolean considerMetaRequirements;
+
+	private PlannerInput availableIUs;
+	private Projector projector;
+
+	private int reencodedCount;
+
+	PlanningSession(SimplePlanner planner, ProvisioningContext context) {
+		this.planner = planner;
+		this.context = context;
+	}
+
+	public ProvisioningContext getProvisioningContext() {
+		return context;
+	}
+
+	/**
+	 * Plans the given request, reusing the problem of the previous request when possible.
+	 * @see org.eclipse.equinox.p2.planner.IPlanner#getProvisioningPlan(IProfileChangeRequest, ProvisioningContext, IProgressMonitor)
+	 */
+	public synchronized IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, IProgressMonitor monitor) {
+		return planner.getProvisioningPlan(request, context, this, monitor);
+	}
+
+	/**
+	 * Returns the number of requests of this session that were planned by re-encoding
+	 * the entry point only.
+	 */
+	public synchronized int getReencodedCount() {
+		return reencodedCount;
+	}
+
+	/**
+	 * Forgets the problem so the next request is planned from scratch.
+	 */
+	public synchronized void reset() {
+		profileId = null;
+		selectionContext = null;
+		availableIUs = null;
+		projector = null;
+	}
+
+	/**
+	 * Returns the units gathered for the previous request, or <code>null</code> when they
+	 * can't be used for a request with the given parameters.
+	 */
+	PlannerInput getAvailableIUs(IProfile profile, Map<String, String> newSelectionContext, boolean newConsiderMetaRequirements, Collection<IInstallableUnit> extraIUs) {
+		if (availableIUs == null)
+			return null;
+		if (!profile.getProfileId().equals(profileId) || profile.getTimestamp() != profileTimestamp || !newSelectionContext.equals(selectionContext) || newConsiderMetaRequirements != considerMetaRequirements) {
+			reset();
+			return null;
+		}
+		for (IInstallableUnit extraIU : extraIUs) {
+			if (!availableIUs.contains(extraIU)) {
+				reset();
+				return null;
+			}
+		}
+		return availableIUs;
+	}
+
+	void setAvailableIUs(IProfile profile, Map<String, String> newSelectionContext, boolean newConsiderMetaRequirements, PlannerInput ius) {
+		reset();
+		profileId = profile.getProfileId();
+		profileTimestamp = profile.getTimestamp();
+		selectionContext = newSelectionContext;
+		considerMetaRequirements = newConsiderMetaRequirements;
+		availableIUs = ius;
+	}
+
+	void setProjector(Projector projector) {
+		this.projector = projector != null && projector.isIncremental() ? projector : null;
+	}
+
+	/**
+	 * Encodes the entry point of a request on top of the kept problem. Returns <code>null</code>
+	 * when there is no problem or when the slice of the entry point is not part of it.
+	 */
+	Projector reencode(IInstallableUnit entryPointIU, IInstallableUnit[] alreadyExistingRoots, IProfile profile, Collection<IInstallableUnit> additions, PlannerStatisticsEvent statistics, IProgressMonitor monitor) {
+		SubMonitor sub = SubMonitor.convert(monitor, 2);
+		if (projector == null || !projector.canReencode(entryPointIU))
+			return null;
+		long start = System.currentTimeMillis();
+		Slicer slicer = new Slicer(availableIUs, selectionContext, considerMetaRequirements);
+		boolean sliced = slicer.slice(new IInstallableUnit[] {entryPointIU}, sub.newChild(1)) != null;
+		long stop = System.currentTimeMillis();
+		if (statistics != null) {
+			statistics.addTime(PlannerStatisticsEvent.STAGE_SLICE, stop - start);
+			if (sliced)
+				statistics.setSliceSize(slicer.getUniverse().size());
+		}
+		if (!sliced)
+			return null;
+		boolean reencoded = projector.reencode(entryPointIU, alreadyExistingRoots, profile, additions, slicer.getUniverse(), slicer.getNonGreedyIds(), sub.newChild(1));
+		if (statistics != null)
+			statistics.addTime(PlannerStatisticsEvent.STAGE_ENCODE, System.currentTimeMillis() - stop);
+		if (!reencoded)
+			return null;
+		reencodedCount++;
+		return projector;
+	}
+}
@@ -15,6 +15,8 @@
  ******************************************************************************/
 package org.eclipse.equinox.internal.p2.director;
 
+import java.lang.reflect.Field;
+import java.math.BigInteger;
 import java.util.*;
 import java.util.Map.Entry;
 import org.eclipse.core.runtime.*;
@@ -27,11 +29,16 @@ import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.util.NLS;
+import org.sat4j.core.Vec;
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.core.Solver;
+import org.sat4j.minisat.orders.RSATPhaseSelectionStrategy;
 import org.sat4j.minisat.restarts.LubyRestarts;
 import org.sat4j.pb.*;
 import org.sat4j.pb.core.PBSolverResolution;
 import org.sat4j.pb.tools.*;
 import org.sat4j.specs.*;
+import org.sat4j.tools.xplain.Xplain;
 
 /**
  * This class is the interface between SAT4J and the planner. It produces a
@@ -49,6 +56,31 @@ public class Projector {
 	 * The default SAT solver timeout (in number of conflicts). See bug 372529 for discussion.
 	 */
 	private static final int DEFAULT_SOLVER_TIMEOUT = 10000;
+	/**
+	 * The name of a Java system property that, when set to <code>true</code>, makes the SAT solver
+	 * start its search from the IUs that are already installed.
+	 */
+	private static final String PROP_PROJECTOR_WARM_START = "eclipse.p2.projector.warmStart"; //$NON-NLS-1$
+	/**
+	 * The name of a Java system property specifying the number of solver configurations to race
+	 * on separate threads. See {@link SolverPortfolio}.
+	 */
+	private static final String PROP_PROJECTOR_PORTFOLIO = "eclipse.p2.projector.portfolio"; //$NON-NLS-1$
+	/**
+	 * The name of a Java system property specifying whether the projector should optimize the criteria of
+	 * the optimization function one after the other rather than their weighted sum.
+	 */
+	private static final String PROP_PROJECTOR_LEXICOGRAPHIC = "eclipse.p2.projector.lexicographic"; //$NON-NLS-1$
+	/**
+	 * The name of a Java system property specifying the maximum time, in milliseconds, to spend minimizing
+	 * the explanation of a failure. See {@link QuickExplanationStrategy}.
+	 */
+	private static final String PROP_PROJECTOR_EXPLANATION_BUDGET = "eclipse.p2.projector.explanationBudget"; //$NON-NLS-1$
+	/**
+	 * The name of a Java system property specifying whether the projector should encode the singleton
+	 * constraints of all the versions of an IU with a single constraint.
+	 */
+	private static final String PROP_PROJECTOR_SINGLETON_GROUPS = "eclipse.p2.projector.singletonGroups"; //$NON-NLS-1$
 	static boolean DEBUG = Tracing.DEBUG_PLANNER_PROJECTOR;
 	private static boolean DEBUG_ENCODING = Tracing.DEBUG_PLANNER_PROJECTOR_ENCODING;
 	private IQueryable<IInstallableUnit> picker;
@@ -72,15 +104,63 @@ public class Projector {
 
 	private boolean considerMetaRequirements;
 	private IInstallableUnit entryPoint;
-	private Map<IInstallableUnitFragment, Set<IInstallableUnit>> fragments = new HashMap<IInstallableUnitFragment, Set<IInstallableUnit>>();
+	private final IUUniverse universe; //Gives the IUs of the problem the ids used by the structures below
+	private BitSet[] fragments = new BitSet[0]; //The potential hosts of each fragment, indexed by fragment id
 
 	//Non greedy things
-	private Set<IInstallableUnit> nonGreedyIUs; //All the IUs that would satisfy non greedy dependencies
-	private Map<IInstallableUnit, AbstractVariable> nonGreedyVariables = new HashMap<IInstallableUnit, AbstractVariable>();
+	private final BitSet nonGreedyIUs; //All the IUs that would satisfy non greedy dependencies
+	private AbstractVariable[] nonGreedyVariables = new AbstractVariable[0];
 	private Map<AbstractVariable, List<Object>> nonGreedyProvider = new HashMap<AbstractVariable, List<Object>>(); //Keeps track of all the "object" that provide an IU that is non greedly requested  
 
 	private boolean emptyBecauseFiltered;
 	private boolean userDefinedFunction;
+	private boolean warmStart = DirectorActivator.context != null && Boolean.valueOf(DirectorActivator.context.getProperty(PROP_PROJECTOR_WARM_START)).booleanValue();
+	private WarmStartOrder warmStartOrder;
+	private int portfolioSize = getDefaultPortfolioSize();
+	private long explanationBudget = getDefaultExplanationBudget();
+	private QuickExplanationStrategy explanationStrategy;
+	private boolean singletonGroups = DirectorActivator.context != null && Boolean.valueOf(DirectorActivator.context.getProperty(PROP_PROJECTOR_SINGLETON_GROUPS)).booleanValue();
+	private boolean lexicographic = DirectorActivator.context != null && Boolean.valueOf(DirectorActivator.context.getProperty(PROP_PROJECTOR_LEXICOGRAPHIC)).booleanValue();
+	private long decisions; //The number of decisions taken by the last invocation of the solver
+	private long conflicts; //The number of conflicts met by the last invocation of the solver
+	private long propagations; //The number of propagations done by the last invocation of the solver
+	private long solveTime; //The time spent by the last invocation of the solver, in milliseconds
+	private long backToIUTime; //The time spent converting the last solution to IUs, in milliseconds
+
+	//Incremental encoding. The clauses of the entry point are guarded by the entry point itself so that the
+	//entry point of the next request can be encoded on top of the clauses of the other IUs.
+	private boolean incremental;
+	private boolean encodingEntryPoint;
+	private int baseAbstractVariables;
+	private int baseOptionalAbstractRequirements;
+	private AbstractVariable objectiveGuard; //Ties the variables of the objective function of the current request to the IUs
+	private List<Object> retracted = new ArrayList<Object>(); //The entry points and objective guards of previous requests, assumed false
+	private BitSet excluded; //The IUs that are not part of the slice of the current request, assumed false
+	private Map<AbstractVariable, List<Object>> entryPointProviders = new HashMap<AbstractVariable, List<Object>>(); //The providers of non greedy IUs found in the entry point
+	private AbstractVariable[] nonGreedyTails = new AbstractVariable[0]; //The open end of the providers of each non greedy IU, indexed by id
+
+	/**
+	 * A dependency helper whose objective function can be replaced between two calls to the solver.
+	 */
+	static class IncrementalDependencyHelper extends DependencyHelper<Object, Explanation> {
+		private static final long serialVersionUID = 1L;
+
+		IncrementalDependencyHelper(IPBSolver solver) {
+			super(solver);
+		}
+
+		void replaceObjectiveFunction(WeightedObject<Object>[] weightedObjects) {
+			VecInt literals = new VecInt(weightedObjects.length);
+			Vec<BigInteger> coefs = new Vec<BigInteger>(weightedObjects.length);
+			for (int i = 0; i < weightedObjects.length; i++) {
+				if (weightedObjects[i].getWeight().signum() == 0)
+					continue;
+				literals.push(getIntValue(weightedObjects[i].thing));
+				coefs.push(weightedObjects[i].getWeight());
+			}
+			getSolver().setObjectiveFunction(new ObjectiveFunction(literals, coefs));
+		}
+	}
 
 	static class AbstractVariable {
 		//		private String name;
@@ -135,6 +215,8 @@ public class Projector {
 				if (DEBUG) {
 					long stop = System.currentTimeMillis();
 					Tracing.debug("Explanation found: " + (stop - start)); //$NON-NLS-1$
+					if (explanationStrategy != null)
+						Tracing.debug("Explanation checks: " + explanationStrategy.getChecks() + (explanationStrategy.isPartial() ? " (budget exceeded, not minimal)" : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 					Tracing.debug("Explanation:"); //$NON-NLS-1$
 					for (Explanation ex : explanation) {
 						Tracing.debug(ex.toString());
@@ -157,6 +239,16 @@ public class Projector {
 	}
 
 	public Projector(IQueryable<IInstallableUnit> q, Map<String, String> context, Set<IInstallableUnit> nonGreedyIUs, boolean considerMetaRequirements) {
+		this(q, context, new IUUniverse(), null, considerMetaRequirements);
+		this.nonGreedyIUs.or(universe.addAll(nonGreedyIUs));
+	}
+
+	/**
+	 * Creates a projector that shares the universe of the slicer that produced its input.
+	 * @param universe The universe of the slice
+	 * @param nonGreedyIUs The ids of the IUs that would satisfy non greedy dependencies
+	 */
+	public Projector(IQueryable<IInstallableUnit> q, Map<String, String> context, IUUniverse universe, BitSet nonGreedyIUs, boolean considerMetaRequirements) {
 		picker = q;
 		slice = new HashMap<String, Map<Version, IInstallableUnit>>();
 		selectionContext = InstallableUnit.contextIU(context);
@@ -164,7 +256,8 @@ public class Projector {
 		allOptionalAbstractRequirements = new ArrayList<AbstractVariable>();
 		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, Messages.Planner_Problems_resolving_plan, null);
 		assumptions = new ArrayList<Object>();
-		this.nonGreedyIUs = nonGreedyIUs;
+		this.universe = universe;
+		this.nonGreedyIUs = nonGreedyIUs == null ? new BitSet() : nonGreedyIUs;
 		this.considerMetaRequirements = considerMetaRequirements;
 	}
 
@@ -188,8 +281,19 @@ public class Projector {
 					mysolver.setSimplifier(mysolver.SIMPLE_SIMPLIFICATION);
 					mysolver.setRestartStrategy(new LubyRestarts(512));
 					solver = mysolver;
+				} else if (lexicographic) {
+					//The helper optimizes, the solver only has to find solutions
+					if (warmStart)
+						warmStartOrder = new WarmStartOrder(new RSATPhaseSelectionStrategy());
+					solver = portfolioSize > 1 ? SolverPortfolio.newRace(portfolioSize, warmStartOrder) : SolverPortfolio.newConfiguration(0, warmStartOrder);
+				} else if (portfolioSize > 1) {
+					if (warmStart)
+						warmStartOrder = new WarmStartOrder(new RSATPhaseSelectionStrategy());
+					solver = SolverPortfolio.newEclipseP2Portfolio(portfolioSize, warmStartOrder);
 				} else {
 					solver = SolverFactory.newEclipseP2();
+					if (warmStart)
+						warmStartOrder = createWarmStartOrder(solver);
 				}
 			}
 			int timeout = DEFAULT_SOLVER_TIMEOUT;
@@ -219,9 +323,18 @@ public class Projector {
 			} else {
 				if (userDefinedFunction)
 					dependencyHelper = new SteppedTimeoutLexicoHelper<Object, Explanation>(solver);
+				else if (lexicographic)
+					dependencyHelper = new LexicoHelper<Object, Explanation>(solver);
+				else if (incremental)
+					dependencyHelper = new IncrementalDependencyHelper(solver);
 				else
 					dependencyHelper = new DependencyHelper<Object, Explanation>(solver);
 			}
+			Xplain<?> explainer = explanationBudget >= 0 ? getExplainer(dependencyHelper) : null;
+			if (explainer != null) {
+				explanationStrategy = new QuickExplanationStrategy(explanationBudget);
+				explainer.setMinimizationStrategy(explanationStrategy);
+			}
 			List<IInstallableUnit> iusToOrder = new ArrayList<IInstallableUnit>(queryResult.toSet());
 			Collections.sort(iusToOrder);
 			for (Iterator<IInstallableUnit> iusToEncode = iusToOrder.iterator(); iusToEncode.hasNext();) {
@@ -234,12 +347,17 @@ public class Projector {
 					processIU(iuToEncode, false);
 				}
 			}
+			baseAbstractVariables = abstractVariables.size();
+			baseOptionalAbstractRequirements = allOptionalAbstractRequirements.size();
 			createMustHave(entryPointIU, alreadyExistingRoots);
 
 			createConstraintsForSingleton();
 
 			createConstraintsForNonGreedy();
 
+			if (incremental)
+				createConstraintsForEntryPointProviders();
+
 			createOptimizationFunction(entryPointIU, newRoots);
 			if (DEBUG) {
 				long stop = System.currentTimeMillis();
@@ -255,11 +373,131 @@ public class Projector {
 		}
 	}
 
+	/**
+	 * Encodes the entry point of a follow-up request on top of the clauses of the other IUs. The entry point
+	 * of the previous request is retracted and the new one is only assumed, so nothing but the clauses of
+	 * the entry point and the optimization function are added to the problem. The projector must have been
+	 * encoded in incremental mode first.
+	 * <p>
+	 * The IUs of the problem that are not part of the slice of the request are assumed false so that the
+	 * solution is the one of a problem encoded for the slice.
+	 * </p>
+	 * @param sliceUniverse The IUs of the slice of the entry point, the entry point having the first id
+	 * @param sliceNonGreedyIUs The ids of the IUs of the slice that would satisfy non greedy dependencies
+	 * @return <code>false</code> when the slice is not part of the problem, in which case nothing is encoded
+	 */
+	public boolean reencode(IInstallableUnit entryPointIU, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> installedIUs, Collection<IInstallableUnit> newRoots, IUUniverse sliceUniverse, BitSet sliceNonGreedyIUs, IProgressMonitor monitor) {
+		if (!incremental || dependencyHelper == null)
+			throw new IllegalStateException("Projector is not incremental"); //$NON-NLS-1$
+		BitSet excludedIUs = getExcludedIUs(sliceUniverse, sliceNonGreedyIUs, newRoots);
+		if (excludedIUs == null)
+			return false;
+		if (objectiveGuard != null)
+			retracted.add(objectiveGuard);
+		if (entryPoint != null) {
+			retracted.add(entryPoint);
+			Map<Version, IInstallableUnit> entryPointSlice = slice.get(entryPoint.getId());
+			if (entryPointSlice != null) {
+				entryPointSlice.remove(entryPoint.getVersion());
+				if (entryPointSlice.isEmpty())
+					slice.remove(entryPoint.getId());
+			}
+		}
+		alreadyInstalledIUs = Arrays.asList(alreadyExistingRoots);
+		lastState = installedIUs;
+		entryPoint = entryPointIU;
+		excluded = excludedIUs;
+		solution = null;
+		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, Messages.Planner_Problems_resolving_plan, null);
+		abstractVariables.subList(baseAbstractVariables, abstractVariables.size()).clear();
+		allOptionalAbstractRequirements.subList(baseOptionalAbstractRequirements, allOptionalAbstractRequirements.size()).clear();
+		entryPointProviders.clear();
+		assumptions.clear();
+		try {
+			if (monitor.isCanceled()) {
+				result.merge(Status.CANCEL_STATUS);
+				throw new OperationCanceledException();
+			}
+			createMustHave(entryPointIU, alreadyExistingRoots);
+			createConstraintsForEntryPointProviders();
+			for (int id = excluded.nextSetBit(0); id >= 0; id = excluded.nextSetBit(id + 1))
+				assumptions.add(dependencyHelper.not(universe.get(id)));
+			createOptimizationFunction(entryPointIU, newRoots);
+		} catch (IllegalStateException e) {
+			result.add(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, e.getMessage(), e));
+		} catch (ContradictionException e) {
+			result.add(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Unsatisfiable_problem));
+		}
+		return true;
+	}
+
+	//Return the ids of the IUs that are not part of the slice, or null when the slice has IUs that are not part of the problem.
+	//The IUs that satisfy non greedy dependencies in the slice must do so in the problem too, the problem has no variables for the others.
+	private BitSet getExcludedIUs(IUUniverse sliceUniverse, BitSet sliceNonGreedyIUs, Collection<IInstallableUnit> newRoots) {
+		BitSet excludedIUs = new BitSet(universe.size());
+		excludedIUs.set(0, universe.size());
+		//The entry point is new to the problem
+		for (int sliceId = 1; sliceId < sliceUniverse.size(); sliceId++) {
+			int id = universe.indexOf(sliceUniverse.get(sliceId));
+			if (id < 0 || (sliceNonGreedyIUs.get(sliceId) && !nonGreedyIUs.get(id)))
+				return null;
+			excludedIUs.clear(id);
+		}
+		for (IInstallableUnit iu : newRoots) {
+			int id = universe.indexOf(iu);
+			if (id < 0)
+				return null;
+			excludedIUs.clear(id);
+		}
+		return excludedIUs;
+	}
+
+	/**
+	 * Extends the providers of the non greedy IUs with the ones found in the entry point. The providers of
+	 * an IU end with a tail variable that is assumed false. Extending them adds a clause from the current tail
+	 * to the new providers and a new tail, so the providers of retracted entry points stay in the problem
+	 * but can't be used since the retracted entry points are assumed false.
+	 */
+	private void createConstraintsForEntryPointProviders() throws ContradictionException {
+		//The optional requirements of the entry point can only be used while it is
+		for (AbstractVariable abs : abstractVariables.subList(baseAbstractVariables, abstractVariables.size()))
+			createImplication(abs, Collections.singletonList(entryPoint), Explanation.OPTIONAL_REQUIREMENT);
+		for (int id = nonGreedyIUs.nextSetBit(0); id >= 0; id = nonGreedyIUs.nextSetBit(id + 1)) {
+			AbstractVariable var = getNonGreedyVariable(universe.get(id));
+			List<Object> providers = entryPointProviders.get(var);
+			if (providers != null && !providers.isEmpty()) {
+				AbstractVariable tail = newNonGreedyTail(id);
+				providers.add(tail);
+				createImplication(nonGreedyTails[id], providers, Explanation.OPTIONAL_REQUIREMENT);
+				nonGreedyTails[id] = tail;
+			}
+			assumptions.add(dependencyHelper.not(nonGreedyTails[id]));
+		}
+		for (Object r : retracted)
+			assumptions.add(dependencyHelper.not(r));
+	}
+
+	private AbstractVariable newNonGreedyTail(int id) {
+		if (id >= nonGreedyTails.length) {
+			AbstractVariable[] newTails = new AbstractVariable[Math.max(id + 1, universe.size())];
+			System.arraycopy(nonGreedyTails, 0, newTails, 0, nonGreedyTails.length);
+			nonGreedyTails = newTails;
+		}
+		return DEBUG_ENCODING ? new AbstractVariable("NGT_" + universe.get(id).toString()) : new AbstractVariable(); //$NON-NLS-1$
+	}
+
 	private void createConstraintsForNonGreedy() throws ContradictionException {
-		for (IInstallableUnit iu : nonGreedyIUs) {
+		for (int id = nonGreedyIUs.nextSetBit(0); id >= 0; id = nonGreedyIUs.nextSetBit(id + 1)) {
+			IInstallableUnit iu = universe.get(id);
 			AbstractVariable var = getNonGreedyVariable(iu);
 			List<Object> providers = nonGreedyProvider.get(var);
-			if (providers == null || providers.size() == 0) {
+			if (incremental) {
+				AbstractVariable tail = newNonGreedyTail(id);
+				nonGreedyTails[id] = tail;
+				providers = providers == null ? new ArrayList<Object>(1) : new ArrayList<Object>(providers);
+				providers.add(tail);
+				createImplication(var, providers, providers.size() == 1 ? new Explanation.MissingGreedyIU(iu) : Explanation.OPTIONAL_REQUIREMENT);
+			} else if (providers == null || providers.size() == 0) {
 				dependencyHelper.setFalse(var, new Explanation.MissingGreedyIU(iu));
 			} else {
 				createImplication(var, providers, Explanation.OPTIONAL_REQUIREMENT);//FIXME
@@ -268,7 +506,7 @@ public class Projector {
 
 	}
 
-	private void createOptimizationFunction(IInstallableUnit entryPointIU, Collection<IInstallableUnit> newRoots) {
+	private void createOptimizationFunction(IInstallableUnit entryPointIU, Collection<IInstallableUnit> newRoots) throws ContradictionException {
 		if (!userDefinedFunction) {
 			createStandardOptimizationFunction(entryPointIU, newRoots);
 		} else {
@@ -277,37 +515,111 @@ public class Projector {
 	}
 
 	//Create an optimization function favoring the highest version of each IU
-	private void createStandardOptimizationFunction(IInstallableUnit entryPointIU, Collection<IInstallableUnit> newRoots) {
-		List<WeightedObject<? extends Object>> weights = new OptimizationFunction(lastState, abstractVariables, allOptionalAbstractRequirements, picker, selectionContext, slice).createOptimizationFunction(entryPointIU, newRoots);
+	private void createStandardOptimizationFunction(IInstallableUnit entryPointIU, Collection<IInstallableUnit> newRoots) throws ContradictionException {
+		OptimizationFunction function = new OptimizationFunction(lastState, abstractVariables, allOptionalAbstractRequirements, picker, selectionContext, getObjectiveSlice());
+		if (dependencyHelper instanceof LexicoHelper<?, ?>) {
+			createLexicographicObjectiveFunction(function.createLexicographicOptimizationFunction(entryPointIU, newRoots));
+			return;
+		}
+		List<WeightedObject<? extends Object>> weights = function.createOptimizationFunction(entryPointIU, newRoots);
 		createObjectiveFunction(weights);
 	}
 
-	private void createUserDefinedOptimizationFunction(IInstallableUnit entryPointIU, Collection<IInstallableUnit> newRoots) {
+	@SuppressWarnings("unchecked")
+	private void createLexicographicObjectiveFunction(List<List<WeightedObject<? extends Object>>> criteria) {
+		LexicoHelper<Object, Explanation> helper = (LexicoHelper<Object, Explanation>) dependencyHelper;
+		for (List<WeightedObject<? extends Object>> criterion : criteria) {
+			if (DEBUG)
+				Tracing.debug("objective criterion: " + toString(criterion)); //$NON-NLS-1$
+			helper.addWeightedCriterion((Collection<WeightedObject<Object>>) (Collection<?>) criterion);
+		}
+	}
+
+	//The weights given to the IUs depend on the other versions of the same IU so the excluded IUs must not be seen
+	private Map<String, Map<Version, IInstallableUnit>> getObjectiveSlice() {
+		if (excluded == null || excluded.isEmpty())
+			return slice;
+		Map<String, Map<Version, IInstallableUnit>> objectiveSlice = new HashMap<String, Map<Version, IInstallableUnit>>(slice.size());
+		for (Entry<String, Map<Version, IInstallableUnit>> entry : slice.entrySet()) {
+			Map<Version, IInstallableUnit> versions = new HashMap<Version, IInstallableUnit>(entry.getValue().size());
+			for (Entry<Version, IInstallableUnit> version : entry.getValue().entrySet()) {
+				int id = universe.indexOf(version.getValue());
+				if (id < 0 || !excluded.get(id))
+					versions.put(version.getKey(), version.getValue());
+			}
+			if (!versions.isEmpty())
+				objectiveSlice.put(entry.getKey(), versions);
+		}
+		return objectiveSlice;
+	}
+
+	private void createUserDefinedOptimizationFunction(IInstallableUnit entryPointIU, Collection<IInstallableUnit> newRoots) throws ContradictionException {
 		List<WeightedObject<? extends Object>> weights = new UserDefinedOptimizationFunction(lastState, abstractVariables, allOptionalAbstractRequirements, picker, selectionContext, slice, dependencyHelper, alreadyInstalledIUs).createOptimizationFunction(entryPointIU, newRoots);
 		createObjectiveFunction(weights);
 	}
 
-	private void createObjectiveFunction(List<WeightedObject<? extends Object>> weightedObjects) {
+	private void createObjectiveFunction(List<WeightedObject<? extends Object>> weightedObjects) throws ContradictionException {
 		if (weightedObjects == null)
 			return;
-		if (DEBUG) {
-			StringBuffer b = new StringBuffer();
-			for (WeightedObject<? extends Object> object : weightedObjects) {
-				if (b.length() > 0)
-					b.append(", "); //$NON-NLS-1$
-				b.append(object.getWeight());
-				b.append(' ');
-				b.append(object.thing);
+		if (DEBUG)
+			Tracing.debug("objective function: " + toString(weightedObjects)); //$NON-NLS-1$
+		@SuppressWarnings("unchecked")
+		WeightedObject<Object>[] array = (WeightedObject<Object>[]) weightedObjects.toArray(new WeightedObject<?>[weightedObjects.size()]);
+		if (dependencyHelper instanceof IncrementalDependencyHelper)
+			((IncrementalDependencyHelper) dependencyHelper).replaceObjectiveFunction(createGuardedObjective(array));
+		else
+			dependencyHelper.setObjectiveFunction(array);
+	}
+
+	private static String toString(List<WeightedObject<? extends Object>> weightedObjects) {
+		StringBuffer b = new StringBuffer();
+		for (WeightedObject<? extends Object> object : weightedObjects) {
+			if (b.length() > 0)
+				b.append(", "); //$NON-NLS-1$
+			b.append(object.getWeight());
+			b.append(' ');
+			b.append(object.thing);
+		}
+		return b.toString();
+	}
+
+	/**
+	 * While optimizing, the solver bounds the objective function with constraints that it removes once done. What
+	 * these constraints imply at the root level is kept though, so the objective function of a request is not made
+	 * of the IUs themselves but of variables that are equivalent to them while the guard of the request is assumed.
+	 */
+	private WeightedObject<Object>[] createGuardedObjective(WeightedObject<Object>[] weightedObjects) throws ContradictionException {
+		objectiveGuard = new AbstractVariable();
+		assumptions.add(objectiveGuard);
+		Map<Object, AbstractVariable> guarded = new HashMap<Object, AbstractVariable>();
+		Map<AbstractVariable, BigInteger> weights = new LinkedHashMap<AbstractVariable, BigInteger>();
+		for (int i = 0; i < weightedObjects.length; i++) {
+			Object thing = weightedObjects[i].thing;
+			AbstractVariable var = guarded.get(thing);
+			if (var == null) {
+				var = new AbstractVariable();
+				guarded.put(thing, var);
+				createImplication(new Object[] {objectiveGuard, var}, Collections.singletonList(thing), Explanation.OPTIONAL_REQUIREMENT);
+				createImplication(new Object[] {objectiveGuard, thing}, Collections.singletonList(var), Explanation.OPTIONAL_REQUIREMENT);
 			}
-			Tracing.debug("objective function: " + b); //$NON-NLS-1$
+			BigInteger weight = weights.get(var);
+			weights.put(var, weight == null ? weightedObjects[i].getWeight() : weight.add(weightedObjects[i].getWeight()));
 		}
 		@SuppressWarnings("unchecked")
-		WeightedObject<Object>[] array = (WeightedObject<Object>[]) weightedObjects.toArray(new WeightedObject<?>[weightedObjects.size()]);
-		dependencyHelper.setObjectiveFunction(array);
+		WeightedObject<Object>[] result = new WeightedObject[weights.size()];
+		int i = 0;
+		for (Entry<AbstractVariable, BigInteger> entry : weights.entrySet())
+			result[i++] = WeightedObject.newWO((Object) entry.getKey(), entry.getValue());
+		return result;
 	}
 
 	private void createMustHave(IInstallableUnit iu, IInstallableUnit[] alreadyExistingRoots) throws ContradictionException {
-		processIU(iu, true);
+		encodingEntryPoint = true;
+		try {
+			processIU(iu, true);
+		} finally {
+			encodingEntryPoint = false;
+		}
 		if (DEBUG) {
 			Tracing.debug(iu + "=1"); //$NON-NLS-1$
 		}
@@ -400,7 +712,7 @@ public class Projector {
 					IInstallableUnit current;
 					for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 						current = it.next();
-						if (nonGreedyIUs.contains(current)) {
+						if (isNonGreedy(current)) {
 							addNonGreedyProvider(getNonGreedyVariable(current), iu);
 						}
 					}
@@ -423,7 +735,7 @@ public class Projector {
 					createImplication(new Object[] {abs, iu}, matches, Explanation.OPTIONAL_REQUIREMENT);
 					for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 						current = it.next();
-						if (nonGreedyIUs.contains(current)) {
+						if (isNonGreedy(current)) {
 							addNonGreedyProvider(getNonGreedyVariable(current), abs);
 						}
 					}
@@ -442,10 +754,11 @@ public class Projector {
 	}
 
 	private void addNonGreedyProvider(AbstractVariable nonGreedyVariable, Object o) {
-		List<Object> providers = nonGreedyProvider.get(nonGreedyVariable);
+		Map<AbstractVariable, List<Object>> providerMap = incremental && encodingEntryPoint ? entryPointProviders : nonGreedyProvider;
+		List<Object> providers = providerMap.get(nonGreedyVariable);
 		if (providers == null) {
 			providers = new ArrayList<Object>();
-			nonGreedyProvider.put(nonGreedyVariable, providers);
+			providerMap.put(nonGreedyVariable, providers);
 		}
 		providers.add(o);
 	}
@@ -567,7 +880,7 @@ public class Projector {
 								createImplication(new Object[] {patch, iu}, matches, explanation);
 								for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 									current = it.next();
-									if (nonGreedyIUs.contains(current)) {
+									if (isNonGreedy(current)) {
 										addNonGreedyProvider(getNonGreedyVariable(current), iu);
 									}
 								}
@@ -589,7 +902,7 @@ public class Projector {
 								createImplication(new Object[] {patch, abs, iu}, matches, Explanation.OPTIONAL_REQUIREMENT);
 								for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 									current = it.next();
-									if (nonGreedyIUs.contains(current)) {
+									if (isNonGreedy(current)) {
 										addNonGreedyProvider(getNonGreedyVariable(current), abs);
 									}
 								}
@@ -633,7 +946,7 @@ public class Projector {
 							List<Object> nonGreedys = new ArrayList<Object>();
 							for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 								current = it.next();
-								if (nonGreedyIUs.contains(current)) {
+								if (isNonGreedy(current)) {
 									nonGreedys.add(getNonGreedyVariable(current));
 								}
 							}
@@ -656,7 +969,7 @@ public class Projector {
 								pending.matches = matches;
 								for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 									current = it.next();
-									if (nonGreedyIUs.contains(current)) {
+									if (isNonGreedy(current)) {
 										addNonGreedyProvider(getNonGreedyVariable(current), iu);
 									}
 								}
@@ -687,7 +1000,7 @@ public class Projector {
 								pending.matches = matches;
 								for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 									current = it.next();
-									if (nonGreedyIUs.contains(current)) {
+									if (isNonGreedy(current)) {
 										addNonGreedyProvider(getNonGreedyVariable(current), abs);
 									}
 								}
@@ -740,7 +1053,7 @@ public class Projector {
 					List<Object> nonGreedys = new ArrayList<Object>(matches.size());
 					for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 						current = it.next();
-						if (nonGreedyIUs.contains(current)) {
+						if (isNonGreedy(current)) {
 							nonGreedys.add(getNonGreedyVariable(current));
 						}
 					}
@@ -761,7 +1074,7 @@ public class Projector {
 						createImplication(iu, matches, explanation);
 						for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 							current = it.next();
-							if (nonGreedyIUs.contains(current)) {
+							if (isNonGreedy(current)) {
 								addNonGreedyProvider(getNonGreedyVariable(current), iu);
 							}
 						}
@@ -785,7 +1098,7 @@ public class Projector {
 						createImplication(new Object[] {abs, iu}, matches, Explanation.OPTIONAL_REQUIREMENT);
 						for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
 							current = it.next();
-							if (nonGreedyIUs.contains(current)) {
+							if (isNonGreedy(current)) {
 								addNonGreedyProvider(getNonGreedyVariable(current), iu);
 							}
 						}
@@ -932,7 +1245,9 @@ public class Projector {
 				continue;
 
 			IInstallableUnit[] singletonArray;
-			if (nonSingletons.isEmpty()) {
+			if (singletonGroups && !nonSingletons.isEmpty()) {
+				createSingletonGroup(singletons, nonSingletons);
+			} else if (nonSingletons.isEmpty()) {
 				singletonArray = singletons.toArray(new IInstallableUnit[singletons.size()]);
 				createAtMostOne(singletonArray);
 			} else {
@@ -956,6 +1271,28 @@ public class Projector {
 		dependencyHelper.atMost(1, (Object[]) ius).named(new Explanation.Singleton(ius));
 	}
 
+	//A single constraint for all the versions of an IU. Each singleton weighs as much as all the non singletons
+	//together so a singleton excludes all the other versions, while the non singletons can be installed together.
+	//This is linear in the number of versions, where a constraint per non singleton listing all the singletons is not.
+	private void createSingletonGroup(List<IInstallableUnit> singletons, List<IInstallableUnit> nonSingletons) throws ContradictionException {
+		BigInteger singletonWeight = BigInteger.valueOf(nonSingletons.size());
+		IInstallableUnit[] ius = new IInstallableUnit[singletons.size() + nonSingletons.size()];
+		@SuppressWarnings("unchecked")
+		WeightedObject<Object>[] weightedObjects = new WeightedObject[ius.length];
+		int i = 0;
+		for (IInstallableUnit singleton : singletons) {
+			ius[i] = singleton;
+			weightedObjects[i++] = WeightedObject.newWO((Object) singleton, singletonWeight);
+		}
+		for (IInstallableUnit nonSingleton : nonSingletons) {
+			ius[i] = nonSingleton;
+			weightedObjects[i++] = WeightedObject.newWO((Object) nonSingleton, BigInteger.ONE);
+		}
+		if (DEBUG)
+			Tracing.debug("At most " + singletonWeight + " of " + toString(Arrays.<WeightedObject<? extends Object>> asList(weightedObjects))); //$NON-NLS-1$ //$NON-NLS-2$
+		dependencyHelper.atMost(new Explanation.Singleton(ius), singletonWeight, weightedObjects);
+	}
+
 	private AbstractVariable getAbstractVariable(IRequirement req) {
 		return getAbstractVariable(req, true);
 	}
@@ -968,11 +1305,22 @@ public class Projector {
 		return abstractVariable;
 	}
 
+	private boolean isNonGreedy(IInstallableUnit iu) {
+		int id = universe.indexOf(iu);
+		return id >= 0 && nonGreedyIUs.get(id);
+	}
+
 	private AbstractVariable getNonGreedyVariable(IInstallableUnit iu) {
-		AbstractVariable v = nonGreedyVariables.get(iu);
+		int id = universe.add(iu);
+		if (id >= nonGreedyVariables.length) {
+			AbstractVariable[] newVariables = new AbstractVariable[Math.max(id + 1, universe.size())];
+			System.arraycopy(nonGreedyVariables, 0, newVariables, 0, nonGreedyVariables.length);
+			nonGreedyVariables = newVariables;
+		}
+		AbstractVariable v = nonGreedyVariables[id];
 		if (v == null) {
 			v = DEBUG_ENCODING ? new AbstractVariable("NG_" + iu.toString()) : new AbstractVariable(); //$NON-NLS-1$
-			nonGreedyVariables.put(iu, v);
+			nonGreedyVariables[id] = v;
 		}
 		return v;
 	}
@@ -984,6 +1332,11 @@ public class Projector {
 		long start = System.currentTimeMillis();
 		if (DEBUG)
 			Tracing.debug("Invoking solver: " + start); //$NON-NLS-1$
+		solveTime = 0;
+		backToIUTime = 0;
+		if (warmStartOrder != null)
+			warmStartOrder.setPreferredLiterals(getInstalledLiterals());
+		Map<String, Number> before = dependencyHelper.getSolver().getStat();
 		try {
 			if (monitor.isCanceled())
 				return Status.CANCEL_STATUS;
@@ -991,12 +1344,15 @@ public class Projector {
 				if (DEBUG) {
 					Tracing.debug("Satisfiable !"); //$NON-NLS-1$
 				}
-				backToIU();
 				long stop = System.currentTimeMillis();
+				solveTime = stop - start;
+				backToIU();
+				backToIUTime = System.currentTimeMillis() - stop;
 				if (DEBUG)
 					Tracing.debug("Solver solution found in: " + (stop - start) + " ms."); //$NON-NLS-1$ //$NON-NLS-2$
 			} else {
 				long stop = System.currentTimeMillis();
+				solveTime = stop - start;
 				if (DEBUG) {
 					Tracing.debug("Unsatisfiable !"); //$NON-NLS-1$
 					Tracing.debug("Solver solution NOT found: " + (stop - start)); //$NON-NLS-1$
@@ -1005,16 +1361,104 @@ public class Projector {
 				result.merge(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, SimplePlanner.UNSATISFIABLE, Messages.Planner_Unsatisfiable_problem, null));
 			}
 		} catch (TimeoutException e) {
+			solveTime = System.currentTimeMillis() - start;
 			result.merge(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Timeout));
 		} catch (Exception e) {
+			solveTime = System.currentTimeMillis() - start;
 			result.merge(new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Unexpected_problem, e));
 		}
-		if (DEBUG)
+		Map<String, Number> after = dependencyHelper.getSolver().getStat();
+		decisions = getStatDelta(before, after, "decisions"); //$NON-NLS-1$
+		conflicts = getStatDelta(before, after, "conflicts"); //$NON-NLS-1$
+		propagations = getStatDelta(before, after, "propagations"); //$NON-NLS-1$
+		if (DEBUG) {
+			Tracing.debug("Solver decisions: " + decisions + ", conflicts: " + conflicts + (warmStartOrder != null ? " (warm start)" : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 			System.out.println();
+		}
 		return result;
 	}
 
-	private void backToIU() {
+	private static int getDefaultPortfolioSize() {
+		if (DirectorActivator.context == null)
+			return 1;
+		String sizeString = DirectorActivator.context.getProperty(PROP_PROJECTOR_PORTFOLIO);
+		if (sizeString == null)
+			return 1;
+		try {
+			return Integer.parseInt(sizeString);
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring user-specified '" + PROP_PROJECTOR_PORTFOLIO + "' value of: " + sizeString); //$NON-NLS-1$ //$NON-NLS-2$
+			return 1;
+		}
+	}
+
+	private static long getDefaultExplanationBudget() {
+		if (DirectorActivator.context == null)
+			return -1;
+		String budgetString = DirectorActivator.context.getProperty(PROP_PROJECTOR_EXPLANATION_BUDGET);
+		if (budgetString == null)
+			return -1;
+		try {
+			return Long.parseLong(budgetString);
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring user-specified '" + PROP_PROJECTOR_EXPLANATION_BUDGET + "' value of: " + budgetString); //$NON-NLS-1$ //$NON-NLS-2$
+			return -1;
+		}
+	}
+
+	//The statistics of the solver add up over its invocations
+	private static long getStatDelta(Map<String, Number> before, Map<String, Number> after, String key) {
+		Number start = before.get(key);
+		Number end = after.get(key);
+		if (end == null)
+			return 0;
+		return start == null ? end.longValue() : end.longValue() - start.longValue();
+	}
+
+	//Replace the order of the solver with one that starts from the installed IUs. Returns null when the solver is not the expected one.
+	private static WarmStartOrder createWarmStartOrder(IPBSolver solver) {
+		ISolver decorated = solver;
+		while (decorated instanceof PBSolverDecorator)
+			decorated = ((PBSolverDecorator) decorated).decorated();
+		if (!(decorated instanceof Solver<?>))
+			return null;
+		//Same phase selection as the default order of the solver
+		WarmStartOrder order = new WarmStartOrder(new RSATPhaseSelectionStrategy());
+		((Solver<?>) decorated).setOrder(order);
+		return order;
+	}
+
+	//The literals of the installed IUs that are part of the problem
+	private IVecInt getInstalledLiterals() {
+		IVecInt literals = new VecInt();
+		if (lastState == null)
+			return literals;
+		Set<IInstallableUnit> installed = lastState.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		for (Entry<Integer, Object> entry : dependencyHelper.getMappingToDomain().entrySet()) {
+			if (entry.getValue() instanceof IInstallableUnit && installed.contains(entry.getValue()))
+				literals.push(entry.getKey().intValue());
+		}
+		return literals;
+	}
+
+	/**
+	 * Returns the solver computing the explanations of the helper, or <code>null</code> if it can't be found.
+	 * The helper only exposes the solver that solver decorates, so the field is read reflectively.
+	 */
+	private static Xplain<?> getExplainer(DependencyHelper<Object, Explanation> helper) {
+		try {
+			Field field = DependencyHelper.class.getDeclaredField("xplain"); //$NON-NLS-1$
+			field.setAccessible(true);
+			return (Xplain<?>) field.get(helper);
+		} catch (Exception e) {
+			//another version of SAT4J, keep its own minimization
+			if (DEBUG)
+				Tracing.debug("Explanation budget ignored: " + e); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+		private void backToIU() {
 		solution = new ArrayList<IInstallableUnit>();
 		IVec<Object> sat4jSolution = dependencyHelper.getSolution();
 		for (Iterator<Object> iter = sat4jSolution.iterator(); iter.hasNext();) {
@@ -1046,10 +1490,13 @@ public class Projector {
 
 	public Set<Explanation> getExplanation(IProgressMonitor monitor) {
 		ExplanationJob job = new ExplanationJob();
-		job.schedule();
 		monitor.setTaskName(Messages.Planner_NoSolution);
 		IProgressMonitor pm = new InfiniteProgress(monitor);
 		pm.beginTask(Messages.Planner_NoSolution, 1000);
+		//the strategy reports the partial explanations it finds from the thread of the job
+		if (explanationStrategy != null)
+			explanationStrategy.setProgressMonitor(pm);
+		job.schedule();
 		try {
 			synchronized (job) {
 				while (job.getExplanationResult() == null && job.getState() != Job.NONE) {
@@ -1057,7 +1504,9 @@ public class Projector {
 						job.cancel();
 						throw new OperationCanceledException();
 					}
-					pm.worked(1);
+					synchronized (pm) {
+						pm.worked(1);
+					}
 					try {
 						job.wait(100);
 					} catch (InterruptedException e) {
@@ -1067,39 +1516,186 @@ public class Projector {
 				}
 			}
 		} finally {
+			if (explanationStrategy != null)
+				explanationStrategy.setProgressMonitor(null);
 			monitor.done();
 		}
 		return job.getExplanationResult();
 	}
 
 	public Map<IInstallableUnitFragment, List<IInstallableUnit>> getFragmentAssociation() {
-		Map<IInstallableUnitFragment, List<IInstallableUnit>> resolvedFragments = new HashMap<IInstallableUnitFragment, List<IInstallableUnit>>(fragments.size());
-		for (Entry<IInstallableUnitFragment, Set<IInstallableUnit>> fragment : fragments.entrySet()) {
-			if (!dependencyHelper.getBooleanValueFor(fragment.getKey()))
+		Map<IInstallableUnitFragment, List<IInstallableUnit>> resolvedFragments = new HashMap<IInstallableUnitFragment, List<IInstallableUnit>>();
+		for (int id = 0; id < fragments.length; id++) {
+			BitSet potentialHosts = fragments[id];
+			if (potentialHosts == null)
+				continue;
+			IInstallableUnitFragment fragment = (IInstallableUnitFragment) universe.get(id);
+			if (!dependencyHelper.getBooleanValueFor(fragment))
 				continue;
-			Set<IInstallableUnit> potentialHosts = fragment.getValue();
-			List<IInstallableUnit> resolvedHost = new ArrayList<IInstallableUnit>(potentialHosts.size());
-			for (IInstallableUnit host : potentialHosts) {
+			List<IInstallableUnit> resolvedHost = new ArrayList<IInstallableUnit>(potentialHosts.cardinality());
+			for (int hostId = potentialHosts.nextSetBit(0); hostId >= 0; hostId = potentialHosts.nextSetBit(hostId + 1)) {
+				IInstallableUnit host = universe.get(hostId);
 				if (dependencyHelper.getBooleanValueFor(host))
 					resolvedHost.add(host);
 			}
 			if (resolvedHost.size() != 0)
-				resolvedFragments.put(fragment.getKey(), resolvedHost);
+				resolvedFragments.put(fragment, resolvedHost);
 		}
 		return resolvedFragments;
 	}
 
 	private void rememberHostMatches(IInstallableUnitFragment fragment, List<IInstallableUnit> matches) {
-		Set<IInstallableUnit> existingMatches = fragments.get(fragment);
-		if (existingMatches == null) {
-			existingMatches = new HashSet<IInstallableUnit>();
-			fragments.put(fragment, existingMatches);
-			existingMatches.addAll(matches);
+		int id = universe.add(fragment);
+		BitSet matchIds = universe.addAll(matches);
+		if (id >= fragments.length) {
+			BitSet[] newFragments = new BitSet[Math.max(id + 1, universe.size())];
+			System.arraycopy(fragments, 0, newFragments, 0, fragments.length);
+			fragments = newFragments;
 		}
-		existingMatches.retainAll(matches);
+		BitSet existingMatches = fragments[id];
+		if (existingMatches == null)
+			fragments[id] = matchIds;
+		else
+			existingMatches.and(matchIds);
+	}
+
+	/**
+	 * Sets whether the solver should start its search from the IUs that are already installed. Must be
+	 * called before {@link #encode(IInstallableUnit, IInstallableUnit[], IQueryable, Collection, IProgressMonitor)}.
+	 * Has no effect with a user defined optimization function or when the encoding is traced.
+	 */
+	public void setWarmStart(boolean warmStart) {
+		this.warmStart = warmStart;
+	}
+
+	/**
+	 * Sets the number of solver configurations to race on separate threads, <code>1</code> to use a single
+	 * solver. Must be called before {@link #encode(IInstallableUnit, IInstallableUnit[], IQueryable, Collection, IProgressMonitor)}.
+	 * Has no effect with a user defined optimization function or when the encoding is traced.
+	 */
+	public void setPortfolioSize(int portfolioSize) {
+		this.portfolioSize = portfolioSize;
+	}
+
+	/**
+	 * Sets the maximum time, in milliseconds, to spend minimizing the explanation of a failure. Past that time
+	 * {@link #getExplanation(IProgressMonitor)} returns an explanation that may not be minimal. A negative value
+	 * keeps the default explanation of the solver, which is not bounded, and {@link Long#MAX_VALUE} minimizes by
+	 * divide and conquer without a bound. Must be called before {@link #encode(IInstallableUnit, IInstallableUnit[], IQueryable, Collection, IProgressMonitor)}.
+	 */
+	public void setExplanationBudget(long explanationBudget) {
+		this.explanationBudget = explanationBudget;
+	}
+
+	/**
+	 * Sets whether the singleton constraints of all the versions of an IU are encoded as a single constraint.
+	 * Otherwise an IU that has singleton and non singleton versions gets a constraint per non singleton version.
+	 * Must be called before {@link #encode(IInstallableUnit, IInstallableUnit[], IQueryable, Collection, IProgressMonitor)}.
+	 */
+	public void setSingletonGroups(boolean singletonGroups) {
+		this.singletonGroups = singletonGroups;
+	}
+
+	/**
+	 * Returns the number of constraints of the encoded problem.
+	 */
+	public int getNumberOfConstraints() {
+		return dependencyHelper == null ? 0 : dependencyHelper.getNumberOfConstraints();
+	}
+
+	/**
+	 * Returns the number of variables of the encoded problem.
+	 */
+	public int getNumberOfVariables() {
+		return dependencyHelper == null ? 0 : dependencyHelper.getSolver().nVars();
+	}
+
+	/**
+	 * Sets whether the criteria of the optimization function are optimized one after the other, each with
+	 * small coefficients and the optimum of the previous ones fixed, rather than as a single weighted sum.
+	 * Must be called before {@link #encode(IInstallableUnit, IInstallableUnit[], IQueryable, Collection, IProgressMonitor)}.
+	 * Has no effect with a user defined optimization function or when the encoding is traced. A lexicographic
+	 * encoding is not incremental. The solutions may differ from the weighted ones on small profiles, see
+	 * {@link OptimizationFunction#createLexicographicOptimizationFunction(IInstallableUnit, Collection)}.
+	 */
+	public void setLexicographic(boolean lexicographic) {
+		this.lexicographic = lexicographic;
+		if (lexicographic)
+			incremental = false;
+	}
+
+	/**
+	 * Returns the number of decisions taken by the solver in the last call to {@link #invokeSolver(IProgressMonitor)}.
+	 */
+	public long getDecisions() {
+		return decisions;
+	}
+
+	/**
+	 * Returns the number of conflicts met by the solver in the last call to {@link #invokeSolver(IProgressMonitor)}.
+	 */
+	public long getConflicts() {
+		return conflicts;
+	}
+
+	/**
+	 * Returns the number of propagations done by the solver in the last call to {@link #invokeSolver(IProgressMonitor)}.
+	 */
+	public long getPropagations() {
+		return propagations;
+	}
+
+	/**
+	 * Returns the time spent by the solver in the last call to {@link #invokeSolver(IProgressMonitor)}, in milliseconds.
+	 */
+	public long getSolveTime() {
+		return solveTime;
+	}
+
+	/**
+	 * Returns the time spent converting the solution found by the last call to {@link #invokeSolver(IProgressMonitor)}
+	 * to installable units, in milliseconds.
+	 */
+	public long getBackToIUTime() {
+		return backToIUTime;
 	}
 
 	public void setUserDefined(boolean containsKey) {
 		userDefinedFunction = containsKey;
 	}
+
+	/**
+	 * Makes the encoding reusable by {@link #reencode(IInstallableUnit, IInstallableUnit[], IQueryable, Collection, IUUniverse, BitSet, IProgressMonitor)}.
+	 * Must be called before {@link #encode(IInstallableUnit, IInstallableUnit[], IQueryable, Collection, IProgressMonitor)}. Has no
+	 * effect with a user defined optimization function or when the encoding is traced.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental && !userDefinedFunction && !lexicographic && !DEBUG_ENCODING;
+	}
+
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Returns whether the given entry point can be encoded on top of the problem. An entry point that is
+	 * equal to one that was already encoded would share its variable so it can't.
+	 */
+	boolean canReencode(IInstallableUnit entryPointIU) {
+		return incremental && dependencyHelper != null && !entryPointIU.equals(entryPoint) && !retracted.contains(entryPointIU);
+	}
+
+	/**
+	 * Returns the universe of the IUs of the problem.
+	 */
+	IUUniverse getUniverse() {
+		return universe;
+	}
+
+	/**
+	 * Returns the ids of the IUs that would satisfy non greedy dependencies.
+	 */
+	BitSet getNonGreedyIds() {
+		return nonGreedyIUs;
+	}
 }
\ No newline at end of file
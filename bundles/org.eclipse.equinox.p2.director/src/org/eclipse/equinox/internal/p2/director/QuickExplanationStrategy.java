@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.Map;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.osgi.util.NLS;
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.*;
+import org.sat4j.tools.xplain.MinimizationStrategy;
+
+/**
+ * Computes a minimal set of constraints explaining why a problem has no solution by divide and conquer.
+ * The search starts from the constraints involved in the last conflict of the solver. The candidates are
+ * split in two halves, a minimal subset of the second half is found assuming the first half, then a
+ * minimal subset of the first half assuming the constraints found in the second one. This needs a number
+ * of calls to the solver logarithmic in the number of candidates for each constraint of the explanation,
+ * where checking the candidates one by one needs as many calls as there are candidates.
+ * <p>
+ * The computation is bounded in time. When the budget is spent, the smallest set of constraints
+ * known to have no solution is returned. That set explains the failure but may not be minimal.
+ * Each smaller set is reported to the progress monitor as soon as it is found.
+ * </p>
+ * <p>
+ * The calls to the solver are the ones of the projector, so they race several configurations
+ * when the projector uses a {@link SolverPortfolio}.
+ * </p>
+ */
+class QuickExplanationStrategy implements MinimizationStrategy {
+	private static final long serialVersionUID = 1L;
+
+	private final long budget;
+	private volatile boolean canceled;
+	private long deadline;
+	private ISolver solver;
+	private IVecInt assumptions;
+	private IVecInt smallest; //The smallest set of constraint keys found to have no solution
+	private boolean partial;
+	private int checks;
+	private volatile IProgressMonitor monitor;
+
+	/**
+	 * Signals that the budget of the computation is spent.
+	 */
+	private static class BudgetExceeded extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * @param budget The maximum time to spend minimizing an explanation, in milliseconds
+	 */
+	QuickExplanationStrategy(long budget) {
+		this.budget = budget;
+	}
+
+	public IVecInt explain(ISolver problem, Map<Integer, ?> constrs, IVecInt assumps) throws TimeoutException {
+		canceled = false;
+		partial = false;
+		checks = 0;
+		long now = System.currentTimeMillis();
+		deadline = budget > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + budget;
+		solver = problem;
+		assumptions = assumps;
+		try {
+			IVecInt candidates = getConflictKeys(constrs);
+			smallest = candidates;
+			publish(candidates);
+			return minimize(new VecInt(), false, candidates);
+		} catch (BudgetExceeded e) {
+			partial = true;
+			return smallest;
+		} finally {
+			solver = null;
+			assumptions = null;
+		}
+	}
+
+	public void cancelExplanationComputation() {
+		canceled = true;
+	}
+
+	/**
+	 * Sets the monitor to which the size of each set of constraints found to have no solution is reported,
+	 * or <code>null</code> to stop reporting. The monitor is only used while holding its lock, so that
+	 * the caller can keep using it from another thread.
+	 */
+	void setProgressMonitor(IProgressMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Returns whether the last explanation was cut short by the budget, in which case it may not be minimal.
+	 */
+	boolean isPartial() {
+		return partial;
+	}
+
+	/**
+	 * Returns the number of calls to the solver made to compute the last explanation.
+	 */
+	int getChecks() {
+		return checks;
+	}
+
+	//The keys of the constraints involved in the last conflict, all of them if the solver can't tell
+	private IVecInt getConflictKeys(Map<Integer, ?> constrs) {
+		IVecInt conflict = solver.unsatExplanation();
+		IVecInt keys = new VecInt();
+		if (conflict != null) {
+			for (int i = 0; i < conflict.size(); i++) {
+				//A constraint is enabled by assuming the negation of its key
+				int key = -conflict.get(i);
+				if (key > 0 && constrs.containsKey(new Integer(key)))
+					keys.push(key);
+			}
+		}
+		if (keys.isEmpty()) {
+			for (Integer key : constrs.keySet())
+				keys.push(key.intValue());
+		}
+		return keys;
+	}
+
+	//Returns a minimal subset of the candidates that has no solution together with the base
+	private IVecInt minimize(IVecInt base, boolean checkBase, IVecInt candidates) throws TimeoutException, BudgetExceeded {
+		if (checkBase && !isSatisfiable(base))
+			return new VecInt();
+		if (candidates.size() <= 1)
+			return candidates;
+		int half = candidates.size() / 2;
+		IVecInt first = new VecInt(half);
+		IVecInt second = new VecInt(candidates.size() - half);
+		for (int i = 0; i < candidates.size(); i++)
+			(i < half ? first : second).push(candidates.get(i));
+		IVecInt secondResult = minimize(union(base, first), true, second);
+		IVecInt firstResult = minimize(union(base, secondResult), !secondResult.isEmpty(), first);
+		return union(firstResult, secondResult);
+	}
+
+	private boolean isSatisfiable(IVecInt keys) throws TimeoutException, BudgetExceeded {
+		if (canceled)
+			throw new TimeoutException();
+		if (System.currentTimeMillis() >= deadline)
+			throw new BudgetExceeded();
+		IVecInt assumps = new VecInt(assumptions.size() + keys.size());
+		assumptions.copyTo(assumps);
+		for (int i = 0; i < keys.size(); i++)
+			assumps.push(-keys.get(i));
+		checks++;
+		boolean satisfiable;
+		try {
+			satisfiable = solver.isSatisfiable(assumps);
+		} catch (TimeoutException e) {
+			if (canceled)
+				throw e;
+			//The solver ran out of conflicts on this check, so did the budget
+			throw new BudgetExceeded();
+		}
+		if (!satisfiable && keys.size() < smallest.size()) {
+			IVecInt copy = new VecInt(keys.size());
+			keys.copyTo(copy);
+			smallest = copy;
+			publish(copy);
+		}
+		return satisfiable;
+	}
+
+	private void publish(IVecInt conflict) {
+		IProgressMonitor pm = monitor;
+		if (pm == null)
+			return;
+		synchronized (pm) {
+			pm.subTask(NLS.bind(Messages.Planner_PartialExplanation, Integer.toString(conflict.size())));
+		}
+	}
+
+	private static IVecInt union(IVecInt a, IVecInt b) {
+		IVecInt result = new VecInt(a.size() + b.size());
+		a.copyTo(result);
+		for (int i = 0; i < b.size(); i++)
+			result.push(b.get(i));
+		return result;
+	}
+}
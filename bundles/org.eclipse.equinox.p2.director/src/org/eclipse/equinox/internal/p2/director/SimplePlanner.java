@@ -22,10 +22,12 @@ import org.eclipse.equinox.internal.p2.director.Explanation.MissingIU;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
 import org.eclipse.equinox.internal.p2.metadata.query.UpdateQuery;
 import org.eclipse.equinox.internal.p2.rollback.FormerState;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.director.PlannerStatus;
 import org.eclipse.equinox.internal.provisional.p2.director.RequestStatus;
 import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.core.spi.IAgentService;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.engine.query.IUProfilePropertyQuery;
 import org.eclipse.equinox.p2.metadata.*;
@@ -34,7 +36,7 @@ import org.eclipse.equinox.p2.planner.*;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.util.NLS;
 
-public class SimplePlanner implements IPlanner {
+public class SimplePlanner implements IPlanner, IAgentService {
 	private static boolean DEBUG = Tracing.DEBUG_PLANNER_OPERANDS;
 
 	private static final int ExpandWork = 12;
@@ -49,6 +51,7 @@ public class SimplePlanner implements IPlanner {
 	private final IProvisioningAgent agent;
 	private final IProfileRegistry profileRegistry;
 	private final IEngine engine;
+	private PlanCache planCache = createDefaultPlanCache();
 
 	private IProvisioningPlan generateProvisioningPlan(Collection<IInstallableUnit> fromState, Collection<IInstallableUnit> toState, ProfileChangeRequest changeRequest, IProvisioningPlan installerPlan, ProvisioningContext context) {
 		IProvisioningPlan plan = engine.createPlan(changeRequest.getProfile(), context);
@@ -247,41 +250,21 @@ public class SimplePlanner implements IPlanner {
 		return result;
 	}
 
-	private IInstallableUnit[] gatherAvailableInstallableUnits(IInstallableUnit[] additionalSource, ProvisioningContext context, IProgressMonitor monitor) {
-		Map<String, IInstallableUnit> resultsMap = new HashMap<String, IInstallableUnit>();
-		if (additionalSource != null) {
-			for (int i = 0; i < additionalSource.length; i++) {
-				String key = additionalSource[i].getId() + "_" + additionalSource[i].getVersion().toString(); //$NON-NLS-1$
-				resultsMap.put(key, additionalSource[i]);
-			}
-		}
-		if (context == null) {
+	private PlannerInput gatherAvailableInstallableUnits(IInstallableUnit[] additionalSource, ProvisioningContext context, IQueryable<IInstallableUnit> metadata, IProgressMonitor monitor) {
+		List<IInstallableUnit> extraIUs = Collections.<IInstallableUnit> emptyList();
+		if (context == null)
 			context = new ProvisioningContext(agent);
-		} else {
-			for (IInstallableUnit iu : context.getExtraInstallableUnits()) {
-				String key = iu.getId() + '_' + iu.getVersion().toString();
-				resultsMap.put(key, iu);
-			}
-		}
+		else
+			extraIUs = context.getExtraInstallableUnits();
 		SubMonitor sub = SubMonitor.convert(monitor, 1000);
-		IQueryable<IInstallableUnit> queryable = context.getMetadata(sub.newChild(500));
-		IQueryResult<IInstallableUnit> matches = queryable.query(QueryUtil.createIUQuery(null, VersionRange.emptyRange), sub.newChild(500));
-		for (Iterator<IInstallableUnit> it = matches.iterator(); it.hasNext();) {
-			IInstallableUnit iu = it.next();
-			String key = iu.getId() + "_" + iu.getVersion().toString(); //$NON-NLS-1$
-			IInstallableUnit currentIU = resultsMap.get(key);
-			if (currentIU == null || hasHigherFidelity(iu, currentIU))
-				resultsMap.put(key, iu);
-		}
+		IQueryable<IInstallableUnit> queryable = metadata;
+		if (queryable == null)
+			queryable = context.getMetadata(sub.newChild(500));
+		else
+			sub.worked(500);
+		PlannerInput result = new PlannerInput(additionalSource, extraIUs, queryable, sub.newChild(500));
 		sub.done();
-		Collection<IInstallableUnit> results = resultsMap.values();
-		return results.toArray(new IInstallableUnit[results.size()]);
-	}
-
-	private static boolean hasHigherFidelity(IInstallableUnit iu, IInstallableUnit currentIU) {
-		if (Boolean.valueOf(currentIU.getProperty(IInstallableUnit.PROP_PARTIAL_IU)).booleanValue() && !Boolean.valueOf(iu.getProperty(IInstallableUnit.PROP_PARTIAL_IU)).booleanValue())
-			return true;
-		return false;
+		return result;
 	}
 
 	public SimplePlanner(IProvisioningAgent agent) {
@@ -293,6 +276,61 @@ public class SimplePlanner implements IPlanner {
 		Assert.isNotNull(profileRegistry);
 	}
 
+	private static PlanCache createDefaultPlanCache() {
+		if (DirectorActivator.context == null)
+			return null;
+		String sizeString = DirectorActivator.context.getProperty(PlanCache.PROP_PLAN_CACHE_SIZE);
+		if (sizeString == null)
+			return null;
+		try {
+			int size = Integer.parseInt(sizeString);
+			return size > 0 ? new PlanCache(size) : null;
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring user-specified '" + PlanCache.PROP_PLAN_CACHE_SIZE + "' value of: " + sizeString); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
+	public void start() {
+		PlanCache cache = getPlanCache();
+		IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
+		if (cache != null && bus != null)
+			bus.addListener(cache);
+	}
+
+	public void stop() {
+		PlanCache cache = getPlanCache();
+		IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
+		if (cache != null && bus != null)
+			bus.removeListener(cache);
+	}
+
+	/**
+	 * Returns the cache of the plans computed by this planner, or <code>null</code> when the plans are not cached.
+	 */
+	public synchronized PlanCache getPlanCache() {
+		return planCache;
+	}
+
+	/**
+	 * Sets the cache of the plans computed by this planner. A <code>null</code> cache turns the caching off.
+	 */
+	public void setPlanCache(PlanCache cache) {
+		PlanCache previous;
+		synchronized (this) {
+			previous = planCache;
+			planCache = cache;
+		}
+		//The cache is invalidated by the changes of the profiles and the repositories
+		IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
+		if (bus == null)
+			return;
+		if (previous != null)
+			bus.removeListener(previous);
+		if (cache != null)
+			bus.addListener(cache);
+	}
+
 	private boolean satisfyMetaRequirements(Map<String, String> props) {
 		if (props == null)
 			return true;
@@ -308,6 +346,10 @@ public class SimplePlanner implements IPlanner {
 	// Return the set of IUs representing the complete future state of the profile to satisfy the request or return a 
 	// ProvisioningPlan when the request can not be satisfied
 	private Object getSolutionFor(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, IProgressMonitor monitor) {
+		return getSolutionFor(profileChangeRequest, context, null, null, null, monitor);
+	}
+
+	private Object getSolutionFor(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, PlanningSession session, PlannerStatisticsEvent statistics, IQueryable<IInstallableUnit> metadata, IProgressMonitor monitor) {
 		SubMonitor sub = SubMonitor.convert(monitor, ExpandWork);
 		sub.setTaskName(Messages.Director_Task_Resolving_Dependencies);
 		try {
@@ -325,22 +367,43 @@ public class SimplePlanner implements IPlanner {
 					extraIUs.add(itor.next());
 			}
 
-			IInstallableUnit[] availableIUs = gatherAvailableInstallableUnits(extraIUs.toArray(new IInstallableUnit[extraIUs.size()]), context, sub.newChild(ExpandWork / 4));
-
-			Slicer slicer = new Slicer(new QueryableArray(availableIUs), newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
-			IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {(IInstallableUnit) updatedPlan[0]}, sub.newChild(ExpandWork / 4));
-			if (slice == null) {
-				IProvisioningPlan plan = engine.createPlan(profile, context);
-				plan.setStatus(slicer.getStatus());
-				return plan;
+			boolean considerMetaRequirements = satisfyMetaRequirements(profileChangeRequest.getProfileProperties());
+			if (profileChangeRequest.getPropertiesToAdd().containsKey("_internal_user_defined_")) //$NON-NLS-1$
+				session = null;
+			PlannerInput availableIUs = session == null ? null : session.getAvailableIUs(profile, newSelectionContext, considerMetaRequirements, extraIUs);
+			if (availableIUs == null) {
+				long start = System.currentTimeMillis();
+				availableIUs = gatherAvailableInstallableUnits(extraIUs.toArray(new IInstallableUnit[extraIUs.size()]), context, metadata, sub.newChild(ExpandWork / 4));
+				if (statistics != null)
+					statistics.addTime(PlannerStatisticsEvent.STAGE_GATHER, System.currentTimeMillis() - start);
+				if (session != null)
+					session.setAvailableIUs(profile, newSelectionContext, considerMetaRequirements, availableIUs);
+			} else
+				sub.worked(ExpandWork / 4);
+
+			Projector projector = session == null ? null : session.reencode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), statistics, sub.newChild(ExpandWork / 4));
+			if (projector == null) {
+				Object encoded = encode(profileChangeRequest, context, updatedPlan, newSelectionContext, availableIUs, session != null, statistics, sub.newChild(ExpandWork / 4));
+				if (encoded instanceof IProvisioningPlan)
+					return encoded;
+				projector = (Projector) encoded;
+				if (session != null)
+					session.setProjector(projector);
 			}
-			@SuppressWarnings("unchecked")
-			final IQueryable<IInstallableUnit>[] queryables = new IQueryable[] {slice, new QueryableArray(profileChangeRequest.getAdditions().toArray(new IInstallableUnit[profileChangeRequest.getAdditions().size()]))};
-			slice = new CompoundQueryable<IInstallableUnit>(queryables);
-			Projector projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
-			projector.setUserDefined(profileChangeRequest.getPropertiesToAdd().containsKey("_internal_user_defined_"));
-			projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 4));
 			IStatus s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
+			if (statistics != null)
+				statistics.setSolverStatistics(projector);
+			if (s.getSeverity() == IStatus.ERROR && projector.isIncremental()) {
+				//The failure is explained using a problem of its own, which is also the one kept for the next request.
+				session.setProjector(null);
+				Object encoded = encode(profileChangeRequest, context, updatedPlan, newSelectionContext, availableIUs, false, statistics, sub.newChild(ExpandWork / 4));
+				if (encoded instanceof IProvisioningPlan)
+					return encoded;
+				projector = (Projector) encoded;
+				s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
+				if (statistics != null)
+					statistics.setSolverStatistics(projector);
+			}
 			if (s.getSeverity() == IStatus.CANCEL) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(s);
@@ -355,7 +418,10 @@ public class SimplePlanner implements IPlanner {
 				}
 
 				//Extract the explanation
+				long start = System.currentTimeMillis();
 				Set<Explanation> explanation = projector.getExplanation(sub.newChild(ExpandWork / 4));
+				if (statistics != null)
+					statistics.addTime(PlannerStatisticsEvent.STAGE_EXPLANATION, System.currentTimeMillis() - start);
 				IStatus explanationStatus = convertExplanationToStatus(explanation);
 
 				Map<IInstallableUnit, RequestStatus>[] changes = buildDetailedErrors(profileChangeRequest);
@@ -378,13 +444,91 @@ public class SimplePlanner implements IPlanner {
 		}
 	}
 
+	// Slice the available IUs and encode the problem. Returns a plan when slicing fails
+	private Object encode(ProfileChangeRequest profileChangeRequest, ProvisioningContext context, Object[] updatedPlan, Map<String, String> newSelectionContext, PlannerInput availableIUs, boolean incremental, PlannerStatisticsEvent statistics, IProgressMonitor monitor) {
+		SubMonitor sub = SubMonitor.convert(monitor, 2);
+		IProfile profile = profileChangeRequest.getProfile();
+		long start = System.currentTimeMillis();
+		Slicer slicer = new Slicer(availableIUs, newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+		IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {(IInstallableUnit) updatedPlan[0]}, sub.newChild(1));
+		long stop = System.currentTimeMillis();
+		if (statistics != null) {
+			statistics.addTime(PlannerStatisticsEvent.STAGE_SLICE, stop - start);
+			if (slice != null)
+				statistics.setSliceSize(slicer.getUniverse().size());
+		}
+		if (slice == null) {
+			IProvisioningPlan plan = engine.createPlan(profile, context);
+			plan.setStatus(slicer.getStatus());
+			return plan;
+		}
+		@SuppressWarnings("unchecked")
+		final IQueryable<IInstallableUnit>[] queryables = new IQueryable[] {slice, new QueryableArray(profileChangeRequest.getAdditions().toArray(new IInstallableUnit[profileChangeRequest.getAdditions().size()]))};
+		slice = new CompoundQueryable<IInstallableUnit>(queryables);
+		Projector projector = new Projector(slice, newSelectionContext, slicer.getUniverse(), slicer.getNonGreedyIds(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+		projector.setUserDefined(profileChangeRequest.getPropertiesToAdd().containsKey("_internal_user_defined_")); //$NON-NLS-1$
+		projector.setIncremental(incremental);
+		projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(1));
+		if (statistics != null)
+			statistics.addTime(PlannerStatisticsEvent.STAGE_ENCODE, System.currentTimeMillis() - stop);
+		return projector;
+	}
+
+	/**
+	 * Creates a session for planning a sequence of requests against the same profile
+	 * using the given context.
+	 */
+	public PlanningSession createPlanningSession(ProvisioningContext context) {
+		return new PlanningSession(this, context);
+	}
+
 	public IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, ProvisioningContext context, IProgressMonitor monitor) {
+		PlanCache cache = getPlanCache();
+		if (cache == null || !PlanCache.isCacheable(request))
+			return getProvisioningPlan(request, context, null, monitor);
+		SubMonitor sub = SubMonitor.convert(monitor, 10);
+		ProvisioningContext keyContext = context == null ? new ProvisioningContext(agent) : context;
+		//The metadata is loaded once, for the key and for the planning
+		IQueryable<IInstallableUnit> metadata = keyContext.getMetadata(sub.newChild(1));
+		PlanCache.Key key = cache.createKey((ProfileChangeRequest) request, keyContext, metadata);
+		IProvisioningPlan plan = cache.get(key, keyContext);
+		if (plan != null)
+			return plan;
+		plan = getProvisioningPlan(request, context, null, metadata, sub.newChild(9));
+		if (plan.getStatus().getSeverity() != IStatus.CANCEL)
+			cache.put(key, plan);
+		return plan;
+	}
+
+	IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, ProvisioningContext context, PlanningSession session, IProgressMonitor monitor) {
+		return getProvisioningPlan(request, context, session, null, monitor);
+	}
+
+	/*
+	 * The metadata is the one provided by the context when it has already been loaded, or null.
+	 */
+	private IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, ProvisioningContext context, PlanningSession session, IQueryable<IInstallableUnit> metadata, IProgressMonitor monitor) {
+		PlannerStatisticsEvent statistics = new PlannerStatisticsEvent(request);
+		IProvisioningPlan plan = getProvisioningPlan(request, context, session, statistics, metadata, monitor);
+		statistics.setStatus(plan.getStatus());
+		publishStatistics(statistics);
+		return plan;
+	}
+
+	//Publishes the statistics of a request so that they can be collected without turning tracing on
+	private void publishStatistics(PlannerStatisticsEvent statistics) {
+		IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
+		if (bus != null)
+			bus.publishEvent(statistics);
+	}
+
+	private IProvisioningPlan getProvisioningPlan(IProfileChangeRequest request, ProvisioningContext context, PlanningSession session, PlannerStatisticsEvent statistics, IQueryable<IInstallableUnit> metadata, IProgressMonitor monitor) {
 		ProfileChangeRequest pcr = (ProfileChangeRequest) request;
 		SubMonitor sub = SubMonitor.convert(monitor, ExpandWork);
 		sub.setTaskName(Messages.Director_Task_Resolving_Dependencies);
 		try {
 			//Get the solution for the initial request
-			Object resolutionResult = getSolutionFor(pcr, context, sub.newChild(ExpandWork / 2));
+			Object resolutionResult = getSolutionFor(pcr, context, session, statistics, metadata, sub.newChild(ExpandWork / 2));
 			// a return value of a plan indicates failure when resolving so return.
 			if (resolutionResult instanceof IProvisioningPlan)
 				return (IProvisioningPlan) resolutionResult;
@@ -394,10 +538,15 @@ public class SimplePlanner implements IPlanner {
 			fullState.addAll(newState);
 			newState = AttachmentHelper.attachFragments(newState.iterator(), ((Projector) resolutionResult).getFragmentAssociation());
 
-			IProvisioningPlan temporaryPlan = generatePlan((Projector) resolutionResult, newState, pcr, context);
+			long start = System.currentTimeMillis();
+			try {
+				IProvisioningPlan temporaryPlan = generatePlan((Projector) resolutionResult, newState, pcr, context);
 
-			//Create a plan for installing necessary pieces to complete the installation (e.g touchpoint actions)
-			return createInstallerPlan(pcr.getProfile(), pcr, fullState, newState, temporaryPlan, context, sub.newChild(ExpandWork / 2));
+				//Create a plan for installing necessary pieces to complete the installation (e.g touchpoint actions)
+				return createInstallerPlan(pcr.getProfile(), pcr, fullState, newState, temporaryPlan, context, sub.newChild(ExpandWork / 2));
+			} finally {
+				statistics.addTime(PlannerStatisticsEvent.STAGE_GENERATE_PLAN, System.currentTimeMillis() - start);
+			}
 		} catch (OperationCanceledException e) {
 			IProvisioningPlan plan = engine.createPlan(pcr.getProfile(), context);
 			plan.setStatus(Status.CANCEL_STATUS);
@@ -787,13 +936,24 @@ public class SimplePlanner implements IPlanner {
 			IInstallableUnit iu = it.next();
 			String key = iu.getId() + "_" + iu.getVersion().toString(); //$NON-NLS-1$
 			IInstallableUnit currentIU = resultsMap.get(key);
-			if (currentIU == null || hasHigherFidelity(iu, currentIU))
+			if (currentIU == null || PlannerInput.hasHigherFidelity(iu, currentIU))
 				resultsMap.put(key, iu);
 		}
 		sub.done();
 		return new CollectionResult<IInstallableUnit>(resultsMap.values());
 	}
 
+	public Map<IInstallableUnit, IQueryResult<IInstallableUnit>> updatesFor(Collection<IInstallableUnit> toUpdate, ProvisioningContext context, IProgressMonitor monitor) {
+		UpdateIndex index = new UpdateIndex(toUpdate);
+		SubMonitor sub = SubMonitor.convert(monitor, 1000);
+		IQueryable<IInstallableUnit> queryable = context.getMetadata(sub.newChild(500));
+		IQueryResult<IInstallableUnit> available = queryable.query(QueryUtil.createIUAnyQuery(), sub.newChild(500));
+		for (Iterator<IInstallableUnit> it = available.iterator(); it.hasNext();)
+			index.add(it.next());
+		sub.done();
+		return index.getUpdates();
+	}
+
 	//helper class to trick the resolver to believe that everything is optional
 	private static class EverythingOptionalProfile implements IProfile {
 		private IProfile profile;
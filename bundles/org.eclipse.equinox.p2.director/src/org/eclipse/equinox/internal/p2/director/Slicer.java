@@ -12,6 +12,7 @@
 package org.eclipse.equinox.internal.p2.director;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
@@ -23,16 +24,39 @@ import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.util.NLS;
 
 public class Slicer {
+	/**
+	 * The number of threads used to expand the units of a frontier. Slicing is serial
+	 * unless the value is greater than one.
+	 */
+	public static final String PROP_SLICER_THREADS = "eclipse.p2.slicer.threads"; //$NON-NLS-1$
+	// Frontiers that are smaller than this are expanded serially
+	private static final int MIN_PARALLEL_FRONTIER = 64;
+	// The number of units expanded by one task
+	private static final int FRONTIER_CHUNK_SIZE = 32;
+
+	/**
+	 * The units and problems found while expanding some of the units of a frontier.
+	 */
+	private static class Expansion {
+		final List<IInstallableUnit> matches = new ArrayList<IInstallableUnit>();
+		final List<IStatus> problems = new ArrayList<IStatus>(0);
+
+		Expansion() {
+			// Empty until the units are expanded
+		}
+	}
+
 	private static boolean DEBUG = false;
 	private final IQueryable<IInstallableUnit> possibilites;
 	private final boolean considerMetaRequirements;
 	protected final IInstallableUnit selectionContext;
-	private final Map<String, Map<Version, IInstallableUnit>> slice; //The IUs that have been considered to be part of the problem
 	private final MultiStatus result;
 
-	private LinkedList<IInstallableUnit> toProcess;
-	private Set<IInstallableUnit> considered; //IUs to add to the slice
-	private Set<IInstallableUnit> nonGreedyIUs = new HashSet<IInstallableUnit>(); //IUs that are brought in by non greedy dependencies
+	//The IUs that have been considered to be part of the problem. They get their ids in the order in which they are
+	//considered so the ids from the one being processed up to the size of the universe are the ones left to process.
+	private IUUniverse considered;
+	private BitSet nonGreedyIUs = new BitSet(); //IUs that are brought in by non greedy dependencies
+	private int parallelism = getDefaultParallelism();
 
 	public Slicer(IQueryable<IInstallableUnit> input, Map<String, String> context, boolean considerMetaRequirements) {
 		this(input, InstallableUnit.contextIU(context), considerMetaRequirements);
@@ -42,7 +66,6 @@ public class Slicer {
 		this.possibilites = possibilites;
 		this.selectionContext = selectionContext;
 		this.considerMetaRequirements = considerMetaRequirements;
-		slice = new HashMap<String, Map<Version, IInstallableUnit>>();
 		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, Messages.Planner_Problems_resolving_plan, null);
 	}
 
@@ -55,14 +78,27 @@ public class Slicer {
 			}
 
 			validateInput(ius);
-			considered = new HashSet<IInstallableUnit>(Arrays.asList(ius));
-			toProcess = new LinkedList<IInstallableUnit>(considered);
-			while (!toProcess.isEmpty()) {
-				if (monitor.isCanceled()) {
-					result.merge(Status.CANCEL_STATUS);
-					throw new OperationCanceledException();
+			considered = new IUUniverse();
+			for (int i = 0; i < ius.length; i++)
+				considered.add(ius[i]);
+			ExecutorService executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+			try {
+				int next = 0;
+				while (next < considered.size()) {
+					if (monitor.isCanceled()) {
+						result.merge(Status.CANCEL_STATUS);
+						throw new OperationCanceledException();
+					}
+					int end = considered.size();
+					if (executor != null && end - next >= MIN_PARALLEL_FRONTIER) {
+						expandFrontier(executor, next, end);
+						next = end;
+					} else
+						processIU(considered.get(next++));
 				}
-				processIU(toProcess.removeFirst());
+			} finally {
+				if (executor != null)
+					executor.shutdownNow();
 			}
 			computeNonGreedyIUs();
 			if (DEBUG) {
@@ -76,20 +112,116 @@ public class Slicer {
 			LogHelper.log(result);
 		if (result.getSeverity() == IStatus.ERROR)
 			return null;
-		return new QueryableArray(considered.toArray(new IInstallableUnit[considered.size()]));
+		return new QueryableArray(getConsideredIUs());
+	}
+
+	/**
+	 * Expands the units with ids from <code>start</code> to <code>end</code> in parallel. The
+	 * matches are added to the universe in the order of the units that brought them in, so the
+	 * units get the same ids as when the frontier is expanded one unit at a time.
+	 */
+	private void expandFrontier(ExecutorService executor, int start, int end) {
+		List<Callable<Expansion[]>> tasks = new ArrayList<Callable<Expansion[]>>((end - start) / FRONTIER_CHUNK_SIZE + 1);
+		for (int chunk = start; chunk < end; chunk += FRONTIER_CHUNK_SIZE) {
+			final IInstallableUnit[] ius = new IInstallableUnit[Math.min(FRONTIER_CHUNK_SIZE, end - chunk)];
+			for (int i = 0; i < ius.length; i++)
+				ius[i] = considered.get(chunk + i);
+			tasks.add(new Callable<Expansion[]>() {
+				public Expansion[] call() {
+					Expansion[] expansions = new Expansion[ius.length];
+					for (int i = 0; i < ius.length; i++) {
+						expansions[i] = new Expansion();
+						expandIU(ius[i], expansions[i]);
+					}
+					return expansions;
+				}
+			});
+		}
+
+		List<Future<Expansion[]>> futures;
+		try {
+			futures = executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		}
+		for (Future<Expansion[]> future : futures) {
+			Expansion[] expansions;
+			try {
+				expansions = future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IllegalStateException(cause);
+			}
+			for (int i = 0; i < expansions.length; i++)
+				merge(expansions[i]);
+		}
+	}
+
+	private void merge(Expansion expansion) {
+		for (IInstallableUnit match : expansion.matches)
+			considered.add(match);
+		for (IStatus problem : expansion.problems)
+			result.add(problem);
+	}
+
+	/**
+	 * Returns the number of threads used to expand the frontiers of the slice.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of threads used to expand the frontiers of the slice. The slice is
+	 * the same whatever the number of threads. A value of one or less turns the parallel
+	 * expansion off.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	private static int getDefaultParallelism() {
+		if (DirectorActivator.context == null)
+			return 1;
+		String threadsString = DirectorActivator.context.getProperty(PROP_SLICER_THREADS);
+		if (threadsString == null)
+			return 1;
+		try {
+			return Integer.parseInt(threadsString);
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring user-specified '" + PROP_SLICER_THREADS + "' value of: " + threadsString); //$NON-NLS-1$ //$NON-NLS-2$
+			return 1;
+		}
+	}
+
+	private IInstallableUnit[] getConsideredIUs() {
+		IInstallableUnit[] ius = new IInstallableUnit[considered.size()];
+		for (int i = 0; i < ius.length; i++)
+			ius[i] = considered.get(i);
+		return ius;
 	}
 
 	private void computeNonGreedyIUs() {
-		IQueryable<IInstallableUnit> queryable = new QueryableArray(considered.toArray(new IInstallableUnit[considered.size()]));
-		Iterator<IInstallableUnit> it = queryable.query(QueryUtil.ALL_UNITS, new NullProgressMonitor()).iterator();
-		while (it.hasNext()) {
-			Collection<IRequirement> reqs = getRequirements(it.next().unresolved());
+		IInstallableUnit[] ius = getConsideredIUs();
+		IQueryable<IInstallableUnit> queryable = new QueryableArray(ius);
+		for (int i = 0; i < ius.length; i++) {
+			Collection<IRequirement> reqs = getRequirements(ius[i].unresolved());
 			for (IRequirement req : reqs) {
 				if (!isApplicable(req))
 					continue;
 
 				if (!isGreedy(req)) {
-					nonGreedyIUs.addAll(queryable.query(QueryUtil.createMatchQuery(req.getMatches()), null).toUnmodifiableSet());
+					Iterator<IInstallableUnit> matches = queryable.query(QueryUtil.createMatchQuery(req.getMatches()), null).iterator();
+					while (matches.hasNext())
+						nonGreedyIUs.set(considered.indexOf(matches.next()));
 				}
 			}
 		}
@@ -119,15 +251,15 @@ public class Slicer {
 	}
 
 	protected void processIU(IInstallableUnit iu) {
-		iu = iu.unresolved();
+		Expansion expansion = new Expansion();
+		expandIU(iu, expansion);
+		merge(expansion);
+	}
 
-		Map<Version, IInstallableUnit> iuSlice = slice.get(iu.getId());
-		if (iuSlice == null) {
+	// Must not change the state of the slicer since it is called concurrently in parallel mode
+	private void expandIU(IInstallableUnit iu, Expansion expansion) {
+		iu = iu.unresolved();
 
-			iuSlice = new HashMap<Version, IInstallableUnit>();
-			slice.put(iu.getId(), iuSlice);
-		}
-		iuSlice.put(iu.getVersion(), iu);
 		if (!isApplicable(iu)) {
 			return;
 		}
@@ -143,7 +275,7 @@ public class Slicer {
 				continue;
 			}
 
-			expandRequirement(iu, req);
+			expandRequirement(iu, req, expansion);
 		}
 	}
 
@@ -177,7 +309,7 @@ public class Slicer {
 		return aggregatedRequirements;
 	}
 
-	private void expandRequirement(IInstallableUnit iu, IRequirement req) {
+	private void expandRequirement(IInstallableUnit iu, IRequirement req, Expansion expansion) {
 		if (req.getMax() == 0)
 			return;
 		IQueryResult<IInstallableUnit> matches = possibilites.query(QueryUtil.createMatchQuery(req.getMatches()), null);
@@ -187,9 +319,7 @@ public class Slicer {
 			if (!isApplicable(match))
 				continue;
 			validMatches++;
-			Map<Version, IInstallableUnit> iuSlice = slice.get(match.getId());
-			if (iuSlice == null || !iuSlice.containsKey(match.getVersion()))
-				consider(match);
+			expansion.matches.add(match);
 		}
 
 		if (validMatches == 0) {
@@ -197,17 +327,26 @@ public class Slicer {
 				if (DEBUG)
 					System.out.println("No IU found to satisfy optional dependency of " + iu + " on req " + req); //$NON-NLS-1$//$NON-NLS-2$
 			} else {
-				result.add(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, iu, req)));
+				expansion.problems.add(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, iu, req)));
 			}
 		}
 	}
 
-	private void consider(IInstallableUnit match) {
-		if (considered.add(match))
-			toProcess.addLast(match);
+	Set<IInstallableUnit> getNonGreedyIUs() {
+		return considered.asSet(nonGreedyIUs);
 	}
 
-	Set<IInstallableUnit> getNonGreedyIUs() {
+	/**
+	 * Returns the universe of the units in the slice.
+	 */
+	public IUUniverse getUniverse() {
+		return considered;
+	}
+
+	/**
+	 * Returns the ids in the universe of the units that are brought in by non greedy dependencies.
+	 */
+	public BitSet getNonGreedyIds() {
 		return nonGreedyIUs;
 	}
 }
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.core.*;
+import org.sat4j.minisat.learning.MiniSATLearning;
+import org.sat4j.minisat.orders.*;
+import org.sat4j.minisat.restarts.ArminRestarts;
+import org.sat4j.minisat.restarts.LubyRestarts;
+import org.sat4j.pb.*;
+import org.sat4j.pb.constraints.CompetResolutionPBMixedHTClauseCardConstrDataStructure;
+import org.sat4j.pb.core.PBDataStructureFactory;
+import org.sat4j.pb.core.PBSolverResolution;
+import org.sat4j.pb.orders.VarOrderHeapObjective;
+import org.sat4j.pb.tools.ManyCorePB;
+import org.sat4j.specs.IVecInt;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Creates solvers that race several configurations of the solver of the projector on
+ * the same problem. The constraints are given to every configuration and each call to
+ * the solver runs all of them in threads of their own, which are reused by the next calls.
+ * The answer of the first one to finish is used and the others are stopped. Since every step of the optimization is
+ * such a race, the optimum is found by whichever configuration is the fastest at each step.
+ * <p>
+ * The configurations differ in their restart strategy, phase selection and deletion of
+ * learned clauses. The first one is the configuration of {@link SolverFactory#newEclipseP2()}.
+ * </p>
+ */
+class SolverPortfolio {
+	/**
+	 * The number of distinct configurations.
+	 */
+	static final int MAX_SIZE = 8;
+
+	private SolverPortfolio() {
+		// Static methods only
+	}
+
+	/**
+	 * Returns an optimizing solver racing the given number of configurations, at most {@link #MAX_SIZE}.
+	 * @param size The number of configurations
+	 * @param order The order to use in the first configuration, or <code>null</code> for its default order
+	 */
+	static IPBSolver newEclipseP2Portfolio(int size, VarOrderHeapObjective order) {
+		return new OptToPBSATAdapter(new PseudoOptDecorator(newRace(size, order)));
+	}
+
+	/**
+	 * Returns a solver racing the given number of configurations, at most {@link #MAX_SIZE}, that
+	 * only looks for a solution. It is up to the caller to optimize.
+	 * @param size The number of configurations
+	 * @param order The order to use in the first configuration, or <code>null</code> for its default order
+	 */
+	static IPBSolver newRace(int size, VarOrderHeapObjective order) {
+		size = Math.max(1, Math.min(size, MAX_SIZE));
+		IPBSolver[] solvers = new IPBSolver[size];
+		for (int i = 0; i < size; i++)
+			solvers[i] = newConfiguration(i, i == 0 ? order : null);
+		return new Race(solvers);
+	}
+
+	/**
+	 * Returns the solver of the configuration with the given index. It only looks for a solution, the
+	 * configuration <code>0</code> being the solver that {@link SolverFactory#newEclipseP2()} optimizes with.
+	 * @param order The order to use, or <code>null</code> for the default order of the configuration
+	 */
+	static PBSolverResolution newConfiguration(int index, VarOrderHeapObjective order) {
+		if (order == null)
+			order = new VarOrderHeapObjective(newPhaseSelectionStrategy(index % 4));
+		//Alternate the restarts the other way round for the second half so that every pair of phase and restarts differs
+		RestartStrategy restarts = (index + index / 4) % 2 == 0 ? new ArminRestarts() : new LubyRestarts(512);
+		MiniSATLearning<PBDataStructureFactory> learning = new MiniSATLearning<PBDataStructureFactory>();
+		PBSolverResolution solver = new PBSolverResolution(learning, new CompetResolutionPBMixedHTClauseCardConstrDataStructure(), order, restarts);
+		learning.setDataStructureFactory(solver.getDSFactory());
+		learning.setVarActivityListener(solver);
+		solver.setLearnedConstraintsDeletionStrategy(index < 4 ? solver.memory_based : solver.glucose);
+		solver.setVerbose(false);
+		return solver;
+	}
+
+	private static IPhaseSelectionStrategy newPhaseSelectionStrategy(int index) {
+		switch (index) {
+			case 0 :
+				return new RSATPhaseSelectionStrategy();
+			case 1 :
+				return new PhaseInLastLearnedClauseSelectionStrategy();
+			case 2 :
+				return new NegativeLiteralSelectionStrategy();
+			default :
+				return new PhaseCachingAutoEraseStrategy();
+		}
+	}
+
+	/**
+	 * Broadcasts the constraints to the configurations and runs them in parallel on each call.
+	 * Unlike {@link ManyCorePB#isSatisfiable(IVecInt, boolean)} the caller is woken up as soon
+	 * as an answer is known rather than by polling, and nothing is printed.
+	 * <p>
+	 * Each configuration has a thread of its own that serves all the calls of a solve, and
+	 * stops once it has been idle for {@link #IDLE_TIMEOUT} milliseconds. Configurations that
+	 * find an answer before they notice that another one has won are ranked by their index,
+	 * so equal optima found at the same time are always broken in favor of the first
+	 * configuration.
+	 * </p>
+	 */
+	static class Race extends ManyCorePB {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The time in milliseconds that the thread of a configuration waits for the next call.
+		 */
+		static final long IDLE_TIMEOUT = 1000;
+
+		/**
+		 * Runs a configuration on each call until no call has come for a while.
+		 */
+		private class Worker extends Thread {
+			private final int index;
+			private int call;
+
+			Worker(int index, int call) {
+				super("Solver portfolio " + index); //$NON-NLS-1$
+				this.index = index;
+				this.call = call;
+				setDaemon(true);
+			}
+
+			public void run() {
+				try {
+					while (awaitCall()) {
+						Boolean result = null;
+						try {
+							result = Boolean.valueOf(solvers.get(index).isSatisfiable(assumps, global));
+						} catch (TimeoutException e) {
+							// Stopped by the winner or out of time
+						} finally {
+							finished(index, result);
+						}
+					}
+				} finally {
+					synchronized (Race.this) {
+						// Replaced on the next call should the configuration have failed
+						if (workers[index] == this)
+							workers[index] = null;
+					}
+				}
+			}
+
+			// Returns false when the worker has been idle for too long and has been removed
+			private boolean awaitCall() {
+				synchronized (Race.this) {
+					long idleSince = System.currentTimeMillis();
+					while (calls == call) {
+						long idle = System.currentTimeMillis() - idleSince;
+						if (idle >= IDLE_TIMEOUT) {
+							workers[index] = null;
+							return false;
+						}
+						try {
+							Race.this.wait(IDLE_TIMEOUT - idle);
+						} catch (InterruptedException e) {
+							// Only the race controls its workers
+						}
+					}
+					call = calls;
+					return true;
+				}
+			}
+		}
+
+		private final Worker[] workers;
+		private int calls = 0;
+		IVecInt assumps;
+		boolean global;
+		private int winner = -1;
+		private boolean satisfiable;
+		private int running;
+
+		Race(IPBSolver... solvers) {
+			super(solvers);
+			workers = new Worker[solvers.length];
+		}
+
+		public synchronized boolean isSatisfiable(IVecInt assumptions, boolean globalTimeout) throws TimeoutException {
+			assumps = assumptions;
+			global = globalTimeout;
+			winner = -1;
+			running = numberOfSolvers;
+			calls++;
+			for (int i = 0; i < numberOfSolvers; i++) {
+				if (workers[i] == null) {
+					workers[i] = new Worker(i, calls - 1);
+					workers[i].start();
+				}
+			}
+			notifyAll();
+			// Wait for all configurations to stop so that none of them is still searching on the next call
+			boolean interrupted = false;
+			while (running > 0) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (winner < 0)
+				throw new TimeoutException();
+			return satisfiable;
+		}
+
+		synchronized void finished(int index, Boolean result) {
+			if (result != null && (winner < 0 || index < winner)) {
+				if (winner < 0) {
+					for (int i = 0; i < numberOfSolvers; i++)
+						if (i != index)
+							solvers.get(i).expireTimeout();
+				}
+				winner = index;
+				satisfiable = result.booleanValue();
+			}
+			running--;
+			notifyAll();
+		}
+
+		public boolean isSatisfiable(IVecInt assumps) throws TimeoutException {
+			return isSatisfiable(assumps, false);
+		}
+
+		public boolean isSatisfiable(boolean global) throws TimeoutException {
+			return isSatisfiable(VecInt.EMPTY, global);
+		}
+
+		private IPBSolver getWinner() {
+			return solvers.get(winner < 0 ? 0 : winner);
+		}
+
+		public int[] model() {
+			return getWinner().model();
+		}
+
+		public boolean model(int var) {
+			return getWinner().model(var);
+		}
+
+		public int[] modelWithInternalVariables() {
+			return getWinner().modelWithInternalVariables();
+		}
+
+		public int[] primeImplicant() {
+			return getWinner().primeImplicant();
+		}
+
+		public boolean primeImplicant(int p) {
+			return getWinner().primeImplicant(p);
+		}
+
+		public IVecInt unsatExplanation() {
+			return getWinner().unsatExplanation();
+		}
+
+		/**
+		 * Returns the counters of all configurations added up, so that they keep growing
+		 * whichever configuration wins.
+		 */
+		public Map<String, Number> getStat() {
+			Map<String, Number> stats = new HashMap<String, Number>();
+			for (int i = 0; i < numberOfSolvers; i++) {
+				for (Map.Entry<String, Number> entry : solvers.get(i).getStat().entrySet()) {
+					Number previous = stats.get(entry.getKey());
+					stats.put(entry.getKey(), new Long((previous == null ? 0 : previous.longValue()) + entry.getValue().longValue()));
+				}
+			}
+			return stats;
+		}
+	}
+}
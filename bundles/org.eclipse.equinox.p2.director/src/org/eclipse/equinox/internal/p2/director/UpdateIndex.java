@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.RequiredCapability;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.query.CollectionResult;
+import org.eclipse.equinox.p2.query.IQueryResult;
+
+/**
+ * Finds the updates of many installable units in one pass over the available units. The units
+ * to update are indexed by the names of the capabilities they provide in the IU namespace, so that
+ * each available unit is only compared to the units its update descriptor can match. An available
+ * unit is an update of a unit under the same conditions as with the
+ * {@link org.eclipse.equinox.internal.p2.metadata.query.UpdateQuery} of the unit.
+ */
+class UpdateIndex {
+	private final Collection<IInstallableUnit> toUpdate;
+	private final Map<String, List<IInstallableUnit>> toUpdateByName = new HashMap<String, List<IInstallableUnit>>();
+	//The updates found for each unit, keyed by the updates themselves to keep one per id and version
+	private final Map<IInstallableUnit, Map<IInstallableUnit, IInstallableUnit>> updates = new HashMap<IInstallableUnit, Map<IInstallableUnit, IInstallableUnit>>();
+
+	UpdateIndex(Collection<IInstallableUnit> toUpdate) {
+		this.toUpdate = toUpdate;
+		for (IInstallableUnit iu : toUpdate) {
+			for (IProvidedCapability capability : iu.getProvidedCapabilities()) {
+				if (!IInstallableUnit.NAMESPACE_IU_ID.equals(capability.getNamespace()))
+					continue;
+				List<IInstallableUnit> ius = toUpdateByName.get(capability.getName());
+				if (ius == null) {
+					ius = new ArrayList<IInstallableUnit>(1);
+					toUpdateByName.put(capability.getName(), ius);
+				}
+				if (!ius.contains(iu))
+					ius.add(iu);
+			}
+		}
+	}
+
+	//The units to update that can match the given expression
+	private Collection<IInstallableUnit> getCandidates(IMatchExpression<IInstallableUnit> match) {
+		if (!RequiredCapability.isSimpleRequirement(match) || !IInstallableUnit.NAMESPACE_IU_ID.equals(RequiredCapability.extractNamespace(match)))
+			return toUpdate;
+		List<IInstallableUnit> ius = toUpdateByName.get(RequiredCapability.extractName(match));
+		return ius == null ? Collections.<IInstallableUnit> emptyList() : ius;
+	}
+
+	/**
+	 * Records the given unit as an update of the units it updates.
+	 */
+	void add(IInstallableUnit candidate) {
+		boolean candidateIsPatch = candidate instanceof IInstallableUnitPatch;
+		IUpdateDescriptor descriptor = candidate.getUpdateDescriptor();
+		if (descriptor != null && !descriptor.getIUsBeingUpdated().isEmpty()) {
+			for (IInstallableUnit iu : getCandidates(descriptor.getIUsBeingUpdated().iterator().next())) {
+				//A patch updates a unit that is not a patch through its life cycle
+				if (candidateIsPatch && !(iu instanceof IInstallableUnitPatch))
+					continue;
+				if (descriptor.isUpdateOf(iu) && (!iu.getId().equals(candidate.getId()) || iu.getVersion().compareTo(candidate.getVersion()) < 0))
+					addUpdate(iu, candidate);
+			}
+		}
+		if (candidateIsPatch) {
+			IRequirement lifeCycle = ((IInstallableUnitPatch) candidate).getLifeCycle();
+			if (lifeCycle == null)
+				return;
+			for (IInstallableUnit iu : getCandidates(lifeCycle.getMatches())) {
+				if (!(iu instanceof IInstallableUnitPatch) && iu.satisfies(lifeCycle))
+					addUpdate(iu, candidate);
+			}
+		}
+	}
+
+	private void addUpdate(IInstallableUnit iu, IInstallableUnit update) {
+		Map<IInstallableUnit, IInstallableUnit> iuUpdates = updates.get(iu);
+		if (iuUpdates == null) {
+			iuUpdates = new HashMap<IInstallableUnit, IInstallableUnit>();
+			updates.put(iu, iuUpdates);
+		}
+		IInstallableUnit current = iuUpdates.get(update);
+		if (current == null || PlannerInput.hasHigherFidelity(update, current)) {
+			iuUpdates.remove(update);
+			iuUpdates.put(update, update);
+		}
+	}
+
+	/**
+	 * Returns the updates found for each unit to update.
+	 */
+	Map<IInstallableUnit, IQueryResult<IInstallableUnit>> getUpdates() {
+		Map<IInstallableUnit, IQueryResult<IInstallableUnit>> result = new HashMap<IInstallableUnit, IQueryResult<IInstallableUnit>>(toUpdate.size());
+		for (IInstallableUnit iu : toUpdate) {
+			Map<IInstallableUnit, IInstallableUnit> iuUpdates = updates.get(iu);
+			Collection<IInstallableUnit> found = iuUpdates == null ? Collections.<IInstallableUnit> emptyList() : iuUpdates.values();
+			result.put(iu, new CollectionResult<IInstallableUnit>(found));
+		}
+		return result;
+	}
+}
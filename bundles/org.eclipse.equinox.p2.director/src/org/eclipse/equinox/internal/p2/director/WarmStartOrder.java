@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import org.sat4j.core.LiteralsUtils;
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.core.IPhaseSelectionStrategy;
+import org.sat4j.pb.orders.VarOrderHeapObjective;
+import org.sat4j.specs.IVecInt;
+
+/**
+ * A variable order that starts the search from a known assignment. The variables of the
+ * preferred literals are decided first, in the order of their activity, and are given the
+ * phase of the literal. The other variables are ordered using the objective function.
+ * <p>
+ * The order is reinitialized by every call to the solver, so each step of the optimization
+ * starts from the preferred literals again.
+ * </p>
+ */
+class WarmStartOrder extends VarOrderHeapObjective {
+	private static final long serialVersionUID = 1L;
+
+	private IVecInt preferredLiterals = new VecInt();
+
+	WarmStartOrder(IPhaseSelectionStrategy phaseStrategy) {
+		super(phaseStrategy);
+	}
+
+	/**
+	 * Sets the literals, in dimacs form, that the search should start from.
+	 */
+	void setPreferredLiterals(IVecInt literals) {
+		preferredLiterals = literals;
+	}
+
+	public void init() {
+		super.init();
+		if (preferredLiterals.isEmpty())
+			return;
+		double max = 0;
+		for (int i = 1; i < activity.length; i++)
+			max = Math.max(max, activity[i]);
+		for (int i = 0; i < preferredLiterals.size(); i++) {
+			int dimacs = preferredLiterals.get(i);
+			if (!lits.belongsToPool(Math.abs(dimacs)))
+				continue;
+			int p = lits.getFromPool(dimacs);
+			int var = LiteralsUtils.var(p);
+			// Keep the relative order of the preferred variables but put them above all others
+			activity[var] += max + 1;
+			if (heap.inHeap(var))
+				heap.increase(var);
+			else
+				heap.insert(var);
+			phaseStrategy.init(var, p);
+		}
+	}
+}
@@ -11,6 +11,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.planner;
 
+import java.util.Collection;
+import java.util.Map;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
@@ -53,4 +55,19 @@ public interface IPlanner {
 	 * You may want to consider using the org.eclipse.equinox.p2.operations.UpdateOperation class instead. 
 	 */
 	public IQueryResult<IInstallableUnit> updatesFor(IInstallableUnit iu, ProvisioningContext context, IProgressMonitor monitor);
+
+	/**
+	 * Returns the updates of each of the given installable units. The metadata of the context
+	 * is searched once for all the units, which is faster than asking for the updates of
+	 * the units one by one.
+	 * 
+	 * @param ius the installable units to find updates for
+	 * @param context the context in which the updates are searched
+	 * @param monitor a progress monitor, or <code>null</code>
+	 * @return the updates of each of the given installable units
+	 * @noreference This method is not intended to be referenced by clients. 
+	 * You may want to consider using the org.eclipse.equinox.p2.operations.UpdateOperation class instead. 
+	 * @since 2.3
+	 */
+	public Map<IInstallableUnit, IQueryResult<IInstallableUnit>> updatesFor(Collection<IInstallableUnit> ius, ProvisioningContext context, IProgressMonitor monitor);
 }
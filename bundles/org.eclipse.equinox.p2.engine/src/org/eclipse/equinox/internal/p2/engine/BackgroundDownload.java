@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+
+/**
+ * Downloads the artifacts collected by the collect phase in the background, so that the
+ * phases that read the artifacts can perform the operands whose artifacts have arrived
+ * while the other downloads continue.
+ * <p>The results of the artifact requests are polled since the repositories don't report
+ * the completion of single requests.</p>
+ */
+public class BackgroundDownload extends Job {
+	private static final long POLL_INTERVAL = 100;
+
+	private final DownloadManager downloadManager;
+	private final Map<Operand, IArtifactRequest[]> operandRequests;
+	private final IProgressMonitor engineMonitor;
+	private IStatus downloadStatus;
+
+	/**
+	 * @param downloadManager the download manager holding all the requests
+	 * @param operandRequests the requests of each operand
+	 * @param engineMonitor the monitor of the engine operation, canceling it cancels the downloads
+	 */
+	public BackgroundDownload(DownloadManager downloadManager, Map<Operand, IArtifactRequest[]> operandRequests, IProgressMonitor engineMonitor) {
+		super(Messages.download_artifact);
+		this.downloadManager = downloadManager;
+		this.operandRequests = operandRequests;
+		this.engineMonitor = engineMonitor;
+		setSystem(true);
+	}
+
+	protected IStatus run(IProgressMonitor monitor) {
+		IStatus status;
+		try {
+			status = downloadManager.start(new ProgressMonitorWrapper(monitor) {
+				public boolean isCanceled() {
+					return super.isCanceled() || engineMonitor.isCanceled();
+				}
+			});
+		} catch (RuntimeException e) {
+			// the repositories call user code and might throw an unchecked exception
+			status = new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e);
+		}
+		try {
+			downloaded(status);
+		} finally {
+			synchronized (this) {
+				downloadStatus = status;
+				notifyAll();
+			}
+		}
+		// the engine reports the status of the downloads
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Called from the download job once all the requests have been processed, before the
+	 * status of the downloads is available. Subclasses may override.
+	 */
+	protected void downloaded(IStatus status) {
+		// nothing to do by default
+	}
+
+	/**
+	 * Returns the status of the downloads, or <code>null</code> if they have not ended.
+	 */
+	public synchronized IStatus getDownloadStatus() {
+		return downloadStatus;
+	}
+
+	/**
+	 * Returns whether all the artifacts of the given operand have been downloaded.
+	 */
+	public boolean isArrived(Operand operand) {
+		IArtifactRequest[] requests = operandRequests.get(operand);
+		if (requests == null)
+			return true;
+		for (int i = 0; i < requests.length; i++) {
+			IStatus result = requests[i].getResult();
+			if (result == null || !result.isOK())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until the artifacts of at least one of the given operands have arrived and returns
+	 * those operands, in the given order. An empty list is returned if the downloads ended
+	 * without the artifacts of any of the operands, or if the monitor was canceled.
+	 */
+	public synchronized List<Operand> waitForArrival(List<Operand> operands, IProgressMonitor monitor) throws InterruptedException {
+		List<Operand> arrived = new ArrayList<Operand>();
+		while (true) {
+			// read the status first, the requests are not processed further once it is set
+			boolean ended = downloadStatus != null;
+			for (Operand operand : operands) {
+				if (isArrived(operand))
+					arrived.add(operand);
+			}
+			if (!arrived.isEmpty() || ended || monitor.isCanceled())
+				return arrived;
+			wait(POLL_INTERVAL);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataReader;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * Reads a state of a profile written by {@link BinaryProfileWriter}.
+ */
+public class BinaryProfileReader {
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	private final long sourceLength;
+	private final long sourceLastModified;
+	private final String profileId;
+	private final String parentId;
+	private final long timestamp;
+	private final Map<String, String> properties;
+	// The properties of the units keyed by id and version, as in the XML format
+	private final Map<String, Map<String, String>> iusProperties;
+	private final ByteBuffer units;
+
+	/**
+	 * Reads the given file and returns a reader for it.
+	 * @param file The file to read
+	 * @return A reader for the file
+	 * @throws IOException if the file could not be read or if it is not a binary profile
+	 */
+	public static BinaryProfileReader open(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(bytes);
+		} finally {
+			input.close();
+		}
+		return new BinaryProfileReader(bytes);
+	}
+
+	public BinaryProfileReader(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			if (in.readInt() != BinaryProfileWriter.MAGIC)
+				throw new IOException("Not a binary profile"); //$NON-NLS-1$
+			int version = in.readInt();
+			if (version != BinaryProfileWriter.FORMAT_VERSION)
+				throw new IOException("Unsupported binary profile version: " + version); //$NON-NLS-1$
+			sourceLength = in.readLong();
+			sourceLastModified = in.readLong();
+			profileId = readString(in);
+			parentId = readString(in);
+			timestamp = in.readLong();
+			properties = readProperties(in);
+			int withProperties = in.readInt();
+			iusProperties = new HashMap<String, Map<String, String>>(withProperties);
+			for (int i = 0; i < withProperties; i++) {
+				String id = readString(in);
+				String iuVersion = readString(in);
+				iusProperties.put(id + "_" + iuVersion, readProperties(in)); //$NON-NLS-1$
+			}
+			int length = in.readInt();
+			units = ByteBuffer.wrap(bytes, bytes.length - in.available(), length).slice();
+		} catch (EOFException e) {
+			throw new IOException("Truncated binary profile"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Returns whether this is a copy of the given XML file, as it was when the copy was written.
+	 * The length and the modification time of the file are compared rather than the order of the
+	 * modification times, which may be too coarse or restored from a backup.
+	 */
+	public boolean isCopyOf(File source) {
+		return source.length() == sourceLength && source.lastModified() == sourceLastModified;
+	}
+
+	public String getProfileId() {
+		return profileId;
+	}
+
+	public String getParentId() {
+		return parentId;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	/**
+	 * Returns the properties of the units keyed by id and version, joined by an underscore.
+	 */
+	public Map<String, Map<String, String>> getIUsProperties() {
+		return iusProperties;
+	}
+
+	/**
+	 * Decodes the units of the profile.
+	 */
+	public IInstallableUnit[] readInstallableUnits() throws IOException {
+		return new BinaryMetadataReader(units).readInstallableUnits();
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	static Map<String, String> readProperties(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		OrderedProperties result = new OrderedProperties(size);
+		for (int i = 0; i < size; i++) {
+			String key = readString(in);
+			result.put(key, readString(in));
+		}
+		return result;
+	}
+}
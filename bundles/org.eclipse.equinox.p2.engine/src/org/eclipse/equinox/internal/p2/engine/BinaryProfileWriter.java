@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataWriter;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * Writes a state of a profile in the binary form read by {@link BinaryProfileReader}.
+ * <p>All numbers are big endian and strings are written as a byte count followed by
+ * the UTF-8 bytes, a count of <code>-1</code> denoting <code>null</code>. The file holds:</p>
+ * <ul>
+ * <li>The magic number and the format version.</li>
+ * <li>The length and the modification time of the XML file the copy is made from.</li>
+ * <li>The profile id, the id of the parent profile, the timestamp and the properties of the
+ * profile, without the properties inherited from the parent.</li>
+ * <li>The id, version and properties of each unit that has properties in the profile.</li>
+ * <li>The byte count of the units, followed by the units in the binary metadata repository
+ * format, so that they are decoded by the reader of that format.</li>
+ * </ul>
+ */
+public class BinaryProfileWriter {
+	public static final int MAGIC = 0x50325042; // P2PB
+	public static final int FORMAT_VERSION = 2;
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	private final OutputStream output;
+
+	public BinaryProfileWriter(OutputStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * Writes the given profile to the output stream. The stream is flushed but not closed.
+	 * @param profile The profile to write
+	 * @param source The XML file holding the same state of the profile
+	 */
+	public void writeProfile(IProfile profile, File source) throws IOException {
+		IInstallableUnit[] ius = profile.query(QueryUtil.createIUAnyQuery(), null).toArray(IInstallableUnit.class);
+		ByteArrayOutputStream units = new ByteArrayOutputStream();
+		new BinaryMetadataWriter(units).write(ius);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(source.length());
+		out.writeLong(source.lastModified());
+		writeString(out, profile.getProfileId());
+		IProfile parent = profile instanceof Profile ? ((Profile) profile).getParentProfile() : null;
+		writeString(out, parent == null ? null : parent.getProfileId());
+		out.writeLong(profile.getTimestamp());
+		writeProperties(out, parent == null ? profile.getProperties() : ((Profile) profile).getLocalProperties());
+		int withProperties = 0;
+		for (int i = 0; i < ius.length; i++) {
+			if (!profile.getInstallableUnitProperties(ius[i]).isEmpty())
+				withProperties++;
+		}
+		out.writeInt(withProperties);
+		for (int i = 0; i < ius.length; i++) {
+			Map<String, String> properties = profile.getInstallableUnitProperties(ius[i]);
+			if (properties.isEmpty())
+				continue;
+			writeString(out, ius[i].getId());
+			writeString(out, ius[i].getVersion().toString());
+			writeProperties(out, properties);
+		}
+		out.writeInt(units.size());
+		units.writeTo(out);
+		out.flush();
+	}
+
+	static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static void writeProperties(DataOutputStream out, Map<String, String> properties) throws IOException {
+		out.writeInt(properties.size());
+		for (Entry<String, String> entry : properties.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+}
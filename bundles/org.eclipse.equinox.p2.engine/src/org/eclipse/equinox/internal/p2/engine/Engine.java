@@ -15,6 +15,7 @@ import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.*;
+import org.osgi.framework.BundleContext;
 
 /**
  * Concrete implementation of the {@link IEngine} API.
@@ -72,7 +73,7 @@ public class Engine implements IEngine {
 
 			EngineSession session = new EngineSession(agent, profile, context);
 
-			MultiStatus result = phaseSet.perform(session, operands, monitor);
+			MultiStatus result = phaseSet.perform(session, operands, isPipelined(), monitor);
 			if (result.isOK() || result.matches(IStatus.INFO | IStatus.WARNING)) {
 				if (DebugHelper.DEBUG_ENGINE)
 					DebugHelper.debug(ENGINE, "Preparing to commit engine operation for profile=" + profile.getProfileId()); //$NON-NLS-1$
@@ -104,6 +105,14 @@ public class Engine implements IEngine {
 		}
 	}
 
+	/*
+	 * Returns whether the phases that read the artifacts may start before all the artifacts have been downloaded.
+	 */
+	private static boolean isPipelined() {
+		BundleContext context = EngineActivator.getContext();
+		return context != null && Boolean.valueOf(context.getProperty(EngineActivator.PROP_PIPELINED_INSTALL)).booleanValue();
+	}
+
 	protected IStatus validate(IProfile iprofile, PhaseSet phaseSet, Operand[] operands, ProvisioningContext context, IProgressMonitor monitor) {
 		checkArguments(iprofile, phaseSet, operands, context, monitor);
 
@@ -47,6 +47,43 @@ public class EngineActivator implements BundleActivator {
 	 */
 	public static final String PROFILE_FORMAT_UNCOMPRESSED = "uncompressed"; //$NON-NLS-1$
 
+	/**
+	 * System property describing how the earlier states of a profile are stored
+	 */
+	public static final String PROP_PROFILE_HISTORY_FORMAT = "eclipse.p2.profileHistoryFormat"; //$NON-NLS-1$
+
+	/**
+	 * Value for the PROP_PROFILE_HISTORY_FORMAT system property specifying that an earlier
+	 * state of a profile is stored as the changes from the next state, except for a full
+	 * state kept every PROP_PROFILE_CHECKPOINT_INTERVAL states.
+	 */
+	public static final String PROFILE_HISTORY_FORMAT_DELTA = "delta"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying how often a state of a profile is stored in full, in number
+	 * of states, when the earlier states are stored as changes.
+	 */
+	public static final String PROP_PROFILE_CHECKPOINT_INTERVAL = "eclipse.p2.profileCheckpointInterval"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying whether a binary copy of each full state of a profile is
+	 * written next to the XML file, and read in place of it. A summary of each state is then
+	 * also kept in an index of the history of the profile.
+	 */
+	public static final String PROP_PROFILE_BINARY = "eclipse.p2.profileBinary"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying how many profiles a profile registry keeps in memory. The
+	 * least recently used profiles are evicted first and read again when they are asked for.
+	 */
+	public static final String PROP_PROFILE_CACHE_SIZE = "eclipse.p2.profileCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying whether the engine installs the operands whose artifacts have
+	 * been downloaded while the other artifacts are still being downloaded.
+	 */
+	public static final String PROP_PIPELINED_INSTALL = "eclipse.p2.pipelinedInstall"; //$NON-NLS-1$
+
 	/**
 	 * System property specifying how the engine should handle unsigned artifacts.
 	 * If this property is undefined, the default value is assumed to be "prompt".
@@ -304,6 +304,15 @@ public abstract class Phase {
 		return true;
 	}
 
+	/**
+	 * Returns whether this phase reads the artifacts downloaded by the collect phase. When the
+	 * collect and install phases are pipelined, such a phase performs the operands whose
+	 * artifacts have arrived while the other downloads continue.
+	 */
+	protected boolean requiresArtifacts() {
+		return false;
+	}
+
 	protected IStatus initializePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
 		return Status.OK_STATUS;
 	}
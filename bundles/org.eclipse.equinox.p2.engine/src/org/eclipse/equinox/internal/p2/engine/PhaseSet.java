@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.engine.phases.Collect;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
 import org.eclipse.osgi.util.NLS;
@@ -30,44 +31,31 @@ public class PhaseSet implements IPhaseSet {
 	}
 
 	public final MultiStatus perform(EngineSession session, Operand[] operands, IProgressMonitor monitor) {
+		return perform(session, operands, false, monitor);
+	}
+
+	/**
+	 * Performs the phases on the given operands. When <code>pipelined</code> is <code>true</code>,
+	 * the collect phase downloads the artifacts in the background and the phases that read the
+	 * artifacts perform the operands whose artifacts have arrived while the other downloads
+	 * continue. The phases that don't read the artifacts are performed first, then the phases
+	 * that do are performed in rounds, one per batch of arrived operands. Each round is recorded
+	 * in the session like any other phase so the operation is committed or rolled back as a whole.
+	 */
+	public final MultiStatus perform(EngineSession session, Operand[] operands, boolean pipelined, IProgressMonitor monitor) {
 		MultiStatus status = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
 		int[] weights = getProgressWeights(operands);
 		int totalWork = getTotalWork(weights);
 		SubMonitor pm = SubMonitor.convert(monitor, totalWork);
 		try {
 			isRunning = true;
+			int collectIndex = pipelined ? getPipelinedCollectIndex() : -1;
+			if (collectIndex >= 0)
+				return performPipelined(status, session, operands, collectIndex, weights, pm);
 			for (int i = 0; i < phases.length; i++) {
-				if (pm.isCanceled()) {
-					status.add(Status.CANCEL_STATUS);
-					return status;
-				}
-				Phase phase = phases[i];
-				phase.actionManager = (ActionManager) session.getAgent().getService(ActionManager.SERVICE_NAME);
-				try {
-					phase.perform(status, session, operands, pm.newChild(weights[i]));
-				} catch (OperationCanceledException e) {
-					// propagate operation cancellation
-					status.add(new Status(IStatus.CANCEL, EngineActivator.ID, e.getMessage(), e));
-				} catch (RuntimeException e) {
-					// "perform" calls user code and might throw an unchecked exception
-					// we catch the error here to gather information on where the problem occurred.
-					status.add(new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e));
-				} catch (LinkageError e) {
-					// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
-					status.add(new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e));
-				} finally {
-					phase.actionManager = null;
-				}
-				if (status.matches(IStatus.CANCEL)) {
-					MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.CANCEL, Messages.Engine_Operation_Canceled_By_User, null);
-					result.merge(status);
-					return result;
-				} else if (status.matches(IStatus.ERROR)) {
-					MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, phase.getProblemMessage(), null);
-					result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(), null));
-					result.merge(status);
+				MultiStatus result = performPhase(phases[i], status, session, operands, pm, weights[i]);
+				if (result != null)
 					return result;
-				}
 			}
 		} finally {
 			pm.done();
@@ -76,6 +64,163 @@ public class PhaseSet implements IPhaseSet {
 		return status;
 	}
 
+	/**
+	 * Performs the given phase and returns the result of the operation if it has to stop,
+	 * or <code>null</code> if the next phase can be performed.
+	 */
+	private MultiStatus performPhase(Phase phase, MultiStatus status, EngineSession session, Operand[] operands, SubMonitor pm, int work) {
+		if (pm.isCanceled()) {
+			status.add(Status.CANCEL_STATUS);
+			return status;
+		}
+		phase.actionManager = (ActionManager) session.getAgent().getService(ActionManager.SERVICE_NAME);
+		try {
+			phase.perform(status, session, operands, pm.newChild(work));
+		} catch (OperationCanceledException e) {
+			// propagate operation cancellation
+			status.add(new Status(IStatus.CANCEL, EngineActivator.ID, e.getMessage(), e));
+		} catch (RuntimeException e) {
+			// "perform" calls user code and might throw an unchecked exception
+			// we catch the error here to gather information on where the problem occurred.
+			status.add(new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e));
+		} catch (LinkageError e) {
+			// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
+			status.add(new Status(IStatus.ERROR, EngineActivator.ID, e.getMessage(), e));
+		} finally {
+			phase.actionManager = null;
+		}
+		if (status.matches(IStatus.CANCEL))
+			return getCanceledResult(status);
+		if (status.matches(IStatus.ERROR))
+			return getErrorResult(phase, status, session);
+		return null;
+	}
+
+	private MultiStatus getCanceledResult(MultiStatus status) {
+		MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.CANCEL, Messages.Engine_Operation_Canceled_By_User, null);
+		result.merge(status);
+		return result;
+	}
+
+	private MultiStatus getErrorResult(Phase phase, MultiStatus status, EngineSession session) {
+		MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, phase.getProblemMessage(), null);
+		result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(), null));
+		result.merge(status);
+		return result;
+	}
+
+	/**
+	 * Returns the index of the collect phase if it is followed by a phase that reads the
+	 * artifacts, or -1 if the phases cannot be pipelined.
+	 */
+	private int getPipelinedCollectIndex() {
+		for (int i = 0; i < phases.length; i++) {
+			if (phases[i] instanceof Collect) {
+				for (int j = i + 1; j < phases.length; j++) {
+					if (phases[j].requiresArtifacts())
+						return i;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private MultiStatus performPipelined(MultiStatus status, EngineSession session, Operand[] operands, int collectIndex, int[] weights, SubMonitor pm) {
+		Collect collect = (Collect) phases[collectIndex];
+		int lastArtifactIndex = collectIndex;
+		for (int i = collectIndex + 1; i < phases.length; i++) {
+			if (phases[i].requiresArtifacts())
+				lastArtifactIndex = i;
+		}
+
+		BackgroundDownload download = null;
+		boolean completed = false;
+		collect.setBackground(true);
+		try {
+			for (int i = 0; i <= collectIndex; i++) {
+				MultiStatus result = performPhase(phases[i], status, session, operands, pm, weights[i]);
+				if (result != null)
+					return result;
+			}
+			download = collect.getBackgroundDownload();
+
+			// the phases that don't read the artifacts run while the downloads start
+			List<Integer> artifactPhases = new ArrayList<Integer>();
+			for (int i = collectIndex + 1; i <= lastArtifactIndex; i++) {
+				if (phases[i].requiresArtifacts()) {
+					artifactPhases.add(new Integer(i));
+					continue;
+				}
+				MultiStatus result = performPhase(phases[i], status, session, operands, pm, weights[i]);
+				if (result != null)
+					return result;
+			}
+
+			List<Operand> pending = new ArrayList<Operand>(Arrays.asList(operands));
+			while (!pending.isEmpty()) {
+				List<Operand> arrived = pending;
+				if (download != null) {
+					try {
+						arrived = download.waitForArrival(pending, pm);
+					} catch (InterruptedException e) {
+						status.add(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.phase_thread_interrupted_error, collect.phaseId), e));
+						return getErrorResult(collect, status, session);
+					}
+					if (pm.isCanceled()) {
+						status.add(Status.CANCEL_STATUS);
+						return getCanceledResult(status);
+					}
+					if (arrived.isEmpty()) {
+						IStatus downloadStatus = download.getDownloadStatus();
+						if (downloadStatus.matches(IStatus.CANCEL)) {
+							status.add(downloadStatus);
+							return getCanceledResult(status);
+						}
+						if (downloadStatus.matches(IStatus.ERROR)) {
+							status.merge(downloadStatus);
+							return getErrorResult(collect, status, session);
+						}
+						// let the phases report the missing artifacts
+						arrived = pending;
+					}
+				}
+				Operand[] round = arrived.toArray(new Operand[arrived.size()]);
+				int previousDone = operands.length - pending.size();
+				pending.removeAll(Arrays.asList(round));
+				int done = operands.length - pending.size();
+				for (Integer index : artifactPhases) {
+					int i = index.intValue();
+					// allocate the work cumulatively so that the rounds add up to the phase weight
+					int work = weights[i] * done / operands.length - weights[i] * previousDone / operands.length;
+					MultiStatus result = performPhase(phases[i], status, session, round, pm, work);
+					if (result != null)
+						return result;
+				}
+			}
+
+			for (int i = lastArtifactIndex + 1; i < phases.length; i++) {
+				MultiStatus result = performPhase(phases[i], status, session, operands, pm, weights[i]);
+				if (result != null)
+					return result;
+			}
+			completed = true;
+			return status;
+		} finally {
+			collect.setBackground(false);
+			if (download != null) {
+				// make sure nothing is downloaded while the operation is committed or rolled back
+				if (!completed)
+					download.cancel();
+				try {
+					download.join();
+				} catch (InterruptedException e) {
+					// the download job ends on its own
+				}
+			}
+		}
+	}
+
 	public synchronized boolean pause() {
 		if (isRunning && !isPaused) {
 			isPaused = true;
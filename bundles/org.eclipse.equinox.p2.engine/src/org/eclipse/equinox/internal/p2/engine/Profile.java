@@ -22,21 +22,114 @@ import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.KeyWithLocale;
-import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
-import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.expression.*;
 import org.eclipse.equinox.p2.metadata.index.IIndex;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.osgi.util.NLS;
 
 public class Profile extends IndexProvider<IInstallableUnit> implements IProfile {
+	// the result of an expression that could not be evaluated
+	private static final Object NO_VALUE = new Object();
 
 	/**
-	 * An index that limits the candidates to those units that has profile properties
+	 * An index that limits the candidates to those units that has profile properties. When the
+	 * expression requires a given value, or any value, of a given profile property, the candidates
+	 * are limited further to the units that have such a property.
 	 */
-	class ProfilePropertyIndex implements IIndex<IInstallableUnit> {
+	class ProfilePropertyIndex extends Index<IInstallableUnit> {
 		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
-			return iuProperties.keySet().iterator();
+			IExpression targetExpr = booleanExpr;
+			if (booleanExpr instanceof IMatchExpression<?>) {
+				targetExpr = ExpressionUtil.getOperand(booleanExpr);
+				ctx = ((IMatchExpression<?>) booleanExpr).createContext();
+			}
+			Collection<IInstallableUnit> candidates = getIndexedCandidates(ctx, variable, targetExpr);
+			if (candidates == null)
+				return iuProperties.keySet().iterator();
+			return new ArrayList<IInstallableUnit>(candidates).iterator();
+		}
+
+		/**
+		 * Returns the units that may match the given expression, or <code>null</code> if the
+		 * expression does not require a profile property.
+		 */
+		private Collection<IInstallableUnit> getIndexedCandidates(IEvaluationContext ctx, IExpression variable, IExpression expr) {
+			switch (expr.getExpressionType()) {
+				case IExpression.TYPE_EQUALS :
+				case IExpression.TYPE_NOT_EQUALS :
+					IExpression valueExpr = ExpressionUtil.getRHS(expr);
+					String key = getQueriedKey(ctx, variable, ExpressionUtil.getLHS(expr));
+					if (key == null) {
+						valueExpr = ExpressionUtil.getLHS(expr);
+						key = getQueriedKey(ctx, variable, ExpressionUtil.getRHS(expr));
+						if (key == null)
+							return null;
+					}
+					Object value = safeEvaluate(ctx, valueExpr);
+					if (value == NO_VALUE)
+						return null;
+					if (expr.getExpressionType() == IExpression.TYPE_EQUALS) {
+						// units without the property match a comparison with null
+						if (!(value instanceof String))
+							return null;
+						Map<String, Set<IInstallableUnit>> values = iuPropertyValues.get(key);
+						Set<IInstallableUnit> units = values == null ? null : values.get(value);
+						return units == null ? Collections.<IInstallableUnit> emptySet() : units;
+					}
+					// units without the property match a comparison with any other value
+					if (value != null)
+						return null;
+					Map<String, Set<IInstallableUnit>> values = iuPropertyValues.get(key);
+					if (values == null)
+						return Collections.<IInstallableUnit> emptySet();
+					if (values.size() == 1)
+						return values.values().iterator().next();
+					Set<IInstallableUnit> units = new HashSet<IInstallableUnit>();
+					for (Set<IInstallableUnit> valueUnits : values.values())
+						units.addAll(valueUnits);
+					return units;
+
+				case IExpression.TYPE_AND :
+					// AND is OK if at least one of the branches requires a property
+					for (IExpression operand : ExpressionUtil.getOperands(expr)) {
+						Collection<IInstallableUnit> candidates = getIndexedCandidates(ctx, variable, operand);
+						if (candidates != null)
+							return candidates;
+					}
+					return null;
+
+				case IExpression.TYPE_OR :
+					// OR is OK if all the branches require a property
+					Set<IInstallableUnit> union = new HashSet<IInstallableUnit>();
+					for (IExpression operand : ExpressionUtil.getOperands(expr)) {
+						Collection<IInstallableUnit> candidates = getIndexedCandidates(ctx, variable, operand);
+						if (candidates == null)
+							return null;
+						union.addAll(candidates);
+					}
+					return union;
+			}
+			return null;
+		}
+
+		/**
+		 * Returns the key of the profile property accessed by the given expression, or
+		 * <code>null</code> if it is not a <code>profileProperties[key]</code> expression.
+		 */
+		private String getQueriedKey(IEvaluationContext ctx, IExpression variable, IExpression expr) {
+			if (expr.getExpressionType() != IExpression.TYPE_AT || !isIndexedMember(ExpressionUtil.getLHS(expr), variable, InstallableUnit.MEMBER_PROFILE_PROPERTIES))
+				return null;
+			Object key = safeEvaluate(ctx, ExpressionUtil.getRHS(expr));
+			return key instanceof String ? (String) key : null;
+		}
+
+		private Object safeEvaluate(IEvaluationContext ctx, IExpression expr) {
+			try {
+				return expr.evaluate(ctx);
+			} catch (IllegalArgumentException e) {
+				return NO_VALUE;
+			}
 		}
 	}
 
@@ -66,6 +159,8 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 
 	private IUMap ius = new IUMap();
 	final Map<IInstallableUnit, OrderedProperties> iuProperties = new HashMap<IInstallableUnit, OrderedProperties>();
+	// the units that have a given value of a given profile property, keyed by property and value
+	private final Map<String, Map<String, Set<IInstallableUnit>>> iuPropertyValues = new HashMap<String, Map<String, Set<IInstallableUnit>>>();
 	private boolean changed = false;
 
 	private long timestamp;
@@ -251,7 +346,12 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		}
 
 		changed = true;
-		return (String) properties.setProperty(key, value);
+		String oldValue = (String) properties.setProperty(key, value);
+		if (oldValue != null)
+			unindexProperty(iu, key, oldValue);
+		if (value != null)
+			indexProperty(iu, key, value);
+		return oldValue;
 	}
 
 	public String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
@@ -261,6 +361,8 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 			return null;
 
 		String oldValue = properties.remove(key);
+		if (oldValue != null)
+			unindexProperty(iu, key, oldValue);
 		if (properties.isEmpty())
 			iuProperties.remove(iu);
 
@@ -268,6 +370,40 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return oldValue;
 	}
 
+	private void indexProperty(IInstallableUnit iu, String key, String value) {
+		Map<String, Set<IInstallableUnit>> values = iuPropertyValues.get(key);
+		if (values == null) {
+			values = new HashMap<String, Set<IInstallableUnit>>();
+			iuPropertyValues.put(key, values);
+		}
+		Set<IInstallableUnit> units = values.get(value);
+		if (units == null) {
+			units = new HashSet<IInstallableUnit>();
+			values.put(value, units);
+		}
+		units.add(iu);
+	}
+
+	private void unindexProperty(IInstallableUnit iu, String key, String value) {
+		Map<String, Set<IInstallableUnit>> values = iuPropertyValues.get(key);
+		if (values == null)
+			return;
+		Set<IInstallableUnit> units = values.get(value);
+		if (units == null || !units.remove(iu) || !units.isEmpty())
+			return;
+		values.remove(value);
+		if (values.isEmpty())
+			iuPropertyValues.remove(key);
+	}
+
+	private void removeInstallableUnitProperties(IInstallableUnit iu) {
+		OrderedProperties properties = iuProperties.remove(iu);
+		if (properties == null)
+			return;
+		for (Entry<String, String> entry : properties.entrySet())
+			unindexProperty(iu, entry.getKey(), entry.getValue());
+	}
+
 	//	private static String createIUKey(IInstallableUnit iu) {
 	//		return iu.getId() + "_" + iu.getVersion().toString(); //$NON-NLS-1$
 	//	}
@@ -346,6 +482,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	public void clearInstallableUnits() {
 		ius.clear();
 		iuProperties.clear();
+		iuPropertyValues.clear();
 		changed = true;
 	}
 
@@ -383,7 +520,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	}
 
 	public void clearInstallableUnitProperties(IInstallableUnit iu) {
-		iuProperties.remove(iu);
+		removeInstallableUnitProperties(iu);
 		changed = true;
 	}
 
@@ -397,7 +534,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		}
 
 		for (IInstallableUnit iu : toRemove) {
-			iuProperties.remove(iu);
+			removeInstallableUnitProperties(iu);
 		}
 		//		List iuKeys = new ArrayList();
 		//		for (Iterator it = ius.iterator(); it.hasNext();)
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The profiles loaded by a {@link SimpleProfileRegistry}, keyed by profile id.
+ * <p>The cache holds at most a given number of profiles and evicts the least recently used
+ * ones first. Profiles that have a parent or sub profiles are not evicted since they are linked
+ * to each other. An evicted profile is kept through a soft reference and found again until the
+ * memory is needed, so that only a profile that was collected has to be read again. The cache
+ * also hands out the read/write lock guarding the in-memory state of each profile. The locks are
+ * striped so that readers of different profiles don't block each other.</p>
+ * <p>A profile loaded without holding the registry lock is only added if the cached profile with
+ * that id did not change while it was read, see {@link #getGeneration(String)}, so a profile
+ * written in the meantime is never replaced by an older state.</p>
+ */
+public class ProfileCache {
+	private static final String PROFILE_REGISTRY = "profile registry"; //$NON-NLS-1$
+	private static final int STRIPES = 32;
+
+	private final int maximumSize;
+	// in access order, the least recently used profile first
+	private final LinkedHashMap<String, Profile> profiles = new LinkedHashMap<String, Profile>(16, 0.75f, true);
+	private final Map<String, SoftReference<Profile>> evicted = new HashMap<String, SoftReference<Profile>>();
+	private final ReadWriteLock[] locks = new ReadWriteLock[STRIPES];
+	// the last change of each profile and of the whole cache, from one sequence
+	private final Map<String, Long> changes = new HashMap<String, Long>();
+	private long sequence;
+	private long cleared;
+	private long hitCount;
+	private long missCount;
+	private long loadCount;
+	private long evictionCount;
+
+	public ProfileCache(int maximumSize) {
+		if (maximumSize <= 0)
+			throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize); //$NON-NLS-1$
+		this.maximumSize = maximumSize;
+		for (int i = 0; i < STRIPES; i++)
+			locks[i] = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Returns the cached profile with the given id, or <code>null</code> if it has not been
+	 * loaded or was evicted and collected.
+	 */
+	public synchronized Profile get(String id) {
+		Profile profile = lookup(id);
+		if (profile == null)
+			missCount++;
+		else
+			hitCount++;
+		return profile;
+	}
+
+	/**
+	 * Returns the cached profile with the given id like {@link #get(String)}, without counting
+	 * the lookup or changing the order of eviction.
+	 */
+	public synchronized Profile peek(String id) {
+		Profile profile = profiles.get(id);
+		if (profile == null) {
+			SoftReference<Profile> ref = evicted.get(id);
+			if (ref != null)
+				profile = ref.get();
+		}
+		return profile;
+	}
+
+	/*
+	 * Returns the cached profile with the given id, bringing it back if it was evicted.
+	 */
+	private Profile lookup(String id) {
+		Profile profile = profiles.get(id);
+		if (profile != null)
+			return profile;
+		SoftReference<Profile> ref = evicted.remove(id);
+		profile = ref == null ? null : ref.get();
+		if (profile != null) {
+			profiles.put(id, profile);
+			evict();
+		}
+		return profile;
+	}
+
+	/**
+	 * Returns a value that changes whenever the profile with the given id is added, replaced or
+	 * removed, or the cache is cleared. Changes of other profiles leave it as it is.
+	 */
+	public synchronized long getGeneration(String id) {
+		Long changed = changes.get(id);
+		return changed == null ? cleared : Math.max(cleared, changed.longValue());
+	}
+
+	private void changed(String id) {
+		changes.put(id, Long.valueOf(++sequence));
+	}
+
+	/**
+	 * Adds or replaces the given profile.
+	 */
+	public synchronized void put(String id, Profile profile) {
+		changed(id);
+		evicted.remove(id);
+		profiles.put(id, profile);
+		evict();
+	}
+
+	/**
+	 * Adds the given profile that was just loaded, unless the profile with that id changed since
+	 * the given generation. Returns the profile that is cached for the id, or <code>null</code> if
+	 * the profile has to be loaded again.
+	 */
+	public synchronized Profile putLoaded(String id, Profile profile, long expectedGeneration) {
+		Profile cached = lookup(id);
+		if (cached != null)
+			return cached;
+		if (getGeneration(id) != expectedGeneration)
+			return null;
+		loadCount++;
+		put(id, profile);
+		return profile;
+	}
+
+	public synchronized void remove(String id) {
+		changed(id);
+		evicted.remove(id);
+		profiles.remove(id);
+	}
+
+	public synchronized void clear() {
+		cleared = ++sequence;
+		changes.clear();
+		evicted.clear();
+		profiles.clear();
+	}
+
+	/**
+	 * Returns the lock guarding the in-memory state and the files of the profile with the given id.
+	 * The registry lock must not be acquired while holding this lock.
+	 */
+	public ReadWriteLock getLock(String id) {
+		return locks[(id.hashCode() & Integer.MAX_VALUE) % STRIPES];
+	}
+
+	private void evict() {
+		for (Iterator<Profile> it = profiles.values().iterator(); profiles.size() > maximumSize && it.hasNext();) {
+			Profile profile = it.next();
+			if (profile.getParentProfile() != null || profile.hasSubProfiles())
+				continue;
+			it.remove();
+			evicted.put(profile.getProfileId(), new SoftReference<Profile>(profile));
+			evictionCount++;
+			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
+				DebugHelper.debug(PROFILE_REGISTRY, "Evicted profile: " + profile.getProfileId()); //$NON-NLS-1$
+		}
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public synchronized int size() {
+		return profiles.size();
+	}
+
+	/**
+	 * Returns the number of lookups that found the profile in the cache.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of lookups that did not find the profile in the cache.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Returns the number of profiles read from disk and added to the cache, which are either
+	 * new to the cache or were evicted and collected.
+	 */
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+
+	/**
+	 * Returns the number of profiles evicted to stay within the maximum size. An evicted profile
+	 * is still found until it is collected.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public synchronized String toString() {
+		return "ProfileCache[size=" + profiles.size() + ", maximumSize=" + maximumSize + ", hits=" + hitCount + ", misses=" + missCount + ", loads=" + loadCount + ", evictions=" + evictionCount + "]\n" + profiles; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.equinox.p2.metadata.*;
+
+/**
+ * The summaries of the states of a profile, kept in one file in the folder of the profile.
+ * <p>The file starts with the magic number, the format version and the number of states,
+ * followed by a table of fixed width records holding the timestamp of each state and the
+ * offset and size of its summary, sorted on timestamp. The summaries follow the table. A
+ * summary is only decoded when it is asked for, and is copied as it is when the index is
+ * written again.</p>
+ */
+public class ProfileHistoryIndex {
+	public static final String INDEX_FILENAME = "history.index"; //$NON-NLS-1$
+	private static final int MAGIC = 0x50325049; // P2PI
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 3 * 4;
+	private static final int RECORD_SIZE = 8 + 4 + 4;
+
+	private final byte[] bytes;
+	private final int summariesOffset;
+	// The decoded summaries, or the offset and size of the summaries that are not decoded yet
+	private final SortedMap<Long, Object> entries = new TreeMap<Long, Object>();
+
+	public ProfileHistoryIndex() {
+		bytes = null;
+		summariesOffset = 0;
+	}
+
+	private ProfileHistoryIndex(byte[] bytes) throws IOException {
+		this.bytes = bytes;
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a profile history index"); //$NON-NLS-1$
+			int version = in.readInt();
+			if (version != FORMAT_VERSION)
+				throw new IOException("Unsupported profile history index version: " + version); //$NON-NLS-1$
+			int count = in.readInt();
+			summariesOffset = HEADER_SIZE + count * RECORD_SIZE;
+			for (int i = 0; i < count; i++) {
+				long timestamp = in.readLong();
+				int offset = in.readInt();
+				int size = in.readInt();
+				if (offset < 0 || size < 0 || summariesOffset + offset + size > bytes.length)
+					throw new IOException("Truncated profile history index"); //$NON-NLS-1$
+				entries.put(new Long(timestamp), new int[] {offset, size});
+			}
+		} catch (EOFException e) {
+			throw new IOException("Truncated profile history index"); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Reads the table of the given index file. The summaries are decoded when they are asked for.
+	 */
+	public static ProfileHistoryIndex read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(bytes);
+		} finally {
+			input.close();
+		}
+		return new ProfileHistoryIndex(bytes);
+	}
+
+	/**
+	 * Returns the summary of the state with the given timestamp, or <code>null</code> if the
+	 * state is not in the index.
+	 */
+	public ProfileSummary getSummary(long timestamp) throws IOException {
+		Long key = new Long(timestamp);
+		Object entry = entries.get(key);
+		if (entry == null || entry instanceof ProfileSummary)
+			return (ProfileSummary) entry;
+		int[] location = (int[]) entry;
+		ProfileSummary summary = readSummary(timestamp, new DataInputStream(new ByteArrayInputStream(bytes, summariesOffset + location[0], location[1])));
+		entries.put(key, summary);
+		return summary;
+	}
+
+	public boolean contains(long timestamp) {
+		return entries.containsKey(new Long(timestamp));
+	}
+
+	public void put(ProfileSummary summary) {
+		entries.put(new Long(summary.getTimestamp()), summary);
+	}
+
+	public void remove(long timestamp) {
+		entries.remove(new Long(timestamp));
+	}
+
+	/**
+	 * Writes the index to the given stream. The stream is flushed but not closed.
+	 */
+	public void write(OutputStream output) throws IOException {
+		ByteArrayOutputStream summaries = new ByteArrayOutputStream();
+		DataOutputStream summariesOutput = new DataOutputStream(summaries);
+		int[] table = new int[entries.size() * 2];
+		int i = 0;
+		for (Object entry : entries.values()) {
+			table[i++] = summariesOutput.size();
+			if (entry instanceof ProfileSummary) {
+				writeSummary(summariesOutput, (ProfileSummary) entry);
+			} else {
+				int[] location = (int[]) entry;
+				summariesOutput.write(bytes, summariesOffset + location[0], location[1]);
+			}
+			table[i] = summariesOutput.size() - table[i - 1];
+			i++;
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(entries.size());
+		i = 0;
+		for (Long timestamp : entries.keySet()) {
+			out.writeLong(timestamp.longValue());
+			out.writeInt(table[i++]);
+			out.writeInt(table[i++]);
+		}
+		summaries.writeTo(out);
+		out.flush();
+	}
+
+	private static void writeSummary(DataOutputStream out, ProfileSummary summary) throws IOException {
+		out.writeInt(summary.getInstallableUnitCount());
+		List<IVersionedId> roots = summary.getRoots();
+		out.writeInt(roots.size());
+		for (IVersionedId root : roots) {
+			BinaryProfileWriter.writeString(out, root.getId());
+			BinaryProfileWriter.writeString(out, root.getVersion().toString());
+		}
+		BinaryProfileWriter.writeProperties(out, summary.getProperties());
+	}
+
+	private static ProfileSummary readSummary(long timestamp, DataInputStream in) throws IOException {
+		try {
+			int unitCount = in.readInt();
+			int rootCount = in.readInt();
+			List<IVersionedId> roots = new ArrayList<IVersionedId>(rootCount);
+			for (int i = 0; i < rootCount; i++) {
+				String id = BinaryProfileReader.readString(in);
+				roots.add(new VersionedId(id, BinaryProfileReader.readString(in)));
+			}
+			return new ProfileSummary(timestamp, unitCount, roots, BinaryProfileReader.readProperties(in));
+		} catch (EOFException e) {
+			throw new IOException("Truncated profile history index"); //$NON-NLS-1$
+		}
+	}
+}
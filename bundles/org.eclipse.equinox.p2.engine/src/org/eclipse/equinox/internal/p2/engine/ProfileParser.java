@@ -10,8 +10,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.*;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
@@ -121,6 +121,203 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 		}
 	}
 
+	/**
+	 * Holds a state of a profile read from its binary form, in place of the handler
+	 * of the XML form.
+	 */
+	protected class LoadedProfileHandler extends ProfileHandler {
+		private final long timestamp;
+		private final Map<String, String> properties;
+		private final IInstallableUnit[] units;
+		private final Map<String, Map<String, String>> iusPropertiesMap;
+
+		private final String parentId;
+
+		public LoadedProfileHandler(BinaryProfileReader reader) throws IOException {
+			super(reader.getProfileId());
+			this.parentId = reader.getParentId();
+			this.timestamp = reader.getTimestamp();
+			this.properties = reader.getProperties();
+			this.units = reader.readInstallableUnits();
+			this.iusPropertiesMap = reader.getIUsProperties();
+		}
+
+		public String getParentId() {
+			return parentId;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public Map<String, String> getProperties() {
+			return properties;
+		}
+
+		public IInstallableUnit[] getInstallableUnits() {
+			return units;
+		}
+
+		public Map<String, String> getIUProperties(IInstallableUnit iu) {
+			return iusPropertiesMap.get(iu.getId() + "_" + iu.getVersion().toString()); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Handles what changes from a base state of a profile to a state, as written by
+	 * {@link ProfileWriter#writeProfileDelta(org.eclipse.equinox.p2.engine.IProfile, org.eclipse.equinox.p2.engine.IProfile)}.
+	 */
+	protected class ProfileDeltaHandler extends RootHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, TIMESTAMP_ATTRIBUTE, BASE_ATTRIBUTE};
+
+		private String profileId;
+		private long timestamp;
+		private long base;
+		private PropertiesHandler propertiesHandler;
+		private InstallableUnitsHandler unitsHandler;
+		private InstallableUnitReferencesHandler removedUnitsHandler;
+		private IUsPropertiesHandler iusPropertiesHandler;
+		private InstallableUnitReferencesHandler clearedPropertiesHandler;
+
+		protected void handleRootAttributes(Attributes attributes) {
+			String[] values = parseRequiredAttributes(attributes, required);
+			profileId = values[0];
+			timestamp = parseLong(values[1]);
+			base = parseLong(values[2]);
+		}
+
+		private long parseLong(String value) {
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			if (PROPERTIES_ELEMENT.equals(name)) {
+				if (propertiesHandler == null) {
+					propertiesHandler = new PropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (INSTALLABLE_UNITS_ELEMENT.equals(name)) {
+				if (unitsHandler == null) {
+					unitsHandler = new InstallableUnitsHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (REMOVED_UNITS_ELEMENT.equals(name)) {
+				if (removedUnitsHandler == null) {
+					removedUnitsHandler = new InstallableUnitReferencesHandler(this, name, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (IUS_PROPERTIES_ELEMENT.equals(name)) {
+				if (iusPropertiesHandler == null) {
+					iusPropertiesHandler = new IUsPropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (CLEARED_IUS_PROPERTIES_ELEMENT.equals(name)) {
+				if (clearedPropertiesHandler == null) {
+					clearedPropertiesHandler = new InstallableUnitReferencesHandler(this, name, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+
+		public String getProfileId() {
+			return profileId;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Returns the timestamp of the state this delta is relative to.
+		 */
+		public long getBase() {
+			return base;
+		}
+
+		public Map<String, String> getProperties() {
+			if (propertiesHandler == null)
+				return null;
+			return propertiesHandler.getProperties();
+		}
+
+		/**
+		 * Returns the units that are not in the base state.
+		 */
+		public IInstallableUnit[] getInstallableUnits() {
+			if (unitsHandler == null)
+				return new IInstallableUnit[0];
+			return unitsHandler.getUnits();
+		}
+
+		/**
+		 * Returns whether the given unit of the base state is not in this state.
+		 */
+		public boolean isRemoved(IInstallableUnit iu) {
+			return removedUnitsHandler != null && removedUnitsHandler.contains(iu);
+		}
+
+		/**
+		 * Returns the properties of the given unit in this state, or <code>null</code>
+		 * if they are the properties of the unit in the base state.
+		 */
+		public Map<String, String> getIUProperties(IInstallableUnit iu) {
+			if (clearedPropertiesHandler != null && clearedPropertiesHandler.contains(iu))
+				return Collections.<String, String> emptyMap();
+			if (iusPropertiesHandler == null)
+				return null;
+			return iusPropertiesHandler.getIUsPropertiesMap().get(iu.getId() + "_" + iu.getVersion().toString()); //$NON-NLS-1$
+		}
+	}
+
+	protected class InstallableUnitReferencesHandler extends AbstractHandler {
+
+		private final Set<String> iuIdentities = new HashSet<String>();
+
+		public InstallableUnitReferencesHandler(AbstractHandler parentHandler, String elementHandled, Attributes attributes) {
+			super(parentHandler, elementHandled);
+		}
+
+		public boolean contains(IInstallableUnit iu) {
+			return iuIdentities.contains(iu.getId() + "_" + iu.getVersion().toString()); //$NON-NLS-1$
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			if (name.equals(INSTALLABLE_UNIT_ELEMENT)) {
+				new InstallableUnitReferenceHandler(this, attributes, iuIdentities);
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+	}
+
+	protected class InstallableUnitReferenceHandler extends AbstractHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
+
+		public InstallableUnitReferenceHandler(AbstractHandler parentHandler, Attributes attributes, Set<String> iuIdentities) {
+			super(parentHandler, INSTALLABLE_UNIT_ELEMENT);
+			String values[] = parseRequiredAttributes(attributes, required);
+			Version version = checkVersion(INSTALLABLE_UNIT_ELEMENT, VERSION_ATTRIBUTE, values[1]);
+			iuIdentities.add(values[0] + "_" + version.toString()); //$NON-NLS-1$
+		}
+
+		public void startElement(String name, Attributes attributes) {
+			invalidElement(name, attributes);
+		}
+	}
+
 	protected class IUPropertiesHandler extends AbstractHandler {
 
 		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.util.*;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.query.IUProfilePropertyQuery;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * What is shown of a state of a profile in its history: the number of units, the root units
+ * and the properties of the profile. A summary is kept in the history index of the profile so
+ * that the history can be listed without reading the states.
+ */
+public class ProfileSummary {
+	private final long timestamp;
+	private final int unitCount;
+	private final List<IVersionedId> roots;
+	private final Map<String, String> properties;
+
+	public ProfileSummary(long timestamp, int unitCount, List<IVersionedId> roots, Map<String, String> properties) {
+		this.timestamp = timestamp;
+		this.unitCount = unitCount;
+		this.roots = Collections.unmodifiableList(roots);
+		this.properties = Collections.unmodifiableMap(properties);
+	}
+
+	/**
+	 * Returns the summary of the given state of a profile.
+	 */
+	public static ProfileSummary create(IProfile profile) {
+		Set<IInstallableUnit> ius = profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		List<IVersionedId> roots = new ArrayList<IVersionedId>();
+		for (Iterator<IInstallableUnit> it = profile.query(new IUProfilePropertyQuery(IProfile.PROP_PROFILE_ROOT_IU, Boolean.TRUE.toString()), null).iterator(); it.hasNext();) {
+			IInstallableUnit iu = it.next();
+			roots.add(new VersionedId(iu.getId(), iu.getVersion()));
+		}
+		return new ProfileSummary(profile.getTimestamp(), ius.size(), roots, new HashMap<String, String>(profile.getProperties()));
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the number of units in the state.
+	 */
+	public int getInstallableUnitCount() {
+		return unitCount;
+	}
+
+	/**
+	 * Returns the ids and versions of the root units of the state.
+	 */
+	public List<IVersionedId> getRoots() {
+		return roots;
+	}
+
+	/**
+	 * Returns the properties of the profile in the state.
+	 */
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	public String toString() {
+		return "ProfileSummary[timestamp=" + timestamp + ", units=" + unitCount + ", roots=" + roots + ']'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
@@ -21,6 +21,16 @@ import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 
 public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants {
 
+	private static final Comparator<IInstallableUnit> IU_COMPARATOR = new Comparator<IInstallableUnit>() {
+		public int compare(IInstallableUnit iu1, IInstallableUnit iu2) {
+			int IdCompare = iu1.getId().compareTo(iu2.getId());
+			if (IdCompare != 0)
+				return IdCompare;
+
+			return iu1.getVersion().compareTo(iu2.getVersion());
+		}
+	};
+
 	public ProfileWriter(OutputStream output, ProcessingInstruction[] processingInstructions) throws IOException {
 		super(output, processingInstructions);
 	}
@@ -29,23 +39,83 @@ public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants
 		start(PROFILE_ELEMENT);
 		attribute(ID_ATTRIBUTE, profile.getProfileId());
 		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(profile.getTimestamp()));
-		writeProperties(profile.getProperties());
+		IProfile parent = profile instanceof Profile ? ((Profile) profile).getParentProfile() : null;
+		if (parent != null) {
+			//the properties inherited from the parent are read from the parent
+			attribute(PARENT_ID_ATTRIBUTE, parent.getProfileId());
+			writeProperties(((Profile) profile).getLocalProperties());
+		} else {
+			writeProperties(profile.getProperties());
+		}
 		ArrayList<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
-		Collections.sort(ius, new Comparator<IInstallableUnit>() {
-			public int compare(IInstallableUnit iu1, IInstallableUnit iu2) {
-				int IdCompare = iu1.getId().compareTo(iu2.getId());
-				if (IdCompare != 0)
-					return IdCompare;
-
-				return iu1.getVersion().compareTo(iu2.getVersion());
-			}
-		});
+		Collections.sort(ius, IU_COMPARATOR);
 		writeInstallableUnits(ius.iterator(), ius.size());
 		writeInstallableUnitsProperties(ius.iterator(), ius.size(), profile);
 		end(PROFILE_ELEMENT);
 		flush();
 	}
 
+	/**
+	 * Writes what changes from the given base state of a profile to the given state: the
+	 * properties of the state, the units that are not in the base, the units of the base that
+	 * are not in the state, and the properties of the units that are not the same.
+	 */
+	public void writeProfileDelta(IProfile profile, IProfile base) {
+		start(PROFILE_DELTA_ELEMENT);
+		attribute(ID_ATTRIBUTE, profile.getProfileId());
+		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(profile.getTimestamp()));
+		attribute(BASE_ATTRIBUTE, Long.toString(base.getTimestamp()));
+		writeProperties(profile.getProperties());
+
+		Set<IInstallableUnit> ius = profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		Set<IInstallableUnit> baseIUs = base.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		ArrayList<IInstallableUnit> added = new ArrayList<IInstallableUnit>();
+		ArrayList<IInstallableUnit> removed = new ArrayList<IInstallableUnit>();
+		ArrayList<IInstallableUnit> withProperties = new ArrayList<IInstallableUnit>();
+		ArrayList<IInstallableUnit> cleared = new ArrayList<IInstallableUnit>();
+		for (IInstallableUnit iu : ius) {
+			Map<String, String> properties = profile.getInstallableUnitProperties(iu);
+			if (!baseIUs.contains(iu)) {
+				added.add(iu);
+				withProperties.add(iu);
+			} else if (!properties.equals(base.getInstallableUnitProperties(iu))) {
+				if (properties.isEmpty())
+					cleared.add(iu);
+				else
+					withProperties.add(iu);
+			}
+		}
+		for (IInstallableUnit iu : baseIUs) {
+			if (!ius.contains(iu))
+				removed.add(iu);
+		}
+		Collections.sort(added, IU_COMPARATOR);
+		Collections.sort(removed, IU_COMPARATOR);
+		Collections.sort(withProperties, IU_COMPARATOR);
+		Collections.sort(cleared, IU_COMPARATOR);
+
+		writeInstallableUnits(added.iterator(), added.size());
+		writeInstallableUnitReferences(REMOVED_UNITS_ELEMENT, removed);
+		writeInstallableUnitsProperties(withProperties.iterator(), withProperties.size(), profile);
+		writeInstallableUnitReferences(CLEARED_IUS_PROPERTIES_ELEMENT, cleared);
+		end(PROFILE_DELTA_ELEMENT);
+		flush();
+	}
+
+	private void writeInstallableUnitReferences(String element, List<IInstallableUnit> ius) {
+		if (ius.isEmpty())
+			return;
+		start(element);
+		attribute(COLLECTION_SIZE_ATTRIBUTE, ius.size());
+		for (IInstallableUnit iu : ius) {
+			start(INSTALLABLE_UNIT_ELEMENT);
+			attribute(ID_ATTRIBUTE, iu.getId());
+			attribute(VERSION_ATTRIBUTE, iu.getVersion().toString());
+			end(INSTALLABLE_UNIT_ELEMENT);
+		}
+		end(element);
+	}
+
 	private void writeInstallableUnitsProperties(Iterator<IInstallableUnit> it, int size, IProfile profile) {
 		if (size == 0)
 			return;
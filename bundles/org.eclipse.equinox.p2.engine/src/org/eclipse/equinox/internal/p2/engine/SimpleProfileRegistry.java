@@ -12,10 +12,12 @@
 package org.eclipse.equinox.internal.p2.engine;
 
 import java.io.*;
-import java.lang.ref.SoftReference;
 import java.net.URI;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import javax.xml.parsers.ParserConfigurationException;
@@ -34,8 +36,8 @@ import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
 
 public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
@@ -45,6 +47,11 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	private static final String PROFILE_EXT = ".profile"; //$NON-NLS-1$
 	private static final String PROFILE_GZ_EXT = ".profile.gz"; //$NON-NLS-1$
+	private static final String PROFILE_DELTA_EXT = ".profile.delta.gz"; //$NON-NLS-1$
+	private static final String PROFILE_BINARY_EXT = ".profile.bin"; //$NON-NLS-1$
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 10;
+	private static final long COMPACT_HISTORY_DELAY = 5000;
+	private static final int DEFAULT_PROFILE_CACHE_SIZE = 32;
 	public static final String DEFAULT_STORAGE_DIR = "profileRegistry"; //$NON-NLS-1$
 	private static final String DATA_EXT = ".data"; //$NON-NLS-1$
 
@@ -54,10 +61,10 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	protected final IProvisioningAgent agent;
 
 	/**
-	 * Reference to Map of String(Profile id)->Profile. 
+	 * The profiles loaded so far, keyed by profile id.
 	 */
-	private SoftReference<Map<String, Profile>> profiles;
-	private Map<String, ProfileLock> profileLocks = new HashMap<String, ProfileLock>();
+	private final ProfileCache profiles;
+	private final ConcurrentMap<String, ProfileLock> profileLocks = new ConcurrentHashMap<String, ProfileLock>();
 
 	private String self;
 
@@ -72,6 +79,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	// cache of last accessed profile state properties
 	private ProfileStateProperties lastAccessedProperties;
 
+	//The profiles whose history has been scheduled for compaction
+	private final Set<String> compactedProfiles = new HashSet<String>();
+
+	//The parent of each sub-profile keyed by the id of the sub-profile, read from the profile files
+	//when first needed since the profiles are read one at a time
+	private Map<String, String> parentIds;
+	private final Object parentIdsLock = new Object();
+
 	public SimpleProfileRegistry(IProvisioningAgent agent, File registryDirectory) {
 		this(agent, registryDirectory, new SurrogateProfileHandler(agent), true);
 	}
@@ -81,6 +96,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		store = registryDirectory;
 		surrogateProfileHandler = handler;
 		Assert.isNotNull(store, "Profile registry requires a directory"); //$NON-NLS-1$
+		profiles = new ProfileCache(getProfileCacheSize());
 		findSelf();
 		this.updateSelfProfile = updateSelfProfile;
 	}
@@ -125,17 +141,27 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		return registryDirectory;
 	}
 
+	private static int getProfileCacheSize() {
+		BundleContext context = EngineActivator.getContext();
+		String value = context == null ? null : context.getProperty(EngineActivator.PROP_PROFILE_CACHE_SIZE);
+		if (value != null) {
+			try {
+				int size = Integer.parseInt(value);
+				if (size > 0)
+					return size;
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+			System.err.println("Ignoring user-specified '" + EngineActivator.PROP_PROFILE_CACHE_SIZE + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return DEFAULT_PROFILE_CACHE_SIZE;
+	}
+
 	/**
 	 * If the current profile for self is marked as a roaming profile, we need
 	 * to update its install and bundle pool locations.
 	 */
-	private void updateSelfProfile(Map<String, Profile> profileMap) {
-		if (profileMap == null)
-			return;
-		Profile selfProfile = profileMap.get(self);
-		if (selfProfile == null)
-			return;
-
+	private void updateSelfProfile(Profile selfProfile) {
 		//register default locale provider where metadata translations are found
 		//TODO ideally this should not be hard-coded to the current profile
 		TranslationSupport.getInstance().setTranslationSource(selfProfile);
@@ -172,47 +198,187 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	public synchronized String toString() {
-		return "Profile registry for location: " + store.getAbsolutePath() + "\n" + getProfileMap().toString(); //$NON-NLS-1$ //$NON-NLS-2$
+		return "Profile registry for location: " + store.getAbsolutePath() + "\n" + profiles.toString(); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Returns the cache of the profiles of this registry.
+	 */
+	public ProfileCache getProfileCache() {
+		return profiles;
+	}
+
+	public IProfile getProfile(String id) {
+		if (SELF.equals(id) || (self != null && self.equals(id))) {
+			//the self profile may be replaced when it is read
+			synchronized (this) {
+				Profile profile = internalGetProfile(id);
+				if (profile == null)
+					return null;
+				return profile.snapshot();
+			}
+		}
+		return snapshot(getCachedProfile(id));
 	}
 
-	public synchronized IProfile getProfile(String id) {
-		Profile profile = internalGetProfile(id);
+	/*
+	 * Returns a snapshot of the given cached profile, which may be updated by another thread.
+	 */
+	private IProfile snapshot(Profile profile) {
 		if (profile == null)
 			return null;
-		return profile.snapshot();
+		Lock lock = profiles.getLock(profile.getProfileId()).readLock();
+		lock.lock();
+		try {
+			return profile.snapshot();
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	public synchronized IProfile getProfile(String id, long timestamp) {
+	public IProfile getProfile(String id, long timestamp) {
 		if (SELF.equals(id))
 			id = self;
-
-		if (profiles != null) {
-			IProfile profile = getProfile(id);
-			if (profile != null && profile.getTimestamp() == timestamp)
-				return profile;
-		}
-
-		File profileDirectory = getProfileFolder(id);
-		if (!profileDirectory.isDirectory())
+		if (id == null)
 			return null;
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
+		Lock lock = profiles.getLock(id).readLock();
+		lock.lock();
+		try {
+			Profile current = profiles.peek(id);
+			if (current != null && current.getTimestamp() == timestamp)
+				return current.snapshot();
+
+			File profileDirectory = getProfileFolder(id);
+			if (!profileDirectory.isDirectory())
 				return null;
+
+			File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
+			if (!profileFile.exists()) {
+				profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
+				if (!profileFile.exists()) {
+					if (new File(profileDirectory, Long.toString(timestamp) + PROFILE_DELTA_EXT).exists())
+						return rebuildProfile(id, profileDirectory, timestamp);
+					return null;
+				}
+			}
+			return loadProfile(id, profileFile);
+		} finally {
+			lock.unlock();
 		}
+	}
 
+	private Profile loadProfile(String id, File profileFile) {
 		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
 		try {
 			parser.parse(profileFile);
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
 		}
-		return parser.getProfileMap().get(id);
+		ProfileParser.ProfileHandler profileHandler = parser.getProfileHandlers().get(id);
+		if (profileHandler == null)
+			return null;
+		//a state of a sub-profile inherits the properties of a copy of the parent, if it is loaded
+		Profile parent = null;
+		if (profileHandler.getParentId() != null)
+			parent = (Profile) snapshot(profiles.peek(profileHandler.getParentId()));
+		return parser.createProfile(profileHandler, parent);
+	}
+
+	/*
+	 * Rebuilds a state of a profile stored as the changes from the next state, by applying
+	 * the changes from the nearest state stored in full.
+	 */
+	private Profile rebuildProfile(String id, File profileDirectory, long timestamp) {
+		List<File> deltas = new ArrayList<File>();
+		File profileFile = null;
+		for (File file : getHistoryFiles(profileDirectory).tailMap(Long.valueOf(timestamp)).values()) {
+			if (!isDelta(file)) {
+				profileFile = file;
+				break;
+			}
+			deltas.add(file);
+		}
+		if (profileFile == null)
+			return null;
+		Profile profile = loadProfile(id, profileFile);
+		for (int i = deltas.size() - 1; i >= 0 && profile != null; i--)
+			profile = applyDelta(profile, deltas.get(i));
+		return profile;
+	}
+
+	/*
+	 * Returns the state of a profile stored in the given file as the changes from the given state.
+	 */
+	private Profile applyDelta(Profile base, File deltaFile) {
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		ProfileParser.ProfileDeltaHandler delta;
+		try {
+			delta = parser.parseDelta(deltaFile);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, deltaFile), e));
+			return null;
+		}
+		if (!base.getProfileId().equals(delta.getProfileId()) || base.getTimestamp() != delta.getBase()) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, deltaFile)));
+			return null;
+		}
+
+		Profile profile = new Profile(agent, base.getProfileId(), null, delta.getProperties());
+		if (surrogateProfileHandler != null && surrogateProfileHandler.isSurrogate(profile))
+			profile.setSurrogateProfileHandler(surrogateProfileHandler);
+		profile.setTimestamp(delta.getTimestamp());
+		for (Iterator<IInstallableUnit> it = base.query(QueryUtil.createIUAnyQuery(), null).iterator(); it.hasNext();) {
+			IInstallableUnit iu = it.next();
+			if (delta.isRemoved(iu))
+				continue;
+			profile.addInstallableUnit(iu);
+			Map<String, String> iuProperties = delta.getIUProperties(iu);
+			profile.addInstallableUnitProperties(iu, iuProperties != null ? iuProperties : base.getInstallableUnitProperties(iu));
+		}
+		IInstallableUnit[] ius = delta.getInstallableUnits();
+		for (int i = 0; i < ius.length; i++) {
+			profile.addInstallableUnit(ius[i]);
+			Map<String, String> iuProperties = delta.getIUProperties(ius[i]);
+			if (iuProperties != null)
+				profile.addInstallableUnitProperties(ius[i], iuProperties);
+		}
+		profile.setChanged(false);
+		return profile;
+	}
+
+	private static boolean isDelta(File file) {
+		return file.getName().endsWith(PROFILE_DELTA_EXT);
+	}
+
+	/*
+	 * Returns the files of the states of a profile by timestamp. A state stored both in full
+	 * and as changes is returned in full.
+	 */
+	private SortedMap<Long, File> getHistoryFiles(File profileDirectory) {
+		SortedMap<Long, File> history = new TreeMap<Long, File>();
+		File[] profileFiles = profileDirectory.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				return (pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_DELTA_EXT)) && pathname.isFile() && !pathname.getName().startsWith("._"); //$NON-NLS-1$
+			}
+		});
+		// protect against NPE
+		if (profileFiles == null)
+			return history;
+		for (int i = 0; i < profileFiles.length; i++) {
+			String fileName = profileFiles[i].getName();
+			try {
+				Long timestamp = Long.valueOf(fileName.substring(0, fileName.indexOf(PROFILE_EXT)));
+				if (!isDelta(profileFiles[i]) || !history.containsKey(timestamp))
+					history.put(timestamp, profileFiles[i]);
+			} catch (NumberFormatException e) {
+				// ignore
+			}
+		}
+		return history;
 	}
 
-	public synchronized long[] listProfileTimestamps(String id) {
+	public long[] listProfileTimestamps(String id) {
 		if (SELF.equals(id))
 			id = self;
 		//guard against null self profile
@@ -225,7 +391,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 		File[] profileFiles = profileDirectory.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
-				return (pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_GZ_EXT)) && pathname.isFile() && !pathname.getName().startsWith("._"); //$NON-NLS-1$
+				return (pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_DELTA_EXT)) && pathname.isFile() && !pathname.getName().startsWith("._"); //$NON-NLS-1$
 			}
 		});
 
@@ -240,13 +406,24 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			}
 		}
 		Arrays.sort(timestamps);
+		//a state being converted is briefly stored both in full and as changes
+		int count = 0;
+		for (int i = 0; i < timestamps.length; i++) {
+			if (count == 0 || timestamps[i] != timestamps[count - 1])
+				timestamps[count++] = timestamps[i];
+		}
+		if (count < timestamps.length) {
+			long[] unique = new long[count];
+			System.arraycopy(timestamps, 0, unique, 0, count);
+			return unique;
+		}
 		return timestamps;
 	}
 
 	private Profile internalGetProfile(String id) {
 		if (SELF.equals(id))
 			id = self;
-		Profile profile = getProfileMap().get(id);
+		Profile profile = getCachedProfile(id);
 		if (self != null && self.equals(id)) {
 			boolean resetProfile = false;
 			if (profile != null && ignoreExistingProfile(profile)) {
@@ -339,62 +516,91 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			return null;
 
 		saveProfile(profile);
-		resetProfiles();
-		return getProfileMap().get(id);
+		profiles.remove(id);
+		return getCachedProfile(id);
 	}
 
-	public synchronized IProfile[] getProfiles() {
-		Map<String, Profile> profileMap = getProfileMap();
-		Profile[] result = new Profile[profileMap.size()];
-		int i = 0;
-		for (Profile profile : profileMap.values()) {
-			result[i++] = profile.snapshot();
+	public IProfile[] getProfiles() {
+		List<IProfile> result = new ArrayList<IProfile>();
+		for (String id : listProfileIds()) {
+			IProfile profile = snapshot(getCachedProfile(id));
+			if (profile != null)
+				result.add(profile);
 		}
-		return result;
+		return result.toArray(new IProfile[result.size()]);
 	}
 
-	/**
-	 * Returns an initialized map of String(Profile id)->Profile. 
+	/*
+	 * Returns the profile with the given id, reading it if it is not in the cache. A cached profile
+	 * is returned without taking the registry lock, except for the self profile which may be updated
+	 * when it is read. Reading a profile from disk takes the profile lock, whose bookkeeping is
+	 * guarded by the registry lock so that threads waiting for a profile lock release the registry.
+	 * The registry lock is therefore held briefly when a profile is read from disk, but not while
+	 * the profile is parsed.
 	 */
-	protected Map<String, Profile> getProfileMap() {
-		if (profiles != null) {
-			Map<String, Profile> result = profiles.get();
-			if (result != null)
-				return result;
-		}
-		Map<String, Profile> result = restore();
-		if (result == null)
-			result = new LinkedHashMap<String, Profile>(8);
-		profiles = new SoftReference<Map<String, Profile>>(result);
-		if (updateSelfProfile) {
-			//update self profile on first load
-			updateSelfProfile(result);
+	private Profile getCachedProfile(String id) {
+		if (id == null)
+			return null;
+		if (id.equals(self) && !Thread.holdsLock(this)) {
+			synchronized (this) {
+				return getCachedProfile(id);
+			}
 		}
-		return result;
+		Profile profile = profiles.get(id);
+		while (profile == null) {
+			long generation = profiles.getGeneration(id);
+			Profile loaded = restoreProfile(id);
+			if (loaded == null)
+				return null;
+			//the profile is read again if it was saved or evicted in the meantime
+			profile = profiles.putLoaded(id, loaded, generation);
+			if (profile == loaded && updateSelfProfile && id.equals(self)) {
+				Lock stateLock = profiles.getLock(id).writeLock();
+				stateLock.lock();
+				try {
+					updateSelfProfile(profile);
+				} finally {
+					stateLock.unlock();
+				}
+			}
+		}
+		return profile;
 	}
 
 	public synchronized void updateProfile(Profile profile) {
 		String id = profile.getProfileId();
-		Profile current = getProfileMap().get(id);
+		Profile current = getCachedProfile(id);
 		if (current == null)
 			throw new IllegalArgumentException(NLS.bind(Messages.profile_does_not_exist, id));
 
 		ProfileLock lock = profileLocks.get(id);
 		lock.checkLocked();
 
-		current.clearLocalProperties();
-		current.clearInstallableUnits();
-
-		current.addProperties(profile.getLocalProperties());
-		IQueryResult<IInstallableUnit> queryResult = profile.query(QueryUtil.createIUAnyQuery(), null);
-		for (Iterator<IInstallableUnit> queryResultIt = queryResult.iterator(); queryResultIt.hasNext();) {
-			IInstallableUnit iu = queryResultIt.next();
-			current.addInstallableUnit(iu);
-			Map<String, String> iuProperties = profile.getInstallableUnitProperties(iu);
-			if (iuProperties != null)
-				current.addInstallableUnitProperties(iu, iuProperties);
+		Lock stateLock = profiles.getLock(id).writeLock();
+		stateLock.lock();
+		try {
+			//the previous state is kept as the changes from the new state
+			Profile previous = isDeltaHistory() ? current.snapshot() : null;
+			current.clearLocalProperties();
+			current.clearInstallableUnits();
+
+			current.addProperties(profile.getLocalProperties());
+			IQueryResult<IInstallableUnit> queryResult = profile.query(QueryUtil.createIUAnyQuery(), null);
+			for (Iterator<IInstallableUnit> queryResultIt = queryResult.iterator(); queryResultIt.hasNext();) {
+				IInstallableUnit iu = queryResultIt.next();
+				current.addInstallableUnit(iu);
+				Map<String, String> iuProperties = profile.getInstallableUnitProperties(iu);
+				if (iuProperties != null)
+					current.addInstallableUnitProperties(iu, iuProperties);
+			}
+			saveProfile(current);
+			if (previous != null && previous.getTimestamp() != current.getTimestamp())
+				saveHistoryDelta(previous, current);
+			//a reader that loaded the profile before it was saved must not cache the older state
+			profiles.put(id, current);
+		} finally {
+			stateLock.unlock();
 		}
-		saveProfile(current);
 		profile.clearOrphanedInstallableUnitProperties();
 		profile.setTimestamp(current.getTimestamp());
 		broadcastChangeEvent(id, IProfileEvent.CHANGED);
@@ -411,15 +617,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	public synchronized IProfile addProfile(String id, Map<String, String> profileProperties, String parentId) throws ProvisionException {
 		if (SELF.equals(id))
 			id = self;
-		Map<String, Profile> profileMap = getProfileMap();
-		if (profileMap.get(id) != null)
+		if (getCachedProfile(id) != null)
 			throw new ProvisionException(NLS.bind(Messages.Profile_Duplicate_Root_Profile_Id, id));
 
 		Profile parent = null;
 		if (parentId != null) {
 			if (SELF.equals(parentId))
 				parentId = self;
-			parent = profileMap.get(parentId);
+			parent = getCachedProfile(parentId);
 			if (parent == null)
 				throw new ProvisionException(NLS.bind(Messages.Profile_Parent_Not_Found, parentId));
 		}
@@ -427,8 +632,10 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		Profile profile = new Profile(agent, id, parent, profileProperties);
 		if (surrogateProfileHandler != null && surrogateProfileHandler.isSurrogate(profile))
 			profile.setSurrogateProfileHandler(surrogateProfileHandler);
-		profileMap.put(id, profile);
 		saveProfile(profile);
+		profiles.put(id, profile);
+		if (parentId != null)
+			setParentId(id, parentId);
 		broadcastChangeEvent(id, IProfileEvent.ADDED);
 		return profile.snapshot();
 	}
@@ -436,33 +643,34 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	public synchronized void removeProfile(String profileId) {
 		if (SELF.equals(profileId))
 			profileId = self;
-		//note we need to maintain a reference to the profile map until it is persisted to prevent gc
-		Map<String, Profile> profileMap = getProfileMap();
-		Profile profile = profileMap.get(profileId);
+		Profile profile = getCachedProfile(profileId);
 		if (profile == null)
 			return;
 
-		List<String> subProfileIds = profile.getSubProfileIds();
+		//removing a sub-profile unlinks it from the profile
+		List<String> subProfileIds = new ArrayList<String>(profile.getSubProfileIds());
 		for (int i = 0; i < subProfileIds.size(); i++) {
 			removeProfile(subProfileIds.get(i));
 		}
+		// only the profile itself is locked, not its parent
 		internalLockProfile(profile);
-		// The above call recursively locked the parent(s). So save it away to rewind the locking process.
-		IProfile savedParent = profile.getParentProfile();
 		try {
 			profile.setParent(null);
 		} finally {
 			internalUnlockProfile(profile);
-			// The above call will not recurse since parent is now null. So do it explicitly.
-			if (savedParent != null) {
-				internalUnlockProfile(savedParent);
-			}
 		}
-		profileMap.remove(profileId);
-		profileLocks.remove(profileId);
-		// deleting the profile removes the folder and subsequently all
-		// the profile state properties as well since they are stored in a file in the folder.
-		deleteProfile(profileId);
+		Lock stateLock = profiles.getLock(profileId).writeLock();
+		stateLock.lock();
+		try {
+			profiles.remove(profileId);
+			profileLocks.remove(profileId);
+			setParentId(profileId, null);
+			// deleting the profile removes the folder and subsequently all
+			// the profile state properties as well since they are stored in a file in the folder.
+			deleteProfile(profileId);
+		} finally {
+			stateLock.unlock();
+		}
 		broadcastChangeEvent(profileId, IProfileEvent.REMOVED);
 	}
 
@@ -470,23 +678,48 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (SELF.equals(id))
 			id = self;
 
-		if (profiles != null) {
-			IProfile profile = getProfile(id);
-			if (profile != null && profile.getTimestamp() == timestamp)
-				throw new ProvisionException(Messages.SimpleProfileRegistry_CannotRemoveCurrentSnapshot);
-		}
-
-		File profileDirectory = getProfileFolder(id);
-		if (!profileDirectory.isDirectory())
-			return;
+		Profile current = getCachedProfile(id);
+		if (current != null && current.getTimestamp() == timestamp)
+			throw new ProvisionException(Messages.SimpleProfileRegistry_CannotRemoveCurrentSnapshot);
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
+		Lock stateLock = profiles.getLock(id).writeLock();
+		stateLock.lock();
+		try {
+			File profileDirectory = getProfileFolder(id);
+			if (!profileDirectory.isDirectory())
 				return;
+
+			File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
+			if (!profileFile.exists()) {
+				profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
+				if (!profileFile.exists()) {
+					profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_DELTA_EXT);
+					if (!profileFile.exists())
+						return;
+				}
+			}
+			//the previous state can't be stored as the changes from the removed state
+			SortedMap<Long, File> previousStates = getHistoryFiles(profileDirectory).headMap(Long.valueOf(timestamp));
+			if (!previousStates.isEmpty()) {
+				Long previousTimestamp = previousStates.lastKey();
+				File previousFile = previousStates.get(previousTimestamp);
+				if (isDelta(previousFile)) {
+					Profile previous = rebuildProfile(id, profileDirectory, previousTimestamp.longValue());
+					if (previous == null || !writeHistoryFile(new File(profileDirectory, previousTimestamp + PROFILE_GZ_EXT), previous, null))
+						throw new ProvisionException(NLS.bind(Messages.error_persisting_profile, id));
+					previousFile.delete();
+				}
+			}
+			deleteStateFile(profileFile);
+			File indexFile = new File(profileDirectory, ProfileHistoryIndex.INDEX_FILENAME);
+			if (indexFile.isFile()) {
+				ProfileHistoryIndex index = readHistoryIndex(id);
+				index.remove(timestamp);
+				writeHistoryIndex(id, index);
+			}
+		} finally {
+			stateLock.unlock();
 		}
-		FileUtils.deleteAll(profileFile);
 		// Ignore the return value here. If there was a problem removing the profile state
 		// properties we don't want to fail the whole operation since the profile state itself 
 		// was removed successfully
@@ -498,54 +731,154 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			eventBus.publishEvent(new ProfileEvent(profileId, reason));
 	}
 
-	/**
-	 * Restores the profile registry from disk, and returns the loaded profile map.
-	 * Returns <code>null</code> if unable to read the registry.
+	/*
+	 * Returns the ids of the profiles stored in the registry.
 	 */
-	private Map<String, Profile> restore() {
+	private List<String> listProfileIds() {
 		if (store == null || !store.isDirectory())
 			throw new IllegalStateException(NLS.bind(Messages.reg_dir_not_available, store));
 
-		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
 		File[] profileDirectories = store.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
 				return pathname.getName().endsWith(PROFILE_EXT) && pathname.isDirectory();
 			}
 		});
+		List<String> result = new ArrayList<String>();
 		// protect against NPE
-		if (profileDirectories == null) {
-			parser.getProfileMap();
-		}
+		if (profileDirectories == null)
+			return result;
 		for (int i = 0; i < profileDirectories.length; i++) {
 			String directoryName = profileDirectories[i].getName();
-			String profileId = unescape(directoryName.substring(0, directoryName.lastIndexOf(PROFILE_EXT)));
-			ProfileLock lock = profileLocks.get(profileId);
-			if (lock == null) {
-				lock = new ProfileLock(this, profileDirectories[i]);
-				profileLocks.put(profileId, lock);
-			}
+			result.add(unescape(directoryName.substring(0, directoryName.lastIndexOf(PROFILE_EXT))));
+		}
+		return result;
+	}
+
+	/**
+	 * Restores the profile with the given id from disk. Returns <code>null</code> if
+	 * there is no such profile or if it could not be read.
+	 */
+	private Profile restoreProfile(String id) {
+		if (store == null || !store.isDirectory())
+			throw new IllegalStateException(NLS.bind(Messages.reg_dir_not_available, store));
 
-			boolean locked = false;
-			if (lock.processHoldsLock() || (locked = lock.lock())) {
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return null;
+
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		ProfileLock lock = getProfileLock(id);
+		boolean locked = false;
+		if (lock.processHoldsLock() || (locked = lock.lock())) {
+			try {
+				//another thread of this process holding the profile lock may be saving the profile
+				Lock stateLock = profiles.getLock(id).readLock();
+				stateLock.lock();
 				try {
-					File profileFile = findLatestProfileFile(profileDirectories[i]);
-					if (profileFile != null) {
-						try {
-							parser.parse(profileFile);
-						} catch (IOException e) {
-							LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
-						}
+					File profileFile = findLatestProfileFile(profileDirectory);
+					if (profileFile == null)
+						return null;
+					try {
+						parser.parse(profileFile);
+					} catch (IOException e) {
+						LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
 					}
 				} finally {
-					if (locked)
-						lock.unlock();
+					stateLock.unlock();
+				}
+			} finally {
+				if (locked)
+					lock.unlock();
+			}
+		} else {
+			// could not lock the profile, so add a place holder
+			parser.addProfilePlaceHolder(id);
+		}
+		ProfileParser.ProfileHandler profileHandler = parser.getProfileHandlers().get(id);
+		if (profileHandler == null)
+			return null;
+		Profile parent = null;
+		if (profileHandler.getParentId() != null) {
+			setParentId(id, profileHandler.getParentId());
+			parent = getCachedProfile(profileHandler.getParentId());
+		}
+		Profile profile = parser.createProfile(profileHandler, parent);
+		//the sub-profiles that are not loaded yet are not linked to the profile
+		for (String subProfileId : getSubProfileIds(id))
+			profile.addSubProfile(subProfileId);
+		return profile;
+	}
+
+	/*
+	 * Returns the ids of the profiles whose parent is the given profile.
+	 */
+	private List<String> getSubProfileIds(String id) {
+		List<String> result = new ArrayList<String>();
+		synchronized (parentIdsLock) {
+			if (parentIds == null) {
+				parentIds = new HashMap<String, String>();
+				for (String profileId : listProfileIds()) {
+					String parentId = readParentId(profileId);
+					if (parentId != null)
+						parentIds.put(profileId, parentId);
 				}
-			} else {
-				// could not lock the profile, so add a place holder
-				parser.addProfilePlaceHolder(profileId);
+			}
+			for (Entry<String, String> entry : parentIds.entrySet()) {
+				if (entry.getValue().equals(id))
+					result.add(entry.getKey());
 			}
 		}
-		return parser.getProfileMap();
+		return result;
+	}
+
+	/*
+	 * Records the parent of the given profile, or that it has no parent, once the parents have been read.
+	 */
+	private void setParentId(String id, String parentId) {
+		synchronized (parentIdsLock) {
+			if (parentIds == null)
+				return;
+			if (parentId == null)
+				parentIds.remove(id);
+			else
+				parentIds.put(id, parentId);
+		}
+	}
+
+	/*
+	 * Returns the id of the parent of the given profile, without reading the whole profile.
+	 */
+	private String readParentId(String id) {
+		Profile profile = profiles.peek(id);
+		if (profile != null) {
+			IProfile parent = profile.getParentProfile();
+			return parent == null ? null : parent.getProfileId();
+		}
+		Lock stateLock = profiles.getLock(id).readLock();
+		stateLock.lock();
+		File profileFile = null;
+		try {
+			profileFile = findLatestProfileFile(getProfileFolder(id));
+			if (profileFile == null)
+				return null;
+			return new Parser(EngineActivator.getContext(), EngineActivator.ID).parseParentId(profileFile);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			return null;
+		} finally {
+			stateLock.unlock();
+		}
+	}
+
+	private ProfileLock getProfileLock(String id) {
+		ProfileLock lock = profileLocks.get(id);
+		if (lock == null) {
+			lock = new ProfileLock(this, getProfileFolder(id));
+			ProfileLock existing = profileLocks.putIfAbsent(id, lock);
+			if (existing != null)
+				lock = existing;
+		}
+		return lock;
 	}
 
 	private File findLatestProfileFile(File profileDirectory) {
@@ -600,10 +933,115 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				os = new BufferedOutputStream(new FileOutputStream(profileFile));
 			Writer writer = new Writer(os);
 			writer.writeProfile(profile);
+			os.close();
+			os = null;
 		} catch (IOException e) {
 			profile.setTimestamp(previousTimestamp);
 			profileFile.delete();
 			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
+			return;
+		} finally {
+			try {
+				if (os != null)
+					os.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+
+		boolean binary = isBinaryProfile();
+		if (binary)
+			writeBinaryProfile(profileFile, profile);
+		File indexFile = new File(profileDirectory, ProfileHistoryIndex.INDEX_FILENAME);
+		if (binary || indexFile.isFile()) {
+			ProfileHistoryIndex index = readHistoryIndex(profile.getProfileId());
+			index.put(ProfileSummary.create(profile));
+			writeHistoryIndex(profile.getProfileId(), index);
+		}
+	}
+
+	/**
+	 * Returns whether a binary copy of the full states of the profiles is written.
+	 */
+	private boolean isBinaryProfile() {
+		return Boolean.valueOf(EngineActivator.getContext().getProperty(EngineActivator.PROP_PROFILE_BINARY)).booleanValue();
+	}
+
+	/*
+	 * Returns the binary copy of the given file holding a full state of a profile.
+	 */
+	private File getBinaryFile(File profileFile) {
+		String fileName = profileFile.getName();
+		return new File(profileFile.getParentFile(), fileName.substring(0, fileName.indexOf(PROFILE_EXT)) + PROFILE_BINARY_EXT);
+	}
+
+	/*
+	 * Writes the binary copy of the given file holding the given state of a profile. The copy
+	 * is only read while the file has the length and modification time recorded in the copy,
+	 * so it is written after the file.
+	 */
+	private void writeBinaryProfile(File profileFile, Profile state) {
+		File binaryFile = getBinaryFile(profileFile);
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(binaryFile);
+			new BinaryProfileWriter(os).writeProfile(state, profileFile);
+			os.close();
+			os = null;
+			return;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, state.getProfileId()), e));
+		} finally {
+			try {
+				if (os != null)
+					os.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+		binaryFile.delete();
+	}
+
+	/*
+	 * Deletes the given file holding a state of a profile along with its binary copy.
+	 */
+	private boolean deleteStateFile(File file) {
+		if (!isDelta(file))
+			getBinaryFile(file).delete();
+		return file.delete();
+	}
+
+	/*
+	 * Returns the index of the history of the given profile, which is empty if there is none yet
+	 * or if it could not be read.
+	 */
+	private ProfileHistoryIndex readHistoryIndex(String id) {
+		File indexFile = new File(getProfileFolder(id), ProfileHistoryIndex.INDEX_FILENAME);
+		if (indexFile.isFile()) {
+			try {
+				return ProfileHistoryIndex.read(indexFile);
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, indexFile), e));
+			}
+		}
+		return new ProfileHistoryIndex();
+	}
+
+	private void writeHistoryIndex(String id, ProfileHistoryIndex index) {
+		File profileDirectory = getProfileFolder(id);
+		File indexFile = new File(profileDirectory, ProfileHistoryIndex.INDEX_FILENAME);
+		File tempFile = new File(profileDirectory, ProfileHistoryIndex.INDEX_FILENAME + ".tmp"); //$NON-NLS-1$
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(tempFile);
+			index.write(os);
+			os.close();
+			os = null;
+			indexFile.delete();
+			if (tempFile.renameTo(indexFile))
+				return;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id), e));
 		} finally {
 			try {
 				if (os != null)
@@ -612,6 +1050,256 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				// ignore
 			}
 		}
+		tempFile.delete();
+	}
+
+	/**
+	 * Returns the summary of the given state of a profile, which is read from the index of the
+	 * history of the profile. The summary of a state that is not in the index yet is added to it.
+	 *
+	 * @param id the id of the profile
+	 * @param timestamp the timestamp of the state
+	 * @return the summary of the state, or <code>null</code> if there is no such state
+	 */
+	public synchronized ProfileSummary getProfileSummary(String id, long timestamp) {
+		ProfileSummary[] summaries = getProfileSummaries(id, new long[] {timestamp});
+		return summaries[0];
+	}
+
+	/**
+	 * Returns the summaries of all the states of a profile, oldest first.
+	 *
+	 * @param id the id of the profile
+	 * @return the summaries of the states
+	 * @see #getProfileSummary(String, long)
+	 */
+	public synchronized ProfileSummary[] getProfileSummaries(String id) {
+		List<ProfileSummary> result = new ArrayList<ProfileSummary>();
+		for (ProfileSummary summary : getProfileSummaries(id, listProfileTimestamps(id))) {
+			if (summary != null)
+				result.add(summary);
+		}
+		return result.toArray(new ProfileSummary[result.size()]);
+	}
+
+	private ProfileSummary[] getProfileSummaries(String id, long[] timestamps) {
+		if (SELF.equals(id))
+			id = self;
+		ProfileSummary[] summaries = new ProfileSummary[timestamps.length];
+		if (id == null || !getProfileFolder(id).isDirectory())
+			return summaries;
+
+		ProfileHistoryIndex index = readHistoryIndex(id);
+		boolean changed = false;
+		for (int i = 0; i < timestamps.length; i++) {
+			try {
+				summaries[i] = index.getSummary(timestamps[i]);
+			} catch (IOException e) {
+				// read the state instead
+			}
+			if (summaries[i] == null) {
+				IProfile state = getProfile(id, timestamps[i]);
+				if (state == null)
+					continue;
+				summaries[i] = ProfileSummary.create(state);
+				index.put(summaries[i]);
+				changed = true;
+			}
+		}
+		if (changed)
+			writeHistoryIndex(id, index);
+		return summaries;
+	}
+
+	/**
+	 * Returns whether the earlier states of the profiles are stored as changes.
+	 */
+	private boolean isDeltaHistory() {
+		return EngineActivator.PROFILE_HISTORY_FORMAT_DELTA.equals(EngineActivator.getContext().getProperty(EngineActivator.PROP_PROFILE_HISTORY_FORMAT));
+	}
+
+	private int getCheckpointInterval() {
+		String value = EngineActivator.getContext().getProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL);
+		if (value != null) {
+			try {
+				int interval = Integer.parseInt(value);
+				if (interval > 0)
+					return interval;
+			} catch (NumberFormatException e) {
+				// fall through
+			}
+			System.err.println("Ignoring user-specified '" + EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL + "' value of: " + value); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return DEFAULT_CHECKPOINT_INTERVAL;
+	}
+
+	/*
+	 * Returns whether each state should be stored in full rather than as the changes from the
+	 * next state. The latest state is stored in full, and so is a state when the states stored
+	 * as changes right before it reach the checkpoint interval.
+	 */
+	private static boolean[] getCheckpoints(int states, int interval) {
+		boolean[] checkpoints = new boolean[states];
+		int deltas = 0;
+		for (int i = 0; i < states; i++) {
+			checkpoints[i] = i == states - 1 || deltas >= interval - 1;
+			deltas = checkpoints[i] ? 0 : deltas + 1;
+		}
+		return checkpoints;
+	}
+
+	/*
+	 * Stores the given state, which was just replaced by the given base state, as the changes
+	 * from the base state unless it is due to be kept in full.
+	 */
+	private void saveHistoryDelta(Profile state, Profile base) {
+		File profileDirectory = getProfileFolder(state.getProfileId());
+		File stateFile = new File(profileDirectory, Long.toString(state.getTimestamp()) + PROFILE_GZ_EXT);
+		//a profile that is not compressed is also read by engines that don't know about the changes
+		if (!stateFile.isFile() || !new File(profileDirectory, Long.toString(base.getTimestamp()) + PROFILE_GZ_EXT).isFile())
+			return;
+
+		SortedMap<Long, File> history = getHistoryFiles(profileDirectory);
+		List<File> previousFiles = new ArrayList<File>(history.headMap(Long.valueOf(state.getTimestamp())).values());
+		int deltas = 0;
+		for (int i = previousFiles.size() - 1; i >= 0 && isDelta(previousFiles.get(i)); i--)
+			deltas++;
+		int interval = getCheckpointInterval();
+		if (deltas < interval - 1 && writeHistoryFile(new File(profileDirectory, Long.toString(state.getTimestamp()) + PROFILE_DELTA_EXT), state, base)) {
+			deleteStateFile(stateFile);
+			history.put(Long.valueOf(state.getTimestamp()), new File(profileDirectory, Long.toString(state.getTimestamp()) + PROFILE_DELTA_EXT));
+		}
+
+		//the states saved before are compacted once the profile is no longer in use
+		if (!compactedProfiles.contains(state.getProfileId()) && !isCompact(history, interval)) {
+			compactedProfiles.add(state.getProfileId());
+			new CompactHistoryJob(state.getProfileId()).schedule(COMPACT_HISTORY_DELAY);
+		}
+	}
+
+	private static boolean isCompact(SortedMap<Long, File> history, int interval) {
+		boolean[] checkpoints = getCheckpoints(history.size(), interval);
+		int i = 0;
+		for (File file : history.values()) {
+			if (checkpoints[i++] == isDelta(file))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Writes the given state of a profile in full, or as the changes from the given base state
+	 * when there is one.
+	 */
+	private boolean writeHistoryFile(File file, Profile state, Profile base) {
+		OutputStream os = null;
+		try {
+			os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file)));
+			Writer writer = new Writer(os);
+			if (base == null)
+				writer.writeProfile(state);
+			else
+				writer.writeProfileDelta(state, base);
+			os.close();
+			os = null;
+			if (base == null && isBinaryProfile())
+				writeBinaryProfile(file, state);
+			return true;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, state.getProfileId()), e));
+		} finally {
+			try {
+				if (os != null)
+					os.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+		file.delete();
+		return false;
+	}
+
+	/**
+	 * Rewrites the earlier states of the given profile so that each state is either stored
+	 * in full as a checkpoint or as the changes from the next state, as if they had been
+	 * saved with the current checkpoint interval. The latest state is left as it is.
+	 * 
+	 * @param id the id of the profile
+	 * @return <code>false</code> if the profile is in use or a state could not be read,
+	 * and <code>true</code> otherwise
+	 */
+	public synchronized boolean compactHistory(String id) {
+		if (SELF.equals(id))
+			id = self;
+		if (id == null)
+			return false;
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return true;
+
+		ProfileLock lock = getProfileLock(id);
+		if (lock.processHoldsLock() || !lock.lock())
+			return false;
+		Lock stateLock = profiles.getLock(id).writeLock();
+		stateLock.lock();
+		try {
+			SortedMap<Long, File> history = getHistoryFiles(profileDirectory);
+			int interval = getCheckpointInterval();
+			if (isCompact(history, interval))
+				return true;
+
+			List<Long> timestamps = new ArrayList<Long>(history.keySet());
+			boolean[] checkpoints = getCheckpoints(timestamps.size(), interval);
+			Profile newer = null;
+			for (int i = timestamps.size() - 1; i >= 0; i--) {
+				File file = history.get(timestamps.get(i));
+				Profile state;
+				if (!isDelta(file))
+					state = loadProfile(id, file);
+				else
+					state = newer == null ? null : applyDelta(newer, file);
+				//the earlier states can't be rebuilt, leave them as they are
+				if (state == null)
+					return false;
+
+				if (checkpoints[i] && isDelta(file)) {
+					if (writeHistoryFile(new File(profileDirectory, timestamps.get(i) + PROFILE_GZ_EXT), state, null))
+						file.delete();
+				} else if (!checkpoints[i] && !isDelta(file)) {
+					if (writeHistoryFile(new File(profileDirectory, timestamps.get(i) + PROFILE_DELTA_EXT), state, newer))
+						deleteStateFile(file);
+				}
+				newer = state;
+			}
+			return true;
+		} finally {
+			stateLock.unlock();
+			lock.unlock();
+		}
+	}
+
+	private class CompactHistoryJob extends Job {
+		private final String profileId;
+
+		CompactHistoryJob(String profileId) {
+			super(NLS.bind(Messages.SimpleProfileRegistry_Compacting_History, profileId));
+			setSystem(true);
+			this.profileId = profileId;
+		}
+
+		public boolean belongsTo(Object family) {
+			return family == ProfilePreferences.PROFILE_SAVE_JOB_FAMILY;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			if (!compactHistory(profileId)) {
+				//try again on the next update of the profile
+				synchronized (SimpleProfileRegistry.this) {
+					compactedProfiles.remove(profileId);
+				}
+			}
+			return Status.OK_STATUS;
+		}
 	}
 
 	public void setEventBus(IProvisioningEventBus bus) {
@@ -711,6 +1399,15 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		}
 
 		public void parse(File file) throws IOException {
+			File binaryFile = getBinaryFile(file);
+			if (binaryFile.isFile()) {
+				try {
+					if (parseBinary(binaryFile, file))
+						return;
+				} catch (IOException e) {
+					// fall back to the XML file
+				}
+			}
 			InputStream is;
 			if (file.getName().endsWith(PROFILE_GZ_EXT)) {
 				is = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
@@ -739,6 +1436,80 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			}
 		}
 
+		/**
+		 * Reads the id of the parent of the profile stored in the given file, without reading the
+		 * rest of the file. Returns <code>null</code> if the profile has no parent.
+		 */
+		public synchronized String parseParentId(File file) throws IOException {
+			InputStream stream;
+			if (file.getName().endsWith(PROFILE_GZ_EXT))
+				stream = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
+			else
+				stream = new BufferedInputStream(new FileInputStream(file));
+			final String[] parentId = new String[1];
+			final boolean[] read = new boolean[1];
+			try {
+				getParser();
+				xmlReader.setContentHandler(new DefaultHandler() {
+					public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+						parentId[0] = attributes.getValue(PARENT_ID_ATTRIBUTE);
+						read[0] = true;
+						//stop at the root element
+						throw new SAXException(PROFILE_ELEMENT);
+					}
+				});
+				xmlReader.parse(new InputSource(stream));
+			} catch (SAXException e) {
+				if (!read[0])
+					throw new IOException(e.getMessage());
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			} finally {
+				stream.close();
+			}
+			return parentId[0];
+		}
+
+		/**
+		 * Reads a state of a profile from its binary copy, unless the copy is not a copy of the
+		 * given XML file as it is now. Returns whether the state was read.
+		 */
+		public synchronized boolean parseBinary(File file, File source) throws IOException {
+			ProfileHandler profileHandler;
+			try {
+				BinaryProfileReader reader = BinaryProfileReader.open(file);
+				if (!reader.isCopyOf(source))
+					return false;
+				profileHandler = new LoadedProfileHandler(reader);
+			} catch (RuntimeException e) {
+				//the file is damaged
+				throw new IOException(e.getMessage());
+			}
+			profileHandlers.put(profileHandler.getProfileId(), profileHandler);
+			return true;
+		}
+
+		/**
+		 * Parses a state of a profile stored as the changes from the next state.
+		 */
+		public synchronized ProfileDeltaHandler parseDelta(File file) throws IOException {
+			this.status = null;
+			InputStream stream = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
+			try {
+				getParser();
+				ProfileDeltaHandler deltaHandler = new ProfileDeltaHandler();
+				xmlReader.setContentHandler(new ProfileDocHandler(PROFILE_DELTA_ELEMENT, deltaHandler));
+				xmlReader.parse(new InputSource(stream));
+				return deltaHandler;
+			} catch (SAXException e) {
+				throw new IOException(e.getMessage());
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			} finally {
+				stream.close();
+			}
+		}
+
 		protected Object getRootObject() {
 			return this;
 		}
@@ -759,12 +1530,20 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			Profile parentProfile = null;
 
 			String parentId = profileHandler.getParentId();
-			if (parentId != null) {
+			//the parent is not read with a single state of a profile
+			if (parentId != null && profileHandlers.containsKey(parentId)) {
 				addProfile(parentId, profileMap);
 				parentProfile = profileMap.get(parentId);
 			}
 
-			Profile profile = new Profile(agent, profileId, parentProfile, profileHandler.getProperties());
+			profileMap.put(profileId, createProfile(profileHandler, parentProfile));
+		}
+
+		/**
+		 * Creates the profile read by the given handler.
+		 */
+		public Profile createProfile(ProfileHandler profileHandler, Profile parentProfile) {
+			Profile profile = new Profile(agent, profileHandler.getProfileId(), parentProfile, profileHandler.getProperties());
 			if (surrogateProfileHandler != null && surrogateProfileHandler.isSurrogate(profile))
 				profile.setSurrogateProfileHandler(surrogateProfileHandler);
 
@@ -784,7 +1563,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				}
 			}
 			profile.setChanged(false);
-			profileMap.put(profileId, profile);
+			return profile;
 		}
 
 		private final class ProfileDocHandler extends DocHandler {
@@ -815,7 +1594,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	public synchronized boolean isCurrent(IProfile profile) {
-		Profile internalProfile = getProfileMap().get(profile.getProfileId());
+		Profile internalProfile = getCachedProfile(profile.getProfileId());
 		if (internalProfile == null)
 			throw new IllegalArgumentException(NLS.bind(Messages.profile_not_registered, profile.getProfileId()));
 
@@ -858,12 +1637,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	private boolean internalLockProfile(IProfile profile) {
-		ProfileLock lock = profileLocks.get(profile.getProfileId());
-		if (lock == null) {
-			lock = new ProfileLock(this, getProfileFolder(profile.getProfileId()));
-			profileLocks.put(profile.getProfileId(), lock);
-		}
-		return lock.lock();
+		return getProfileLock(profile.getProfileId()).lock();
 	}
 
 	private boolean checkTimestamps(IProfile profile, IProfile internalProfile) {
@@ -871,7 +1645,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (timestamps.length == 0) {
 			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
 				DebugHelper.debug(PROFILE_REGISTRY, "check timestamp: expected " + profile.getTimestamp() + " but no profiles were found"); //$NON-NLS-1$ //$NON-NLS-2$
-			resetProfiles();
+			profiles.remove(profile.getProfileId());
 			return false;
 		}
 
@@ -880,7 +1654,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
 				DebugHelper.debug(PROFILE_REGISTRY, "check timestamp: expected " + profile.getTimestamp() + " but was " + currentTimestamp); //$NON-NLS-1$ //$NON-NLS-2$
 			if (internalProfile.getTimestamp() != currentTimestamp)
-				resetProfiles();
+				profiles.remove(profile.getProfileId());
 			return false;
 		}
 
@@ -890,17 +1664,16 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.engine.IProfileRegistry#containsProfile(java.lang.String)
 	 */
-	public synchronized boolean containsProfile(String id) {
+	public boolean containsProfile(String id) {
 		if (SELF.equals(id))
 			id = self;
 		//null check done after self check, because self can be null
 		if (id == null)
 			return false;
 
-		// check profiles to avoid restoring the profile registry
-		if (profiles != null)
-			if (getProfile(id) != null)
-				return true;
+		// check the cache to avoid reading the profile
+		if (profiles.peek(id) != null)
+			return true;
 
 		File profileDirectory = getProfileFolder(id);
 		if (!profileDirectory.isDirectory())
@@ -914,7 +1687,10 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	public synchronized void resetProfiles() {
-		profiles = null;
+		profiles.clear();
+		synchronized (parentIdsLock) {
+			parentIds = null;
+		}
 	}
 
 	public synchronized void unlockProfile(IProfile profile) {
@@ -957,7 +1733,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	 */
 	public void stop() {
 		try {
-			//ensure there are no more profile preference save jobs running
+			//ensure there are no more profile preference save or history compaction jobs running
 			Job.getJobManager().join(ProfilePreferences.PROFILE_SAVE_JOB_FAMILY, null);
 		} catch (InterruptedException e) {
 			//ignore
@@ -39,6 +39,10 @@ public class CheckTrust extends InstallableUnitPhase {
 		return (op.second() != null);
 	}
 
+	protected boolean requiresArtifacts() {
+		return true;
+	}
+
 	protected IStatus completePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
 		@SuppressWarnings("unchecked")
 		Collection<File> artifactRequests = (Collection<File>) parameters.get(PARM_ARTIFACT_FILES);
@@ -31,6 +31,11 @@ public class Collect extends InstallableUnitPhase {
 	public static final String PARM_ARTIFACT_REQUESTS = "artifactRequests"; //$NON-NLS-1$
 	public static final String NO_ARTIFACT_REPOSITORIES_AVAILABLE = "noArtifactRepositoriesAvailable"; //$NON-NLS-1$
 	private IProvisioningAgent agent = null;
+	// the requests of each operand, in the order of the operands
+	private final Map<Operand, IArtifactRequest[]> operandRequests = new LinkedHashMap<Operand, IArtifactRequest[]>();
+	private int firstOperandRequest;
+	private boolean background = false;
+	private BackgroundDownload backgroundDownload;
 
 	public Collect(int weight) {
 		super(PhaseSetFactory.PHASE_COLLECT, weight);
@@ -70,12 +75,11 @@ public class Collect extends InstallableUnitPhase {
 		// do nothing for rollback if the provisioning has been cancelled
 		if (monitor.isCanceled())
 			return Status.OK_STATUS;
-		@SuppressWarnings("unchecked")
-		List<IArtifactRequest[]> artifactRequests = (List<IArtifactRequest[]>) parameters.get(PARM_ARTIFACT_REQUESTS);
+		List<IArtifactRequest[]> artifactRequests = getArtifactRequests(parameters);
 		// it happens when rollbacking
 		if (artifactRequests.size() == 0)
 			return Status.OK_STATUS;
-		ProvisioningContext context = (ProvisioningContext) parameters.get(PARM_CONTEXT);
+		final ProvisioningContext context = (ProvisioningContext) parameters.get(PARM_CONTEXT);
 		synchronized (this) {
 			agent = (IProvisioningAgent) parameters.get(PARM_AGENT);
 		}
@@ -90,7 +94,7 @@ public class Collect extends InstallableUnitPhase {
 				return Status.CANCEL_STATUS;
 		}
 
-		List<IArtifactRequest> totalArtifactRequests = new ArrayList<IArtifactRequest>(artifactRequests.size());
+		final List<IArtifactRequest> totalArtifactRequests = new ArrayList<IArtifactRequest>(artifactRequests.size());
 		DownloadManager dm = new DownloadManager(context, agent);
 		for (IArtifactRequest[] requests : artifactRequests) {
 			for (int i = 0; i < requests.length; i++) {
@@ -98,23 +102,54 @@ public class Collect extends InstallableUnitPhase {
 				totalArtifactRequests.add(requests[i]);
 			}
 		}
-		IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
+		final IProvisioningEventBus bus = (IProvisioningEventBus) agent.getService(IProvisioningEventBus.SERVICE_NAME);
 		if (bus != null)
 			bus.publishEvent(new CollectEvent(CollectEvent.TYPE_OVERALL_START, null, context, totalArtifactRequests.toArray(new IArtifactRequest[totalArtifactRequests.size()])));
+		if (background) {
+			backgroundDownload = new BackgroundDownload(dm, new HashMap<Operand, IArtifactRequest[]>(operandRequests), monitor) {
+				protected void downloaded(IStatus status) {
+					endDownload(status, bus, context, totalArtifactRequests);
+				}
+			};
+			backgroundDownload.schedule();
+			return Status.OK_STATUS;
+		}
 		IStatus downloadStatus = dm.start(monitor);
 		try {
 			return downloadStatus;
 		} finally {
-			if (downloadStatus.isOK() && bus != null)
-				bus.publishEvent(new CollectEvent(CollectEvent.TYPE_OVERALL_END, null, context, totalArtifactRequests.toArray(new IArtifactRequest[totalArtifactRequests.size()])));
-			synchronized (this) {
-				agent = null;
-			}
+			endDownload(downloadStatus, bus, context, totalArtifactRequests);
+		}
+	}
+
+	private void endDownload(IStatus downloadStatus, IProvisioningEventBus bus, ProvisioningContext context, List<IArtifactRequest> totalArtifactRequests) {
+		if (downloadStatus.isOK() && bus != null)
+			bus.publishEvent(new CollectEvent(CollectEvent.TYPE_OVERALL_END, null, context, totalArtifactRequests.toArray(new IArtifactRequest[totalArtifactRequests.size()])));
+		synchronized (this) {
+			agent = null;
 		}
 	}
 
+	/**
+	 * Sets whether the artifacts are downloaded in the background once the requests have been
+	 * collected, see {@link #getBackgroundDownload()}.
+	 */
+	public void setBackground(boolean background) {
+		this.background = background;
+	}
+
+	/**
+	 * Returns the downloads started in the background by the last run of this phase, or
+	 * <code>null</code> if there was nothing to download.
+	 */
+	public BackgroundDownload getBackgroundDownload() {
+		return backgroundDownload;
+	}
+
 	protected IStatus initializePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
 		parameters.put(PARM_ARTIFACT_REQUESTS, new ArrayList<IArtifactRequest[]>());
+		operandRequests.clear();
+		backgroundDownload = null;
 		return null;
 	}
 
@@ -139,7 +174,24 @@ public class Collect extends InstallableUnitPhase {
 		// defer setting the IU until after the super method to avoid triggering touchpoint initialization
 		IInstallableUnit iu = operand.second();
 		parameters.put(PARM_IU, iu);
+		firstOperandRequest = getArtifactRequests(parameters).size();
 		return status;
 	}
 
+	protected IStatus completeOperand(IProfile profile, InstallableUnitOperand operand, Map<String, Object> parameters, IProgressMonitor monitor) {
+		// remember the requests added by the actions of the operand
+		List<IArtifactRequest[]> artifactRequests = getArtifactRequests(parameters);
+		List<IArtifactRequest> requests = new ArrayList<IArtifactRequest>();
+		for (IArtifactRequest[] actionRequests : artifactRequests.subList(firstOperandRequest, artifactRequests.size()))
+			requests.addAll(Arrays.asList(actionRequests));
+		if (!requests.isEmpty())
+			operandRequests.put(operand, requests.toArray(new IArtifactRequest[requests.size()]));
+		return super.completeOperand(profile, operand, parameters, monitor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<IArtifactRequest[]> getArtifactRequests(Map<String, Object> parameters) {
+		return (List<IArtifactRequest[]>) parameters.get(PARM_ARTIFACT_REQUESTS);
+	}
+
 }
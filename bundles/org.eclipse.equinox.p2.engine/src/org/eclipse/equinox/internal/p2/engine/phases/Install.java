@@ -78,6 +78,10 @@ public class Install extends InstallableUnitPhase {
 		return (op.second() != null && !op.second().equals(op.first()));
 	}
 
+	protected boolean requiresArtifacts() {
+		return true;
+	}
+
 	protected List<ProvisioningAction> getActions(InstallableUnitOperand currentOperand) {
 		//TODO: monitor.subTask(NLS.bind(Messages.Engine_Installing_IU, unit.getId()));
 
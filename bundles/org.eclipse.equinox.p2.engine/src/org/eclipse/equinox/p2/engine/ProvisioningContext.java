@@ -275,6 +275,30 @@ public class ProvisioningContext {
 		return QueryUtil.compoundQueryable(getLoadedMetadataRepositories(monitor));
 	}
 
+	/**
+	 * Returns the locations of the metadata repositories to consult, as set by
+	 * {@link #setMetadataRepositories(URI[])}.
+	 *
+	 * @return the metadata repository locations, or <code>null</code> if all the
+	 * repositories known to the repository manager are consulted
+	 * @since 2.3
+	 */
+	public URI[] getMetadataRepositoryLocations() {
+		return metadataRepositories == null ? null : metadataRepositories.clone();
+	}
+
+	/**
+	 * Returns the locations of the artifact repositories to consult, as set by
+	 * {@link #setArtifactRepositories(URI[])}.
+	 *
+	 * @return the artifact repository locations, or <code>null</code> if all the
+	 * repositories known to the repository manager are consulted
+	 * @since 2.3
+	 */
+	public URI[] getArtifactRepositoryLocations() {
+		return artifactRepositories == null ? null : artifactRepositories.clone();
+	}
+
 	/**
 	 * Returns the list of additional installable units that should be considered as
 	 * available for installation by the planner. Returns an empty list if
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataReader;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository.RepositoryState;
+import org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Loads local metadata repositories from the binary <code>content.bin</code> file that
+ * a {@link LocalMetadataRepository} writes next to its XML when the
+ * {@link LocalMetadataRepository#PROP_BINARY} property is set. A missing, stale or
+ * unreadable binary file is reported as not found so that the repository manager
+ * falls back on the XML.
+ * <p>The units are not decoded when the repository is loaded. They are decoded on demand
+ * and the most recently used ones are kept in a cache with a size that is controlled by
+ * the {@link #PROP_LAZY_CACHE_SIZE} property. A size of <code>0</code> disables the
+ * lazy mode so that all units are decoded up front.</p>
+ */
+public class BinaryMetadataRepositoryFactory extends MetadataRepositoryFactory {
+	private static final String JAR_EXTENSION = ".jar"; //$NON-NLS-1$
+	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
+	private static final String PROTOCOL_FILE = "file"; //$NON-NLS-1$
+
+	/**
+	 * The framework property that holds the maximum number of decoded units to keep
+	 * in memory for each repository that is loaded lazily.
+	 */
+	public static final String PROP_LAZY_CACHE_SIZE = "eclipse.p2.metadata.lazyCacheSize"; //$NON-NLS-1$
+	private static final int DEFAULT_LAZY_CACHE_SIZE = 2000;
+
+	public IMetadataRepository create(URI location, String name, String type, Map<String, String> properties) {
+		if (!PROTOCOL_FILE.equals(location.getScheme()))
+			return null;
+		Map<String, String> binaryProperties = new HashMap<String, String>();
+		if (properties != null)
+			binaryProperties.putAll(properties);
+		binaryProperties.put(LocalMetadataRepository.PROP_BINARY, Boolean.TRUE.toString());
+		return new LocalMetadataRepository(getAgent(), location, name, binaryProperties);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory#load(java.net.URI, int, org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	public IMetadataRepository load(URI location, int flags, IProgressMonitor monitor) throws ProvisionException {
+		try {
+			if (!PROTOCOL_FILE.equals(location.getScheme()))
+				throw notFound(location, null);
+			File binaryFile = LocalMetadataRepository.getBinaryLocation(location);
+			if (!binaryFile.exists())
+				throw notFound(location, null);
+
+			long time = 0;
+			final String debugMsg = "Loading binary metadata repository "; //$NON-NLS-1$
+			if (Tracing.DEBUG_METADATA_PARSING) {
+				Tracing.debug(debugMsg + location);
+				time = -System.currentTimeMillis();
+			}
+			RepositoryState state;
+			LazyIUMap lazyUnits = null;
+			try {
+				BinaryMetadataReader reader = BinaryMetadataReader.open(binaryFile);
+				if (isStale(reader, binaryFile))
+					throw notFound(location, null);
+				state = reader.readRepositoryState();
+				if (!LocalMetadataRepository.class.getName().equals(state.Type))
+					throw notFound(location, null);
+				int cacheSize = getLazyCacheSize();
+				if (cacheSize > 0) {
+					lazyUnits = new LazyIUMap(reader, cacheSize);
+					state.Units = new IInstallableUnit[0];
+				} else
+					state.Units = reader.readInstallableUnits();
+			} catch (IOException e) {
+				throw notFound(location, e);
+			} catch (RuntimeException e) {
+				throw notFound(location, e);
+			}
+			LocalMetadataRepository result = new LocalMetadataRepository(getAgent());
+			if (lazyUnits != null)
+				result.setLazyUnits(lazyUnits);
+			result.initialize(state);
+			result.initializeAfterLoad(location);
+			if (Tracing.DEBUG_METADATA_PARSING) {
+				time += System.currentTimeMillis();
+				Tracing.debug(debugMsg + "time (ms): " + time); //$NON-NLS-1$
+			}
+			return result;
+		} finally {
+			if (monitor != null)
+				monitor.done();
+		}
+	}
+
+	private static int getLazyCacheSize() {
+		BundleContext context = Activator.getContext();
+		String value = context == null ? null : context.getProperty(PROP_LAZY_CACHE_SIZE);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				// Use the default
+			}
+		}
+		return DEFAULT_LAZY_CACHE_SIZE;
+	}
+
+	/**
+	 * The binary file is stale when it is not a copy of the XML as it is now, i.e. the XML
+	 * has been written by a client that doesn't know about the binary format, or copied or
+	 * restored since the binary file was written.
+	 */
+	private static boolean isStale(BinaryMetadataReader reader, File binaryFile) {
+		File directory = binaryFile.getParentFile();
+		File xmlFile = new File(directory, URLMetadataRepository.CONTENT_FILENAME + XML_EXTENSION);
+		if (xmlFile.exists())
+			return !reader.isCopyOf(xmlFile);
+		File jarFile = new File(directory, URLMetadataRepository.CONTENT_FILENAME + JAR_EXTENSION);
+		return jarFile.exists() && !reader.isCopyOf(jarFile);
+	}
+
+	private static ProvisionException notFound(URI location, Exception cause) {
+		String msg = NLS.bind(Messages.io_failedRead, location);
+		Status status = new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_NOT_FOUND, msg, cause);
+		if (cause != null)
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, status.getMessage(), cause));
+		return new ProvisionException(status);
+	}
+}
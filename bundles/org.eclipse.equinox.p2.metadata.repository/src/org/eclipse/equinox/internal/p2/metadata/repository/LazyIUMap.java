@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.RequiredCapability;
+import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
+import org.eclipse.equinox.internal.p2.metadata.index.Index;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataReader;
+import org.eclipse.equinox.p2.core.IPool;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.metadata.expression.*;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+
+/**
+ * The units of a repository that was loaded from the binary format. Nothing but the
+ * unit and capability tables of the file is consulted until a query needs a unit, and
+ * the unit is then decoded and kept in a bounded cache of recently used units. The units
+ * decoded by a full scan are kept as long as memory permits, so that repeated scans
+ * don't decode them again.
+ */
+public class LazyIUMap {
+	/**
+	 * An id index that uses the unit table of the binary file.
+	 */
+	private class LazyIdIndex extends Index<IInstallableUnit> {
+		LazyIdIndex() {
+			// Nothing to build
+		}
+
+		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+			Object queriedKeys = getQueriedIDs(ctx, variable, InstallableUnit.MEMBER_ID, booleanExpr, null);
+			if (queriedKeys == null)
+				return null;
+
+			ArrayList<IInstallableUnit> collector = new ArrayList<IInstallableUnit>();
+			if (queriedKeys instanceof Collection<?>) {
+				// The unit table is sorted on id so the keys must be unique for the
+				// units to be unique.
+				Set<Object> keys = new HashSet<Object>((Collection<?>) queriedKeys);
+				for (Object key : keys)
+					if (!(key instanceof String))
+						return null;
+				for (Object key : keys)
+					collectUnits(reader.findUnits((String) key), collector);
+			} else if (queriedKeys instanceof String)
+				collectUnits(reader.findUnits((String) queriedKeys), collector);
+			else
+				return null;
+			return collector.iterator();
+		}
+	}
+
+	/**
+	 * A capability index that uses the capability table of the binary file.
+	 */
+	private class LazyCapabilityIndex extends CapabilityIndex {
+		LazyCapabilityIndex() {
+			super();
+		}
+
+		@Override
+		protected Collection<IInstallableUnit> getMatchingIUs(IMatchExpression<IInstallableUnit> requirement) {
+			HashSet<IInstallableUnit> collector = new HashSet<IInstallableUnit>();
+			collectMatchingIUs(requirement, collector);
+			return collector;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected void collectMatchingIUs(Object key, Collection<IInstallableUnit> collector) {
+			if (key instanceof IMatchExpression<?>) {
+				IMatchExpression<IInstallableUnit> requirement = (IMatchExpression<IInstallableUnit>) key;
+				collectCapabilities(RequiredCapability.extractNamespace(requirement), RequiredCapability.extractName(requirement), getRange(requirement), collector);
+				return;
+			}
+
+			// A name without a namespace. Namespaces are few so we
+			// just look in all of them. Other keys are not passed in
+			// by the super class.
+			if (key instanceof String)
+				for (String namespace : getNamespaces())
+					collectCapabilities(namespace, (String) key, null, collector);
+		}
+
+		private void collectCapabilities(String namespace, String name, VersionRange range, Collection<IInstallableUnit> collector) {
+			int[] capabilities = reader.findCapabilities(namespace, name);
+			for (int capability = capabilities[0]; capability < capabilities[1]; ++capability)
+				if (range == null || range.isIncluded(reader.getCapabilityVersion(capability)))
+					collector.add(getUnit(reader.getCapabilityUnit(capability)));
+		}
+	}
+
+	/**
+	 * Iterates over all units. Units that are not in the cache are decoded but not
+	 * added to it since a full scan would otherwise evict the units that are in use.
+	 * The units of a scan that completes are kept softly for the next scans.
+	 */
+	private class UnitIterator implements Iterator<IInstallableUnit> {
+		private final IInstallableUnit[] units;
+		private final boolean decoding;
+		private int next = 0;
+
+		UnitIterator() {
+			IInstallableUnit[] scanned = getScannedUnits();
+			decoding = scanned == null;
+			units = decoding ? new IInstallableUnit[reader.getUnitCount()] : scanned;
+		}
+
+		public boolean hasNext() {
+			return next < units.length;
+		}
+
+		public IInstallableUnit next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			int unit = next++;
+			if (decoding) {
+				IInstallableUnit iu = getCachedUnit(unit);
+				units[unit] = iu == null ? decode(unit) : iu;
+				if (next == units.length)
+					scannedUnits = new SoftReference<IInstallableUnit[]>(units);
+			}
+			return units[unit];
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	private final BinaryMetadataReader reader;
+	private final LinkedHashMap<Integer, IInstallableUnit> cache;
+	private final IIndex<IInstallableUnit> idIndex = new LazyIdIndex();
+	private final IIndex<IInstallableUnit> capabilityIndex = new LazyCapabilityIndex();
+	private volatile String[] namespaces;
+	private volatile SoftReference<IInstallableUnit[]> scannedUnits;
+	private volatile IPool<IInstallableUnit> pool;
+
+	/**
+	 * Creates a map for the units of the given reader.
+	 * @param reader The reader of the binary file
+	 * @param cacheSize The maximum number of decoded units to keep
+	 */
+	public LazyIUMap(BinaryMetadataReader reader, final int cacheSize) {
+		this.reader = reader;
+		this.cache = new LinkedHashMap<Integer, IInstallableUnit>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, IInstallableUnit> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of units in the map.
+	 */
+	public int size() {
+		return reader.getUnitCount();
+	}
+
+	/**
+	 * Returns the number of decoded units that are currently cached.
+	 */
+	public int getCacheSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public IIndex<IInstallableUnit> getIdIndex() {
+		return idIndex;
+	}
+
+	public IIndex<IInstallableUnit> getCapabilityIndex() {
+		return capabilityIndex;
+	}
+
+	/**
+	 * Returns an iterator over all units. The first scan decodes all the units that are
+	 * not cached, the next scans reuse them unless they have been collected meanwhile.
+	 */
+	public Iterator<IInstallableUnit> iterator() {
+		return new UnitIterator();
+	}
+
+	/**
+	 * Shares the units that are decoded from now on, and the ones that are kept, through
+	 * the given pool. This operation is a no-op if the pool is null.
+	 * @param iuPool The pool of the shared units
+	 */
+	public void compress(IPool<IInstallableUnit> iuPool) {
+		if (iuPool == null)
+			return;
+		pool = iuPool;
+		synchronized (cache) {
+			for (Map.Entry<Integer, IInstallableUnit> entry : cache.entrySet())
+				entry.setValue(iuPool.add(entry.getValue()));
+		}
+		IInstallableUnit[] scanned = getScannedUnits();
+		if (scanned != null) {
+			IInstallableUnit[] shared = new IInstallableUnit[scanned.length];
+			for (int i = 0; i < shared.length; ++i)
+				shared[i] = iuPool.add(scanned[i]);
+			scannedUnits = new SoftReference<IInstallableUnit[]>(shared);
+		}
+	}
+
+	/**
+	 * Returns the unit at the given position in the unit table, decoding it
+	 * unless it is in the cache.
+	 */
+	IInstallableUnit getUnit(int unit) {
+		IInstallableUnit iu = getCachedUnit(unit);
+		if (iu != null)
+			return iu;
+		IInstallableUnit[] scanned = getScannedUnits();
+		// Decode without holding the lock. Should another thread decode the same
+		// unit meanwhile, the first one to be cached wins.
+		iu = scanned == null ? decode(unit) : scanned[unit];
+		Integer key = new Integer(unit);
+		synchronized (cache) {
+			IInstallableUnit cached = cache.get(key);
+			if (cached != null)
+				return cached;
+			cache.put(key, iu);
+		}
+		return iu;
+	}
+
+	private IInstallableUnit decode(int unit) {
+		IInstallableUnit iu = reader.readInstallableUnit(unit);
+		IPool<IInstallableUnit> iuPool = pool;
+		return iuPool == null ? iu : iuPool.add(iu);
+	}
+
+	private IInstallableUnit[] getScannedUnits() {
+		SoftReference<IInstallableUnit[]> ref = scannedUnits;
+		return ref == null ? null : ref.get();
+	}
+
+	private IInstallableUnit getCachedUnit(int unit) {
+		synchronized (cache) {
+			return cache.get(new Integer(unit));
+		}
+	}
+
+	void collectUnits(int[] units, Collection<IInstallableUnit> collector) {
+		for (int unit = units[0]; unit < units[1]; ++unit)
+			collector.add(getUnit(unit));
+	}
+
+	String[] getNamespaces() {
+		String[] result = namespaces;
+		if (result == null) {
+			result = reader.getCapabilityNamespaces();
+			namespaces = result;
+		}
+		return result;
+	}
+}
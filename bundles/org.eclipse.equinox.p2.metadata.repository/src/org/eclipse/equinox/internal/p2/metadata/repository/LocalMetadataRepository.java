@@ -20,6 +20,7 @@ import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.internal.p2.metadata.index.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataWriter;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
 import org.eclipse.equinox.p2.core.*;
@@ -45,11 +46,22 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	static final private Integer REPOSITORY_VERSION = new Integer(1);
 	static final private String JAR_EXTENSION = ".jar"; //$NON-NLS-1$
 	static final private String XML_EXTENSION = ".xml"; //$NON-NLS-1$
+	static final private String BINARY_EXTENSION = ".bin"; //$NON-NLS-1$
+	static final private String INDEX_FILE = "p2.index"; //$NON-NLS-1$
+	static final private String INDEX_VERSION = "version"; //$NON-NLS-1$
+	static final private String INDEX_METADATA_FACTORY_ORDER = "metadata.repository.factory.order"; //$NON-NLS-1$
+
+	/**
+	 * Repository property that, when set to <code>true</code>, causes the repository to
+	 * also be saved in the binary format and advertised as such in the p2.index file.
+	 */
+	public static final String PROP_BINARY = "p2.binary"; //$NON-NLS-1$
 
 	protected IUMap units = new IUMap();
 	protected HashSet<IRepositoryReference> repositories = new HashSet<IRepositoryReference>();
 	private IIndex<IInstallableUnit> idIndex;
 	private IIndex<IInstallableUnit> capabilityIndex;
+	private LazyIUMap lazyUnits;
 	private TranslationSupport translationSupport;
 	private boolean snapshotNeeded = false;
 	private boolean disableSave = false;
@@ -73,6 +85,13 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		return getActualLocation(location, XML_EXTENSION);
 	}
 
+	public static File getBinaryLocation(URI location) {
+		File spec = URIUtil.toFile(location);
+		if (spec.getName().equals(CONTENT_FILENAME + BINARY_EXTENSION))
+			return spec;
+		return new File(getActualLocation(location).getParentFile(), CONTENT_FILENAME + BINARY_EXTENSION);
+	}
+
 	/**
 	 * This no argument constructor is called when restoring an existing repository.
 	 */
@@ -100,6 +119,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	public synchronized void addInstallableUnits(Collection<IInstallableUnit> installableUnits) {
 		if (installableUnits == null || installableUnits.isEmpty())
 			return;
+		materialize();
 		if (snapshotNeeded) {
 			units = units.clone();
 			idIndex = null; // Backed by units
@@ -132,6 +152,14 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#getIndex(java.lang.String)
 	 */
 	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
+		if (lazyUnits != null) {
+			if (InstallableUnit.MEMBER_ID.equals(memberName))
+				return lazyUnits.getIdIndex();
+			if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName))
+				return lazyUnits.getCapabilityIndex();
+			return null;
+		}
+
 		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
 			snapshotNeeded = true;
 			if (idIndex == null)
@@ -200,6 +228,46 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		return new ArrayList<IRepositoryReference>(repositories);
 	}
 
+	/**
+	 * Makes the repository decode its units on demand from the given map rather than
+	 * keep them all in memory. The map is dropped in favor of an ordinary in-memory map
+	 * as soon as the repository is modified.
+	 * @param lazyMap The units of the repository
+	 */
+	synchronized void setLazyUnits(LazyIUMap lazyMap) {
+		lazyUnits = lazyMap;
+		units = new IUMap();
+		idIndex = null;
+		capabilityIndex = null;
+		snapshotNeeded = false;
+	}
+
+	/**
+	 * Returns the map that units are decoded from on demand, or <code>null</code> when
+	 * all units are held in memory.
+	 */
+	public synchronized LazyIUMap getLazyUnits() {
+		return lazyUnits;
+	}
+
+	/**
+	 * Decodes all units of a lazily loaded repository so that it can be modified.
+	 * Caller should be synchronized.
+	 */
+	private void materialize() {
+		if (lazyUnits == null)
+			return;
+		IUMap allUnits = new IUMap();
+		Iterator<IInstallableUnit> itor = lazyUnits.iterator();
+		while (itor.hasNext())
+			allUnits.add(itor.next());
+		units = allUnits;
+		idIndex = null;
+		capabilityIndex = null;
+		snapshotNeeded = false;
+		lazyUnits = null;
+	}
+
 	// use this method to setup any transient fields etc after the object has been restored from a stream
 	public synchronized void initializeAfterLoad(URI aLocation) {
 		setLocation(aLocation);
@@ -224,6 +292,8 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	 * @see org.eclipse.equinox.p2.metadata.index.IIndexProvider#everything()
 	 */
 	public synchronized Iterator<IInstallableUnit> everything() {
+		if (lazyUnits != null)
+			return lazyUnits.iterator();
 		snapshotNeeded = true;
 		return units.iterator();
 	}
@@ -233,6 +303,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	 */
 	@Override
 	public synchronized void removeAll() {
+		lazyUnits = null; // Nothing to materialize
 		if (snapshotNeeded) {
 			units = new IUMap();
 			idIndex = null; // Backed by units
@@ -251,6 +322,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		boolean changed = false;
 		if (installableUnits != null && !installableUnits.isEmpty()) {
 			changed = true;
+			materialize();
 			if (snapshotNeeded) {
 				units = units.clone();
 				idIndex = null; // Backed by units
@@ -273,6 +345,8 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	protected void save() {
 		if (disableSave)
 			return;
+		// The binary file that the units would be decoded from is about to be replaced
+		materialize();
 		File file = getActualLocation(getLocation());
 		File jarFile = getActualLocation(getLocation(), JAR_EXTENSION);
 		boolean compress = "true".equalsIgnoreCase(getProperty(PROP_COMPRESSED)); //$NON-NLS-1$
@@ -303,11 +377,87 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			}
 			super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(System.currentTimeMillis()), new NullProgressMonitor());
 			new MetadataRepositoryIO(getProvisioningAgent()).write(this, output);
+			saveBinary(compress ? jarFile : file);
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, "Error saving metadata repository: " + getLocation(), e)); //$NON-NLS-1$
 		}
 	}
 
+	/**
+	 * Writes the binary form of the repository when it is enabled, or removes a binary
+	 * file that would otherwise get out of sync with the XML. The binary file records the
+	 * length and modification time of the given XML file, so that it is known to be stale
+	 * once the XML has been written again.
+	 */
+	private void saveBinary(File source) throws IOException {
+		File directory = source.getParentFile();
+		File binaryFile = new File(directory, CONTENT_FILENAME + BINARY_EXTENSION);
+		if (!"true".equalsIgnoreCase(getProperty(PROP_BINARY))) { //$NON-NLS-1$
+			if (binaryFile.exists())
+				binaryFile.delete();
+			return;
+		}
+		// Write to a temporary file and rename it so that another process reading the
+		// previous file never sees a partially written one. The readers don't keep the
+		// file open or mapped, so it can be replaced on all platforms.
+		File tempFile = new File(directory, CONTENT_FILENAME + BINARY_EXTENSION + ".tmp"); //$NON-NLS-1$
+		OutputStream output = new FileOutputStream(tempFile);
+		try {
+			new BinaryMetadataWriter(output).write(this, source);
+		} finally {
+			output.close();
+		}
+		if (!tempFile.renameTo(binaryFile)) {
+			binaryFile.delete();
+			if (!tempFile.renameTo(binaryFile))
+				throw new IOException("Unable to rename " + tempFile + " to " + binaryFile); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		saveIndexFile(directory);
+	}
+
+	/**
+	 * Makes the p2.index file list the binary format first so that clients that know
+	 * about it prefer it. Clients that don't will skip it and use the XML.
+	 */
+	private void saveIndexFile(File directory) throws IOException {
+		File indexFile = new File(directory, INDEX_FILE);
+		Properties index = new Properties();
+		if (indexFile.exists()) {
+			InputStream input = new FileInputStream(indexFile);
+			try {
+				index.load(input);
+			} finally {
+				input.close();
+			}
+		}
+		String binarySuffix = CONTENT_FILENAME + BINARY_EXTENSION;
+		String xmlSuffix = CONTENT_FILENAME + XML_EXTENSION;
+		StringBuffer order = new StringBuffer(binarySuffix);
+		String current = index.getProperty(INDEX_METADATA_FACTORY_ORDER);
+		if (current == null)
+			order.append(',').append(xmlSuffix).append(",!"); //$NON-NLS-1$
+		else {
+			StringTokenizer tokens = new StringTokenizer(current, ","); //$NON-NLS-1$
+			while (tokens.hasMoreTokens()) {
+				String suffix = tokens.nextToken().trim();
+				if (!suffix.equals(binarySuffix))
+					order.append(',').append(suffix);
+			}
+		}
+		String newOrder = order.toString();
+		if (newOrder.equals(current))
+			return;
+		if (index.getProperty(INDEX_VERSION) == null)
+			index.setProperty(INDEX_VERSION, "1"); //$NON-NLS-1$
+		index.setProperty(INDEX_METADATA_FACTORY_ORDER, newOrder);
+		OutputStream output = new FileOutputStream(indexFile);
+		try {
+			index.store(output, null);
+		} finally {
+			output.close();
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.repository.spi.AbstractRepository#setProperty(java.lang.String, java.lang.String)
 	 */
@@ -362,7 +512,13 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.repository.metadata.IMetadataRepository#compress(IPool<IInstallableUnit> iuPool)
 	 */
-	public void compress(IPool<IInstallableUnit> iuPool) {
-		units.compress(iuPool);
+	public synchronized void compress(IPool<IInstallableUnit> iuPool) {
+		if (lazyUnits != null) {
+			// The units are shared as they are decoded
+			lazyUnits.compress(iuPool);
+		} else {
+			units.compress(iuPool);
+			capabilityIndex = null; // Generated from the units that were replaced
+		}
 	}
 }
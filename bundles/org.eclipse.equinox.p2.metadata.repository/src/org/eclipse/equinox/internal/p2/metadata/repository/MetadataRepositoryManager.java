@@ -14,8 +14,10 @@ package org.eclipse.equinox.internal.p2.metadata.repository;
 import java.net.URI;
 import java.util.Map;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.metadata.MetadataPool;
 import org.eclipse.equinox.internal.p2.repository.helpers.AbstractRepositoryManager;
 import org.eclipse.equinox.internal.p2.repository.helpers.LocationProperties;
+import org.eclipse.equinox.p2.core.IPool;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
@@ -28,6 +30,12 @@ import org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory;
  * Default implementation of {@link IMetadataRepositoryManager}.
  */
 public class MetadataRepositoryManager extends AbstractRepositoryManager<IInstallableUnit> implements IMetadataRepositoryManager {
+	/**
+	 * Shares the strings, versions, capabilities and requirements that units are made
+	 * of across all repositories loaded by this manager. Whole units are only shared
+	 * when their content is equal, see {@link MetadataPool}.
+	 */
+	private final IPool<IInstallableUnit> iuPool = new MetadataPool();
 
 	public MetadataRepositoryManager(IProvisioningAgent agent) {
 		super(agent);
@@ -54,7 +62,10 @@ public class MetadataRepositoryManager extends AbstractRepositoryManager<IInstal
 		if (factory == null)
 			return null;
 		factory.setAgent(agent);
-		return factory.load(location, flags, monitor);
+		IMetadataRepository repository = factory.load(location, flags, monitor);
+		if (repository != null)
+			repository.compress(iuPool);
+		return repository;
 	}
 
 	protected String getBundleId() {
@@ -19,6 +19,7 @@ import org.eclipse.core.runtime.URIUtil;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
 import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.internal.p2.metadata.index.*;
+import org.eclipse.equinox.p2.core.IPool;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.KeyWithLocale;
@@ -130,4 +131,12 @@ public class URLMetadataRepository extends AbstractMetadataRepository implements
 	public Iterator<IInstallableUnit> everything() {
 		return units.iterator();
 	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.repository.metadata.IMetadataRepository#compress(IPool<IInstallableUnit> iuPool)
+	 */
+	public synchronized void compress(IPool<IInstallableUnit> iuPool) {
+		units.compress(iuPool);
+		capabilityIndex = null; // Generated from the units that were replaced
+	}
 }
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+/**
+ * <p>Constants describing the binary metadata repository format (<code>content.bin</code>).</p>
+ * <p>All numbers are big endian. The file starts with a fixed size header that holds the
+ * offsets of the sections that follow it, and the length and modification time of the XML
+ * file that the binary file is a copy of, or <code>-1</code> when there is no such file:</p>
+ * <ul>
+ * <li>The string table. An array of <code>int</code> offsets followed by the strings, each
+ * encoded as a byte count followed by the UTF-8 bytes. Everywhere else in the file, a string
+ * is referenced by its index in this table and <code>-1</code> denotes <code>null</code>.</li>
+ * <li>The unit table. Fixed width records of id, version, payload offset and payload length,
+ * sorted on id and version so that it can be used as the id index.</li>
+ * <li>The capability table. Fixed width records of namespace, name, version and unit record
+ * index, sorted on namespace and name.</li>
+ * <li>The repository header with name, type, properties and references.</li>
+ * <li>The unit payloads that contain everything needed to recreate each unit.</li>
+ * </ul>
+ * <p>Since all records have a fixed width, a reader can look up units by id or by capability
+ * without decoding anything but the strings it compares.</p>
+ */
+public interface BinaryConstants {
+	public static final int MAGIC = 0x50324D42; // P2MB
+	public static final int FORMAT_VERSION = 2;
+
+	public static final String CONTENT_FILENAME = "content.bin"; //$NON-NLS-1$
+
+	public static final int HEADER_SIZE = 12 * 4 + 2 * 8;
+
+	// Header fields (byte offsets)
+	public static final int HEADER_MAGIC = 0;
+	public static final int HEADER_VERSION = 4;
+	public static final int HEADER_REPOSITORY_OFFSET = 8;
+	public static final int HEADER_REPOSITORY_LENGTH = 12;
+	public static final int HEADER_STRING_COUNT = 16;
+	public static final int HEADER_STRING_OFFSETS = 20;
+	public static final int HEADER_STRING_DATA = 24;
+	public static final int HEADER_UNIT_COUNT = 28;
+	public static final int HEADER_UNIT_TABLE = 32;
+	public static final int HEADER_CAPABILITY_COUNT = 36;
+	public static final int HEADER_CAPABILITY_TABLE = 40;
+	public static final int HEADER_PAYLOAD_OFFSET = 44;
+	public static final int HEADER_SOURCE_LENGTH = 48;
+	public static final int HEADER_SOURCE_MODIFIED = 56;
+
+	// Unit records
+	public static final int UNIT_RECORD_SIZE = 4 * 4;
+	public static final int UNIT_ID = 0;
+	public static final int UNIT_VERSION = 4;
+	public static final int UNIT_PAYLOAD_OFFSET = 8;
+	public static final int UNIT_PAYLOAD_LENGTH = 12;
+
+	// Capability records
+	public static final int CAPABILITY_RECORD_SIZE = 4 * 4;
+	public static final int CAPABILITY_NAMESPACE = 0;
+	public static final int CAPABILITY_NAME = 4;
+	public static final int CAPABILITY_VERSION = 8;
+	public static final int CAPABILITY_UNIT = 12;
+
+	// Unit kinds
+	public static final byte KIND_UNIT = 0;
+	public static final byte KIND_FRAGMENT = 1;
+	public static final byte KIND_PATCH = 2;
+
+	// Requirement kinds
+	public static final byte REQUIREMENT_SIMPLE = 0;
+	public static final byte REQUIREMENT_EXPRESSION = 1;
+}
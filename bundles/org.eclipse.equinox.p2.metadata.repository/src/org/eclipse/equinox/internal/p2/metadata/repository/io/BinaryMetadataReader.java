@@ -0,0 +1,441 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitFragmentDescription;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitPatchDescription;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository.RepositoryState;
+import org.eclipse.equinox.p2.repository.spi.RepositoryReference;
+
+/**
+ * Provides random access to a metadata repository in the binary format described by
+ * {@link BinaryConstants}. The reader never modifies the buffer that it reads from and
+ * it is safe to use from multiple threads.
+ */
+public class BinaryMetadataReader implements BinaryConstants {
+	private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+	private final ByteBuffer buffer;
+	private final String[] strings;
+	private final int stringOffsets;
+	private final int stringData;
+	private final int unitCount;
+	private final int unitTable;
+	private final int capabilityCount;
+	private final int capabilityTable;
+	private final int repositoryOffset;
+	private final int payloadOffset;
+
+	/**
+	 * A read position in the buffer.
+	 */
+	private class Input {
+		private int position;
+
+		Input(int position) {
+			this.position = position;
+		}
+
+		boolean readBoolean() {
+			return readByte() != 0;
+		}
+
+		byte readByte() {
+			return buffer.get(position++);
+		}
+
+		int readInt() {
+			int value = buffer.getInt(position);
+			position += 4;
+			return value;
+		}
+
+		String readString() {
+			return getString(readInt());
+		}
+
+		URI readURI() {
+			String value = readString();
+			return value == null ? null : URI.create(value);
+		}
+
+		Version readVersion() {
+			String value = readString();
+			return value == null ? null : Version.create(value);
+		}
+	}
+
+	/**
+	 * Reads the given file into memory and returns a reader for it.
+	 * <p>The file is not memory mapped, since a mapped file can't be replaced on some
+	 * platforms until the mapping has been garbage collected.</p>
+	 * @param file The file to read
+	 * @return A reader for the file
+	 * @throws IOException if the file could not be read or if it is not a binary metadata repository
+	 */
+	public static BinaryMetadataReader open(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream input = new DataInputStream(new FileInputStream(file));
+		try {
+			input.readFully(bytes);
+		} finally {
+			input.close();
+		}
+		return new BinaryMetadataReader(ByteBuffer.wrap(bytes));
+	}
+
+	public BinaryMetadataReader(ByteBuffer buffer) throws IOException {
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(HEADER_MAGIC) != MAGIC)
+			throw new IOException("Not a binary metadata repository"); //$NON-NLS-1$
+		int version = buffer.getInt(HEADER_VERSION);
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported binary metadata repository version: " + version); //$NON-NLS-1$
+		this.buffer = buffer;
+		strings = new String[buffer.getInt(HEADER_STRING_COUNT)];
+		stringOffsets = buffer.getInt(HEADER_STRING_OFFSETS);
+		stringData = buffer.getInt(HEADER_STRING_DATA);
+		unitCount = buffer.getInt(HEADER_UNIT_COUNT);
+		unitTable = buffer.getInt(HEADER_UNIT_TABLE);
+		capabilityCount = buffer.getInt(HEADER_CAPABILITY_COUNT);
+		capabilityTable = buffer.getInt(HEADER_CAPABILITY_TABLE);
+		repositoryOffset = buffer.getInt(HEADER_REPOSITORY_OFFSET);
+		payloadOffset = buffer.getInt(HEADER_PAYLOAD_OFFSET);
+	}
+
+	/**
+	 * Returns whether this is a copy of the given XML file as it was when the copy was written.
+	 * The length and the modification time of the file are compared rather than the order of
+	 * the modification times, which may be too coarse or restored from a backup.
+	 */
+	public boolean isCopyOf(File source) {
+		return source.length() == buffer.getLong(HEADER_SOURCE_LENGTH) && source.lastModified() == buffer.getLong(HEADER_SOURCE_MODIFIED);
+	}
+
+	/**
+	 * Returns the string with the given index in the string table.
+	 * @param index The index or <code>-1</code> for <code>null</code>
+	 */
+	String getString(int index) {
+		if (index < 0)
+			return null;
+		String value = strings[index];
+		if (value == null) {
+			int offset = stringData + buffer.getInt(stringOffsets + index * 4);
+			int length = buffer.getInt(offset);
+			ByteBuffer bytes = buffer.duplicate();
+			bytes.limit(offset + 4 + length);
+			bytes.position(offset + 4);
+			value = UTF_8.decode(bytes).toString();
+			strings[index] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the number of units in the repository.
+	 */
+	public int getUnitCount() {
+		return unitCount;
+	}
+
+	/**
+	 * Returns the id of the unit at the given position in the unit table.
+	 */
+	public String getId(int unit) {
+		return getString(buffer.getInt(unitTable + unit * UNIT_RECORD_SIZE + UNIT_ID));
+	}
+
+	/**
+	 * Returns the version of the unit at the given position in the unit table.
+	 */
+	public Version getVersion(int unit) {
+		return Version.create(getString(buffer.getInt(unitTable + unit * UNIT_RECORD_SIZE + UNIT_VERSION)));
+	}
+
+	/**
+	 * Returns the positions in the unit table of the units with the given id.
+	 * @param id The id to look for
+	 * @return An array with the first position and the position after the last unit
+	 */
+	public int[] findUnits(String id) {
+		int low = 0;
+		int high = unitCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getId(mid).compareTo(id) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		int end = low;
+		while (end < unitCount && getId(end).equals(id))
+			++end;
+		return new int[] {low, end};
+	}
+
+	/**
+	 * Returns the number of capability records.
+	 */
+	public int getCapabilityCount() {
+		return capabilityCount;
+	}
+
+	/**
+	 * Returns the version of the given capability record.
+	 */
+	public Version getCapabilityVersion(int capability) {
+		return Version.create(getString(buffer.getInt(capabilityTable + capability * CAPABILITY_RECORD_SIZE + CAPABILITY_VERSION)));
+	}
+
+	/**
+	 * Returns the position in the unit table of the unit that provides the given capability record.
+	 */
+	public int getCapabilityUnit(int capability) {
+		return buffer.getInt(capabilityTable + capability * CAPABILITY_RECORD_SIZE + CAPABILITY_UNIT);
+	}
+
+	/**
+	 * Returns the capability records that match the given namespace and name.
+	 * @return An array with the first record and the record after the last match
+	 */
+	public int[] findCapabilities(String namespace, String name) {
+		int low = 0;
+		int high = capabilityCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareCapability(mid, namespace, name) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		int end = low;
+		while (end < capabilityCount && compareCapability(end, namespace, name) == 0)
+			++end;
+		return new int[] {low, end};
+	}
+
+	/**
+	 * Returns the distinct namespaces of the capability records.
+	 */
+	public String[] getCapabilityNamespaces() {
+		ArrayList<String> namespaces = new ArrayList<String>();
+		int previous = -1;
+		for (int capability = 0; capability < capabilityCount; ++capability) {
+			// Records are sorted on namespace so equal namespaces are adjacent
+			int namespace = buffer.getInt(capabilityTable + capability * CAPABILITY_RECORD_SIZE + CAPABILITY_NAMESPACE);
+			if (namespace != previous) {
+				String value = getString(namespace);
+				if (namespaces.isEmpty() || !namespaces.get(namespaces.size() - 1).equals(value))
+					namespaces.add(value);
+				previous = namespace;
+			}
+		}
+		return namespaces.toArray(new String[namespaces.size()]);
+	}
+
+	private int compareCapability(int capability, String namespace, String name) {
+		int record = capabilityTable + capability * CAPABILITY_RECORD_SIZE;
+		int cmp = getString(buffer.getInt(record + CAPABILITY_NAMESPACE)).compareTo(namespace);
+		if (cmp == 0)
+			cmp = getString(buffer.getInt(record + CAPABILITY_NAME)).compareTo(name);
+		return cmp;
+	}
+
+	/**
+	 * Reads the repository attributes, properties and references. The units
+	 * of the returned state are not set.
+	 */
+	public RepositoryState readRepositoryState() {
+		Input in = new Input(repositoryOffset);
+		RepositoryState state = new RepositoryState();
+		state.Name = in.readString();
+		state.Type = in.readString();
+		state.Version = in.readVersion();
+		state.Provider = in.readString();
+		state.Description = in.readString();
+		state.Properties = readProperties(in);
+		IRepositoryReference[] references = new IRepositoryReference[in.readInt()];
+		for (int idx = 0; idx < references.length; ++idx) {
+			URI location = in.readURI();
+			String nickname = in.readString();
+			int type = in.readInt();
+			int options = in.readInt();
+			references[idx] = new RepositoryReference(location, nickname, type, options);
+		}
+		state.Repositories = references;
+		return state;
+	}
+
+	/**
+	 * Reads all units of the repository.
+	 */
+	public IInstallableUnit[] readInstallableUnits() {
+		IInstallableUnit[] units = new IInstallableUnit[unitCount];
+		for (int idx = 0; idx < unitCount; ++idx)
+			units[idx] = readInstallableUnit(idx);
+		return units;
+	}
+
+	/**
+	 * Reads the unit at the given position in the unit table.
+	 */
+	public IInstallableUnit readInstallableUnit(int unit) {
+		Input in = new Input(payloadOffset + buffer.getInt(unitTable + unit * UNIT_RECORD_SIZE + UNIT_PAYLOAD_OFFSET));
+		byte kind = in.readByte();
+		InstallableUnitDescription desc;
+		if (kind == KIND_PATCH)
+			desc = new InstallableUnitPatchDescription();
+		else if (kind == KIND_FRAGMENT)
+			desc = new InstallableUnitFragmentDescription();
+		else
+			desc = new InstallableUnitDescription();
+
+		desc.setId(in.readString());
+		desc.setVersion(in.readVersion());
+		desc.setSingleton(in.readBoolean());
+		int count = in.readInt();
+		for (int idx = 0; idx < count; ++idx)
+			desc.setProperty(in.readString(), in.readString());
+
+		IProvidedCapability[] capabilities = new IProvidedCapability[in.readInt()];
+		for (int idx = 0; idx < capabilities.length; ++idx)
+			capabilities[idx] = MetadataFactory.createProvidedCapability(in.readString(), in.readString(), in.readVersion());
+		desc.setCapabilities(capabilities);
+		desc.setRequirements(readRequirements(in));
+		desc.setMetaRequirements(readRequirements(in));
+		String filter = in.readString();
+		if (filter != null)
+			desc.setFilter(filter);
+
+		IArtifactKey[] artifacts = new IArtifactKey[in.readInt()];
+		for (int idx = 0; idx < artifacts.length; ++idx)
+			artifacts[idx] = new ArtifactKey(in.readString(), in.readString(), in.readVersion());
+		desc.setArtifacts(artifacts);
+
+		String touchpointId = in.readString();
+		Version touchpointVersion = in.readVersion();
+		if (touchpointId != null)
+			desc.setTouchpointType(MetadataFactory.createTouchpointType(touchpointId, touchpointVersion));
+
+		count = in.readInt();
+		for (int idx = 0; idx < count; ++idx) {
+			int instructionCount = in.readInt();
+			Map<String, ITouchpointInstruction> instructions = new LinkedHashMap<String, ITouchpointInstruction>(instructionCount);
+			for (int inner = 0; inner < instructionCount; ++inner) {
+				String key = in.readString();
+				String body = in.readString();
+				instructions.put(key, MetadataFactory.createTouchpointInstruction(body, in.readString()));
+			}
+			desc.addTouchpointData(MetadataFactory.createTouchpointData(instructions));
+		}
+
+		if (in.readBoolean()) {
+			count = in.readInt();
+			List<IMatchExpression<IInstallableUnit>> updated = new ArrayList<IMatchExpression<IInstallableUnit>>(count);
+			for (int idx = 0; idx < count; ++idx)
+				updated.add(readMatchExpression(in));
+			int severity = in.readInt();
+			String description = in.readString();
+			desc.setUpdateDescriptor(MetadataFactory.createUpdateDescriptor(updated, severity, description, in.readURI()));
+		}
+
+		ILicense[] licenses = new ILicense[in.readInt()];
+		for (int idx = 0; idx < licenses.length; ++idx)
+			licenses[idx] = MetadataFactory.createLicense(in.readURI(), in.readString());
+		desc.setLicenses(licenses);
+
+		if (in.readBoolean())
+			desc.setCopyright(MetadataFactory.createCopyright(in.readURI(), in.readString()));
+
+		if (kind == KIND_FRAGMENT) {
+			((InstallableUnitFragmentDescription) desc).setHost(readRequirements(in));
+			return MetadataFactory.createInstallableUnitFragment((InstallableUnitFragmentDescription) desc);
+		}
+
+		if (kind == KIND_PATCH) {
+			InstallableUnitPatchDescription patchDesc = (InstallableUnitPatchDescription) desc;
+			IRequirement[][] scope = new IRequirement[in.readInt()][];
+			for (int idx = 0; idx < scope.length; ++idx)
+				scope[idx] = readRequirements(in);
+			patchDesc.setApplicabilityScope(scope);
+			IRequirementChange[] changes = new IRequirementChange[in.readInt()];
+			for (int idx = 0; idx < changes.length; ++idx) {
+				IRequirement applyOn = readOptionalRequirement(in);
+				changes[idx] = MetadataFactory.createRequirementChange(applyOn, readOptionalRequirement(in));
+			}
+			patchDesc.setRequirementChanges(changes);
+			patchDesc.setLifeCycle(readOptionalRequirement(in));
+			return MetadataFactory.createInstallableUnitPatch(patchDesc);
+		}
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	private Map<String, String> readProperties(Input in) {
+		int count = in.readInt();
+		Map<String, String> properties = new LinkedHashMap<String, String>(count);
+		for (int idx = 0; idx < count; ++idx) {
+			String key = in.readString();
+			properties.put(key, in.readString());
+		}
+		return properties;
+	}
+
+	private IRequirement[] readRequirements(Input in) {
+		IRequirement[] requirements = new IRequirement[in.readInt()];
+		for (int idx = 0; idx < requirements.length; ++idx)
+			requirements[idx] = readRequirement(in);
+		return requirements;
+	}
+
+	private IRequirement readOptionalRequirement(Input in) {
+		return in.readBoolean() ? readRequirement(in) : null;
+	}
+
+	private IRequirement readRequirement(Input in) {
+		if (in.readByte() == REQUIREMENT_SIMPLE) {
+			String namespace = in.readString();
+			String name = in.readString();
+			VersionRange range = new VersionRange(in.readString());
+			int min = in.readInt();
+			int max = in.readInt();
+			boolean greedy = in.readBoolean();
+			IMatchExpression<IInstallableUnit> filter = readFilter(in);
+			return MetadataFactory.createRequirement(namespace, name, range, filter, min, max, greedy, in.readString());
+		}
+		IMatchExpression<IInstallableUnit> match = readMatchExpression(in);
+		int min = in.readInt();
+		int max = in.readInt();
+		boolean greedy = in.readBoolean();
+		IMatchExpression<IInstallableUnit> filter = readFilter(in);
+		return MetadataFactory.createRequirement(match, filter, min, max, greedy, in.readString());
+	}
+
+	private IMatchExpression<IInstallableUnit> readFilter(Input in) {
+		String filter = in.readString();
+		return filter == null ? null : InstallableUnit.parseFilter(filter);
+	}
+
+	private IMatchExpression<IInstallableUnit> readMatchExpression(Input in) {
+		String match = in.readString();
+		return MetadataParser.createMatchExpression(match, in.readString());
+	}
+}
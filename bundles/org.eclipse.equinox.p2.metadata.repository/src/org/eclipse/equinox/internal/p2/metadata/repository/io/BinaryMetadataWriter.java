@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+import java.io.*;
+import java.util.*;
+import java.util.Map.Entry;
+import org.eclipse.equinox.internal.p2.metadata.RequiredCapability;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.*;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * Writes a metadata repository in the binary format described by {@link BinaryConstants}.
+ */
+public class BinaryMetadataWriter implements BinaryConstants {
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	private final OutputStream output;
+	private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+
+	public BinaryMetadataWriter(OutputStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * Write the given metadata repository to the output stream. The stream is
+	 * flushed but not closed.
+	 * @param repository The repository to write
+	 * @param source The XML file that the repository has been written to
+	 */
+	public void write(IMetadataRepository repository, File source) throws IOException {
+		write(repository.query(QueryUtil.createIUAnyQuery(), null).toArray(IInstallableUnit.class), repository, source);
+	}
+
+	/**
+	 * Write the given units to the output stream, with an empty repository header.
+	 * The stream is flushed but not closed.
+	 */
+	public void write(IInstallableUnit[] units) throws IOException {
+		write(units.clone(), null, null);
+	}
+
+	private void write(IInstallableUnit[] units, IMetadataRepository repository, File source) throws IOException {
+		Arrays.sort(units);
+
+		ByteArrayOutputStream repositoryBytes = new ByteArrayOutputStream();
+		writeRepository(new DataOutputStream(repositoryBytes), repository);
+
+		int[] unitTable = new int[units.length * 4];
+		List<int[]> capabilities = new ArrayList<int[]>();
+		ByteArrayOutputStream payloads = new ByteArrayOutputStream();
+		DataOutputStream payloadOutput = new DataOutputStream(payloads);
+		for (int idx = 0; idx < units.length; ++idx) {
+			IInstallableUnit iu = units[idx].unresolved();
+			int start = payloadOutput.size();
+			writeInstallableUnit(payloadOutput, iu);
+			unitTable[idx * 4] = stringRef(iu.getId());
+			unitTable[idx * 4 + 1] = stringRef(iu.getVersion().toString());
+			unitTable[idx * 4 + 2] = start;
+			unitTable[idx * 4 + 3] = payloadOutput.size() - start;
+			for (IProvidedCapability capability : iu.getProvidedCapabilities())
+				capabilities.add(new int[] {stringRef(capability.getNamespace()), stringRef(capability.getName()), stringRef(capability.getVersion().toString()), idx});
+		}
+		Collections.sort(capabilities, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+				int cmp = strings.get(a[0]).compareTo(strings.get(b[0]));
+				if (cmp == 0)
+					cmp = strings.get(a[1]).compareTo(strings.get(b[1]));
+				if (cmp == 0)
+					cmp = a[3] - b[3];
+				return cmp;
+			}
+		});
+
+		byte[][] encodedStrings = new byte[strings.size()][];
+		int stringDataLength = 0;
+		for (int idx = 0; idx < encodedStrings.length; ++idx) {
+			encodedStrings[idx] = strings.get(idx).getBytes(UTF_8);
+			stringDataLength += 4 + encodedStrings[idx].length;
+		}
+
+		int stringOffsets = HEADER_SIZE;
+		int stringData = stringOffsets + encodedStrings.length * 4;
+		int unitTableOffset = stringData + stringDataLength;
+		int capabilityTableOffset = unitTableOffset + units.length * UNIT_RECORD_SIZE;
+		int repositoryOffset = capabilityTableOffset + capabilities.size() * CAPABILITY_RECORD_SIZE;
+		int payloadOffset = repositoryOffset + repositoryBytes.size();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(repositoryOffset);
+		out.writeInt(repositoryBytes.size());
+		out.writeInt(encodedStrings.length);
+		out.writeInt(stringOffsets);
+		out.writeInt(stringData);
+		out.writeInt(units.length);
+		out.writeInt(unitTableOffset);
+		out.writeInt(capabilities.size());
+		out.writeInt(capabilityTableOffset);
+		out.writeInt(payloadOffset);
+		out.writeLong(source == null ? -1 : source.length());
+		out.writeLong(source == null ? -1 : source.lastModified());
+
+		int offset = 0;
+		for (int idx = 0; idx < encodedStrings.length; ++idx) {
+			out.writeInt(offset);
+			offset += 4 + encodedStrings[idx].length;
+		}
+		for (int idx = 0; idx < encodedStrings.length; ++idx) {
+			out.writeInt(encodedStrings[idx].length);
+			out.write(encodedStrings[idx]);
+		}
+		for (int idx = 0; idx < unitTable.length; ++idx)
+			out.writeInt(unitTable[idx]);
+		for (int[] capability : capabilities)
+			for (int idx = 0; idx < 4; ++idx)
+				out.writeInt(capability[idx]);
+		repositoryBytes.writeTo(out);
+		payloads.writeTo(out);
+		out.flush();
+	}
+
+	private int stringRef(String string) {
+		if (string == null)
+			return -1;
+		Integer ref = stringIndex.get(string);
+		if (ref == null) {
+			ref = new Integer(strings.size());
+			strings.add(string);
+			stringIndex.put(string, ref);
+		}
+		return ref.intValue();
+	}
+
+	private void writeString(DataOutputStream out, String string) throws IOException {
+		out.writeInt(stringRef(string));
+	}
+
+	private void writeVersion(DataOutputStream out, Version version) throws IOException {
+		writeString(out, version == null ? null : version.toString());
+	}
+
+	private void writeProperties(DataOutputStream out, Map<String, String> properties) throws IOException {
+		out.writeInt(properties.size());
+		for (Entry<String, String> entry : properties.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+	}
+
+	private void writeRepository(DataOutputStream out, IMetadataRepository repository) throws IOException {
+		if (repository == null) {
+			for (int idx = 0; idx < 5; ++idx)
+				writeString(out, null);
+			out.writeInt(0);
+			out.writeInt(0);
+			return;
+		}
+		writeString(out, repository.getName());
+		writeString(out, repository.getType());
+		writeString(out, repository.getVersion());
+		writeString(out, repository.getProvider());
+		writeString(out, repository.getDescription());
+		writeProperties(out, repository.getProperties());
+		Collection<IRepositoryReference> references = repository.getReferences();
+		out.writeInt(references.size());
+		for (IRepositoryReference reference : references) {
+			writeString(out, reference.getLocation().toString());
+			writeString(out, reference.getNickname());
+			out.writeInt(reference.getType());
+			out.writeInt(reference.getOptions());
+		}
+	}
+
+	private void writeInstallableUnit(DataOutputStream out, IInstallableUnit iu) throws IOException {
+		if (iu instanceof IInstallableUnitPatch)
+			out.writeByte(KIND_PATCH);
+		else if (iu instanceof IInstallableUnitFragment)
+			out.writeByte(KIND_FRAGMENT);
+		else
+			out.writeByte(KIND_UNIT);
+		writeString(out, iu.getId());
+		writeVersion(out, iu.getVersion());
+		out.writeBoolean(iu.isSingleton());
+		writeProperties(out, iu.getProperties());
+
+		Collection<IProvidedCapability> capabilities = iu.getProvidedCapabilities();
+		out.writeInt(capabilities.size());
+		for (IProvidedCapability capability : capabilities) {
+			writeString(out, capability.getNamespace());
+			writeString(out, capability.getName());
+			writeVersion(out, capability.getVersion());
+		}
+		writeRequirements(out, iu.getRequirements());
+		writeRequirements(out, iu.getMetaRequirements());
+		writeFilter(out, iu.getFilter());
+
+		Collection<IArtifactKey> artifacts = iu.getArtifacts();
+		out.writeInt(artifacts.size());
+		for (IArtifactKey artifact : artifacts) {
+			writeString(out, artifact.getClassifier());
+			writeString(out, artifact.getId());
+			writeVersion(out, artifact.getVersion());
+		}
+
+		ITouchpointType touchpointType = iu.getTouchpointType();
+		writeString(out, touchpointType == null ? null : touchpointType.getId());
+		writeVersion(out, touchpointType == null ? null : touchpointType.getVersion());
+
+		Collection<ITouchpointData> touchpointData = iu.getTouchpointData();
+		out.writeInt(touchpointData.size());
+		for (ITouchpointData data : touchpointData) {
+			Map<String, ITouchpointInstruction> instructions = data.getInstructions();
+			out.writeInt(instructions.size());
+			for (Entry<String, ITouchpointInstruction> entry : instructions.entrySet()) {
+				writeString(out, entry.getKey());
+				writeString(out, entry.getValue().getBody());
+				writeString(out, entry.getValue().getImportAttribute());
+			}
+		}
+
+		IUpdateDescriptor descriptor = iu.getUpdateDescriptor();
+		out.writeBoolean(descriptor != null);
+		if (descriptor != null) {
+			Collection<IMatchExpression<IInstallableUnit>> updated = descriptor.getIUsBeingUpdated();
+			out.writeInt(updated.size());
+			for (IMatchExpression<IInstallableUnit> match : updated)
+				writeMatchExpression(out, match);
+			out.writeInt(descriptor.getSeverity());
+			writeString(out, descriptor.getDescription());
+			writeString(out, descriptor.getLocation() == null ? null : descriptor.getLocation().toString());
+		}
+
+		Collection<ILicense> licenses = iu.getLicenses();
+		int licenseCount = 0;
+		for (ILicense license : licenses)
+			if (license != null)
+				++licenseCount;
+		out.writeInt(licenseCount);
+		for (ILicense license : licenses) {
+			if (license == null)
+				continue;
+			writeString(out, license.getLocation() == null ? null : license.getLocation().toString());
+			writeString(out, license.getBody());
+		}
+
+		ICopyright copyright = iu.getCopyright();
+		out.writeBoolean(copyright != null);
+		if (copyright != null) {
+			writeString(out, copyright.getLocation() == null ? null : copyright.getLocation().toString());
+			writeString(out, copyright.getBody());
+		}
+
+		if (iu instanceof IInstallableUnitFragment)
+			writeRequirements(out, ((IInstallableUnitFragment) iu).getHost());
+
+		if (iu instanceof IInstallableUnitPatch) {
+			IInstallableUnitPatch patch = (IInstallableUnitPatch) iu;
+			IRequirement[][] scope = patch.getApplicabilityScope();
+			out.writeInt(scope.length);
+			for (int idx = 0; idx < scope.length; ++idx)
+				writeRequirements(out, Arrays.asList(scope[idx]));
+			List<IRequirementChange> changes = patch.getRequirementsChange();
+			out.writeInt(changes.size());
+			for (IRequirementChange change : changes) {
+				writeOptionalRequirement(out, change.applyOn());
+				writeOptionalRequirement(out, change.newValue());
+			}
+			writeOptionalRequirement(out, patch.getLifeCycle());
+		}
+	}
+
+	private void writeRequirements(DataOutputStream out, Collection<IRequirement> requirements) throws IOException {
+		out.writeInt(requirements.size());
+		for (IRequirement requirement : requirements)
+			writeRequirement(out, requirement);
+	}
+
+	private void writeOptionalRequirement(DataOutputStream out, IRequirement requirement) throws IOException {
+		out.writeBoolean(requirement != null);
+		if (requirement != null)
+			writeRequirement(out, requirement);
+	}
+
+	private void writeRequirement(DataOutputStream out, IRequirement requirement) throws IOException {
+		IMatchExpression<IInstallableUnit> match = requirement.getMatches();
+		if (RequiredCapability.isSimpleRequirement(match)) {
+			out.writeByte(REQUIREMENT_SIMPLE);
+			writeString(out, RequiredCapability.extractNamespace(match));
+			writeString(out, RequiredCapability.extractName(match));
+			writeString(out, RequiredCapability.extractRange(match).toString());
+		} else {
+			out.writeByte(REQUIREMENT_EXPRESSION);
+			writeMatchExpression(out, match);
+		}
+		out.writeInt(requirement.getMin());
+		out.writeInt(requirement.getMax());
+		out.writeBoolean(requirement.isGreedy());
+		writeFilter(out, requirement.getFilter());
+		writeString(out, requirement.getDescription());
+	}
+
+	private void writeFilter(DataOutputStream out, IMatchExpression<IInstallableUnit> filter) throws IOException {
+		writeString(out, filter == null ? null : filter.getParameters()[0].toString());
+	}
+
+	private void writeMatchExpression(DataOutputStream out, IMatchExpression<IInstallableUnit> match) throws IOException {
+		writeString(out, ExpressionUtil.getOperand(match).toString());
+		Object[] params = match.getParameters();
+		if (params.length == 0) {
+			writeString(out, null);
+			return;
+		}
+		IExpressionFactory factory = ExpressionUtil.getFactory();
+		IExpression[] constantArray = new IExpression[params.length];
+		for (int idx = 0; idx < params.length; ++idx)
+			constantArray[idx] = factory.constant(params[idx]);
+		writeString(out, factory.array(constantArray).toString());
+	}
+}
@@ -12,13 +12,17 @@ package org.eclipse.equinox.internal.p2.metadata;
 
 import java.net.URI;
 import org.eclipse.equinox.p2.metadata.ICopyright;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
 
 /**
  * The <code>Copyright</code> class represents a software copyright.  A copyright has 
  * required body text which may be the full text or a summary.  An optional location field can be specified
  * which links to full text.  
  */
-public class Copyright implements ICopyright {
+public class Copyright implements ICopyright, IMemberProvider {
+	public static final String MEMBER_LOCATION = "location"; //$NON-NLS-1$
+	public static final String MEMBER_BODY = "body"; //$NON-NLS-1$
+
 	/**
 	 * The <code>body</code> contains the descriptive text for the copyright. This may
 	 * be a summary for a copyright specified in a URL.
@@ -61,4 +65,12 @@ public class Copyright implements ICopyright {
 	public String getBody() {
 		return body;
 	}
+
+	public Object getMember(String memberName) {
+		if (MEMBER_LOCATION == memberName)
+			return location;
+		if (MEMBER_BODY == memberName)
+			return body;
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
 }
@@ -17,7 +17,7 @@ import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
 
-public class InstallableUnit implements IInstallableUnit, IMemberProvider {
+public class InstallableUnit implements IInstallableUnit, IMemberProvider, Cloneable {
 	@SuppressWarnings("serial")
 	private static final Map<IFilterExpression, IMatchExpression<IInstallableUnit>> filterCache = new LinkedHashMap<IFilterExpression, IMatchExpression<IInstallableUnit>>() {
 		public boolean removeEldestEntry(Map.Entry<IFilterExpression, IMatchExpression<IInstallableUnit>> expr) {
@@ -101,6 +101,76 @@ public class InstallableUnit implements IInstallableUnit, IMemberProvider {
 		return cmp;
 	}
 
+	/**
+	 * Returns a copy of this unit whose parts are equal instances that are shared through
+	 * the given pool. This unit is not changed since it may already be in use. The caller
+	 * must hold the lock of the pool.
+	 */
+	final InstallableUnit compress(MetadataPool pool) {
+		InstallableUnit copy;
+		try {
+			copy = (InstallableUnit) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError();
+		}
+		copy.localizedProperties = null;
+		copy.shareParts(pool);
+		return copy;
+	}
+
+	/**
+	 * Replaces the parts of this unit, which is a copy that is not in use yet, with the
+	 * instances shared through the given pool.
+	 */
+	void shareParts(MetadataPool pool) {
+		id = pool.intern(id);
+		version = pool.intern(version);
+		filter = pool.intern(filter);
+		touchpointType = pool.intern(touchpointType);
+		copyright = pool.intern(copyright);
+		if (properties != null) {
+			OrderedProperties sharedProperties = new OrderedProperties(properties.size());
+			for (Map.Entry<String, String> entry : properties.entrySet())
+				sharedProperties.put(pool.intern(entry.getKey()), pool.intern(entry.getValue()));
+			properties = sharedProperties;
+		}
+		if (providedCapabilities.length > 0) {
+			IProvidedCapability[] sharedCapabilities = new IProvidedCapability[providedCapabilities.length];
+			for (int i = 0; i < sharedCapabilities.length; ++i)
+				sharedCapabilities[i] = pool.intern(providedCapabilities[i]);
+			providedCapabilities = sharedCapabilities;
+		}
+		requires = compress(pool, requires);
+		metaRequires = compress(pool, metaRequires);
+		if (artifacts.length > 0) {
+			IArtifactKey[] sharedArtifacts = new IArtifactKey[artifacts.length];
+			for (int i = 0; i < sharedArtifacts.length; ++i)
+				sharedArtifacts[i] = pool.intern(artifacts[i]);
+			artifacts = sharedArtifacts;
+		}
+		if (touchpointData.length > 0) {
+			ITouchpointData[] sharedData = new ITouchpointData[touchpointData.length];
+			for (int i = 0; i < sharedData.length; ++i)
+				sharedData[i] = pool.intern(touchpointData[i]);
+			touchpointData = sharedData;
+		}
+		if (licenses.length > 0) {
+			ILicense[] sharedLicenses = new ILicense[licenses.length];
+			for (int i = 0; i < sharedLicenses.length; ++i)
+				sharedLicenses[i] = pool.intern(licenses[i]);
+			licenses = sharedLicenses;
+		}
+	}
+
+	static IRequirement[] compress(MetadataPool pool, IRequirement[] requirements) {
+		if (requirements == null || requirements.length == 0)
+			return requirements;
+		IRequirement[] sharedRequirements = new IRequirement[requirements.length];
+		for (int i = 0; i < sharedRequirements.length; ++i)
+			sharedRequirements[i] = pool.intern(requirements[i]);
+		return sharedRequirements;
+	}
+
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
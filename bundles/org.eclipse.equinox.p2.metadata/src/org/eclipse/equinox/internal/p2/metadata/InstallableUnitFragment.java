@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.metadata;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import org.eclipse.equinox.p2.metadata.IInstallableUnitFragment;
 import org.eclipse.equinox.p2.metadata.IRequirement;
@@ -28,6 +29,16 @@ public class InstallableUnitFragment extends InstallableUnit implements IInstall
 		this.hostRequirements = hostRequirements;
 	}
 
+	void shareParts(MetadataPool pool) {
+		super.shareParts(pool);
+		if (hostRequirements != null) {
+			ArrayList<IRequirement> sharedRequirements = new ArrayList<IRequirement>(hostRequirements.size());
+			for (IRequirement requirement : hostRequirements)
+				sharedRequirements.add(pool.intern(requirement));
+			hostRequirements = sharedRequirements;
+		}
+	}
+
 	public Collection<IRequirement> getHost() {
 		return hostRequirements;
 	}
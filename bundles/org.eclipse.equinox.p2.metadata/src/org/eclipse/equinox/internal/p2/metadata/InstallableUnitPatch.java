@@ -31,6 +31,23 @@ public class InstallableUnitPatch extends InstallableUnit implements IInstallabl
 		setRequiredCapabilities(result);
 	}
 
+	void shareParts(MetadataPool pool) {
+		super.shareParts(pool);
+		lifeCycle = pool.intern(lifeCycle);
+		if (scope != null) {
+			IRequirement[][] sharedScope = new IRequirement[scope.length][];
+			for (int i = 0; i < scope.length; ++i)
+				sharedScope[i] = compress(pool, scope[i]);
+			scope = sharedScope;
+		}
+		if (changes != null) {
+			IRequirementChange[] sharedChanges = new IRequirementChange[changes.length];
+			for (int i = 0; i < changes.length; ++i)
+				sharedChanges[i] = pool.intern(changes[i]);
+			changes = sharedChanges;
+		}
+	}
+
 	public IRequirement[][] getApplicabilityScope() {
 		return scope;
 	}
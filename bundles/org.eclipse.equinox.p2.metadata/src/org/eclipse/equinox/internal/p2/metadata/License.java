@@ -17,13 +17,18 @@ import java.net.URI;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import org.eclipse.equinox.p2.metadata.ILicense;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
 
 /**
  * The <code>License</code> class represents a software license.  A license has required body text
  * which may be the full text or an annotation.  An optional URL field can be specified
  * which links to full text.  Licenses can be easily compared using their digests.
  */
-public class License implements ILicense {
+public class License implements ILicense, IMemberProvider {
+	public static final String MEMBER_LOCATION = "location"; //$NON-NLS-1$
+	public static final String MEMBER_BODY = "body"; //$NON-NLS-1$
+	public static final String MEMBER_UUID = "uuid"; //$NON-NLS-1$
+
 	/**
 	 * The <code>body</code> contains the descriptive text for the license. This may
 	 * be a summary for a full license specified in a URL.
@@ -145,4 +150,14 @@ public class License implements ILicense {
 		}
 		return result.toString();
 	}
+
+	public Object getMember(String memberName) {
+		if (MEMBER_LOCATION == memberName)
+			return location;
+		if (MEMBER_BODY == memberName)
+			return body;
+		if (MEMBER_UUID == memberName)
+			return getUUID();
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
 }
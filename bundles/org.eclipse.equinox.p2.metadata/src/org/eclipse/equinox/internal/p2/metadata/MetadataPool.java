@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import org.eclipse.equinox.p2.core.IPool;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+
+/**
+ * <p>A pool of installable units that also shares the parts that the units are made of.
+ * When a unit is added, the pool returns a copy of the unit whose strings, versions, version
+ * ranges, capabilities, requirements, artifact keys, touchpoint data, licenses and copyright
+ * are equal instances that are already in the pool. The added unit itself is never changed,
+ * since others may already use it. Repositories that are compressed using the same pool will
+ * therefore hold one instance of each capability, requirement, property value etc. no
+ * matter how many units refer to it.</p>
+ * <p>Units are equal when their id and version are, but units from different repositories
+ * may still differ in content, e.g. a partial unit of an update site and the full unit.
+ * A unit that is already in the pool is therefore only shared when all of its content
+ * is equal to the added unit. Otherwise the copy of the added unit is returned, which
+ * only shares the parts.</p>
+ * <p>Like the {@link org.eclipse.equinox.p2.core.WeakPool}, the pool only holds weak
+ * references so instances are collected once no unit refers to them.</p>
+ */
+public class MetadataPool implements IPool<IInstallableUnit> {
+	private final Map<Object, WeakReference<Object>> units = new WeakHashMap<Object, WeakReference<Object>>();
+	private final Map<Object, WeakReference<Object>> parts = new WeakHashMap<Object, WeakReference<Object>>();
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.core.IPool#add(T)
+	 */
+	public synchronized IInstallableUnit add(IInstallableUnit newObject) {
+		if (newObject == null)
+			return null;
+
+		IInstallableUnit shared = get(units, newObject);
+		if (shared == newObject || (shared != null && sameContent(shared, newObject)))
+			return shared;
+
+		IInstallableUnit unit = newObject instanceof InstallableUnit ? ((InstallableUnit) newObject).compress(this) : newObject;
+		if (shared == null)
+			put(units, unit);
+		return unit;
+	}
+
+	/**
+	 * Returns whether the given units, which are equal, also have the same content.
+	 */
+	static boolean sameContent(IInstallableUnit a, IInstallableUnit b) {
+		if (a.getClass() != b.getClass() || a.isSingleton() != b.isSingleton())
+			return false;
+		if (!equals(a.getProperties(), b.getProperties()) || !equals(a.getFilter(), b.getFilter()) || !equals(a.getTouchpointType(), b.getTouchpointType()))
+			return false;
+		if (!equals(a.getProvidedCapabilities(), b.getProvidedCapabilities()) || !equals(a.getArtifacts(), b.getArtifacts()) || !equals(a.getTouchpointData(), b.getTouchpointData()))
+			return false;
+		if (!sameRequirements(a.getRequirements(), b.getRequirements()) || !sameRequirements(a.getMetaRequirements(), b.getMetaRequirements()))
+			return false;
+		if (!sameLicenses(a.getLicenses(), b.getLicenses()) || !sameCopyright(a.getCopyright(), b.getCopyright()) || !sameUpdateDescriptor(a.getUpdateDescriptor(), b.getUpdateDescriptor()))
+			return false;
+		if (a instanceof IInstallableUnitFragment && !sameRequirements(((IInstallableUnitFragment) a).getHost(), ((IInstallableUnitFragment) b).getHost()))
+			return false;
+		if (a instanceof IInstallableUnitPatch) {
+			IInstallableUnitPatch aPatch = (IInstallableUnitPatch) a;
+			IInstallableUnitPatch bPatch = (IInstallableUnitPatch) b;
+			if (!sameRequirement(aPatch.getLifeCycle(), bPatch.getLifeCycle()) || !equals(aPatch.getRequirementsChange(), bPatch.getRequirementsChange()))
+				return false;
+			IRequirement[][] aScope = aPatch.getApplicabilityScope();
+			IRequirement[][] bScope = bPatch.getApplicabilityScope();
+			if (aScope == null || bScope == null)
+				return aScope == bScope;
+			if (aScope.length != bScope.length)
+				return false;
+			for (int i = 0; i < aScope.length; ++i)
+				if (!sameRequirements(Arrays.asList(aScope[i]), Arrays.asList(bScope[i])))
+					return false;
+		}
+		return true;
+	}
+
+	private static boolean sameRequirements(Collection<IRequirement> a, Collection<IRequirement> b) {
+		if (a == null || b == null)
+			return a == b;
+		if (a.size() != b.size())
+			return false;
+		Iterator<IRequirement> bIter = b.iterator();
+		for (IRequirement requirement : a)
+			if (!sameRequirement(requirement, bIter.next()))
+				return false;
+		return true;
+	}
+
+	private static boolean sameRequirement(IRequirement a, IRequirement b) {
+		if (a == b)
+			return true;
+		// The description is not part of the requirement equality
+		return a != null && b != null && a.equals(b) && equals(a.getDescription(), b.getDescription());
+	}
+
+	private static boolean sameLicenses(Collection<ILicense> a, Collection<ILicense> b) {
+		if (a.size() != b.size())
+			return false;
+		Iterator<ILicense> bIter = b.iterator();
+		for (ILicense license : a) {
+			ILicense other = bIter.next();
+			if (license != other && !(equals(license.getBody(), other.getBody()) && equals(license.getLocation(), other.getLocation())))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean sameCopyright(ICopyright a, ICopyright b) {
+		if (a == null || b == null)
+			return a == b;
+		// Copyrights are compared by identity
+		return equals(a.getBody(), b.getBody()) && equals(a.getLocation(), b.getLocation());
+	}
+
+	private static boolean sameUpdateDescriptor(IUpdateDescriptor a, IUpdateDescriptor b) {
+		if (a == null || b == null)
+			return a == b;
+		// Update descriptors are compared by identity
+		return a.getSeverity() == b.getSeverity() && equals(a.getDescription(), b.getDescription()) && equals(a.getLocation(), b.getLocation()) && equals(new ArrayList<Object>(a.getIUsBeingUpdated()), new ArrayList<Object>(b.getIUsBeingUpdated()));
+	}
+
+	String intern(String value) {
+		if (value == null)
+			return null;
+		String shared = get(parts, value);
+		return shared == null ? put(parts, value) : shared;
+	}
+
+	Version intern(Version version) {
+		if (version == null)
+			return null;
+		Version shared = get(parts, version);
+		return shared == null ? put(parts, version) : shared;
+	}
+
+	VersionRange intern(VersionRange range) {
+		if (range == null)
+			return null;
+		VersionRange shared = get(parts, range);
+		if (shared != null)
+			return shared;
+		if (range.getClass() == VersionRange.class)
+			range = new VersionRange(intern(range.getMinimum()), range.getIncludeMinimum(), intern(range.getMaximum()), range.getIncludeMaximum());
+		return put(parts, range);
+	}
+
+	IMatchExpression<IInstallableUnit> intern(IMatchExpression<IInstallableUnit> expression) {
+		if (expression == null)
+			return null;
+		IMatchExpression<IInstallableUnit> shared = get(parts, expression);
+		return shared == null ? put(parts, expression) : shared;
+	}
+
+	IProvidedCapability intern(IProvidedCapability capability) {
+		if (capability == null)
+			return null;
+		IProvidedCapability shared = get(parts, capability);
+		if (shared != null)
+			return shared;
+		if (capability.getClass() == ProvidedCapability.class)
+			capability = new ProvidedCapability(intern(capability.getNamespace()), intern(capability.getName()), intern(capability.getVersion()));
+		return put(parts, capability);
+	}
+
+	IRequirement intern(IRequirement requirement) {
+		if (requirement == null)
+			return null;
+		String description = requirement.getDescription();
+		IRequirement shared = get(parts, requirement);
+		if (shared != null)
+			// The description is not part of the requirement equality
+			return equals(description, shared.getDescription()) ? shared : requirement;
+
+		if (requirement.getClass() == RequiredCapability.class && RequiredCapability.isSimpleRequirement(requirement.getMatches())) {
+			IRequiredCapability rc = (IRequiredCapability) requirement;
+			requirement = new RequiredCapability(intern(rc.getNamespace()), intern(rc.getName()), intern(rc.getRange()), intern(rc.getFilter()), rc.getMin(), rc.getMax(), rc.isGreedy(), intern(description));
+		}
+		return put(parts, requirement);
+	}
+
+	IRequirementChange intern(IRequirementChange change) {
+		if (change == null)
+			return null;
+		IRequirementChange shared = get(parts, change);
+		if (shared != null)
+			return shared;
+		if (change.getClass() == RequirementChange.class) {
+			IRequirement applyOn = intern(change.applyOn());
+			IRequirement newValue = intern(change.newValue());
+			if (applyOn instanceof IRequiredCapability && newValue instanceof IRequiredCapability)
+				change = new RequirementChange((IRequiredCapability) applyOn, (IRequiredCapability) newValue);
+		}
+		return put(parts, change);
+	}
+
+	IArtifactKey intern(IArtifactKey key) {
+		if (key == null)
+			return null;
+		IArtifactKey shared = get(parts, key);
+		if (shared != null)
+			return shared;
+		if (key.getClass() == ArtifactKey.class)
+			key = new ArtifactKey(intern(key.getClassifier()), intern(key.getId()), intern(key.getVersion()));
+		return put(parts, key);
+	}
+
+	ITouchpointType intern(ITouchpointType type) {
+		if (type == null)
+			return null;
+		ITouchpointType shared = get(parts, type);
+		return shared == null ? put(parts, type) : shared;
+	}
+
+	ITouchpointData intern(ITouchpointData data) {
+		if (data == null)
+			return null;
+		ITouchpointData shared = get(parts, data);
+		if (shared != null)
+			return shared;
+		if (data.getClass() == TouchpointData.class) {
+			Map<String, ITouchpointInstruction> instructions = data.getInstructions();
+			Map<String, ITouchpointInstruction> sharedInstructions = new LinkedHashMap<String, ITouchpointInstruction>(instructions.size());
+			for (Map.Entry<String, ITouchpointInstruction> entry : instructions.entrySet())
+				sharedInstructions.put(intern(entry.getKey()), intern(entry.getValue()));
+			data = new TouchpointData(sharedInstructions);
+		}
+		return put(parts, data);
+	}
+
+	ITouchpointInstruction intern(ITouchpointInstruction instruction) {
+		if (instruction == null)
+			return null;
+		ITouchpointInstruction shared = get(parts, instruction);
+		if (shared != null)
+			return shared;
+		if (instruction.getClass() == TouchpointInstruction.class)
+			instruction = new TouchpointInstruction(intern(instruction.getBody()), intern(instruction.getImportAttribute()));
+		return put(parts, instruction);
+	}
+
+	ILicense intern(ILicense license) {
+		if (license == null)
+			return null;
+		ILicense shared = get(parts, license);
+		if (shared != null) {
+			// Licenses are equal when their normalized bodies are
+			return equals(license.getBody(), shared.getBody()) && equals(license.getLocation(), shared.getLocation()) ? shared : license;
+		}
+		return put(parts, license);
+	}
+
+	ICopyright intern(ICopyright copyright) {
+		if (copyright == null || copyright.getClass() != Copyright.class)
+			return copyright;
+		// Copyrights are compared by identity so only the body is shared
+		return new Copyright(copyright.getLocation(), intern(copyright.getBody()));
+	}
+
+	private static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T get(Map<Object, WeakReference<Object>> pool, T value) {
+		WeakReference<Object> ref = pool.get(value);
+		return ref == null ? null : (T) ref.get();
+	}
+
+	private static <T> T put(Map<Object, WeakReference<Object>> pool, T value) {
+		pool.put(value, new WeakReference<Object>(value));
+		return value;
+	}
+}
@@ -11,8 +11,12 @@
 package org.eclipse.equinox.internal.p2.metadata;
 
 import org.eclipse.equinox.p2.metadata.IRequirementChange;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
+
+public class RequirementChange implements IRequirementChange, IMemberProvider {
+	public static final String MEMBER_APPLY_ON = "applyOn"; //$NON-NLS-1$
+	public static final String MEMBER_NEW_VALUE = "newValue"; //$NON-NLS-1$
 
-public class RequirementChange implements IRequirementChange {
 	private IRequiredCapability applyOn;
 	private IRequiredCapability newValue;
 
@@ -74,4 +78,12 @@ public class RequirementChange implements IRequirementChange {
 	public String toString() {
 		return applyOn + " --> " + newValue; //$NON-NLS-1$
 	}
+
+	public Object getMember(String memberName) {
+		if (MEMBER_APPLY_ON == memberName)
+			return applyOn;
+		if (MEMBER_NEW_VALUE == memberName)
+			return newValue;
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
 }
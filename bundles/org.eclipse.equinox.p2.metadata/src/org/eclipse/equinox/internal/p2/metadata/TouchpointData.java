@@ -18,6 +18,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import org.eclipse.equinox.p2.metadata.ITouchpointData;
 import org.eclipse.equinox.p2.metadata.ITouchpointInstruction;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
 
 /**
  * Touchpoint data instances contain the additional information needed by a touchpoint
@@ -28,7 +29,8 @@ import org.eclipse.equinox.p2.metadata.ITouchpointInstruction;
  * @noextend This class is not intended to be subclassed by clients.
  * @see MetadataFactory#createTouchpointData(Map)
  */
-public class TouchpointData implements ITouchpointData {
+public class TouchpointData implements ITouchpointData, IMemberProvider {
+	public static final String MEMBER_INSTRUCTIONS = "instructions"; //$NON-NLS-1$
 
 	/**
 	 * Map of (String->TouchpointInstruction). The set
@@ -91,4 +93,10 @@ public class TouchpointData implements ITouchpointData {
 		}
 		return result.toString();
 	}
+
+	public Object getMember(String memberName) {
+		if (MEMBER_INSTRUCTIONS == memberName)
+			return getInstructions();
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
 }
@@ -16,6 +16,7 @@ import org.eclipse.equinox.p2.metadata.MetadataFactory;
 import java.util.Map;
 import java.util.Map.Entry;
 import org.eclipse.equinox.p2.metadata.ITouchpointInstruction;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
 
 /**
  * A touchpoint instruction contains either a sequence of instruction statements
@@ -52,7 +53,9 @@ import org.eclipse.equinox.p2.metadata.ITouchpointInstruction;
  * @noextend This class is not intended to be subclassed by clients.
  * @see MetadataFactory#createTouchpointInstruction(String, String)
  */
-public class TouchpointInstruction implements ITouchpointInstruction {
+public class TouchpointInstruction implements ITouchpointInstruction, IMemberProvider {
+	public static final String MEMBER_BODY = "body"; //$NON-NLS-1$
+	public static final String MEMBER_IMPORT_ATTRIBUTE = "importAttribute"; //$NON-NLS-1$
 
 	private final String body;
 	private final String importAttribute;
@@ -163,4 +166,12 @@ public class TouchpointInstruction implements ITouchpointInstruction {
 	public String toString() {
 		return "Instruction[" + body + ',' + importAttribute + ']'; //$NON-NLS-1$
 	}
+
+	public Object getMember(String memberName) {
+		if (MEMBER_BODY == memberName)
+			return body;
+		if (MEMBER_IMPORT_ATTRIBUTE == memberName)
+			return importAttribute;
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
 }
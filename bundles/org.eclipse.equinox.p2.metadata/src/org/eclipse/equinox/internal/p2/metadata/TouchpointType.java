@@ -14,12 +14,16 @@ package org.eclipse.equinox.internal.p2.metadata;
 import org.eclipse.equinox.p2.metadata.Version;
 
 import org.eclipse.equinox.p2.metadata.ITouchpointType;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
 
 /**
  * Identifies a particular touchpoint. A touchpoint is identified by an id 
  * and a version.
  */
-public class TouchpointType implements ITouchpointType {
+public class TouchpointType implements ITouchpointType, IMemberProvider {
+	public static final String MEMBER_ID = "id"; //$NON-NLS-1$
+	public static final String MEMBER_VERSION = "version"; //$NON-NLS-1$
+
 	private String id;//never null
 	private Version version;//never null
 
@@ -54,4 +58,12 @@ public class TouchpointType implements ITouchpointType {
 	public String toString() {
 		return "Touchpoint: " + id + ' ' + getVersion(); //$NON-NLS-1$
 	}
-}
\ No newline at end of file
+
+	public Object getMember(String memberName) {
+		if (MEMBER_ID == memberName)
+			return id;
+		if (MEMBER_VERSION == memberName)
+			return version;
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
+}
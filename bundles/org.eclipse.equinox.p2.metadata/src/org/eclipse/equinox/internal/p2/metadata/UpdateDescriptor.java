@@ -13,8 +13,14 @@ import java.util.Collection;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.IUpdateDescriptor;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.metadata.expression.IMemberProvider;
+
+public class UpdateDescriptor implements IUpdateDescriptor, IMemberProvider {
+	public static final String MEMBER_IUS_BEING_UPDATED = "iUsBeingUpdated"; //$NON-NLS-1$
+	public static final String MEMBER_SEVERITY = "severity"; //$NON-NLS-1$
+	public static final String MEMBER_DESCRIPTION = "description"; //$NON-NLS-1$
+	public static final String MEMBER_LOCATION = "location"; //$NON-NLS-1$
 
-public class UpdateDescriptor implements IUpdateDescriptor {
 	private Collection<IMatchExpression<IInstallableUnit>> descriptors;
 
 	private String description;
@@ -47,4 +53,16 @@ public class UpdateDescriptor implements IUpdateDescriptor {
 	public URI getLocation() {
 		return location;
 	}
+
+	public Object getMember(String memberName) {
+		if (MEMBER_IUS_BEING_UPDATED == memberName)
+			return descriptors;
+		if (MEMBER_SEVERITY == memberName)
+			return new Integer(severity);
+		if (MEMBER_DESCRIPTION == memberName)
+			return description;
+		if (MEMBER_LOCATION == memberName)
+			return location;
+		throw new IllegalArgumentException("No such member: " + memberName); //$NON-NLS-1$
+	}
 }
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.expression;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.expression.Member.DynamicMember;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * <p>A boolean predicate that has been compiled from an expression. The predicate
+ * tests a candidate directly instead of walking the expression tree with an evaluation
+ * context, so a test does not allocate anything.</p>
+ * <p>Only expressions built from boolean operators, comparisons, matches, members,
+ * property lookups and <code>exists</code>/<code>all</code> over a collection member
+ * can be compiled. This covers the requirement, filter and IU queries that are used
+ * when slicing and planning. Everything else, such as expressions that need an index
+ * provider or access variables other than the candidate, must be evaluated by the
+ * interpreter. A compiled predicate yields the same result, and throws the same
+ * exceptions, as the interpreted expression.</p>
+ */
+public abstract class CompiledPredicate {
+	/**
+	 * Marker returned by {@link #compile(Expression, Variable, Object[])} when the
+	 * expression cannot be compiled and must be interpreted.
+	 */
+	public static final CompiledPredicate INTERPRET = new CompiledPredicate() {
+		public boolean test(Object candidate) {
+			throw new UnsupportedOperationException();
+		}
+	};
+
+	/**
+	 * Obtains a value from the candidate.
+	 */
+	static abstract class Operand {
+		abstract Object get(Object candidate);
+	}
+
+	static final class Constant extends Operand {
+		final Object value;
+
+		Constant(Object value) {
+			this.value = value;
+		}
+
+		Object get(Object candidate) {
+			return value;
+		}
+	}
+
+	static final class Self extends Operand {
+		static final Self INSTANCE = new Self();
+
+		Object get(Object candidate) {
+			return candidate;
+		}
+	}
+
+	static final class MemberOperand extends Operand {
+		private final Operand target;
+		private final DynamicMember member;
+
+		MemberOperand(Operand target, DynamicMember member) {
+			this.target = target;
+			this.member = member;
+		}
+
+		Object get(Object candidate) {
+			return member.invoke(target.get(candidate));
+		}
+	}
+
+	/**
+	 * The <code>properties[key]</code> lookup. Like {@link At}, it avoids obtaining the
+	 * full property map when the target is an installable unit.
+	 */
+	static final class PropertyOperand extends Operand {
+		private final Operand target;
+		private final DynamicMember member;
+		private final Operand key;
+
+		PropertyOperand(Operand target, DynamicMember member, Operand key) {
+			this.target = target;
+			this.member = member;
+			this.key = key;
+		}
+
+		Object get(Object candidate) {
+			Object instance = target.get(candidate);
+			Object k = key.get(candidate);
+			if (instance instanceof IInstallableUnit)
+				return ((IInstallableUnit) instance).getProperty((String) k);
+			Object lval = member.invoke(instance);
+			if (lval instanceof Map<?, ?>)
+				return ((Map<?, ?>) lval).get(k);
+			if (lval instanceof Dictionary<?, ?>)
+				return ((Dictionary<?, ?>) lval).get(k);
+			if (lval == null)
+				throw new IllegalArgumentException("Unable to use [] on null"); //$NON-NLS-1$
+			throw new IllegalArgumentException("Unable to use [] on a " + lval.getClass().getName()); //$NON-NLS-1$
+		}
+	}
+
+	static final class AndPredicate extends CompiledPredicate {
+		private final CompiledPredicate[] operands;
+
+		AndPredicate(CompiledPredicate[] operands) {
+			this.operands = operands;
+		}
+
+		public boolean test(Object candidate) {
+			for (int idx = 0; idx < operands.length; ++idx)
+				if (!operands[idx].test(candidate))
+					return false;
+			return true;
+		}
+	}
+
+	static final class OrPredicate extends CompiledPredicate {
+		private final CompiledPredicate[] operands;
+
+		OrPredicate(CompiledPredicate[] operands) {
+			this.operands = operands;
+		}
+
+		public boolean test(Object candidate) {
+			for (int idx = 0; idx < operands.length; ++idx)
+				if (operands[idx].test(candidate))
+					return true;
+			return false;
+		}
+	}
+
+	static final class NotPredicate extends CompiledPredicate {
+		private final CompiledPredicate operand;
+
+		NotPredicate(CompiledPredicate operand) {
+			this.operand = operand;
+		}
+
+		public boolean test(Object candidate) {
+			return !operand.test(candidate);
+		}
+	}
+
+	static final class ValuePredicate extends CompiledPredicate {
+		private final Operand operand;
+
+		ValuePredicate(Operand operand) {
+			this.operand = operand;
+		}
+
+		public boolean test(Object candidate) {
+			return operand.get(candidate) == Boolean.TRUE;
+		}
+	}
+
+	static final class EqualsPredicate extends CompiledPredicate {
+		private final Operand lhs;
+		private final Operand rhs;
+		private final boolean negate;
+
+		EqualsPredicate(Operand lhs, Operand rhs, boolean negate) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.negate = negate;
+		}
+
+		public boolean test(Object candidate) {
+			return CoercingComparator.coerceAndEquals(lhs.get(candidate), rhs.get(candidate)) != negate;
+		}
+	}
+
+	static final class ComparePredicate extends CompiledPredicate {
+		private final Operand lhs;
+		private final Operand rhs;
+		private final boolean compareLess;
+		private final boolean equalOK;
+
+		ComparePredicate(Operand lhs, Operand rhs, boolean compareLess, boolean equalOK) {
+			this.lhs = lhs;
+			this.rhs = rhs;
+			this.compareLess = compareLess;
+			this.equalOK = equalOK;
+		}
+
+		public boolean test(Object candidate) {
+			int cmpResult = CoercingComparator.coerceAndCompare(lhs.get(candidate), rhs.get(candidate));
+			return cmpResult == 0 ? equalOK : (cmpResult < 0 ? compareLess : !compareLess);
+		}
+	}
+
+	static final class MatchesPredicate extends CompiledPredicate {
+		private final Matches matches;
+		private final Operand lhs;
+		private final Operand rhs;
+
+		MatchesPredicate(Matches matches, Operand lhs, Operand rhs) {
+			this.matches = matches;
+			this.lhs = lhs;
+			this.rhs = rhs;
+		}
+
+		public boolean test(Object candidate) {
+			return matches.match(lhs.get(candidate), rhs.get(candidate));
+		}
+	}
+
+	static final class CollectionPredicate extends CompiledPredicate {
+		private final Operand collection;
+		private final CompiledPredicate body;
+		private final boolean all;
+
+		CollectionPredicate(Operand collection, CompiledPredicate body, boolean all) {
+			this.collection = collection;
+			this.body = body;
+			this.all = all;
+		}
+
+		public boolean test(Object candidate) {
+			Object value = collection.get(candidate);
+			if (value instanceof Object[]) {
+				Object[] array = (Object[]) value;
+				for (int idx = 0; idx < array.length; ++idx)
+					if (body.test(array[idx]) != all)
+						return !all;
+				return all;
+			}
+			Iterator<?> itor = value instanceof Collection<?> ? ((Collection<?>) value).iterator() : RepeatableIterator.create(value);
+			while (itor.hasNext())
+				if (body.test(itor.next()) != all)
+					return !all;
+			return all;
+		}
+	}
+
+	/**
+	 * Compiles a boolean expression where <code>variable</code> denotes the candidate.
+	 * @param expression The boolean expression to compile
+	 * @param variable The variable that represents the candidate in the expression
+	 * @param parameters The values of the indexed parameters that the expression uses. May be <code>null</code>.
+	 * @return The compiled predicate or {@link #INTERPRET} when the expression must be interpreted.
+	 */
+	public static CompiledPredicate compile(Expression expression, Variable variable, Object[] parameters) {
+		CompiledPredicate predicate = compilePredicate(expression, variable, parameters);
+		return predicate == null ? INTERPRET : predicate;
+	}
+
+	private static CompiledPredicate compilePredicate(Expression expression, Variable variable, Object[] parameters) {
+		if (expression instanceof And || expression instanceof Or) {
+			Expression[] operands = ((NAry) expression).operands;
+			CompiledPredicate[] compiled = new CompiledPredicate[operands.length];
+			for (int idx = 0; idx < operands.length; ++idx) {
+				compiled[idx] = compilePredicate(operands[idx], variable, parameters);
+				if (compiled[idx] == null)
+					return null;
+			}
+			return expression instanceof And ? (CompiledPredicate) new AndPredicate(compiled) : new OrPredicate(compiled);
+		}
+
+		if (expression instanceof Not) {
+			CompiledPredicate operand = compilePredicate(((Not) expression).operand, variable, parameters);
+			return operand == null ? null : new NotPredicate(operand);
+		}
+
+		if (expression instanceof Equals || expression instanceof Compare || expression.getClass() == Matches.class) {
+			Binary binary = (Binary) expression;
+			Operand lhs = compileOperand(binary.lhs, variable, parameters);
+			if (lhs == null)
+				return null;
+			Operand rhs = compileOperand(binary.rhs, variable, parameters);
+			if (rhs == null)
+				return null;
+			if (expression instanceof Equals)
+				return new EqualsPredicate(lhs, rhs, ((Equals) expression).negate);
+			if (expression instanceof Compare) {
+				Compare compare = (Compare) expression;
+				return new ComparePredicate(lhs, rhs, compare.compareLess, compare.equalOK);
+			}
+			return new MatchesPredicate((Matches) expression, lhs, rhs);
+		}
+
+		if (expression instanceof Exists || expression instanceof All) {
+			CollectionFilter filter = (CollectionFilter) expression;
+			Operand collection = compileOperand(filter.operand, variable, parameters);
+			if (collection == null)
+				return null;
+			CompiledPredicate body = compilePredicate(filter.lambda.operand, filter.lambda.getItemVariable(), parameters);
+			return body == null ? null : new CollectionPredicate(collection, body, expression instanceof All);
+		}
+
+		Operand value = compileOperand(expression, variable, parameters);
+		return value == null ? null : new ValuePredicate(value);
+	}
+
+	private static Operand compileOperand(Expression expression, Variable variable, Object[] parameters) {
+		if (expression == variable)
+			return Self.INSTANCE;
+
+		if (expression instanceof Literal)
+			return new Constant(((Literal) expression).value);
+
+		if (expression instanceof Parameter) {
+			int position = ((Parameter) expression).position;
+			return parameters != null && position < parameters.length ? new Constant(parameters[position]) : null;
+		}
+
+		if (expression instanceof DynamicMember) {
+			DynamicMember member = (DynamicMember) expression;
+			Operand target = compileOperand(member.operand, variable, parameters);
+			return target == null ? null : new MemberOperand(target, member);
+		}
+
+		if (expression.getClass() == At.class) {
+			At at = (At) expression;
+			if (!(at.lhs instanceof DynamicMember))
+				return null;
+			DynamicMember member = (DynamicMember) at.lhs;
+			// The translated and profile properties can only be obtained from an index provider
+			if (InstallableUnit.MEMBER_PROPERTIES != member.getName())
+				return null;
+			Operand target = compileOperand(member.operand, variable, parameters);
+			if (target == null)
+				return null;
+			Operand key = compileOperand(at.rhs, variable, parameters);
+			if (!(key instanceof Constant && ((Constant) key).value instanceof String))
+				return null;
+			return new PropertyOperand(target, member, key);
+		}
+		return null;
+	}
+
+	/**
+	 * Tests the candidate.
+	 * @param candidate The candidate to test
+	 * @return <code>true</code> if the candidate matches this predicate.
+	 */
+	public abstract boolean test(Object candidate);
+}
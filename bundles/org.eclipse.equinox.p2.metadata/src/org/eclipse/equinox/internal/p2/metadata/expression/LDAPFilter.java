@@ -18,6 +18,7 @@ import org.osgi.framework.Filter;
 import org.osgi.framework.ServiceReference;
 
 public class LDAPFilter extends Unary implements IFilterExpression {
+	private transient CompiledPredicate compiled;
 
 	LDAPFilter(Expression expression) {
 		super(expression);
@@ -55,6 +56,12 @@ public class LDAPFilter extends Unary implements IFilterExpression {
 	}
 
 	public boolean isMatch(Object candidate) {
+		CompiledPredicate predicate = compiled;
+		if (predicate == null)
+			compiled = predicate = CompiledPredicate.compile(operand, ExpressionFactory.THIS, null);
+		if (predicate != CompiledPredicate.INTERPRET)
+			return predicate.test(candidate);
+
 		Variable self = ExpressionFactory.THIS;
 		IEvaluationContext ctx = EvaluationContext.create(self);
 		self.setValue(ctx, candidate);
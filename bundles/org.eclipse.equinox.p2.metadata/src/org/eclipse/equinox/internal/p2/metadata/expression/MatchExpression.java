@@ -22,6 +22,7 @@ import org.eclipse.equinox.p2.metadata.expression.*;
 public class MatchExpression<T> extends Unary implements IMatchExpression<T> {
 	private static final Object[] noParams = new Object[0];
 	private final Object[] parameters;
+	private transient CompiledPredicate compiled;
 
 	MatchExpression(Expression expression, Object[] parameters) {
 		super(expression);
@@ -56,6 +57,19 @@ public class MatchExpression<T> extends Unary implements IMatchExpression<T> {
 		return parameters;
 	}
 
+	/**
+	 * Returns the compiled form of this match expression. The expression is compiled
+	 * on first use.
+	 * @return The compiled predicate or {@link CompiledPredicate#INTERPRET} if this
+	 * expression cannot be compiled.
+	 */
+	public CompiledPredicate getCompiled() {
+		CompiledPredicate predicate = compiled;
+		if (predicate == null)
+			compiled = predicate = CompiledPredicate.compile(operand, ExpressionFactory.THIS, parameters);
+		return predicate;
+	}
+
 	/**
 	 * Returns the predicate expression that is used for the match
 	 * @return The predicate expression
@@ -78,7 +92,8 @@ public class MatchExpression<T> extends Unary implements IMatchExpression<T> {
 	}
 
 	public boolean isMatch(T value) {
-		return isMatch(createContext(), value);
+		CompiledPredicate predicate = getCompiled();
+		return predicate == CompiledPredicate.INTERPRET ? isMatch(createContext(), value) : predicate.test(value);
 	}
 
 	public void toLDAPString(StringBuffer bld) {
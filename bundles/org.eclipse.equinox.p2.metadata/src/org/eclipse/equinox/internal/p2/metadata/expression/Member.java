@@ -29,13 +29,45 @@ public abstract class Member extends Unary {
 		private static final String IS_PREFIX = "is"; //$NON-NLS-1$
 		private static final Class<?>[] NO_ARG_TYPES = new Class[0];
 
-		private Class<?> lastClass;
+		/**
+		 * Max number of classes for which the member keeps a resolved method.
+		 */
+		private static final int MAX_ACCESSORS = 4;
+
+		private static final Accessor[] NO_ACCESSORS = new Accessor[0];
+
+		/**
+		 * The immutable binding between a class and the public method that is
+		 * used for obtaining the member from instances of that class.
+		 */
+		private static final class Accessor {
+			final Class<?> type;
+			final Method method;
+
+			Accessor(Class<?> type, Method method) {
+				this.type = type;
+				this.method = method;
+			}
+		}
 
-		private transient Method method;
-		private transient String methodName;
+		/**
+		 * The names of the methods to try, in order.
+		 */
+		private final String[] methodNames;
+
+		/**
+		 * The resolved accessors, most recently resolved first. The array is never
+		 * modified once it has been published so it can be read without locking.
+		 */
+		private transient volatile Accessor[] accessors = NO_ACCESSORS;
 
 		DynamicMember(Expression operand, String name) {
 			super(operand, name, Expression.emptyArray);
+			String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+			if (name.startsWith(GET_PREFIX) || name.startsWith(IS_PREFIX))
+				methodNames = new String[] {name, IS_PREFIX + capitalized};
+			else
+				methodNames = new String[] {GET_PREFIX + capitalized, IS_PREFIX + capitalized, name};
 		}
 
 		public Object evaluate(IEvaluationContext context) {
@@ -49,58 +81,60 @@ public abstract class Member extends Unary {
 			if (self == null)
 				throw new IllegalArgumentException("Cannot access member \'" + name + "\' in null"); //$NON-NLS-1$//$NON-NLS-2$
 
-			Class<?> c = self.getClass();
-			synchronized (this) {
-				if (methodName == null) {
-					String n = name;
-					if (!(n.startsWith(GET_PREFIX) || n.startsWith(IS_PREFIX)))
-						n = GET_PREFIX + Character.toUpperCase(n.charAt(0)) + n.substring(1);
-					methodName = n;
-				}
-				if (lastClass == null || !lastClass.isAssignableFrom(c)) {
-					Method m;
-					for (;;) {
-						try {
-							m = c.getMethod(methodName, NO_ARG_TYPES);
-							if (!Modifier.isPublic(m.getModifiers()))
-								throw new NoSuchMethodException();
-							break;
-						} catch (NoSuchMethodException e) {
-							if (methodName.startsWith(GET_PREFIX))
-								// Switch from using getXxx() to isXxx()
-								methodName = IS_PREFIX + Character.toUpperCase(name.charAt(0)) + name.substring(1);
-							else if (methodName.startsWith(IS_PREFIX))
-								// Switch from using isXxx() to xxx()
-								methodName = name;
-							else
-								throw new IllegalArgumentException("Cannot find a public member \'" + name + "\' in a " + self.getClass().getName()); //$NON-NLS-1$//$NON-NLS-2$
-						}
-					}
+			Method method = getMethod(self.getClass());
+			Exception checked;
+			try {
+				return method.invoke(self, NO_ARGS);
+			} catch (IllegalArgumentException e) {
+				throw e;
+			} catch (IllegalAccessException e) {
+				checked = e;
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getTargetException();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				checked = (Exception) cause;
+			}
+			throw new RuntimeException("Problem invoking " + method.getName() + " on a " + self.getClass().getName(), checked); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		private Method getMethod(Class<?> c) {
+			// A method resolved for a class is also used for its subclasses. The
+			// invocation dispatches to any override.
+			Accessor[] current = accessors;
+			for (int idx = 0; idx < current.length; ++idx)
+				if (current[idx].type.isAssignableFrom(c))
+					return current[idx].method;
+
+			// Resolve outside of any lock. Concurrent threads might resolve the same
+			// class but they will all arrive at the same method.
+			Method m = resolveMethod(c);
+			int keep = current.length < MAX_ACCESSORS ? current.length : MAX_ACCESSORS - 1;
+			Accessor[] updated = new Accessor[keep + 1];
+			updated[0] = new Accessor(c, m);
+			System.arraycopy(current, 0, updated, 1, keep);
+			accessors = updated;
+			return m;
+		}
+
+		private Method resolveMethod(Class<?> c) {
+			for (int idx = 0; idx < methodNames.length; ++idx) {
+				try {
+					Method m = c.getMethod(methodNames[idx], NO_ARG_TYPES);
+					if (!Modifier.isPublic(m.getModifiers()))
+						continue;
 
 					// Since we already checked that it's public. This will speed
 					// up the calls a bit.
 					m.setAccessible(true);
-					lastClass = c;
-					method = m;
-				}
-
-				Exception checked;
-				try {
-					return method.invoke(self, NO_ARGS);
-				} catch (IllegalArgumentException e) {
-					throw e;
-				} catch (IllegalAccessException e) {
-					checked = e;
-				} catch (InvocationTargetException e) {
-					Throwable cause = e.getTargetException();
-					if (cause instanceof RuntimeException)
-						throw (RuntimeException) cause;
-					if (cause instanceof Error)
-						throw (Error) cause;
-					checked = (Exception) cause;
+					return m;
+				} catch (NoSuchMethodException e) {
+					// Try next name
 				}
-				throw new RuntimeException("Problem invoking " + methodName + " on a " + self.getClass().getName(), checked); //$NON-NLS-1$ //$NON-NLS-2$
 			}
+			throw new IllegalArgumentException("Cannot find a public member \'" + name + "\' in a " + c.getName()); //$NON-NLS-1$//$NON-NLS-2$
 		}
 	}
 
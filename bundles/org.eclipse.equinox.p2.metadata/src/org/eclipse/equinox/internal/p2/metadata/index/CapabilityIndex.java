@@ -17,35 +17,174 @@ import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
 
 /**
- * An in-memory implementation of a CapabilityIndex based on a Map.
+ * An in-memory implementation of a CapabilityIndex based on a Map. The provided
+ * capabilities are indexed by namespace and name and each such bucket is kept sorted
+ * by version so that a simple requirement can be resolved using a binary search on
+ * its version range before any match expression is evaluated.
  */
 @SuppressWarnings("unchecked")
 public class CapabilityIndex extends Index<IInstallableUnit> {
 
-	private final Map<String, Object> capabilityMap;
+	/**
+	 * The capabilities that share one namespace and name, sorted by version.
+	 */
+	static final class CapabilityBucket {
+		private Version[] versions;
+		private IInstallableUnit[] units;
+		private int size;
+		private boolean sorted = true;
+		private boolean unique = true;
+
+		CapabilityBucket() {
+			versions = new Version[1];
+			units = new IInstallableUnit[1];
+		}
+
+		void add(Version version, IInstallableUnit iu) {
+			if (size > 0) {
+				if (units[size - 1] == iu) {
+					if (versions[size - 1].equals(version))
+						return;
+					// A unit adds all of its capabilities at once so its entries
+					// in a bucket are always consecutive.
+					unique = false;
+				}
+				if (sorted && versions[size - 1].compareTo(version) > 0)
+					sorted = false;
+			}
+			if (size == versions.length) {
+				int newLen = size < 4 ? size + 2 : size + (size >> 1);
+				Version[] newVersions = new Version[newLen];
+				System.arraycopy(versions, 0, newVersions, 0, size);
+				versions = newVersions;
+				IInstallableUnit[] newUnits = new IInstallableUnit[newLen];
+				System.arraycopy(units, 0, newUnits, 0, size);
+				units = newUnits;
+			}
+			versions[size] = version;
+			units[size++] = iu;
+		}
+
+		/**
+		 * Trims the arrays and sorts the entries by version. The sort is stable
+		 * so units that provide the same version retain their original order.
+		 */
+		void freeze() {
+			if (!sorted) {
+				Integer[] order = new Integer[size];
+				for (int idx = 0; idx < size; ++idx)
+					order[idx] = new Integer(idx);
+				final Version[] unsortedVersions = versions;
+				Arrays.sort(order, new Comparator<Integer>() {
+					public int compare(Integer o1, Integer o2) {
+						return unsortedVersions[o1.intValue()].compareTo(unsortedVersions[o2.intValue()]);
+					}
+				});
+				Version[] sortedVersions = new Version[size];
+				IInstallableUnit[] sortedUnits = new IInstallableUnit[size];
+				for (int idx = 0; idx < size; ++idx) {
+					int from = order[idx].intValue();
+					sortedVersions[idx] = versions[from];
+					sortedUnits[idx] = units[from];
+				}
+				versions = sortedVersions;
+				units = sortedUnits;
+				sorted = true;
+			} else if (size < versions.length) {
+				Version[] newVersions = new Version[size];
+				System.arraycopy(versions, 0, newVersions, 0, size);
+				versions = newVersions;
+				IInstallableUnit[] newUnits = new IInstallableUnit[size];
+				System.arraycopy(units, 0, newUnits, 0, size);
+				units = newUnits;
+			}
+		}
+
+		/**
+		 * Returns the index of the first entry with a version that is greater than, or
+		 * when <code>inclusive</code> is set, greater than or equal to <code>version</code>.
+		 */
+		private int lowerBound(Version version, boolean inclusive) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				int cmp = versions[mid].compareTo(version);
+				if (cmp < 0 || (cmp == 0 && !inclusive))
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		void collectAll(Collection<IInstallableUnit> collector) {
+			for (int idx = 0; idx < size; ++idx)
+				collector.add(units[idx]);
+		}
+
+		void collect(VersionRange range, Collection<IInstallableUnit> collector) {
+			Version max = range.getMaximum();
+			boolean includeMax = range.getIncludeMaximum();
+			for (int idx = lowerBound(range.getMinimum(), range.getIncludeMinimum()); idx < size; ++idx) {
+				int cmp = versions[idx].compareTo(max);
+				if (cmp > 0 || (cmp == 0 && !includeMax))
+					break;
+				collector.add(units[idx]);
+			}
+		}
+
+		Collection<IInstallableUnit> getUnits(VersionRange range) {
+			if (size == 1) {
+				if (range == null || range.isIncluded(versions[0]))
+					return Collections.singleton(units[0]);
+				return Collections.<IInstallableUnit> emptySet();
+			}
+			Collection<IInstallableUnit> collector = unique ? new ArrayList<IInstallableUnit>() : new HashSet<IInstallableUnit>();
+			if (range == null)
+				collectAll(collector);
+			else
+				collect(range, collector);
+			return collector;
+		}
+	}
+
+	private final Map<String, Map<String, CapabilityBucket>> namespaceMap;
+
+	/**
+	 * Constructor for subclasses that look up the capabilities elsewhere. Such
+	 * subclasses must override {@link #getMatchingIUs(IMatchExpression)} and
+	 * {@link #collectMatchingIUs(Object, Collection)}.
+	 */
+	protected CapabilityIndex() {
+		namespaceMap = Collections.<String, Map<String, CapabilityBucket>> emptyMap();
+	}
 
 	public CapabilityIndex(Iterator<IInstallableUnit> itor) {
-		HashMap<String, Object> index = new HashMap<String, Object>(300);
+		HashMap<String, Map<String, CapabilityBucket>> index = new HashMap<String, Map<String, CapabilityBucket>>();
 		while (itor.hasNext()) {
 			IInstallableUnit iu = itor.next();
 			Collection<IProvidedCapability> pcs = iu.getProvidedCapabilities();
 			for (IProvidedCapability pc : pcs) {
+				String namespace = pc.getNamespace();
+				Map<String, CapabilityBucket> nameMap = index.get(namespace);
+				if (nameMap == null) {
+					nameMap = new HashMap<String, CapabilityBucket>(300);
+					index.put(namespace, nameMap);
+				}
 				String name = pc.getName();
-				Object prev = index.put(name, iu);
-				if (prev == null || prev == iu)
-					continue;
-
-				ArrayList<IInstallableUnit> list;
-				if (prev instanceof IInstallableUnit) {
-					list = new ArrayList<IInstallableUnit>();
-					list.add((IInstallableUnit) prev);
-				} else
-					list = (ArrayList<IInstallableUnit>) prev;
-				list.add(iu);
-				index.put(name, list);
+				CapabilityBucket bucket = nameMap.get(name);
+				if (bucket == null) {
+					bucket = new CapabilityBucket();
+					nameMap.put(name, bucket);
+				}
+				bucket.add(pc.getVersion(), iu);
 			}
 		}
-		this.capabilityMap = index;
+		for (Map<String, CapabilityBucket> nameMap : index.values())
+			for (CapabilityBucket bucket : nameMap.values())
+				bucket.freeze();
+		this.namespaceMap = index;
 	}
 
 	private Object getRequirementIDs(IEvaluationContext ctx, IExpression requirement, Object queriedKeys) {
@@ -110,7 +249,7 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		// index usage query
 		//
 		IMatchExpression<IInstallableUnit> rm = ((IRequirement) rhsObj).getMatches();
-		return RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, rm.getParameters()[0]) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
+		return RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, rm) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
 	}
 
 	public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
@@ -123,6 +262,10 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		int type = booleanExpr.getExpressionType();
 		if (type == 0) {
 			// wrapper
+			if (booleanExpr instanceof IMatchExpression<?> && RequiredCapability.isSimpleRequirement((IMatchExpression<IInstallableUnit>) booleanExpr))
+				// The match expression of a simple requirement, i.e. a namespace, name and
+				// version range that can be looked up directly.
+				return getMatchingIUs((IMatchExpression<IInstallableUnit>) booleanExpr).iterator();
 			expr = ((Unary) booleanExpr).operand;
 			type = expr.getExpressionType();
 		}
@@ -157,11 +300,12 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 							instance &= (object instanceof IRequiredCapability);
 						}
 						if (instance) {
-							Collection<String> result = new ArrayList<String>();
+							Collection<Object> result = new ArrayList<Object>();
 							for (Object object : collection) {
 								// This instance of check was done above
 								IRequiredCapability capability = (IRequiredCapability) object;
-								result.add(capability.getName());
+								IMatchExpression<IInstallableUnit> rm = capability.getMatches();
+								result.add(RequiredCapability.isSimpleRequirement(rm) ? (Object) rm : capability.getName());
 							}
 							if (result.size() > 0) {
 								queriedKeys = result;
@@ -184,14 +328,14 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 				// index usage query
 				//
 				IMatchExpression<IInstallableUnit> rm = ((IRequirement) rhsObj).getMatches();
-				queriedKeys = RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, rm.getParameters()[0]) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
+				queriedKeys = RequiredCapability.isSimpleRequirement(rm) ? concatenateUnique(queriedKeys, rm) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
 				break;
 
 			default :
 				queriedKeys = null;
 		}
 
-		if (queriedKeys == null)
+		if (queriedKeys == null || !isIndexable(queriedKeys))
 			// Index cannot be used.
 			return null;
 
@@ -203,26 +347,81 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		} else if (queriedKeys instanceof Collection<?>) {
 			matchingIUs = new HashSet<IInstallableUnit>();
 			for (Object key : (Collection<Object>) queriedKeys)
-				collectMatchingIUs((String) key, matchingIUs);
+				collectMatchingIUs(key, matchingIUs);
+		} else if (queriedKeys instanceof IMatchExpression<?>) {
+			matchingIUs = getMatchingIUs((IMatchExpression<IInstallableUnit>) queriedKeys);
 		} else {
-			Object v = capabilityMap.get(queriedKeys);
-			if (v == null)
-				matchingIUs = Collections.<IInstallableUnit> emptySet();
-			else if (v instanceof IInstallableUnit)
-				matchingIUs = Collections.singleton((IInstallableUnit) v);
-			else
-				matchingIUs = (Collection<IInstallableUnit>) v;
+			matchingIUs = new HashSet<IInstallableUnit>();
+			collectMatchingIUs(queriedKeys, matchingIUs);
 		}
 		return matchingIUs.iterator();
 	}
 
-	private void collectMatchingIUs(String name, Collection<IInstallableUnit> collector) {
-		Object v = capabilityMap.get(name);
-		if (v == null)
+	/**
+	 * Returns whether the given queried keys can be looked up, which is when they are
+	 * names or simple requirements. Other keys may still match names by coercion.
+	 */
+	private static boolean isIndexable(Object queriedKeys) {
+		if (queriedKeys instanceof Collection<?>) {
+			for (Object key : (Collection<?>) queriedKeys)
+				if (!isIndexable(key))
+					return false;
+			return true;
+		}
+		return queriedKeys == Boolean.FALSE || queriedKeys instanceof String || queriedKeys instanceof IMatchExpression<?>;
+	}
+
+	/**
+	 * Returns the units that provide a capability in the namespace and with the name of the
+	 * given simple requirement and a version that is within the requirement range.
+	 * @param requirement A simple requirement match expression
+	 * @return The units that match the namespace, name and range of the requirement
+	 */
+	protected Collection<IInstallableUnit> getMatchingIUs(IMatchExpression<IInstallableUnit> requirement) {
+		CapabilityBucket bucket = getBucket(RequiredCapability.extractNamespace(requirement), RequiredCapability.extractName(requirement));
+		if (bucket == null)
+			return Collections.<IInstallableUnit> emptySet();
+		return bucket.getUnits(getRange(requirement));
+	}
+
+	private CapabilityBucket getBucket(String namespace, String name) {
+		Map<String, CapabilityBucket> nameMap = namespaceMap.get(namespace);
+		return nameMap == null ? null : nameMap.get(name);
+	}
+
+	/**
+	 * Returns the version range of a simple requirement or <code>null</code> when the
+	 * requirement accepts any version.
+	 */
+	protected static VersionRange getRange(IMatchExpression<IInstallableUnit> requirement) {
+		// The allVersions requirement has no version parameters.
+		return requirement.getParameters().length < 3 ? null : RequiredCapability.extractRange(requirement);
+	}
+
+	/**
+	 * Adds the units that match the given key to the collector. The key is either the
+	 * match expression of a simple requirement or the name of a capability in any namespace.
+	 */
+	protected void collectMatchingIUs(Object key, Collection<IInstallableUnit> collector) {
+		if (key instanceof IMatchExpression<?>) {
+			IMatchExpression<IInstallableUnit> requirement = (IMatchExpression<IInstallableUnit>) key;
+			CapabilityBucket bucket = getBucket(RequiredCapability.extractNamespace(requirement), RequiredCapability.extractName(requirement));
+			if (bucket != null) {
+				VersionRange range = getRange(requirement);
+				if (range == null)
+					bucket.collectAll(collector);
+				else
+					bucket.collect(range, collector);
+			}
 			return;
-		if (v instanceof IInstallableUnit)
-			collector.add((IInstallableUnit) v);
-		else
-			collector.addAll((Collection<IInstallableUnit>) v);
+		}
+
+		// A name without a namespace. Namespaces are few so we
+		// just look in all of them.
+		for (Map<String, CapabilityBucket> nameMap : namespaceMap.values()) {
+			CapabilityBucket bucket = nameMap.get(key);
+			if (bucket != null)
+				bucket.collectAll(collector);
+		}
 	}
 }
@@ -24,12 +24,14 @@ public class ExpressionMatchQuery<T> implements IMatchQuery<T>, IQueryWithIndex<
 	private final Class<? extends T> matchingClass;
 	private final IEvaluationContext context;
 	private final List<String> indexedMembers;
+	private final CompiledPredicate compiled;
 
 	public ExpressionMatchQuery(Class<? extends T> matchingClass, IExpression expression, Object... parameters) {
 		this.matchingClass = matchingClass;
 		this.expression = ExpressionUtil.getFactory().<T> matchExpression(expression, parameters);
 		this.context = this.expression.createContext();
 		this.indexedMembers = Expression.getIndexCandidateMembers(matchingClass, ExpressionFactory.THIS, (Expression) expression);
+		this.compiled = this.expression instanceof MatchExpression<?> ? ((MatchExpression<T>) this.expression).getCompiled() : CompiledPredicate.INTERPRET;
 	}
 
 	public ExpressionMatchQuery(Class<? extends T> matchingClass, String expression, Object... parameters) {
@@ -82,6 +84,8 @@ public class ExpressionMatchQuery<T> implements IMatchQuery<T>, IQueryWithIndex<
 	public boolean isMatch(T candidate) {
 		if (!matchingClass.isInstance(candidate))
 			return false;
+		if (compiled != CompiledPredicate.INTERPRET)
+			return compiled.test(candidate);
 		ExpressionFactory.THIS.setValue(context, candidate);
 		return Boolean.TRUE == expression.evaluate(context);
 	}
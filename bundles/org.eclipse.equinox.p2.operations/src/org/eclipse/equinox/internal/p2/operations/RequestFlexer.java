@@ -51,6 +51,7 @@ public class RequestFlexer {
 	private boolean foundDifferentVersionsForElementsToInstall = false;
 	private boolean foundDifferentVersionsForElementsInstalled = false;
 	private Set<IInstallableUnit> futureOptionalIUs;
+	private Map<IInstallableUnit, IQueryResult<IInstallableUnit>> updateCache;
 
 	public RequestFlexer(IPlanner planner) {
 		this.planner = planner;
@@ -80,6 +81,15 @@ public class RequestFlexer {
 		ensureProductPresence = productPresent;
 	}
 
+	/**
+	 * Sets the map where the updates found for the units are kept, so that flexers working on
+	 * the same profile don't look for the same updates again. The map must be thread safe
+	 * when it is shared by flexers running concurrently.
+	 */
+	public void setUpdateCache(Map<IInstallableUnit, IQueryResult<IInstallableUnit>> cache) {
+		updateCache = cache;
+	}
+
 	public IProfileChangeRequest getChangeRequest(IProfileChangeRequest request, IProfile prof, IProgressMonitor monitor) {
 		this.profile = prof;
 		SubMonitor sub = SubMonitor.convert(monitor, 2);
@@ -314,7 +324,12 @@ public class RequestFlexer {
 
 	private Collection<IInstallableUnit> findUpdates(IInstallableUnit iu, IProgressMonitor monitor) {
 		Collection<IInstallableUnit> availableUpdates = new HashSet<IInstallableUnit>();
-		IQueryResult<IInstallableUnit> updatesAvailable = planner.updatesFor(iu, provisioningContext, SubMonitor.convert(monitor));
+		IQueryResult<IInstallableUnit> updatesAvailable = updateCache == null ? null : updateCache.get(iu);
+		if (updatesAvailable == null) {
+			updatesAvailable = planner.updatesFor(iu, provisioningContext, SubMonitor.convert(monitor));
+			if (updateCache != null)
+				updateCache.put(iu, updatesAvailable);
+		}
 		for (Iterator<IInstallableUnit> iterator = updatesAvailable.iterator(); iterator.hasNext();) {
 			availableUpdates.add(iterator.next());
 		}
@@ -11,14 +11,18 @@
 package org.eclipse.equinox.p2.operations;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
 import org.eclipse.equinox.internal.p2.operations.*;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.planner.IPlanner;
 import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.query.IQueryable;
 import org.eclipse.equinox.p2.repository.IRunnableWithProgress;
 
 /**
@@ -33,6 +37,32 @@ import org.eclipse.equinox.p2.repository.IRunnableWithProgress;
  */
 public class RemediationOperation extends ProfileChangeOperation {
 
+	/**
+	 * The largest number of remedy configurations that are tried at the same time. By default,
+	 * the number of processors. The configurations are tried one after the other unless the
+	 * value is greater than one.
+	 */
+	public static final String PROP_REMEDY_THREADS = "eclipse.p2.remediation.threads"; //$NON-NLS-1$
+
+	/**
+	 * A provisioning context answering the metadata that was loaded once for all the remedies.
+	 * Each remedy gets its own copy since the request flexer changes the properties of its context.
+	 */
+	private static class SharedMetadataContext extends ProvisioningContext {
+		private final IQueryable<IInstallableUnit> metadata;
+
+		SharedMetadataContext(ProvisioningSession session, ProvisioningContext context, IQueryable<IInstallableUnit> metadata) {
+			super(session.getProvisioningAgent());
+			this.metadata = metadata;
+			getProperties().putAll(context.getProperties());
+			setExtraInstallableUnits(new ArrayList<IInstallableUnit>(context.getExtraInstallableUnits()));
+		}
+
+		public IQueryable<IInstallableUnit> getMetadata(IProgressMonitor monitor) {
+			return metadata;
+		}
+	}
+
 	private static int ZERO_WEIGHT = 0;
 	private static int LOW_WEIGHT = 1;
 	private static int MEDIUM_WEIGHT = 2;
@@ -42,11 +72,21 @@ public class RemediationOperation extends ProfileChangeOperation {
 	private Remedy bestSolutionChangingWhatIsInstalled;
 	private Remedy currentRemedy;
 	private RemedyConfig[] remedyConfigs;
+	private int remedyThreads = getDefaultRemedyThreads();
 
 	public RemedyConfig[] getRemedyConfigs() {
 		return remedyConfigs;
 	}
 
+	/**
+	 * Sets the largest number of remedy configurations that are tried at the same time. The remedies
+	 * are the same whatever the number of threads. A value of one or less tries the configurations
+	 * one after the other.
+	 */
+	public void setRemedyThreads(int threads) {
+		remedyThreads = threads;
+	}
+
 	public Remedy getCurrentRemedy() {
 		return currentRemedy;
 	}
@@ -99,15 +139,21 @@ public class RemediationOperation extends ProfileChangeOperation {
 	}
 
 	private IStatus computeAllRemediations(IProgressMonitor monitor) {
-		SubMonitor sub = SubMonitor.convert(monitor, remedyConfigs.length);
+		SubMonitor sub = SubMonitor.convert(monitor, remedyConfigs.length + 1);
 		sub.setTaskName(Messages.RemediationOperation_ProfileChangeRequestProgress);
 		List<Remedy> tmpRemedies = new ArrayList<Remedy>(remedyConfigs.length);
 		try {
+			//The repositories are loaded once, and the updates found by one remedy are reused by the others
+			IQueryable<IInstallableUnit> metadata = getProvisioningContext().getMetadata(sub.newChild(1));
+			Map<IInstallableUnit, IQueryResult<IInstallableUnit>> updateCache = new ConcurrentHashMap<IInstallableUnit, IQueryResult<IInstallableUnit>>();
+			int threads = Math.min(remedyThreads, remedyConfigs.length);
+			if (threads > 1)
+				return computeRemediationsConcurrently(metadata, updateCache, threads, sub);
 			for (int i = 0; i < remedyConfigs.length; i++) {
 				sub.subTask((i + 1) + " / " + remedyConfigs.length); //$NON-NLS-1$
 				if (sub.isCanceled())
 					return Status.CANCEL_STATUS;
-				Remedy remedy = computeRemedy(remedyConfigs[i], sub.newChild(1, SubMonitor.SUPPRESS_ALL_LABELS));
+				Remedy remedy = computeRemedy(remedyConfigs[i], new SharedMetadataContext(session, getProvisioningContext(), metadata), updateCache, sub.newChild(1, SubMonitor.SUPPRESS_ALL_LABELS));
 				if (remedy != null) {
 					tmpRemedies.add(remedy);
 				}
@@ -119,6 +165,79 @@ public class RemediationOperation extends ProfileChangeOperation {
 		return getResolutionResult();
 	}
 
+	/*
+	 * Tries the remedy configurations at the same time on at most the given number of threads. The
+	 * remedies are kept in the order of their configurations, so the best ones are the same as when
+	 * the configurations are tried one after the other.
+	 */
+	private IStatus computeRemediationsConcurrently(final IQueryable<IInstallableUnit> metadata, final Map<IInstallableUnit, IQueryResult<IInstallableUnit>> updateCache, int threads, SubMonitor sub) {
+		//The progress monitor of the operation is only used by this thread, the tasks are told about cancellation through their own
+		final IProgressMonitor taskMonitor = new NullProgressMonitor();
+		List<Future<Remedy>> futures = new ArrayList<Future<Remedy>>(remedyConfigs.length);
+		List<Remedy> tmpRemedies = new ArrayList<Remedy>(remedyConfigs.length);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int i = 0; i < remedyConfigs.length; i++) {
+				final RemedyConfig configuration = remedyConfigs[i];
+				final ProvisioningContext context = new SharedMetadataContext(session, getProvisioningContext(), metadata);
+				futures.add(executor.submit(new Callable<Remedy>() {
+					public Remedy call() {
+						return computeRemedy(configuration, context, updateCache, taskMonitor);
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				sub.subTask((i + 1) + " / " + remedyConfigs.length); //$NON-NLS-1$
+				Remedy remedy = null;
+				for (;;) {
+					if (sub.isCanceled()) {
+						taskMonitor.setCanceled(true);
+						return Status.CANCEL_STATUS;
+					}
+					try {
+						remedy = futures.get(i).get(100L, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						//check for cancellation and wait again
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						taskMonitor.setCanceled(true);
+						return Status.CANCEL_STATUS;
+					} catch (ExecutionException e) {
+						Throwable cause = e.getCause();
+						if (cause instanceof RuntimeException)
+							throw (RuntimeException) cause;
+						if (cause instanceof Error)
+							throw (Error) cause;
+						throw new IllegalStateException(cause);
+					}
+				}
+				if (remedy != null)
+					tmpRemedies.add(remedy);
+				sub.worked(1);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		remedies = tmpRemedies;
+		return getResolutionResult();
+	}
+
+	private static int getDefaultRemedyThreads() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (Activator.getContext() == null)
+			return processors;
+		String threadsString = Activator.getContext().getProperty(PROP_REMEDY_THREADS);
+		if (threadsString == null)
+			return processors;
+		try {
+			return Integer.parseInt(threadsString);
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring user-specified '" + PROP_REMEDY_THREADS + "' value of: " + threadsString); //$NON-NLS-1$ //$NON-NLS-2$
+			return processors;
+		}
+	}
+
 	private void determineBestSolutions() {
 		int beingInstalledWeight = 0;
 		int installationWeight = 0;
@@ -139,7 +258,7 @@ public class RemediationOperation extends ProfileChangeOperation {
 		}
 	}
 
-	private Remedy computeRemedy(RemedyConfig configuration, IProgressMonitor monitor) {
+	private Remedy computeRemedy(RemedyConfig configuration, ProvisioningContext context, Map<IInstallableUnit, IQueryResult<IInstallableUnit>> updateCache, IProgressMonitor monitor) {
 		Remedy remedy = new Remedy(originalRequest);
 		remedy.setConfig(configuration);
 		IPlanner planner = session.getPlanner();
@@ -148,7 +267,8 @@ public class RemediationOperation extends ProfileChangeOperation {
 		av.setAllowInstalledElementChange(configuration.allowInstalledUpdate);
 		av.setAllowInstalledElementRemoval(configuration.allowInstalledRemoval);
 		av.setAllowPartialInstall(configuration.allowPartialInstall);
-		av.setProvisioningContext(getProvisioningContext());
+		av.setProvisioningContext(context);
+		av.setUpdateCache(updateCache);
 		remedy.setRequest((ProfileChangeRequest) av.getChangeRequest(originalRequest, ((ProfileChangeRequest) originalRequest).getProfile(), monitor));
 		if (remedy.getRequest() == null)
 			return null;
@@ -606,4 +606,8 @@ public class ReducedCUDFParser {
 		assert allIUs.size() == 1;
 		return (IInstallableUnit) allIUs.get(0);
 	}
+
+	public List<IInstallableUnit> getIUs() {
+		return allIUs;
+	}
 }
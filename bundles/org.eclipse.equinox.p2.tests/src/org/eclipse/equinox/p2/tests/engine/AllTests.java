@@ -25,8 +25,12 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(EngineTest.class);
 		suite.addTestSuite(PhaseApplicabilityTest.class);
 		suite.addTestSuite(PhaseSetTest.class);
+		suite.addTestSuite(PipelinedPhaseSetTest.class);
 		suite.addTestSuite(PhaseTest.class);
 		suite.addTestSuite(ParameterizedProvisioningActionTest.class);
+		suite.addTestSuite(BinaryProfileTest.class);
+		suite.addTestSuite(ProfileCacheTest.class);
+		suite.addTestSuite(ProfileDeltaHistoryTest.class);
 		suite.addTestSuite(ProfileMetadataRepositoryTest.class);
 		suite.addTestSuite(ProfileTest.class);
 		suite.addTestSuite(ProfilePreferencesTest.class);
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.engine;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the binary copy of the states of a profile and the summaries kept in the index
+ * of the history of a profile.
+ */
+public class BinaryProfileTest extends AbstractProvisioningTest {
+	private static final String PROFILE_NAME = "BinaryProfileTest";
+	private File folder;
+	private SimpleProfileRegistry registry;
+	private Profile profile;
+	private List<IProfile> states;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(EngineActivator.PROP_PROFILE_BINARY, "true");
+		folder = getTempFolder();
+		folder.mkdirs();
+		registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("name", "0");
+		profile = (Profile) registry.addProfile(PROFILE_NAME, properties);
+		states = new ArrayList<IProfile>();
+		states.add(registry.getProfile(PROFILE_NAME));
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_BINARY);
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_HISTORY_FORMAT);
+		delete(folder);
+		super.tearDown();
+	}
+
+	private void saveStates(int count) {
+		for (int i = 1; i <= count; i++) {
+			IInstallableUnit iu = createIU("A" + i, Version.create("1.0.0"));
+			profile.addInstallableUnit(iu);
+			profile.setInstallableUnitProperty(iu, IProfile.PROP_PROFILE_ROOT_IU, "true");
+			if (i > 1)
+				profile.removeInstallableUnitProperty(createIU("A" + (i - 1), Version.create("1.0.0")), IProfile.PROP_PROFILE_ROOT_IU);
+			profile.setProperty("name", Integer.toString(i));
+			profile.setChanged(false);
+			registry.lockProfile(profile);
+			try {
+				profile.setChanged(true);
+				registry.updateProfile(profile);
+			} finally {
+				registry.unlockProfile(profile);
+				profile.setChanged(false);
+			}
+			states.add(registry.getProfile(PROFILE_NAME));
+		}
+	}
+
+	private File getProfileFolder() {
+		return new File(folder, PROFILE_NAME + ".profile");
+	}
+
+	private static void assertSameState(String message, IProfile expected, IProfile actual) {
+		assertNotNull(message, actual);
+		assertEquals(message, expected.getTimestamp(), actual.getTimestamp());
+		assertEquals(message, new HashMap<String, String>(expected.getProperties()), new HashMap<String, String>(actual.getProperties()));
+		Set<IInstallableUnit> ius = expected.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		assertEquals(message, ius, actual.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		for (IInstallableUnit iu : ius)
+			assertEquals(message, new HashMap<String, String>(expected.getInstallableUnitProperties(iu)), new HashMap<String, String>(actual.getInstallableUnitProperties(iu)));
+	}
+
+	public void testBinaryCopy() throws IOException {
+		saveStates(3);
+		for (IProfile state : states) {
+			File binaryFile = new File(getProfileFolder(), state.getTimestamp() + ".profile.bin");
+			assertTrue("1.0", binaryFile.isFile());
+			BinaryProfileReader reader = BinaryProfileReader.open(binaryFile);
+			assertEquals("1.1", PROFILE_NAME, reader.getProfileId());
+			assertEquals("1.2", state.getTimestamp(), reader.getTimestamp());
+			assertEquals("1.3", state.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet(), new HashSet<IInstallableUnit>(Arrays.asList(reader.readInstallableUnits())));
+			assertSameState("1.4", state, registry.getProfile(PROFILE_NAME, state.getTimestamp()));
+		}
+
+		//the profiles are read from the binary copies when the registry is restored
+		SimpleProfileRegistry restored = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		assertSameState("2.0", states.get(states.size() - 1), restored.getProfile(PROFILE_NAME));
+	}
+
+	public void testDamagedBinaryCopy() throws IOException {
+		saveStates(2);
+		IProfile state = states.get(1);
+		File binaryFile = new File(getProfileFolder(), state.getTimestamp() + ".profile.bin");
+		OutputStream os = new FileOutputStream(binaryFile);
+		try {
+			os.write(new byte[] {1, 2, 3});
+		} finally {
+			os.close();
+		}
+		//the XML file is read instead
+		assertSameState("1.0", state, registry.getProfile(PROFILE_NAME, state.getTimestamp()));
+	}
+
+	public void testStaleBinaryCopy() throws IOException {
+		saveStates(2);
+		IProfile state = states.get(1);
+		File binaryFile = new File(getProfileFolder(), state.getTimestamp() + ".profile.bin");
+		File otherFile = new File(getProfileFolder(), states.get(0).getTimestamp() + ".profile.bin");
+		copy("0.1", otherFile, binaryFile);
+		binaryFile.setLastModified(System.currentTimeMillis() + 10000);
+		//the copy is newer than the XML file but not a copy of it, so the XML file is read instead
+		assertSameState("1.0", state, registry.getProfile(PROFILE_NAME, state.getTimestamp()));
+	}
+
+	public void testSummaries() {
+		saveStates(3);
+		assertTrue("1.0", new File(getProfileFolder(), ProfileHistoryIndex.INDEX_FILENAME).isFile());
+		ProfileSummary[] summaries = registry.getProfileSummaries(PROFILE_NAME);
+		assertEquals("1.1", states.size(), summaries.length);
+		for (int i = 0; i < states.size(); i++) {
+			assertEquals("1.2", states.get(i).getTimestamp(), summaries[i].getTimestamp());
+			assertEquals("1.3", i, summaries[i].getInstallableUnitCount());
+			assertEquals("1.4", Integer.toString(i), summaries[i].getProperties().get("name"));
+			if (i > 0) {
+				assertEquals("1.5", 1, summaries[i].getRoots().size());
+				assertEquals("1.6", new VersionedId("A" + i, "1.0.0"), summaries[i].getRoots().get(0));
+			}
+		}
+	}
+
+	public void testSummaryOfStateNotInIndex() throws Exception {
+		//the index is only kept up to date once it exists
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_BINARY);
+		File indexFile = new File(getProfileFolder(), ProfileHistoryIndex.INDEX_FILENAME);
+		indexFile.delete();
+		saveStates(2);
+		assertFalse("1.0", indexFile.isFile());
+
+		ProfileSummary summary = registry.getProfileSummary(PROFILE_NAME, states.get(1).getTimestamp());
+		assertEquals("1.1", 1, summary.getInstallableUnitCount());
+		assertTrue("1.2", indexFile.isFile());
+		assertNotNull("1.3", ProfileHistoryIndex.read(indexFile).getSummary(states.get(1).getTimestamp()));
+		assertNull("1.4", registry.getProfileSummary(PROFILE_NAME, 1L));
+
+		registry.removeProfile(PROFILE_NAME, states.get(1).getTimestamp());
+		assertNull("2.0", ProfileHistoryIndex.read(indexFile).getSummary(states.get(1).getTimestamp()));
+	}
+
+	public void testDeltaHistory() {
+		System.setProperty(EngineActivator.PROP_PROFILE_HISTORY_FORMAT, EngineActivator.PROFILE_HISTORY_FORMAT_DELTA);
+		saveStates(3);
+		//only the states stored in full have a binary copy
+		for (int i = 0; i < states.size(); i++) {
+			File binaryFile = new File(getProfileFolder(), states.get(i).getTimestamp() + ".profile.bin");
+			File profileFile = new File(getProfileFolder(), states.get(i).getTimestamp() + ".profile.gz");
+			assertEquals("1.0", profileFile.isFile(), binaryFile.isFile());
+			assertSameState("1.1", states.get(i), registry.getProfile(PROFILE_NAME, states.get(i).getTimestamp()));
+		}
+	}
+}
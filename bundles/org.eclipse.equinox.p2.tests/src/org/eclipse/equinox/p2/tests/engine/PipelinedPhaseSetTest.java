@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.engine;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.internal.p2.engine.phases.Collect;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestArtifactRepository;
+
+/**
+ * Tests performing the phases that read the artifacts while the artifacts are downloaded.
+ */
+public class PipelinedPhaseSetTest extends AbstractProvisioningTest {
+
+	static class TestRequest implements IArtifactRequest {
+		private final IArtifactKey key;
+		private volatile IStatus result;
+
+		TestRequest(IArtifactKey key) {
+			this.key = key;
+		}
+
+		public IArtifactKey getArtifactKey() {
+			return key;
+		}
+
+		public void perform(IArtifactRepository sourceRepository, IProgressMonitor monitor) {
+			setResult(Status.OK_STATUS);
+		}
+
+		public IStatus getResult() {
+			return result;
+		}
+
+		void setResult(IStatus result) {
+			this.result = result;
+		}
+	}
+
+	/**
+	 * Downloads the first artifact, then waits until the first operand is installed before
+	 * downloading the others.
+	 */
+	static class TestDownloadManager extends DownloadManager {
+		final TestRequest[] requests;
+		final CountDownLatch firstInstalled = new CountDownLatch(1);
+		boolean waited;
+		IStatus failure;
+
+		TestDownloadManager(TestRequest[] requests) {
+			super(null, null);
+			this.requests = requests;
+		}
+
+		public IStatus start(IProgressMonitor monitor) {
+			requests[0].setResult(Status.OK_STATUS);
+			try {
+				waited = firstInstalled.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				return Status.CANCEL_STATUS;
+			}
+			for (int i = 1; i < requests.length; i++)
+				requests[i].setResult(i == 1 && failure != null ? failure : Status.OK_STATUS);
+			return failure != null ? failure : Status.OK_STATUS;
+		}
+	}
+
+	static class TestCollect extends Collect {
+		BackgroundDownload download;
+
+		TestCollect() {
+			super(10);
+		}
+
+		protected List<ProvisioningAction> getActions(InstallableUnitOperand operand) {
+			return null;
+		}
+
+		protected IStatus completePhase(IProgressMonitor monitor, IProfile profile, Map<String, Object> parameters) {
+			download.schedule();
+			return Status.OK_STATUS;
+		}
+
+		public BackgroundDownload getBackgroundDownload() {
+			return download;
+		}
+	}
+
+	/**
+	 * Downloads the artifact of the first operand, then waits until it is installed before
+	 * downloading the others.
+	 */
+	static class GatedArtifactRepository extends TestArtifactRepository {
+		final CountDownLatch firstInstalled = new CountDownLatch(1);
+		IArtifactKey first;
+		volatile boolean waited;
+
+		GatedArtifactRepository(IProvisioningAgent agent, URI location) {
+			super(agent, location);
+		}
+
+		public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor monitor) {
+			for (int i = 0; i < requests.length; i++) {
+				if (requests[i].getArtifactKey().equals(first))
+					requests[i].perform(this, monitor);
+			}
+			try {
+				waited = firstInstalled.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				return Status.CANCEL_STATUS;
+			}
+			for (int i = 0; i < requests.length; i++) {
+				if (!requests[i].getArtifactKey().equals(first))
+					requests[i].perform(this, monitor);
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Adds one request per operand, the way the touchpoint actions do, and leaves the
+	 * downloads to the real phase.
+	 */
+	static class RequestingCollect extends Collect {
+		final Map<IInstallableUnit, IArtifactRequest> requests = new HashMap<IInstallableUnit, IArtifactRequest>();
+
+		RequestingCollect() {
+			super(10);
+		}
+
+		protected List<ProvisioningAction> getActions(final InstallableUnitOperand operand) {
+			ProvisioningAction action = new ProvisioningAction() {
+				@SuppressWarnings("unchecked")
+				public IStatus execute(Map<String, Object> parameters) {
+					List<IArtifactRequest[]> artifactRequests = (List<IArtifactRequest[]>) parameters.get(PARM_ARTIFACT_REQUESTS);
+					artifactRequests.add(new IArtifactRequest[] {requests.get(operand.second())});
+					return Status.OK_STATUS;
+				}
+
+				public IStatus undo(Map<String, Object> parameters) {
+					return Status.OK_STATUS;
+				}
+			};
+			return Collections.singletonList(action);
+		}
+	}
+
+	static class RecordingPhase extends InstallableUnitPhase {
+		final List<String> log;
+		final boolean requiresArtifacts;
+		CountDownLatch installed;
+
+		RecordingPhase(String phaseId, boolean requiresArtifacts, List<String> log) {
+			super(phaseId, 10);
+			this.requiresArtifacts = requiresArtifacts;
+			this.log = log;
+		}
+
+		protected boolean requiresArtifacts() {
+			return requiresArtifacts;
+		}
+
+		protected IStatus initializeOperand(IProfile profile, InstallableUnitOperand operand, Map<String, Object> parameters, IProgressMonitor monitor) {
+			log.add(phaseId + ":" + operand.second().getId());
+			if (installed != null)
+				installed.countDown();
+			return super.initializeOperand(profile, operand, parameters, monitor);
+		}
+
+		protected List<ProvisioningAction> getActions(InstallableUnitOperand operand) {
+			return null;
+		}
+	}
+
+	private List<String> log;
+	private TestDownloadManager downloadManager;
+	private TestCollect collect;
+	private PhaseSet phaseSet;
+	private Operand[] operands;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		log = Collections.synchronizedList(new ArrayList<String>());
+		operands = new Operand[3];
+		TestRequest[] requests = new TestRequest[operands.length];
+		Map<Operand, IArtifactRequest[]> operandRequests = new HashMap<Operand, IArtifactRequest[]>();
+		for (int i = 0; i < operands.length; i++) {
+			operands[i] = new InstallableUnitOperand(null, createResolvedIU(createIU("iu" + i)));
+			requests[i] = new TestRequest(null);
+			operandRequests.put(operands[i], new IArtifactRequest[] {requests[i]});
+		}
+		downloadManager = new TestDownloadManager(requests);
+		collect = new TestCollect();
+		collect.download = new BackgroundDownload(downloadManager, operandRequests, new NullProgressMonitor());
+		RecordingPhase install = new RecordingPhase("install", true, log);
+		install.installed = downloadManager.firstInstalled;
+		phaseSet = new PhaseSet(new Phase[] {collect, new RecordingPhase("uninstall", false, log), install, new RecordingPhase("configure", false, log)});
+	}
+
+	private IStatus perform() {
+		return perform(new ProvisioningContext(getAgent()));
+	}
+
+	private IStatus perform(ProvisioningContext context) {
+		IProfile profile = createProfile("PipelinedPhaseSetTest");
+		EngineSession session = new EngineSession(getAgent(), profile, context);
+		return phaseSet.perform(session, operands, true, new NullProgressMonitor());
+	}
+
+	public void testInstallWhileDownloading() {
+		IStatus status = perform();
+		assertTrue("1.0 " + status, status.isOK());
+		assertTrue("1.1", downloadManager.waited);
+		assertNotNull("1.2", collect.download.getDownloadStatus());
+		assertEquals("1.3", Arrays.asList("uninstall:iu0", "uninstall:iu1", "uninstall:iu2", "install:iu0", "install:iu1", "install:iu2", "configure:iu0", "configure:iu1", "configure:iu2"), log);
+	}
+
+	public void testDownloadFailure() {
+		downloadManager.failure = new Status(IStatus.ERROR, "test", "failed");
+		IStatus status = perform();
+		assertTrue("1.0", status.matches(IStatus.ERROR));
+		assertTrue("1.1", log.contains("install:iu0"));
+		assertFalse("1.2", log.contains("install:iu1"));
+		assertFalse("1.3", log.contains("configure:iu0"));
+	}
+
+	public void testCollectInBackground() throws Exception {
+		URI location = new URI("memory:/PipelinedPhaseSetTest");
+		GatedArtifactRepository repository = new GatedArtifactRepository(getAgent(), location);
+		RequestingCollect requestingCollect = new RequestingCollect();
+		for (int i = 0; i < operands.length; i++) {
+			IArtifactKey key = new ArtifactKey("osgi.bundle", "iu" + i, Version.create("1.0.0"));
+			repository.addArtifact(key, new byte[0]);
+			requestingCollect.requests.put(((InstallableUnitOperand) operands[i]).second(), new TestRequest(key));
+			if (i == 0)
+				repository.first = key;
+		}
+		assertTrue("0.1", repository.addToRepositoryManager());
+		try {
+			RecordingPhase install = new RecordingPhase("install", true, log);
+			install.installed = repository.firstInstalled;
+			phaseSet = new PhaseSet(new Phase[] {requestingCollect, new RecordingPhase("uninstall", false, log), install, new RecordingPhase("configure", false, log)});
+			ProvisioningContext context = new ProvisioningContext(getAgent());
+			context.setArtifactRepositories(new URI[] {location});
+
+			IStatus status = perform(context);
+			assertTrue("1.0 " + status, status.isOK());
+			assertTrue("1.1", repository.waited);
+			BackgroundDownload download = requestingCollect.getBackgroundDownload();
+			assertNotNull("1.2", download);
+			assertTrue("1.3", download.getDownloadStatus().isOK());
+			for (int i = 0; i < operands.length; i++)
+				assertTrue("1.4", download.isArrived(operands[i]));
+			assertEquals("1.5", Arrays.asList("uninstall:iu0", "uninstall:iu1", "uninstall:iu2", "install:iu0", "install:iu1", "install:iu2", "configure:iu0", "configure:iu1", "configure:iu2"), log);
+		} finally {
+			getArtifactRepositoryManager().removeRepository(location);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.engine;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the bounded cache of the profiles of a registry, the generations used to cache the
+ * profiles read without the registry lock, the sub-profiles of profiles read one at a time,
+ * and reading profiles from several threads.
+ */
+public class ProfileCacheTest extends AbstractProvisioningTest {
+	private File folder;
+	private SimpleProfileRegistry registry;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(EngineActivator.PROP_PROFILE_CACHE_SIZE, "2");
+		folder = getTempFolder();
+		folder.mkdirs();
+		registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_CACHE_SIZE);
+		delete(folder);
+		super.tearDown();
+	}
+
+	private void addProfiles(int count) throws ProvisionException {
+		for (int i = 0; i < count; i++) {
+			Map<String, String> properties = new HashMap<String, String>();
+			properties.put("index", Integer.toString(i));
+			registry.addProfile("profile" + i, properties);
+		}
+	}
+
+	private void update(String id, IInstallableUnit iu) {
+		Profile profile = (Profile) registry.getProfile(id);
+		profile.addInstallableUnit(iu);
+		profile.setChanged(false);
+		registry.lockProfile(profile);
+		try {
+			profile.setChanged(true);
+			registry.updateProfile(profile);
+		} finally {
+			registry.unlockProfile(profile);
+			profile.setChanged(false);
+		}
+	}
+
+	public void testEviction() throws ProvisionException {
+		addProfiles(4);
+		ProfileCache cache = registry.getProfileCache();
+		assertEquals("1.0", 2, cache.getMaximumSize());
+		assertEquals("1.1", 2, cache.size());
+		assertEquals("1.2", 2, cache.getEvictionCount());
+
+		//the evicted profiles are found again, and only read again once they are collected
+		for (int i = 0; i < 4; i++) {
+			IProfile profile = registry.getProfile("profile" + i);
+			assertNotNull("2.0", profile);
+			assertEquals("2.1", Integer.toString(i), profile.getProperty("index"));
+		}
+		assertEquals("2.2", 2, cache.size());
+		assertEquals("2.3", 4, registry.getProfiles().length);
+		assertEquals("2.4", 2, cache.size());
+
+		long loads = cache.getLoadCount();
+		registry.getProfile("profile3");
+		assertEquals("3.0", loads, cache.getLoadCount());
+		assertTrue("3.1", cache.getHitCount() > 0);
+
+		//a collected profile is read again
+		cache.clear();
+		assertEquals("4.0", "0", registry.getProfile("profile0").getProperty("index"));
+		assertEquals("4.1", loads + 1, cache.getLoadCount());
+	}
+
+	public void testGenerationPerProfile() throws ProvisionException {
+		addProfiles(2);
+		ProfileCache cache = registry.getProfileCache();
+		Profile profile0 = (Profile) registry.getProfile("profile0");
+		cache.remove("profile0");
+		long generation = cache.getGeneration("profile0");
+
+		//a change of another profile does not discard the loaded profile
+		cache.put("profile1", (Profile) registry.getProfile("profile1"));
+		assertEquals("1.0", generation, cache.getGeneration("profile0"));
+		assertSame("1.1", profile0, cache.putLoaded("profile0", profile0, generation));
+
+		//a change of the same profile does
+		cache.remove("profile0");
+		generation = cache.getGeneration("profile0");
+		cache.put("profile0", profile0);
+		cache.remove("profile0");
+		assertNull("2.0", cache.putLoaded("profile0", profile0, generation));
+		cache.clear();
+		assertFalse("2.1", generation == cache.getGeneration("profile0"));
+	}
+
+	public void testSubProfiles() throws ProvisionException {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("shared", "parent");
+		registry.addProfile("parent", properties);
+		registry.addProfile("child0", null, "parent");
+		registry.addProfile("child1", null, "parent");
+
+		//the sub-profiles are known before they are read
+		registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		Profile parent = (Profile) registry.getProfile("parent");
+		assertEquals("1.0", new HashSet<String>(Arrays.asList("child0", "child1")), new HashSet<String>(parent.getSubProfileIds()));
+		Profile child = (Profile) registry.getProfile("child0");
+		assertEquals("1.1", "parent", child.getParentProfile().getProfileId());
+		assertEquals("1.2", "parent", child.getProperty("shared"));
+
+		//removing a parent that is read again removes the sub-profiles that are not read yet
+		registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		registry.removeProfile("parent");
+		assertNull("2.0", registry.getProfile("child0"));
+		assertNull("2.1", registry.getProfile("child1"));
+		registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		assertEquals("2.2", 0, registry.getProfiles().length);
+	}
+
+	public void testUpdateEvictedProfile() throws ProvisionException {
+		addProfiles(3);
+		IProfile stale = registry.getProfile("profile0");
+		registry.getProfile("profile1");
+		registry.getProfile("profile2");
+		update("profile0", createIU("A", Version.create("1.0.0")));
+		registry.getProfile("profile1");
+		registry.getProfile("profile2");
+
+		IProfile profile = registry.getProfile("profile0");
+		assertTrue("1.0", profile.getTimestamp() > stale.getTimestamp());
+		assertEquals("1.1", 1, profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+		assertTrue("1.2", registry.containsProfile("profile0"));
+	}
+
+	public void testConcurrentReaders() throws Exception {
+		addProfiles(4);
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			final String id = "profile" + i;
+			final String index = Integer.toString(i);
+			readers[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 50; j++) {
+							IProfile profile = registry.getProfile(id);
+							assertEquals(index, profile.getProperty("index"));
+							assertNotNull(registry.getProfile(id, profile.getTimestamp()));
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			readers[i].start();
+		}
+		for (int i = 0; i < 10; i++)
+			update("profile0", createIU("A" + i, Version.create("1.0.0")));
+		for (int i = 0; i < readers.length; i++)
+			readers[i].join();
+		assertTrue("1.0 " + failures, failures.isEmpty());
+		assertEquals("1.1", 10, registry.getProfile("profile0").query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+	}
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.engine;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that the earlier states of a profile stored as changes are the states that were saved.
+ */
+public class ProfileDeltaHistoryTest extends AbstractProvisioningTest {
+	private static final String PROFILE_NAME = "ProfileDeltaHistoryTest";
+	private File folder;
+	private SimpleProfileRegistry registry;
+	private Profile profile;
+	private List<IProfile> states;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL, "3");
+		folder = getTempFolder();
+		folder.mkdirs();
+		registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("name", "0");
+		profile = (Profile) registry.addProfile(PROFILE_NAME, properties);
+		states = new ArrayList<IProfile>();
+		states.add(registry.getProfile(PROFILE_NAME));
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_HISTORY_FORMAT);
+		System.getProperties().remove(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL);
+		delete(folder);
+		super.tearDown();
+	}
+
+	/*
+	 * Saves states that add, remove and change units, and change the properties of the profile
+	 * and of the units.
+	 */
+	private void saveStates(int count) {
+		for (int i = 1; i <= count; i++) {
+			IInstallableUnit iu = createIU("A" + i, Version.create("1.0.0"));
+			profile.addInstallableUnit(iu);
+			profile.setInstallableUnitProperty(iu, "index", Integer.toString(i));
+			if (i > 1) {
+				IInstallableUnit previous = createIU("A" + (i - 1), Version.create("1.0.0"));
+				profile.setInstallableUnitProperty(previous, "index", "changed");
+			}
+			if (i > 2) {
+				IInstallableUnit cleared = createIU("A" + (i - 2), Version.create("1.0.0"));
+				profile.clearInstallableUnitProperties(cleared);
+			}
+			if (i > 3)
+				profile.removeInstallableUnit(createIU("A" + (i - 3), Version.create("1.0.0")));
+			profile.setProperty("name", Integer.toString(i));
+			if (i % 2 == 0)
+				profile.removeProperty("even");
+			else
+				profile.setProperty("even", "false");
+			profile.setChanged(false);
+			registry.lockProfile(profile);
+			try {
+				profile.setChanged(true);
+				registry.updateProfile(profile);
+			} finally {
+				registry.unlockProfile(profile);
+				profile.setChanged(false);
+			}
+			states.add(registry.getProfile(PROFILE_NAME));
+		}
+	}
+
+	private String[] listFiles(final String extension) {
+		File profileFolder = new File(folder, PROFILE_NAME + ".profile");
+		String[] names = profileFolder.list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.endsWith(extension);
+			}
+		});
+		Arrays.sort(names);
+		return names;
+	}
+
+	private void assertStates(String message) {
+		long[] timestamps = registry.listProfileTimestamps(PROFILE_NAME);
+		assertEquals(message, states.size(), timestamps.length);
+		for (int i = 0; i < states.size(); i++) {
+			IProfile expected = states.get(i);
+			assertEquals(message, expected.getTimestamp(), timestamps[i]);
+			assertSameState(message + "." + i, expected, registry.getProfile(PROFILE_NAME, timestamps[i]));
+		}
+	}
+
+	private static void assertSameState(String message, IProfile expected, IProfile actual) {
+		assertNotNull(message, actual);
+		assertEquals(message, expected.getTimestamp(), actual.getTimestamp());
+		assertEquals(message, new HashMap<String, String>(expected.getProperties()), new HashMap<String, String>(actual.getProperties()));
+		Set<IInstallableUnit> ius = expected.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		assertEquals(message, ius, actual.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		for (IInstallableUnit iu : ius)
+			assertEquals(message, new HashMap<String, String>(expected.getInstallableUnitProperties(iu)), new HashMap<String, String>(actual.getInstallableUnitProperties(iu)));
+	}
+
+	public void testStatesStoredAsChanges() {
+		System.setProperty(EngineActivator.PROP_PROFILE_HISTORY_FORMAT, EngineActivator.PROFILE_HISTORY_FORMAT_DELTA);
+		saveStates(7);
+		//the latest state and one state in three are stored in full
+		assertEquals("1.0", 3, listFiles(".profile.gz").length);
+		assertEquals("1.1", 5, listFiles(".profile.delta.gz").length);
+		assertStates("1.2");
+	}
+
+	public void testCompactHistory() {
+		saveStates(7);
+		assertEquals("1.0", 8, listFiles(".profile.gz").length);
+		assertStates("1.1");
+
+		assertTrue("2.0", registry.compactHistory(PROFILE_NAME));
+		assertEquals("2.1", 3, listFiles(".profile.gz").length);
+		assertEquals("2.2", 5, listFiles(".profile.delta.gz").length);
+		assertStates("2.3");
+
+		System.setProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL, "1");
+		assertTrue("3.0", registry.compactHistory(PROFILE_NAME));
+		assertEquals("3.1", 8, listFiles(".profile.gz").length);
+		assertEquals("3.2", 0, listFiles(".profile.delta.gz").length);
+		assertStates("3.3");
+	}
+
+	public void testRemoveState() throws ProvisionException {
+		System.setProperty(EngineActivator.PROP_PROFILE_HISTORY_FORMAT, EngineActivator.PROFILE_HISTORY_FORMAT_DELTA);
+		saveStates(4);
+		//the state before the removed one is stored in full
+		IProfile removed = states.remove(2);
+		registry.removeProfile(PROFILE_NAME, removed.getTimestamp());
+		assertStates("1.0");
+		assertTrue("1.1", Arrays.asList(listFiles(".profile.gz")).contains(states.get(1).getTimestamp() + ".profile.gz"));
+	}
+}
@@ -19,6 +19,8 @@ import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.IProfileRegistry;
+import org.eclipse.equinox.p2.engine.query.IUProfilePropertyQuery;
+import org.eclipse.equinox.p2.engine.query.UserVisibleRootQuery;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.query.*;
@@ -122,6 +124,39 @@ public class ProfileTest extends AbstractProvisioningTest {
 		assertNull(registry.getProfile(PROFILE_NAME));
 	}
 
+	public void testQueryIUProperties() throws ProvisionException {
+		IProfileRegistry registry = getProfileRegistry();
+		assertNull(registry.getProfile(PROFILE_NAME));
+		Profile profile = (Profile) registry.addProfile(PROFILE_NAME);
+		IInstallableUnit a = createIU("A");
+		IInstallableUnit b = createIU("B");
+		IInstallableUnit c = createIU("C");
+		profile.addInstallableUnit(a);
+		profile.addInstallableUnit(b);
+		profile.addInstallableUnit(c);
+		profile.setInstallableUnitProperty(a, IProfile.PROP_PROFILE_ROOT_IU, "true");
+		profile.setInstallableUnitProperty(b, IProfile.PROP_PROFILE_ROOT_IU, "false");
+		profile.setInstallableUnitProperty(c, "test", "test");
+		assertEquals("1.0", Collections.singleton(a), profile.query(new UserVisibleRootQuery(), null).toUnmodifiableSet());
+		assertEquals("1.1", new HashSet<IInstallableUnit>(Arrays.asList(a, b)), profile.query(new IUProfilePropertyQuery(IProfile.PROP_PROFILE_ROOT_IU, IUProfilePropertyQuery.ANY), null).toUnmodifiableSet());
+		assertTrue("1.2", profile.query(new IUProfilePropertyQuery("unknown", IUProfilePropertyQuery.ANY), null).isEmpty());
+		assertEquals("1.3", Collections.singleton(b), profile.query(QueryUtil.createMatchQuery("profileProperties[$0] == $1 && id == $2", IProfile.PROP_PROFILE_ROOT_IU, "false", "B"), null).toUnmodifiableSet());
+		assertEquals("1.4", new HashSet<IInstallableUnit>(Arrays.asList(a, c)), profile.query(QueryUtil.createMatchQuery("profileProperties[$0] == $1 || profileProperties[$2] != null", IProfile.PROP_PROFILE_ROOT_IU, "true", "test"), null).toUnmodifiableSet());
+
+		//the index follows the changes of the properties
+		profile.setInstallableUnitProperty(b, IProfile.PROP_PROFILE_ROOT_IU, "true");
+		assertEquals("2.0", new HashSet<IInstallableUnit>(Arrays.asList(a, b)), profile.query(new UserVisibleRootQuery(), null).toUnmodifiableSet());
+		profile.removeInstallableUnitProperty(a, IProfile.PROP_PROFILE_ROOT_IU);
+		assertEquals("2.1", Collections.singleton(b), profile.query(new UserVisibleRootQuery(), null).toUnmodifiableSet());
+		profile.clearInstallableUnitProperties(b);
+		assertTrue("2.2", profile.query(new IUProfilePropertyQuery(IProfile.PROP_PROFILE_ROOT_IU, IUProfilePropertyQuery.ANY), null).isEmpty());
+		profile.removeInstallableUnit(c);
+		profile.clearOrphanedInstallableUnitProperties();
+		assertTrue("2.3", profile.query(new IUProfilePropertyQuery("test", "test"), null).isEmpty());
+		registry.removeProfile(PROFILE_NAME);
+		assertNull(registry.getProfile(PROFILE_NAME));
+	}
+
 	public void testAvailable() throws ProvisionException {
 		IProfileRegistry registry = getProfileRegistry();
 		assertNull(registry.getProfile(PROFILE_NAME));
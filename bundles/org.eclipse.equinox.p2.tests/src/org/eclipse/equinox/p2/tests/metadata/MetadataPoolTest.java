@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.MetadataPool;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the sharing of units and their parts through a {@link MetadataPool}.
+ */
+public class MetadataPoolTest extends AbstractProvisioningTest {
+
+	private static String copy(String value) {
+		return new String(value);
+	}
+
+	private IInstallableUnit createUnit(String id, String version, String requirementDescription) {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		desc.setId(copy(id));
+		desc.setVersion(Version.create(copy(version)));
+		desc.setProperty(copy("org.example.key"), copy("value"));
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(copy("java.package"), copy("org.example"), Version.create(copy("1.0.0")))});
+		desc.setRequirements(new IRequirement[] {MetadataFactory.createRequirement(copy("osgi.bundle"), copy("org.example.host"), new VersionRange(copy("[1.0.0,2.0.0)")), null, 1, 1, true, requirementDescription)});
+		Map<String, Object> instructions = new HashMap<String, Object>();
+		instructions.put(copy("install"), copy("installBundle(bundle:${artifact})"));
+		desc.addTouchpointData(MetadataFactory.createTouchpointData(instructions));
+		desc.setLicenses(new ILicense[] {MetadataFactory.createLicense(null, copy("License text"))});
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	public void testSharedUnit() {
+		MetadataPool pool = new MetadataPool();
+		IInstallableUnit unit = pool.add(createUnit("a", "1.0.0", null));
+		assertSame("1.0", unit, pool.add(unit));
+		assertSame("1.1", unit, pool.add(createUnit("a", "1.0.0", null)));
+		assertNull("1.2", pool.add(null));
+	}
+
+	public void testAddedUnitNotChanged() {
+		MetadataPool pool = new MetadataPool();
+		IInstallableUnit a = pool.add(createUnit("a", "1.0.0", null));
+		IInstallableUnit b = createUnit("b", "1.0.0", null);
+		IProvidedCapability capability = b.getProvidedCapabilities().iterator().next();
+		IInstallableUnit sharedB = pool.add(b);
+		assertNotSame("1.0", b, sharedB);
+		assertEquals("1.1", b, sharedB);
+		assertSame("1.2", capability, b.getProvidedCapabilities().iterator().next());
+		assertNotSame("1.3", a.getVersion(), b.getVersion());
+		assertSame("1.4", a.getVersion(), sharedB.getVersion());
+	}
+
+	public void testDifferentContentNotShared() {
+		MetadataPool pool = new MetadataPool();
+		IInstallableUnit full = pool.add(createUnit("a", "1.0.0", null));
+
+		// A partial unit from an update site has the same id and version as the full unit
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		desc.setId("a");
+		desc.setVersion(Version.create("1.0.0"));
+		desc.setProperty(copy("org.eclipse.equinox.p2.partial.iu"), Boolean.TRUE.toString());
+		IInstallableUnit partial = pool.add(MetadataFactory.createInstallableUnit(desc));
+		assertNotSame("1.0", full, partial);
+		assertEquals("1.1", "true", partial.getProperty("org.eclipse.equinox.p2.partial.iu"));
+		assertSame("1.2", full.getId(), partial.getId());
+		assertSame("1.3", full.getVersion(), partial.getVersion());
+
+		// The unit that was added first is still shared
+		assertSame("2.0", full, pool.add(createUnit("a", "1.0.0", null)));
+		IInstallableUnit described = pool.add(createUnit("a", "1.0.0", "described"));
+		assertNotSame("2.1", full, described);
+		assertEquals("2.2", "described", described.getRequirements().iterator().next().getDescription());
+	}
+
+	public void testSharedParts() {
+		MetadataPool pool = new MetadataPool();
+		IInstallableUnit a = pool.add(createUnit("a", "1.0.0", null));
+		IInstallableUnit b = pool.add(createUnit("b", "1.0.0", null));
+		assertNotSame("1.0", a, b);
+		assertSame("1.1", a.getVersion(), b.getVersion());
+		assertSame("1.2", a.getProvidedCapabilities().iterator().next(), b.getProvidedCapabilities().iterator().next());
+		assertSame("1.3", a.getRequirements().iterator().next(), b.getRequirements().iterator().next());
+		assertSame("1.4", a.getTouchpointData().iterator().next(), b.getTouchpointData().iterator().next());
+		assertSame("1.5", a.getLicenses().iterator().next(), b.getLicenses().iterator().next());
+
+		Map.Entry<String, String> aProperty = a.getProperties().entrySet().iterator().next();
+		Map.Entry<String, String> bProperty = b.getProperties().entrySet().iterator().next();
+		assertSame("2.0", aProperty.getKey(), bProperty.getKey());
+		assertSame("2.1", aProperty.getValue(), bProperty.getValue());
+		assertEquals("2.2", "value", a.getProperty("org.example.key"));
+
+		// Parts of parts are shared too
+		IInstallableUnit c = pool.add(createUnit("c", "2.0.0", null));
+		assertSame("3.0", a.getVersion(), c.getProvidedCapabilities().iterator().next().getVersion());
+		assertSame("3.1", a.getRequirements().iterator().next(), c.getRequirements().iterator().next());
+	}
+
+	public void testUnitsStillEqual() {
+		IInstallableUnit expected = createUnit("a", "1.0.0", null);
+		IInstallableUnit shared = new MetadataPool().add(createUnit("a", "1.0.0", null));
+		assertEquals("1.0", expected, shared);
+		assertEquals("1.1", expected.getProperties(), shared.getProperties());
+		assertEquals("1.2", expected.getProvidedCapabilities(), shared.getProvidedCapabilities());
+		assertEquals("1.3", expected.getRequirements(), shared.getRequirements());
+		assertEquals("1.4", expected.getTouchpointData(), shared.getTouchpointData());
+		assertEquals("1.5", expected.getLicenses(), shared.getLicenses());
+	}
+
+	public void testRequirementDescriptionRetained() {
+		MetadataPool pool = new MetadataPool();
+		IInstallableUnit a = pool.add(createUnit("a", "1.0.0", "first"));
+		IInstallableUnit b = pool.add(createUnit("b", "1.0.0", "second"));
+		assertEquals("1.0", "first", a.getRequirements().iterator().next().getDescription());
+		assertEquals("1.1", "second", b.getRequirements().iterator().next().getDescription());
+	}
+}
@@ -19,6 +19,7 @@ public class AllTests extends TestCase {
 
 	public static Test suite() {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
+		suite.addTestSuite(CompiledPredicateTest.class);
 		suite.addTestSuite(ExpressionTest.class);
 		suite.addTestSuite(FilterTest.class);
 		return suite;
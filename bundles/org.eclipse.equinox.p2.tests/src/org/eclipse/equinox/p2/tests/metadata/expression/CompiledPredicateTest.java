@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.expression.CompiledPredicate;
+import org.eclipse.equinox.internal.p2.metadata.expression.MatchExpression;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Verifies that compiled match expressions yield the same result as the interpreter.
+ */
+public class CompiledPredicateTest extends AbstractProvisioningTest {
+	private static final IExpressionFactory factory = ExpressionUtil.getFactory();
+	private static final String[] RANGES = {null, "1.0.0", "[1.0.0,2.0.0)", "(1.0.0,2.0.0]", "[1.5.0,1.5.0]", "(1.0.0,2.0.0)"};
+
+	private List<IInstallableUnit> candidates;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		candidates = new ArrayList<IInstallableUnit>();
+		for (String version : new String[] {"1.0.0", "1.5.0", "2.0.0", "3.0.0.v2014"}) {
+			Version v = Version.create(version);
+			candidates.add(createIU("a", v));
+			candidates.add(createIU("b", v, "(osgi.os=linux)", new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "a", v)}));
+		}
+		candidates.add(InstallableUnit.contextIU("gtk", "linux", "x86_64"));
+		candidates.add(InstallableUnit.contextIU("win32", "win32", "x86"));
+	}
+
+	public void testSimpleRequirements() {
+		for (String namespace : new String[] {IInstallableUnit.NAMESPACE_IU_ID, "java.package"})
+			for (String range : RANGES) {
+				IRequirement req = MetadataFactory.createRequirement(namespace, "a", range == null ? null : new VersionRange(range), null, false, false);
+				assertCompiledMatch(req.getMatches(), true);
+			}
+	}
+
+	public void testFilters() {
+		assertCompiledMatch(InstallableUnit.parseFilter("(osgi.os=linux)"), true);
+		assertCompiledMatch(InstallableUnit.parseFilter("(&(osgi.os=linux)(|(osgi.ws=gtk)(osgi.ws=motif)))"), true);
+		assertCompiledMatch(InstallableUnit.parseFilter("(!(osgi.arch=x86))"), true);
+		assertCompiledMatch(InstallableUnit.parseFilter("(OSGi.OS=l*)"), true);
+	}
+
+	public void testQueries() {
+		assertCompiledMatch(createMatch("id == $0"), true);
+		assertCompiledMatch(createMatch("id == $0 && version ~= $1"), true);
+		assertCompiledMatch(createMatch("properties[$0] == true"), true);
+		assertCompiledMatch(createMatch("properties[$0] != null || version >= $2"), true);
+		assertCompiledMatch(createMatch("providedCapabilities.all(p | p.namespace == 'org.eclipse.equinox.p2.iu')"), true);
+		assertCompiledMatch(createMatch("id ~= /a*/"), true);
+	}
+
+	public void testInterpreted() {
+		// The lambda refers to the candidate so it cannot be compiled
+		assertCompiledMatch(createMatch("providedCapabilities.exists(p | p.name == id)"), false);
+		// Translated properties need an index provider
+		assertCompiledMatch(createMatch("translatedProperties[$0] == true"), false);
+	}
+
+	private static IMatchExpression<IInstallableUnit> createMatch(String expression) {
+		return factory.<IInstallableUnit> matchExpression(ExpressionUtil.parse(expression), "a", new VersionRange("[1.0.0,2.0.0)"), Version.create("2.0.0"));
+	}
+
+	private void assertCompiledMatch(IMatchExpression<IInstallableUnit> expression, boolean compiled) {
+		assertEquals(expression.toString(), compiled, ((MatchExpression<IInstallableUnit>) expression).getCompiled() != CompiledPredicate.INTERPRET);
+		if (!compiled)
+			return;
+		for (IInstallableUnit candidate : candidates)
+			assertEquals(expression + " on " + candidate, expression.isMatch(expression.createContext(), candidate), expression.isMatch(candidate));
+	}
+}
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.metadata.expression;
 
+import java.io.File;
+import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 
@@ -64,4 +66,26 @@ public class ExpressionTest extends AbstractProvisioningTest {
 			// OK
 		}
 	}
+
+	public void testMemberOnManyClasses() throws Exception {
+		// More classes than the member caches accessors for
+		IExpression expr = ExpressionUtil.parse("$0.name == $1");
+		Object[][] values = { {new File("a/b"), "b"}, {String.class, "java.lang.String"}, {String.class.getPackage(), "java.lang"}, {Thread.currentThread(), Thread.currentThread().getName()}, {MetadataFactory.createProvidedCapability("ns", "c", Version.emptyVersion), "c"}, {new File("d"), "d"}, {Integer.class, "java.lang.Integer"}};
+		for (int round = 0; round < 2; ++round)
+			for (int idx = 0; idx < values.length; ++idx)
+				assertEquals(Boolean.TRUE, expr.evaluate(factory.createContext(values[idx])));
+	}
+
+	public void testMemberProviders() throws Exception {
+		ITouchpointType type = MetadataFactory.createTouchpointType("org.eclipse.equinox.p2.native", Version.create("1.0.0"));
+		assertEquals(Boolean.TRUE, ExpressionUtil.parse("$0.id == 'org.eclipse.equinox.p2.native' && $0.version == '1.0.0'").evaluate(factory.createContext(type)));
+		ILicense license = MetadataFactory.createLicense(null, "license text");
+		assertEquals(Boolean.TRUE, ExpressionUtil.parse("$0.body == 'license text' && $0.location == null && $0.uuid == $1").evaluate(factory.createContext(license, license.getUUID())));
+		try {
+			ExpressionUtil.parse("$0.foo").evaluate(factory.createContext(type));
+			fail("Access to unknown member succeeded");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
 }
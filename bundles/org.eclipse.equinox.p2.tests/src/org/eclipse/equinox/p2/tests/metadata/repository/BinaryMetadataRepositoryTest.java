@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.repository.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.BinaryMetadataReader;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+import org.eclipse.equinox.p2.repository.spi.RepositoryReference;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the binary form of the local metadata repository.
+ */
+public class BinaryMetadataRepositoryTest extends AbstractProvisioningTest {
+	protected File repoLocation;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		repoLocation = new File(tempDir, "BinaryMetadataRepositoryTest");
+		AbstractProvisioningTest.delete(repoLocation);
+		repoLocation.mkdir();
+	}
+
+	protected void tearDown() throws Exception {
+		getMetadataRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	private IMetadataRepository createRepository(boolean binary) throws Exception {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put(LocalMetadataRepository.PROP_BINARY, Boolean.toString(binary));
+		IMetadataRepository repo = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		repo.addReferences(Collections.singletonList(new RepositoryReference(new URI("http://example.com/repo"), "example", IRepository.TYPE_METADATA, IRepository.ENABLED)));
+		repo.addInstallableUnits(createUnits());
+		return repo;
+	}
+
+	private List<IInstallableUnit> createUnits() {
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		IRequirement[] requirements = new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "b", new VersionRange("[1.0.0,2.0.0)"), "(osgi.os=linux)", true, false, true), MetadataFactory.createRequirement("java.package", "org.example", VersionRange.emptyRange, null, false, true, false)};
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("org.example.key", "value");
+		properties.put(InstallableUnitDescription.PROP_TYPE_GROUP, "true");
+		Map<String, Object> instructions = new HashMap<String, Object>();
+		instructions.put("install", "installBundle(bundle:${artifact})");
+		instructions.put("configure", MetadataFactory.createTouchpointInstruction("setStartLevel(startLevel:4);", "org.eclipse.equinox.p2.touchpoint.eclipse.setStartLevel"));
+		units.add(createIU("a", Version.create("1.0.0"), InstallableUnit.parseFilter("(osgi.ws=gtk)"), requirements, new IProvidedCapability[] {MetadataFactory.createProvidedCapability("java.package", "org.example", Version.create("1.2.0"))}, properties, TOUCHPOINT_OSGI, MetadataFactory.createTouchpointData(instructions), true));
+
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		desc.setId("b");
+		desc.setVersion(Version.create("1.5.0.v2014"));
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, "b", desc.getVersion())});
+		desc.setLicenses(new ILicense[] {MetadataFactory.createLicense(URI.create("http://example.com/license"), "License text")});
+		desc.setCopyright(MetadataFactory.createCopyright(URI.create("http://example.com/copyright"), "Copyright text"));
+		desc.setUpdateDescriptor(MetadataFactory.createUpdateDescriptor("b", new VersionRange("[0.0.0,1.5.0.v2014)"), IUpdateDescriptor.HIGH, "An update"));
+		desc.setArtifacts(new IArtifactKey[] {new ArtifactKey("osgi.bundle", "b", desc.getVersion())});
+		desc.setRequirements(new IRequirement[] {MetadataFactory.createRequirement(ExpressionUtil.getFactory().<IInstallableUnit> matchExpression(ExpressionUtil.parse("providedCapabilities.exists(p | p.namespace == $0)"), "java.package"), null, 0, 1, true)});
+		units.add(MetadataFactory.createInstallableUnit(desc));
+		units.add(createIU("b", Version.create("2.0.0")));
+		units.add(createBundleFragment("c"));
+		IRequirementChange change = MetadataFactory.createRequirementChange(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "b", VersionRange.emptyRange, null, false, false, false), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "b", new VersionRange("[2.0.0,2.0.0]"), null, false, false, false));
+		units.add(createIUPatch("d", Version.create("1.0.0"), true, new IRequirementChange[] {change}, new IRequirement[][] {{MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "a", VersionRange.emptyRange, null, false, false)}}, null));
+		return units;
+	}
+
+	public void testFilesWritten() throws Exception {
+		createRepository(true);
+		assertTrue(new File(repoLocation, "content.bin").exists());
+		File indexFile = new File(repoLocation, "p2.index");
+		assertTrue(indexFile.exists());
+		Properties index = new Properties();
+		InputStream input = new FileInputStream(indexFile);
+		try {
+			index.load(input);
+		} finally {
+			input.close();
+		}
+		assertEquals("1", index.getProperty("version"));
+		assertEquals("content.bin,content.xml,!", index.getProperty("metadata.repository.factory.order"));
+	}
+
+	public void testNoBinaryByDefault() throws Exception {
+		createRepository(false);
+		assertFalse(new File(repoLocation, "content.bin").exists());
+		assertFalse(new File(repoLocation, "p2.index").exists());
+	}
+
+	public void testRoundTrip() throws Exception {
+		IMetadataRepository repo = createRepository(true);
+		BinaryMetadataReader reader = BinaryMetadataReader.open(new File(repoLocation, "content.bin"));
+		assertEquals("TestRepo", reader.readRepositoryState().Name);
+		assertEquals(1, reader.readRepositoryState().Repositories.length);
+
+		IInstallableUnit[] expected = repo.query(QueryUtil.createIUAnyQuery(), null).toArray(IInstallableUnit.class);
+		IInstallableUnit[] actual = reader.readInstallableUnits();
+		assertEquals("1.0", expected.length, actual.length);
+		Arrays.sort(expected);
+		for (int idx = 0; idx < expected.length; ++idx) {
+			assertEquals("1.1", expected[idx], actual[idx]);
+			assertEquals("1.2", expected[idx].getMetaRequirements(), actual[idx].getMetaRequirements());
+			assertEquals("1.3", expected[idx].getClass(), actual[idx].getClass());
+		}
+	}
+
+	public void testIndexes() throws Exception {
+		createRepository(true);
+		BinaryMetadataReader reader = BinaryMetadataReader.open(new File(repoLocation, "content.bin"));
+		int[] range = reader.findUnits("b");
+		assertEquals(2, range[1] - range[0]);
+		assertEquals(Version.create("1.5.0.v2014"), reader.getVersion(range[0]));
+		assertEquals(Version.create("2.0.0"), reader.getVersion(range[0] + 1));
+		range = reader.findUnits("x");
+		assertEquals(0, range[1] - range[0]);
+
+		range = reader.findCapabilities("java.package", "org.example");
+		assertEquals(1, range[1] - range[0]);
+		assertEquals(Version.create("1.2.0"), reader.getCapabilityVersion(range[0]));
+		assertEquals("a", reader.getId(reader.getCapabilityUnit(range[0])));
+		range = reader.findCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "b");
+		assertEquals(2, range[1] - range[0]);
+	}
+
+	public void testLoadFromBinary() throws Exception {
+		IMetadataRepository repo = createRepository(true);
+		Set<IInstallableUnit> expected = repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		manager.removeRepository(repoLocation.toURI());
+		// Only the binary form remains so it must be used
+		assertTrue(new File(repoLocation, "content.xml").delete());
+		repo = manager.loadRepository(repoLocation.toURI(), null);
+		assertEquals("TestRepo", repo.getName());
+		assertEquals(1, repo.getReferences().size());
+		assertEquals(expected, repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+	}
+
+	private IMetadataRepository reloadRepository() throws Exception {
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		manager.removeRepository(repoLocation.toURI());
+		return manager.loadRepository(repoLocation.toURI(), null);
+	}
+
+	public void testLazyLoad() throws Exception {
+		createRepository(true);
+		LocalMetadataRepository repo = (LocalMetadataRepository) reloadRepository();
+		LazyIUMap lazyUnits = repo.getLazyUnits();
+		assertNotNull("1.0", lazyUnits);
+		assertEquals("1.1", 0, lazyUnits.getCacheSize());
+
+		// Queries by id only decode the units with that id
+		IQueryResult<IInstallableUnit> result = repo.query(QueryUtil.createIUQuery("b"), null);
+		assertEquals("2.0", 2, queryResultSize(result));
+		assertEquals("2.1", 2, lazyUnits.getCacheSize());
+		IInstallableUnit b = repo.query(QueryUtil.createIUQuery("b", Version.create("2.0.0")), null).iterator().next();
+		assertSame("2.2", b, repo.query(QueryUtil.createIUQuery("b", Version.create("2.0.0")), null).iterator().next());
+
+		// Queries by capability only decode the units that provide it
+		IRequirement requirement = MetadataFactory.createRequirement("java.package", "org.example", new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+		result = repo.query(QueryUtil.createMatchQuery(requirement.getMatches()), null);
+		assertEquals("3.0", 1, queryResultSize(result));
+		assertEquals("3.1", "a", result.iterator().next().getId());
+		assertEquals("3.2", 3, lazyUnits.getCacheSize());
+		requirement = MetadataFactory.createRequirement("java.package", "org.example", new VersionRange("[2.0.0,3.0.0)"), null, false, false);
+		assertTrue("3.3", repo.query(QueryUtil.createMatchQuery(requirement.getMatches()), null).isEmpty());
+
+		// Full scans don't go through the cache
+		assertEquals("4.0", 5, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), null)));
+		assertEquals("4.1", 3, lazyUnits.getCacheSize());
+
+		// The next scans don't decode the units again
+		List<IInstallableUnit> scanned = new ArrayList<IInstallableUnit>();
+		for (Iterator<IInstallableUnit> itor = repo.everything(); itor.hasNext();)
+			scanned.add(itor.next());
+		Iterator<IInstallableUnit> itor = repo.everything();
+		for (IInstallableUnit unit : scanned)
+			assertSame("5.0", unit, itor.next());
+		assertFalse("5.1", itor.hasNext());
+
+		// Keys that are not names can't be looked up
+		assertTrue("6.0", repo.query(QueryUtil.createMatchQuery("id == $0", new Integer(1)), null).isEmpty());
+		assertTrue("6.1", repo.query(QueryUtil.createMatchQuery("providedCapabilities.exists(p | p.name == $0)", new Integer(1)), null).isEmpty());
+	}
+
+	public void testLazyMaterializedOnChange() throws Exception {
+		createRepository(true);
+		LocalMetadataRepository repo = (LocalMetadataRepository) reloadRepository();
+		assertNotNull("1.0", repo.getLazyUnits());
+		repo.addInstallableUnits(Collections.singletonList(createIU("e")));
+		assertNull("1.1", repo.getLazyUnits());
+		assertEquals("1.2", 6, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), null)));
+		assertEquals("1.3", 2, queryResultSize(repo.query(QueryUtil.createIUQuery("b"), null)));
+
+		// The rewritten binary file has the new unit
+		repo = (LocalMetadataRepository) reloadRepository();
+		assertNotNull("2.0", repo.getLazyUnits());
+		assertEquals("2.1", 6, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), null)));
+		repo.removeInstallableUnits(Collections.singletonList(createIU("e")));
+		assertEquals("2.2", 5, queryResultSize(repo.query(QueryUtil.createIUAnyQuery(), null)));
+	}
+
+	public void testLazyCacheBounded() throws Exception {
+		createRepository(true);
+		String oldValue = System.setProperty(BinaryMetadataRepositoryFactory.PROP_LAZY_CACHE_SIZE, "1");
+		try {
+			LocalMetadataRepository repo = (LocalMetadataRepository) reloadRepository();
+			assertEquals("1.0", 2, queryResultSize(repo.query(QueryUtil.createIUQuery("b"), null)));
+			assertEquals("1.1", 1, repo.getLazyUnits().getCacheSize());
+
+			System.setProperty(BinaryMetadataRepositoryFactory.PROP_LAZY_CACHE_SIZE, "0");
+			repo = (LocalMetadataRepository) reloadRepository();
+			assertNull("2.0", repo.getLazyUnits());
+			assertEquals("2.1", 2, queryResultSize(repo.query(QueryUtil.createIUQuery("b"), null)));
+		} finally {
+			if (oldValue == null)
+				System.getProperties().remove(BinaryMetadataRepositoryFactory.PROP_LAZY_CACHE_SIZE);
+			else
+				System.setProperty(BinaryMetadataRepositoryFactory.PROP_LAZY_CACHE_SIZE, oldValue);
+		}
+	}
+
+	public void testStaleBinaryIgnored() throws Exception {
+		createRepository(true);
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		manager.removeRepository(repoLocation.toURI());
+		// Corrupt the binary file and make it older than the XML
+		File binaryFile = new File(repoLocation, "content.bin");
+		OutputStream output = new FileOutputStream(binaryFile);
+		output.write(new byte[] {1, 2, 3});
+		output.close();
+		binaryFile.setLastModified(new File(repoLocation, "content.xml").lastModified() - 10000);
+		IMetadataRepository repo = manager.loadRepository(repoLocation.toURI(), null);
+		assertEquals(5, repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+
+		// A corrupt binary file that is not stale is ignored too
+		manager.removeRepository(repoLocation.toURI());
+		binaryFile.setLastModified(System.currentTimeMillis() + 10000);
+		repo = manager.loadRepository(repoLocation.toURI(), null);
+		assertEquals(5, repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+	}
+
+	public void testBinaryOfOtherContentIgnored() throws Exception {
+		IMetadataRepository repo = createRepository(true);
+		File binaryFile = new File(repoLocation, "content.bin");
+		byte[] oldContent = new byte[(int) binaryFile.length()];
+		DataInputStream input = new DataInputStream(new FileInputStream(binaryFile));
+		try {
+			input.readFully(oldContent);
+		} finally {
+			input.close();
+		}
+		repo.addInstallableUnits(Collections.singletonList(createIU("c", Version.create("1.0.0"))));
+
+		// A valid binary file of the previous content that is newer than the XML
+		OutputStream output = new FileOutputStream(binaryFile);
+		try {
+			output.write(oldContent);
+		} finally {
+			output.close();
+		}
+		binaryFile.setLastModified(System.currentTimeMillis() + 10000);
+		repo = reloadRepository();
+		assertEquals("1.0", 6, repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+		assertFalse("1.1", repo.query(QueryUtil.createIUQuery("c"), null).isEmpty());
+	}
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.query.Collector;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.tests.ReducedCUDFParser;
+
+/**
+ * Performance tests for the stages of the planner: slicing, encoding, solving, and the computation
+ * of a plan from end to end.
+ * <p>
+ * The problem is a universe in the CUDF format read by {@link ReducedCUDFParser}. By default the
+ * universe is generated from a fixed seed, so that every run measures the same problem. The generation
+ * is controlled by the following system properties:
+ * <ul>
+ * <li><code>org.eclipse.equinox.p2.tests.perf.seed</code> the seed of the generated universe</li>
+ * <li><code>org.eclipse.equinox.p2.tests.perf.packages</code> the number of packages of the generated universe</li>
+ * <li><code>org.eclipse.equinox.p2.tests.perf.versions</code> the number of versions of each package</li>
+ * </ul>
+ * A slow problem can be reproduced offline by giving the path of a CUDF file with
+ * <code>org.eclipse.equinox.p2.tests.perf.cudf</code>, and the comma separated ids of the packages to
+ * install with <code>org.eclipse.equinox.p2.tests.perf.roots</code>.
+ * </p>
+ * <p>
+ * Besides the time measured by the performance framework, each test checks the smallest number of bytes
+ * allocated by one iteration, when the virtual machine can tell, against the bound given by
+ * <code>org.eclipse.equinox.p2.tests.perf.maxAllocated</code>. The number is part of the message of
+ * that assertion.
+ * </p>
+ */
+public class DirectorPerformanceTest extends ProvisioningPerformanceTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+	private static final int REPEATS = 5;
+	private static final long SEED = Long.getLong("org.eclipse.equinox.p2.tests.perf.seed", 20140101).longValue();
+	private static final int PACKAGES = Integer.getInteger("org.eclipse.equinox.p2.tests.perf.packages", 500).intValue();
+	private static final int VERSIONS = Integer.getInteger("org.eclipse.equinox.p2.tests.perf.versions", 5).intValue();
+	private static final String CUDF_FILE = System.getProperty("org.eclipse.equinox.p2.tests.perf.cudf");
+	private static final String ROOTS = System.getProperty("org.eclipse.equinox.p2.tests.perf.roots");
+	private static final long MAX_ALLOCATED = Long.getLong("org.eclipse.equinox.p2.tests.perf.maxAllocated", Long.MAX_VALUE).longValue();
+	private static final int MAX_DEPENDENCIES = 3;
+	private static final int DEPENDENCY_DISTANCE = 20;
+
+	private static Method allocatedBytes;
+	private static boolean allocatedBytesLookedUp;
+
+	List<IInstallableUnit> units;
+	IInstallableUnit entryPoint;
+	String description;
+
+	/**
+	 * Runs a measured operation and records the bytes it allocates.
+	 */
+	abstract class Benchmark extends PerformanceTestRunner {
+		private long allocated = Long.MAX_VALUE;
+
+		protected void setUp() {
+		}
+
+		protected void tearDown() {
+		}
+
+		protected final void test() {
+			long before = getAllocatedBytes();
+			measure();
+			long after = getAllocatedBytes();
+			if (before >= 0 && after >= 0)
+				allocated = Math.min(allocated, after - before);
+		}
+
+		abstract void measure();
+
+		void benchmark(String name) {
+			String localName = name + " " + description;
+			run(DirectorPerformanceTest.this, localName, REPEATS, 1);
+			if (allocated != Long.MAX_VALUE)
+				assertTrue(localName + ": " + allocated + " bytes allocated, at most " + MAX_ALLOCATED + " expected", allocated <= MAX_ALLOCATED);
+		}
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		ReducedCUDFParser parser = new ReducedCUDFParser();
+		List<String> roots = new ArrayList<String>();
+		if (CUDF_FILE == null) {
+			parser.parse(new ByteArrayInputStream(generateUniverse(new Random(SEED), PACKAGES, VERSIONS).getBytes("UTF-8")), false, null);
+			roots.add(getPackageId(0));
+			description = "(" + PACKAGES + " packages of " + VERSIONS + " versions, seed " + SEED + ")";
+		} else {
+			InputStream stream = new FileInputStream(CUDF_FILE);
+			try {
+				parser.parse(stream, false, null);
+			} finally {
+				stream.close();
+			}
+			description = "(" + new File(CUDF_FILE).getName() + ")";
+		}
+		units = new ArrayList<IInstallableUnit>(parser.getIUs());
+		if (ROOTS != null)
+			roots = Arrays.asList(ROOTS.split(","));
+		else if (roots.isEmpty())
+			roots.add(units.get(0).getId());
+		IRequirement[] reqs = new IRequirement[roots.size()];
+		for (int i = 0; i < reqs.length; i++)
+			reqs[i] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, roots.get(i).trim(), VersionRange.emptyRange, null, false, false, true);
+		entryPoint = createIU("entry", Version.create("1.0.0"), reqs);
+	}
+
+	protected void tearDown() throws Exception {
+		units = null;
+		entryPoint = null;
+		super.tearDown();
+	}
+
+	private static String getPackageId(int i) {
+		return "p" + i;
+	}
+
+	/*
+	 * Returns a universe where each version of a package depends on a few packages of higher index. The older
+	 * versions also exclude the newer versions of some of their dependencies, so that the solver has to choose
+	 * between versions, but installing the newest version of every package is always a solution.
+	 */
+	private static String generateUniverse(Random random, int packages, int versions) {
+		StringBuffer result = new StringBuffer();
+		for (int p = 0; p < packages; p++) {
+			for (int v = 1; v <= versions; v++) {
+				result.append("package: ").append(getPackageId(p)).append('\n');
+				result.append("version: ").append(v).append('\n');
+				result.append("singleton: ").append(random.nextInt(3) != 0).append('\n');
+				int remaining = Math.min(DEPENDENCY_DISTANCE, packages - p - 1);
+				int dependencies = remaining == 0 ? 0 : random.nextInt(MAX_DEPENDENCIES + 1);
+				StringBuffer depends = new StringBuffer();
+				for (int d = 0; d < dependencies; d++) {
+					if (d > 0)
+						depends.append(", ");
+					depends.append(getPackageId(p + 1 + random.nextInt(remaining)));
+					int bound = 1 + random.nextInt(versions);
+					if (v < versions && random.nextInt(4) == 0)
+						depends.append(" < ").append(bound + 1);
+					else
+						depends.append(" >= ").append(bound);
+				}
+				if (depends.length() > 0)
+					result.append("depends: ").append(depends).append('\n');
+				result.append('\n');
+			}
+		}
+		return result.toString();
+	}
+
+	/*
+	 * Returns the number of bytes allocated by the current thread so far, or -1 when the virtual machine can't tell.
+	 */
+	static synchronized long getAllocatedBytes() {
+		Object bean = ManagementFactory.getThreadMXBean();
+		if (!allocatedBytesLookedUp) {
+			allocatedBytesLookedUp = true;
+			//The method is part of the extension of the platform MBean provided by some virtual machines
+			Class<?>[] interfaces = bean.getClass().getInterfaces();
+			for (int i = 0; i < interfaces.length && allocatedBytes == null; i++) {
+				try {
+					allocatedBytes = interfaces[i].getMethod("getThreadAllocatedBytes", new Class[] {long.class});
+				} catch (NoSuchMethodException e) {
+					//try the next one
+				}
+			}
+		}
+		if (allocatedBytes == null)
+			return -1;
+		try {
+			return ((Long) allocatedBytes.invoke(bean, new Object[] {new Long(Thread.currentThread().getId())})).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	Slicer createSlicer() {
+		return new Slicer(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), CONTEXT, false);
+	}
+
+	Projector encode(Slicer slicer, IQueryable<IInstallableUnit> slice) {
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.encode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), new NullProgressMonitor());
+		return projector;
+	}
+
+	public void testSlice() {
+		new Benchmark() {
+			void measure() {
+				assertNotNull(createSlicer().slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor()));
+			}
+		}.benchmark("Slice");
+	}
+
+	public void testEncode() {
+		final Slicer slicer = createSlicer();
+		final IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull(slice);
+		new Benchmark() {
+			void measure() {
+				encode(slicer, slice);
+			}
+		}.benchmark("Encode");
+	}
+
+	public void testInvokeSolver() {
+		final Slicer slicer = createSlicer();
+		final IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull(slice);
+		new Benchmark() {
+			Projector projector;
+
+			protected void setUp() {
+				//Each measure solves a freshly encoded problem
+				projector = encode(slicer, slice);
+			}
+
+			protected void tearDown() {
+				projector = null;
+			}
+
+			void measure() {
+				assertEquals(IStatus.OK, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+			}
+		}.benchmark("Invoke solver");
+	}
+
+	public void testGetProvisioningPlan() {
+		List<IInstallableUnit> repository = new ArrayList<IInstallableUnit>(units);
+		repository.add(entryPoint);
+		createTestMetdataRepository(repository.toArray(new IInstallableUnit[repository.size()]));
+		final IProfile profile = createProfile("DirectorPerformanceTest");
+		final IPlanner planner = createPlanner();
+		new Benchmark() {
+			void measure() {
+				ProfileChangeRequest request = new ProfileChangeRequest(profile);
+				request.add(entryPoint);
+				assertEquals(IStatus.OK, planner.getProvisioningPlan(request, null, new NullProgressMonitor()).getStatus().getSeverity());
+			}
+		}.benchmark("Get provisioning plan");
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.Collector;
+import org.eclipse.equinox.p2.query.IQueryable;
+
+/**
+ * Performance tests for the encoding of singleton constraints on repositories with many
+ * versions of each bundle, such as the ones of nightly builds.
+ */
+public class SingletonEncodingPerformanceTest extends ProvisioningPerformanceTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+	private static final int REPEATS = 5;
+	private static final int BUNDLES = 100;
+	private static final int VERSIONS = 60;
+
+	IInstallableUnit entryPoint;
+	Slicer slicer;
+	IQueryable<IInstallableUnit> slice;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Every bundle has singleton builds and non singleton ones, and each build
+		// requires any build of the next bundle
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>(BUNDLES * VERSIONS);
+		for (int i = 0; i < BUNDLES; i++) {
+			IRequirement[] reqs = i + 1 == BUNDLES ? new IRequirement[0] : createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "org.eclipse.someiu" + (i + 1), VersionRange.emptyRange);
+			for (int v = 1; v <= VERSIONS; v++)
+				units.add(createIU("org.eclipse.someiu" + i, Version.createOSGi(1, 0, v), reqs, NO_PROPERTIES, v % 3 != 0));
+		}
+		entryPoint = createIU("entry", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "org.eclipse.someiu0", VersionRange.emptyRange));
+		slicer = new Slicer(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), CONTEXT, false);
+		slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+	}
+
+	Projector solve(boolean singletonGroups) {
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.setSingletonGroups(singletonGroups);
+		projector.encode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), new NullProgressMonitor());
+		assertEquals(IStatus.OK, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+		return projector;
+	}
+
+	public void testConstraintCount() {
+		int perNonSingleton = solve(false).getNumberOfConstraints();
+		int grouped = solve(true).getNumberOfConstraints();
+		// One constraint per bundle instead of one per non singleton build
+		assertEquals(BUNDLES * (VERSIONS / 3 - 1), perNonSingleton - grouped);
+	}
+
+	public void testSolveWithConstraintPerNonSingleton() {
+		runSolve(false, "Solve " + BUNDLES + " bundles of " + VERSIONS + " versions with a singleton constraint per non singleton");
+	}
+
+	public void testSolveWithSingletonGroups() {
+		runSolve(true, "Solve " + BUNDLES + " bundles of " + VERSIONS + " versions with a singleton constraint per bundle");
+	}
+
+	private void runSolve(final boolean singletonGroups, String name) {
+		new PerformanceTestRunner() {
+			protected void setUp() {
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				solve(singletonGroups);
+			}
+		}.run(this, name, REPEATS, 1);
+	}
+}
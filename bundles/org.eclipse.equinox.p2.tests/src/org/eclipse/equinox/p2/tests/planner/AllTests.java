@@ -80,8 +80,10 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(InclusionRuleTest2.class);
 		suite.addTestSuite(IUProperties.class);
 		suite.addTestSuite(IUPropertyRemoval.class);
+		suite.addTestSuite(IUUniverseTest.class);
 		suite.addTestSuite(IUWithFilter.class);
 		suite.addTestSuite(IUWithFilter2.class);
+		suite.addTestSuite(LexicographicOptimizationTest.class);
 		suite.addTestSuite(MinimalInstall.class);
 		suite.addTestSuite(MinimalInstall2.class);
 		suite.addTestSuite(MissingDependency.class);
@@ -102,6 +104,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(MultipleSingleton.class);
 		suite.addTestSuite(NoRequirements.class);
 		suite.addTestSuite(ORTesting.class);
+		suite.addTestSuite(ParallelSlicerTest.class);
 		//		suite.addTestSuite(PatchFailingToInstall.class);
 		suite.addTestSuite(PatchTest1.class);
 		suite.addTestSuite(PatchTest10.class);
@@ -135,8 +138,14 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(PatchTestUpdate5.class);
 		suite.addTestSuite(PatchTestUsingNegativeRequirement.class);
 		suite.addTestSuite(PermissiveSlicerTest.class);
+		suite.addTestSuite(PlanCacheTest.class);
+		suite.addTestSuite(PlannerInputTest.class);
+		suite.addTestSuite(PlannerStatisticsEventTest.class);
+		suite.addTestSuite(PlanningSessionTest.class);
+		suite.addTestSuite(PortfolioSolverTest.class);
 		suite.addTestSuite(PP2ShouldFailToInstall.class);
 		//		suite.addTestSuite(ProvisioningPlanQueryTest.class); disabled, see bug 313812 
+		suite.addTestSuite(QuickExplanationTest.class);
 		suite.addTestSuite(SDKPatchingTest1.class);
 		suite.addTestSuite(SDKPatchingTest2.class);
 		suite.addTestSuite(SeveralOptionalDependencies.class);
@@ -151,18 +160,21 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(SimpleOptionalTest5.class);
 		suite.addTestSuite(SimpleSingleton.class);
 		suite.addTestSuite(SimulatedSharedInstallTest.class);
+		suite.addTestSuite(SingletonGroupTest.class);
 		suite.addTestSuite(SingletonOptionallyInstalled.class);
 		suite.addTestSuite(SingletonOptionallyInstalled2.class);
 		suite.addTestSuite(SWTFragment.class);
 		suite.addTestSuite(SynchronizeOperationTest.class);
 		suite.addTestSuite(TestNoopChangeRequest.class);
 		suite.addTestSuite(TestFilteringOnAbsentProperty.class);
+		suite.addTestSuite(TestRemediationOperationThreads.class);
 		suite.addTestSuite(TopLevelFilterTest.class);
 		suite.addTestSuite(TwoVersionsOfWSDL.class);
 		suite.addTestSuite(TychoUsage.class);
 		suite.addTestSuite(UninstallEverything.class);
 		suite.addTestSuite(UpdateForTwoIUs.class);
 		suite.addTestSuite(UpdateQueryTest.class);
+		suite.addTestSuite(WarmStartTest.class);
 		return suite;
 	}
 }
\ No newline at end of file
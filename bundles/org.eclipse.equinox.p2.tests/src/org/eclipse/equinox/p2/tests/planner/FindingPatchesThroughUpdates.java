@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.planner;
 
-import java.util.Properties;
+import java.util.*;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.metadata.*;
@@ -66,4 +66,15 @@ public class FindingPatchesThroughUpdates extends AbstractProvisioningTest {
 		assertEquals(1, updates.toUnmodifiableSet().size());
 		assertTrue(updates.toUnmodifiableSet().contains(anotherPatch3));
 	}
-}
\ No newline at end of file
+
+	public void testBatchUpdatesFor() {
+		List<IInstallableUnit> ius = Arrays.asList(new IInstallableUnit[] {a1, anotherPatch2, a120});
+		Map<IInstallableUnit, IQueryResult<IInstallableUnit>> updates = planner.updatesFor(ius, new ProvisioningContext(getAgent()), new NullProgressMonitor());
+		assertEquals("1.0", 3, updates.size());
+		for (IInstallableUnit iu : ius) {
+			Set<IInstallableUnit> expected = planner.updatesFor(iu, new ProvisioningContext(getAgent()), new NullProgressMonitor()).toUnmodifiableSet();
+			assertEquals("1.1 " + iu, expected, updates.get(iu).toUnmodifiableSet());
+		}
+		assertTrue("1.2", updates.get(a120).isEmpty());
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.director.IUUniverse;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the dense ids given to the units of a resolution.
+ */
+public class IUUniverseTest extends AbstractProvisioningTest {
+
+	public void testDenseIds() {
+		IUUniverse universe = new IUUniverse();
+		IInstallableUnit a = createIU("A", Version.create("1.0.0"));
+		IInstallableUnit b = createIU("B", Version.create("1.0.0"));
+		assertEquals("1.0", 0, universe.add(a));
+		assertEquals("1.1", 1, universe.add(b));
+		assertEquals("1.2", 0, universe.add(a));
+		assertEquals("1.3", 2, universe.size());
+		assertSame("1.4", b, universe.get(1));
+		assertEquals("1.5", -1, universe.indexOf(createIU("C", Version.create("1.0.0"))));
+	}
+
+	public void testEqualUnits() {
+		IUUniverse universe = new IUUniverse();
+		IInstallableUnit a = createIU("A", Version.create("1.0.0"));
+		universe.add(a);
+		IInstallableUnit copy = createIU("A", Version.create("1.0.0"));
+		assertEquals("1.0", 0, universe.indexOf(copy));
+		assertEquals("1.1", 0, universe.add(copy));
+		assertEquals("1.2", 1, universe.add(createIU("A", Version.create("2.0.0"))));
+		assertSame("1.3", a, universe.get(0));
+	}
+
+	public void testGrowth() {
+		IUUniverse universe = new IUUniverse();
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		for (int i = 0; i < 1000; i++)
+			units.add(createIU("A" + i, Version.create("1.0.0")));
+		BitSet ids = universe.addAll(units);
+		assertEquals("1.0", 1000, universe.size());
+		assertEquals("1.1", 1000, ids.cardinality());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("1.2", i, universe.indexOf(units.get(i)));
+			assertEquals("1.3", i, universe.indexOf(createIU("A" + i, Version.create("1.0.0"))));
+		}
+	}
+
+	public void testSetView() {
+		IUUniverse universe = new IUUniverse();
+		IInstallableUnit a = createIU("A", Version.create("1.0.0"));
+		IInstallableUnit b = createIU("B", Version.create("1.0.0"));
+		IInstallableUnit c = createIU("C", Version.create("1.0.0"));
+		universe.addAll(Arrays.asList(a, b, c));
+		BitSet ids = new BitSet();
+		Set<IInstallableUnit> set = universe.asSet(ids);
+		assertTrue("1.0", set.isEmpty());
+		ids.set(universe.indexOf(c));
+		ids.set(universe.indexOf(a));
+		assertEquals("1.1", 2, set.size());
+		assertTrue("1.2", set.contains(a));
+		assertFalse("1.3", set.contains(b));
+		assertTrue("1.4", set.contains(createIU("C", Version.create("1.0.0"))));
+		Iterator<IInstallableUnit> itor = set.iterator();
+		assertSame("1.5", a, itor.next());
+		assertSame("1.6", c, itor.next());
+		assertFalse("1.7", itor.hasNext());
+	}
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that optimizing the criteria one after the other gives the solutions of the weighted optimization function,
+ * and where the two differ.
+ */
+public class LexicographicOptimizationTest extends AbstractProvisioningTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+
+	List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+	List<IInstallableUnit> installed = new ArrayList<IInstallableUnit>();
+	List<IInstallableUnit> installedRoots = new ArrayList<IInstallableUnit>();
+
+	private Set<IInstallableUnit> solve(IRequirement[] reqs, Collection<IInstallableUnit> newRoots, boolean lexicographic) {
+		IInstallableUnit entryPoint = createIU("entry", Version.create("1.0.0"), reqs);
+		Slicer slicer = new Slicer(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), CONTEXT, false);
+		IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull("0.1", slice);
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.setLexicographic(lexicographic);
+		projector.encode(entryPoint, installedRoots.toArray(new IInstallableUnit[installedRoots.size()]), new QueryableArray(installed.toArray(new IInstallableUnit[installed.size()])), newRoots, new NullProgressMonitor());
+		assertEquals("0.2", IStatus.OK, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+		return new HashSet<IInstallableUnit>(projector.extractSolution());
+	}
+
+	private Set<IInstallableUnit> assertSameSolution(IRequirement[] reqs, Collection<IInstallableUnit> newRoots) {
+		Set<IInstallableUnit> expected = solve(reqs, newRoots, false);
+		assertEquals("0.3", expected, solve(reqs, newRoots, true));
+		return expected;
+	}
+
+	private static IRequirement strict(String id, String version) {
+		return MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, id, new VersionRange("[" + version + "," + version + "]"), null, false, false, true);
+	}
+
+	public void testHighestVersions() {
+		for (int i = 0; i < 10; i++) {
+			for (int v = 1; v <= 3; v++)
+				units.add(createIU("L" + i, Version.create(v + ".0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "L" + ((i + 1) % 10), new VersionRange("[1.0.0,4.0.0)")), NO_PROPERTIES, true));
+		}
+		IRequirement[] reqs = createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "L0", new VersionRange("[1.0.0,4.0.0)"));
+		Set<IInstallableUnit> solution = assertSameSolution(reqs, Collections.<IInstallableUnit> emptyList());
+		assertEquals("1.0", 10, solution.size());
+		for (IInstallableUnit iu : solution)
+			assertEquals("1.1", Version.create("3.0.0"), iu.getVersion());
+	}
+
+	public void testKeepInstalled() {
+		// The installed libraries stay unless the update of a root needs a newer one
+		IInstallableUnit updatedRoot = null;
+		for (int i = 0; i < 10; i++) {
+			IInstallableUnit lib = createIU("L" + i, Version.create("1.0.0"), true);
+			IInstallableUnit root = createIU("R" + i, Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "L" + i, new VersionRange("[1.0.0,3.0.0)")));
+			units.add(lib);
+			units.add(createIU("L" + i, Version.create("2.0.0"), true));
+			units.add(root);
+			installed.add(lib);
+			installed.add(root);
+			if (i > 0)
+				installedRoots.add(root);
+		}
+		updatedRoot = createIU("R0", Version.create("2.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "L0", new VersionRange("[2.0.0,3.0.0)")));
+		units.add(updatedRoot);
+		IRequirement[] reqs = new IRequirement[10];
+		reqs[0] = strict("R0", "2.0.0");
+		for (int i = 1; i < 10; i++)
+			reqs[i] = strict("R" + i, "1.0.0");
+		Set<IInstallableUnit> solution = assertSameSolution(reqs, Collections.singletonList(updatedRoot));
+		assertTrue("1.0", solution.contains(updatedRoot));
+		for (int i = 1; i < 10; i++)
+			assertTrue("1.1", solution.contains(installed.get(2 * i)));
+	}
+
+	public void testOptionalBeforeVersions() {
+		// The optional requirement can only be satisfied with the older version of B
+		units.add(createIU("A", Version.create("1.0.0"), new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0,3.0.0)"), null, false, false, true), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "C", VersionRange.emptyRange, null, true, false, true)}));
+		units.add(createIU("B", Version.create("1.0.0"), true));
+		units.add(createIU("B", Version.create("2.0.0"), true));
+		units.add(createIU("C", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0,1.0.0]")), NO_PROPERTIES, true));
+		Set<IInstallableUnit> solution = assertSameSolution(new IRequirement[] {strict("A", "1.0.0")}, Collections.<IInstallableUnit> emptyList());
+		assertEquals("1.0", 3, solution.size());
+		assertTrue("1.1", solution.contains(units.get(1)));
+		assertTrue("1.2", solution.contains(units.get(3)));
+	}
+
+	public void testOlderVersionsOutnumberedOnSmallProfiles() {
+		// Nothing is installed so the weights are powers of 2. The oldest A weighs 8, which is less
+		// than the second newest A with the newest dependencies (4 + 3 * 2) or the newest A with
+		// the older dependencies (2 + 3 * 4).
+		IInstallableUnit a1 = createIU("A", Version.create("1.0.0"), true);
+		IInstallableUnit a2 = createIU("A", Version.create("2.0.0"), new IRequirement[] {strict("B", "3.0.0"), strict("C", "3.0.0"), strict("D", "3.0.0")});
+		units.add(a1);
+		units.add(a2);
+		units.add(createIU("A", Version.create("3.0.0"), new IRequirement[] {strict("B", "2.0.0"), strict("C", "2.0.0"), strict("D", "2.0.0")}));
+		for (String id : new String[] {"B", "C", "D"}) {
+			units.add(createIU(id, Version.create("2.0.0"), true));
+			units.add(createIU(id, Version.create("3.0.0"), true));
+		}
+		IRequirement[] reqs = createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "A", new VersionRange("[1.0.0,4.0.0)"));
+		assertEquals("1.0", Collections.singleton(a1), solve(reqs, Collections.<IInstallableUnit> emptyList(), false));
+
+		// Criterion by criterion, no IU in the oldest versions is better than any number of IUs
+		// in newer versions
+		Set<IInstallableUnit> solution = solve(reqs, Collections.<IInstallableUnit> emptyList(), true);
+		assertEquals("2.0", 4, solution.size());
+		assertTrue("2.1", solution.contains(a2));
+		for (IInstallableUnit iu : solution)
+			if (iu != a2)
+				assertEquals("2.2", Version.create("3.0.0"), iu.getVersion());
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that a slice computed in parallel is the same as the one computed serially.
+ */
+public class ParallelSlicerTest extends AbstractProvisioningTest {
+	private static final int LEVELS = 4;
+	private static final int WIDTH = 300;
+
+	private IInstallableUnit[] roots;
+	private IQueryable<IInstallableUnit> input;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Each unit requires two units of the next level, one of them optionally,
+		// and the last unit of each level requires a unit that doesn't exist.
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		for (int level = 0; level < LEVELS; level++) {
+			for (int i = 0; i < WIDTH; i++) {
+				IRequirement[] required;
+				if (level == LEVELS - 1)
+					required = NO_REQUIRES;
+				else if (i == WIDTH - 1)
+					required = createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "missing", new VersionRange("[1.0.0,2.0.0)"));
+				else {
+					required = new IRequirement[2];
+					required[0] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, name(level + 1, (i * 7) % WIDTH), new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+					required[1] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, name(level + 1, (i * 13 + 5) % WIDTH), new VersionRange("[1.0.0,2.0.0)"), null, true, false);
+				}
+				units.add(createIU(name(level, i), Version.create("1.0.0"), required));
+			}
+		}
+		roots = units.subList(0, WIDTH).toArray(new IInstallableUnit[WIDTH]);
+		Collections.reverse(units);
+		input = new QueryableArray(units.toArray(new IInstallableUnit[units.size()]));
+	}
+
+	private static String name(int level, int i) {
+		return "L" + level + "_" + i;
+	}
+
+	private List<IInstallableUnit> slice(Slicer slicer, int parallelism) {
+		slicer.setParallelism(parallelism);
+		IQueryable<IInstallableUnit> slice = slicer.slice(roots, new NullProgressMonitor());
+		assertNotNull("1.0", slice);
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		for (Iterator<IInstallableUnit> iter = slice.query(QueryUtil.createIUAnyQuery(), new NullProgressMonitor()).iterator(); iter.hasNext();)
+			units.add(iter.next());
+		return units;
+	}
+
+	private static List<String> problems(Slicer slicer) {
+		List<String> problems = new ArrayList<String>();
+		for (IStatus problem : slicer.getStatus().getChildren())
+			problems.add(problem.getMessage());
+		return problems;
+	}
+
+	public void testSameSlice() {
+		Map<String, String> context = Collections.<String, String> emptyMap();
+		Slicer serial = new Slicer(input, context, false);
+		List<IInstallableUnit> expected = slice(serial, 1);
+		for (int parallelism = 2; parallelism <= 4; parallelism++) {
+			Slicer parallel = new Slicer(input, context, false);
+			assertEquals("1.1", expected, slice(parallel, parallelism));
+			assertEquals("1.2", problems(serial), problems(parallel));
+		}
+		assertEquals("1.3", LEVELS - 1, problems(serial).size());
+	}
+
+	public void testSamePermissiveSlice() {
+		Map<String, String> context = Collections.<String, String> emptyMap();
+		List<IInstallableUnit> expected = slice(new PermissiveSlicer(input, context, true, false, true, false, false), 1);
+		assertEquals("1.0", expected, slice(new PermissiveSlicer(input, context, true, false, true, false, false), 4));
+	}
+}
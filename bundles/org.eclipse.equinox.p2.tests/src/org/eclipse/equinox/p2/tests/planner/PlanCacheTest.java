@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.net.URI;
+import java.util.Arrays;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.director.PlanCache;
+import org.eclipse.equinox.internal.p2.director.SimplePlanner;
+import org.eclipse.equinox.internal.p2.engine.ProvisioningPlan;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.repository.IRepositoryManager;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that the planner finds the plans of the requests it already resolved, that the cached
+ * plans are not changed by the callers, and that the plans are evicted when the profile or the
+ * repositories change.
+ */
+public class PlanCacheTest extends AbstractProvisioningTest {
+	IInstallableUnit a1, b1, c1;
+	IProfile profile;
+	SimplePlanner planner;
+	PlanCache cache;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), true);
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		c1 = createIU("C", Version.create("1.0.0"), true);
+		createTestMetdataRepository(new IInstallableUnit[] {a1, b1, c1});
+		profile = createProfile("PlanCacheTest." + getName());
+		planner = (SimplePlanner) createPlanner();
+		cache = new PlanCache(2);
+		planner.setPlanCache(cache);
+	}
+
+	protected void tearDown() throws Exception {
+		planner.setPlanCache(null);
+		super.tearDown();
+	}
+
+	private IProvisioningPlan plan(IInstallableUnit iu) {
+		return plan(iu, new ProvisioningContext(getAgent()));
+	}
+
+	private IProvisioningPlan plan(IInstallableUnit iu, ProvisioningContext context) {
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.add(iu);
+		return planner.getProvisioningPlan(request, context, new NullProgressMonitor());
+	}
+
+	private static void assertSamePlan(String message, IProvisioningPlan expected, IProvisioningPlan actual) {
+		assertNotSame(message, expected, actual);
+		assertEquals(message, Arrays.asList(((ProvisioningPlan) expected).getOperands()), Arrays.asList(((ProvisioningPlan) actual).getOperands()));
+	}
+
+	public void testSameRequest() {
+		IProvisioningPlan plan = plan(a1);
+		assertOK("1.0", plan.getStatus());
+		assertSamePlan("1.1", plan, plan(a1));
+		assertEquals("1.2", 1, cache.getHits());
+		assertEquals("1.3", 1, cache.getMisses());
+		plan(b1);
+		assertEquals("1.4", 1, cache.getHits());
+		assertEquals("1.5", 2, cache.getMisses());
+	}
+
+	public void testCachedPlanNotModified() {
+		IProvisioningPlan plan = plan(a1);
+		int operands = ((ProvisioningPlan) plan).getOperands().length;
+		plan.setStatus(Status.CANCEL_STATUS);
+		plan.addInstallableUnit(b1);
+		IProvisioningPlan cached = plan(a1);
+		assertOK("1.0", cached.getStatus());
+		assertEquals("1.1", operands, ((ProvisioningPlan) cached).getOperands().length);
+		cached.addInstallableUnit(c1);
+		assertEquals("1.2", operands, ((ProvisioningPlan) plan(a1)).getOperands().length);
+		assertEquals("1.3", 2, cache.getHits());
+	}
+
+	public void testContextOfRequest() throws Exception {
+		plan(a1);
+		ProvisioningContext context = new ProvisioningContext(getAgent());
+		assertSame("1.0", context, plan(a1, context).getContext());
+		assertEquals("1.1", 1, cache.getHits());
+
+		context = new ProvisioningContext(getAgent());
+		context.setMetadataRepositories(getMetadataRepositoryManager().getKnownRepositories(IRepositoryManager.REPOSITORIES_ALL));
+		plan(a1, context);
+		assertEquals("1.2", 1, cache.getHits());
+		context = new ProvisioningContext(getAgent());
+		context.setArtifactRepositories(new URI[0]);
+		plan(a1, context);
+		assertEquals("1.3", 1, cache.getHits());
+	}
+
+	public void testLeastRecentlyUsedEvicted() {
+		plan(a1);
+		plan(b1);
+		plan(a1);
+		assertEquals("1.0", 1, cache.getHits());
+		plan(c1);
+		assertEquals("1.1", 2, cache.size());
+		plan(a1);
+		assertEquals("1.2", 2, cache.getHits());
+		plan(b1);
+		assertEquals("1.3", 2, cache.getHits());
+	}
+
+	public void testProfileChangeInvalidates() {
+		IProvisioningPlan plan = plan(a1);
+		IEngine engine = createEngine();
+		assertOK("1.0", engine.perform(plan, new NullProgressMonitor()));
+		assertEquals("1.1", 0, cache.size());
+		profile = getProfile(profile.getProfileId());
+		plan(a1);
+		assertEquals("1.2", 0, cache.getHits());
+	}
+
+	public void testRepositoryChangeInvalidates() {
+		plan(a1);
+		createTestMetdataRepository(new IInstallableUnit[] {createIU("D", Version.create("1.0.0"), true)});
+		assertEquals("1.0", 0, cache.size());
+		plan(a1);
+		assertEquals("1.1", 0, cache.getHits());
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.PlannerInput;
+import org.eclipse.equinox.internal.p2.director.QueryableArray;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that the input of the planner keeps one unit per id and version, and that the queries
+ * answered with the indexes of the repositories find the units that are kept.
+ */
+public class PlannerInputTest extends AbstractProvisioningTest {
+	IInstallableUnit a1, a1Partial, a1Extra, b1, b2;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Map<String, String> partial = new HashMap<String, String>();
+		partial.put(IInstallableUnit.PROP_PARTIAL_IU, Boolean.TRUE.toString());
+		a1 = createIU("A", Version.create("1.0.0"));
+		a1Partial = createIU("A", Version.create("1.0.0"), NO_REQUIRES, partial, false);
+		a1Extra = createIU("A", Version.create("1.0.0"));
+		b1 = createIU("B", Version.create("1.0.0"));
+		b2 = createIU("B", Version.create("2.0.0"));
+	}
+
+	private static IQueryable<IInstallableUnit> repositories(IInstallableUnit[] first, IInstallableUnit[] second) {
+		return QueryUtil.compoundQueryable(new QueryableArray(first), new QueryableArray(second));
+	}
+
+	//Queries the input with the capability index and checks the result is the one of a full scan
+	private static Set<IInstallableUnit> queryA(PlannerInput input) {
+		IRequirement req = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "A", VersionRange.emptyRange, null, false, false, true);
+		assertNotNull("0.1", input.getIndex(InstallableUnit.MEMBER_PROVIDED_CAPABILITIES));
+		Set<IInstallableUnit> indexed = input.query(QueryUtil.createMatchQuery(req.getMatches()), null).toUnmodifiableSet();
+		Set<IInstallableUnit> scanned = QueryUtil.createMatchQuery(req.getMatches()).perform(input.everything()).toUnmodifiableSet();
+		assertEquals("0.2", scanned, indexed);
+		return indexed;
+	}
+
+	private static IInstallableUnit getOnly(Set<IInstallableUnit> units) {
+		assertEquals("0.3", 1, units.size());
+		return units.iterator().next();
+	}
+
+	public void testOneUnitPerVersion() {
+		PlannerInput input = new PlannerInput(null, Collections.<IInstallableUnit> emptyList(), repositories(new IInstallableUnit[] {a1, b1}, new IInstallableUnit[] {a1Extra, b1, b2}), new NullProgressMonitor());
+		assertEquals("1.0", 3, input.size());
+		assertSame("1.1", a1, getOnly(queryA(input)));
+		assertTrue("1.2", input.contains(b2));
+	}
+
+	public void testCompleteUnitReplacesPartialOne() {
+		PlannerInput input = new PlannerInput(null, Collections.<IInstallableUnit> emptyList(), repositories(new IInstallableUnit[] {a1Partial}, new IInstallableUnit[] {a1}), new NullProgressMonitor());
+		assertEquals("1.0", 1, input.size());
+		assertSame("1.1", a1, getOnly(queryA(input)));
+	}
+
+	public void testExtraUnitsFirst() {
+		PlannerInput input = new PlannerInput(new IInstallableUnit[] {b1}, Collections.singletonList(a1Extra), repositories(new IInstallableUnit[] {a1, b1}, new IInstallableUnit[] {b2}), new NullProgressMonitor());
+		assertEquals("1.0", 3, input.size());
+		assertSame("1.1", a1Extra, getOnly(queryA(input)));
+	}
+
+	public void testPartialExtraUnitReplaced() {
+		PlannerInput input = new PlannerInput(new IInstallableUnit[] {a1Partial}, Collections.<IInstallableUnit> emptyList(), repositories(new IInstallableUnit[] {a1}, new IInstallableUnit[] {b1}), new NullProgressMonitor());
+		assertEquals("1.0", 2, input.size());
+		assertSame("1.1", a1, getOnly(queryA(input)));
+	}
+}
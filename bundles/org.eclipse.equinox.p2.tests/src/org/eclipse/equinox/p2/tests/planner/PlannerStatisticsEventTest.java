@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.EventObject;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.PlannerStatisticsEvent;
+import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.ProvisioningListener;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.IProvisioningPlan;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that the planner publishes the statistics of each request on the event bus.
+ */
+public class PlannerStatisticsEventTest extends AbstractProvisioningTest {
+	IInstallableUnit a1, b1, b2, c1;
+	IProfile profile;
+	IPlanner planner;
+
+	class StatisticsListener implements ProvisioningListener {
+		PlannerStatisticsEvent event;
+		CountDownLatch latch = new CountDownLatch(1);
+
+		public void notify(EventObject o) {
+			if (o instanceof PlannerStatisticsEvent) {
+				event = (PlannerStatisticsEvent) o;
+				latch.countDown();
+			}
+		}
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0,3.0.0)")));
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		b2 = createIU("B", Version.create("2.0.0"), true);
+		c1 = createIU("C", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0,1.0.0]")));
+		createTestMetdataRepository(new IInstallableUnit[] {a1, b1, b2, c1});
+		profile = createProfile("TestProfile." + getName());
+		planner = createPlanner();
+	}
+
+	private PlannerStatisticsEvent plan(ProfileChangeRequest request, int expectedSeverity) throws InterruptedException {
+		StatisticsListener listener = new StatisticsListener();
+		getEventBus().addListener(listener);
+		try {
+			IProvisioningPlan plan = planner.getProvisioningPlan(request, null, new NullProgressMonitor());
+			assertEquals("0.1", expectedSeverity, plan.getStatus().getSeverity());
+			//The events are dispatched asynchronously
+			listener.latch.await(10, TimeUnit.SECONDS);
+			assertNotNull("0.2", listener.event);
+			assertSame("0.3", request, listener.event.getRequest());
+			assertEquals("0.4", plan.getStatus(), listener.event.getStatus());
+			return listener.event;
+		} finally {
+			getEventBus().removeListener(listener);
+		}
+	}
+
+	public void testSolution() throws InterruptedException {
+		ProfileChangeRequest request = new ProfileChangeRequest(profile);
+		request.addInstallableUnits(new IInstallableUnit[] {a1});
+		PlannerStatisticsEvent event = plan(request, IStatus.OK);
+		//The entry point, A and both versions of B
+		assertEquals("1.0", 4, event.getSliceSize());
+		assertTrue("1.1", event.getNumberOfVariables() > 0);
+		assertTrue("1.2", event.getNumberOfConstraints() > 0);
+		assertTrue("1.3", event.getPropagations() > 0);
+		assertEquals("1.4", 0, event.getTime(PlannerStatisticsEvent.STAGE_EXPLANATION));
+		assertTrue("1.5", event.getTotalTime() >= event.getTime(PlannerStatisticsEvent.STAGE_SOLVE));
+	}
+
+	public void testNoSolution() throws InterruptedException {
+		ProfileChangeRequest request = new ProfileChangeRequest(profile);
+		request.addInstallableUnits(new IInstallableUnit[] {b2, c1});
+		PlannerStatisticsEvent event = plan(request, IStatus.ERROR);
+		assertTrue("1.0", event.getSliceSize() > 0);
+		assertTrue("1.1", event.getNumberOfConstraints() > 0);
+		assertEquals("1.2", 0, event.getTime(PlannerStatisticsEvent.STAGE_BACK_TO_IU));
+		assertEquals("1.3", 0, event.getTime(PlannerStatisticsEvent.STAGE_GENERATE_PLAN));
+	}
+}
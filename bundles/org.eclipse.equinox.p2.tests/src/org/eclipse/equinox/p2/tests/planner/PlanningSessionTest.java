@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.*;
+import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that problems re-encoded for a follow-up request are solved like problems
+ * encoded from scratch.
+ */
+public class PlanningSessionTest extends AbstractProvisioningTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+
+	IInstallableUnit a1, a2, b1, c1, d1, e1, f1;
+	IInstallableUnit[] units;
+	int entryPoints;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), true);
+		a2 = createIU("A", Version.create("2.0.0"), true);
+		b1 = createIU("B", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "A", new VersionRange("[1.0.0,3.0.0)")));
+		c1 = createIU("C", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "A", new VersionRange("[1.0.0,2.0.0)")));
+		IRequirement nonGreedyE = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "E", new VersionRange("[1.0.0,2.0.0)"), null, false, false, false);
+		d1 = createIU("D", Version.create("1.0.0"), new IRequirement[] {nonGreedyE});
+		e1 = createIU("E", Version.create("1.0.0"));
+		f1 = createIU("F", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "E", new VersionRange("[1.0.0,2.0.0)")));
+		units = new IInstallableUnit[] {a1, a2, b1, c1, d1, e1, f1};
+	}
+
+	private IInstallableUnit createEntryPoint(IInstallableUnit[] required, boolean optional) {
+		IRequirement[] reqs = new IRequirement[required.length];
+		for (int i = 0; i < required.length; i++)
+			reqs[i] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, required[i].getId(), new VersionRange(required[i].getVersion(), true, required[i].getVersion(), true), null, optional, false, true);
+		return createIU("entry", Version.createOSGi(1, 0, entryPoints++), reqs);
+	}
+
+	private Projector createProjector(IInstallableUnit entryPoint, boolean incremental) {
+		Slicer slicer = new Slicer(new QueryableArray(units), CONTEXT, false);
+		IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull("1.0", slice);
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.setIncremental(incremental);
+		projector.encode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), new NullProgressMonitor());
+		return projector;
+	}
+
+	private static Set<IInstallableUnit> solve(Projector projector) {
+		IStatus status = projector.invokeSolver(new NullProgressMonitor());
+		if (status.getSeverity() == IStatus.ERROR)
+			return null;
+		return new HashSet<IInstallableUnit>(projector.extractSolution());
+	}
+
+	private void assertSameSolution(String message, Projector incremental, IInstallableUnit[] required) {
+		IInstallableUnit entryPoint = createEntryPoint(required, false);
+		Slicer slicer = new Slicer(new QueryableArray(units), CONTEXT, false);
+		assertNotNull(message, slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor()));
+		assertTrue(message, incremental.reencode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), slicer.getUniverse(), slicer.getNonGreedyIds(), new NullProgressMonitor()));
+		Set<IInstallableUnit> expected = solve(createProjector(entryPoint, false));
+		assertEquals(message, expected, solve(incremental));
+	}
+
+	public void testReencode() {
+		Projector projector = createProjector(createEntryPoint(units, true), true);
+		assertTrue("1.0", projector.isIncremental());
+		assertNotNull("1.1", solve(projector));
+
+		assertSameSolution("2.0", projector, new IInstallableUnit[] {b1});
+		assertSameSolution("2.1", projector, new IInstallableUnit[] {b1, c1});
+		assertSameSolution("2.2", projector, new IInstallableUnit[] {c1});
+		assertSameSolution("2.3", projector, new IInstallableUnit[] {b1, a2});
+		assertSameSolution("2.4", projector, new IInstallableUnit[] {c1, a2});
+	}
+
+	public void testReencodeNonGreedy() {
+		Projector projector = createProjector(createEntryPoint(units, true), true);
+		assertNotNull("1.0", solve(projector));
+
+		// D alone can't be installed since nothing brings E in
+		assertSameSolution("2.0", projector, new IInstallableUnit[] {d1});
+		assertSameSolution("2.1", projector, new IInstallableUnit[] {d1, f1});
+		// The entry point itself brings E in
+		assertSameSolution("2.2", projector, new IInstallableUnit[] {d1, e1});
+		// and it no longer does once retracted
+		assertSameSolution("2.3", projector, new IInstallableUnit[] {d1});
+		assertSameSolution("2.4", projector, new IInstallableUnit[] {d1, e1, b1});
+	}
+
+	public void testSliceOutsideOfProblem() {
+		Projector projector = createProjector(createEntryPoint(new IInstallableUnit[] {b1}, false), true);
+		assertNotNull("1.0", solve(projector));
+
+		IInstallableUnit entryPoint = createEntryPoint(new IInstallableUnit[] {c1}, false);
+		Slicer slicer = new Slicer(new QueryableArray(units), CONTEXT, false);
+		assertNotNull("2.0", slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor()));
+		assertFalse("2.1", projector.reencode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), slicer.getUniverse(), slicer.getNonGreedyIds(), new NullProgressMonitor()));
+
+		// The problem is left as it was
+		assertSameSolution("3.0", projector, new IInstallableUnit[] {b1});
+	}
+
+	public void testSession() {
+		createTestMetdataRepository(units);
+		IProfile profile = createProfile("TestProfile." + getName());
+		SimplePlanner planner = (SimplePlanner) createPlanner();
+		PlanningSession session = planner.createPlanningSession(new ProvisioningContext(getAgent()));
+
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.addAll(Arrays.asList(b1, c1));
+		assertEquals("1.0", IStatus.OK, session.getProvisioningPlan(request, null).getStatus().getSeverity());
+
+		// Same additions, different inclusion rules
+		for (int i = 0; i < 2; i++) {
+			request = planner.createChangeRequest(profile);
+			request.addAll(Arrays.asList(b1, c1));
+			request.setInstallableUnitInclusionRules(c1, ProfileInclusionRules.createOptionalInclusionRule(c1));
+			if (i == 1)
+				request.setInstallableUnitInclusionRules(b1, ProfileInclusionRules.createOptionalInclusionRule(b1));
+			IProvisioningPlan plan = session.getProvisioningPlan(request, null);
+			assertEquals("2.0", IStatus.OK, plan.getStatus().getSeverity());
+			IProvisioningPlan expected = planner.getProvisioningPlan(request, new ProvisioningContext(getAgent()), null);
+			assertEquals("2.1", expected.getFutureState().query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet(), plan.getFutureState().query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		}
+		assertEquals("3.0", 2, session.getReencodedCount());
+
+		// Units outside of the problem are planned from scratch
+		request = planner.createChangeRequest(profile);
+		request.add(f1);
+		assertEquals("4.0", IStatus.OK, session.getProvisioningPlan(request, null).getStatus().getSeverity());
+		assertEquals("4.1", 2, session.getReencodedCount());
+	}
+}
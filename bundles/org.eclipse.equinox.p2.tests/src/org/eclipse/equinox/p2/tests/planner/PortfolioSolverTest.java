@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.Collector;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that racing several solver configurations gives the answers of a single solver.
+ */
+public class PortfolioSolverTest extends AbstractProvisioningTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+	private static final int SIZE = 20;
+
+	List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// A chain of bundles where every version of a bundle requires a range of
+		// versions of the next one, so that only some combinations work.
+		for (int i = 0; i < SIZE; i++) {
+			for (int v = 1; v <= 3; v++) {
+				IRequirement[] reqs = i + 1 == SIZE ? new IRequirement[0] : createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B" + (i + 1), new VersionRange(Version.create(v + ".0.0"), true, Version.create((v + (i % 2)) + ".0.0"), true));
+				units.add(createIU("B" + i, Version.create(v + ".0.0"), null, reqs, new IProvidedCapability[0], NO_PROPERTIES, null, NO_TP_DATA, true));
+			}
+		}
+	}
+
+	private Projector encode(IRequirement[] reqs, int portfolioSize) {
+		IInstallableUnit entryPoint = createIU("entry", Version.create("1.0.0"), reqs);
+		Slicer slicer = new Slicer(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), CONTEXT, false);
+		IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull("0.1", slice);
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.setPortfolioSize(portfolioSize);
+		projector.encode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), new NullProgressMonitor());
+		return projector;
+	}
+
+	private Set<IInstallableUnit> solve(IRequirement[] reqs, int portfolioSize) {
+		Projector projector = encode(reqs, portfolioSize);
+		assertEquals("0.2", IStatus.OK, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+		return new HashSet<IInstallableUnit>(projector.extractSolution());
+	}
+
+	public void testSameSolution() {
+		IRequirement[] reqs = createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B0", new VersionRange("[1.0.0,4.0.0)"));
+		Set<IInstallableUnit> expected = solve(reqs, 1);
+		assertEquals("1.0", SIZE, expected.size());
+		assertEquals("1.1", expected, solve(reqs, 2));
+		assertEquals("1.2", expected, solve(reqs, 4));
+		assertEquals("1.3", expected, solve(reqs, 8));
+		// More configurations than there are is the same as all of them
+		assertEquals("1.4", expected, solve(reqs, 16));
+	}
+
+	public void testUnsatisfiable() {
+		IRequirement[] reqs = new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "B0", new VersionRange("[1.0.0,1.0.0]"), null, false, false, true), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "B2", new VersionRange("[3.0.0,3.0.0]"), null, false, false, true)};
+		Projector projector = encode(reqs, 4);
+		assertEquals("1.0", IStatus.ERROR, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+		assertFalse("1.1", projector.getExplanation(new NullProgressMonitor()).isEmpty());
+	}
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.Collector;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that the divide and conquer explanation finds the explanation of the solver, that a
+ * spent budget still gives the reason of the failure, and that the partial explanations are reported.
+ */
+public class QuickExplanationTest extends AbstractProvisioningTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+	private static final int SIZE = 50;
+
+	List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+	IRequirement[] reqs = new IRequirement[SIZE + 2];
+
+	private static IRequirement strict(String id, String version) {
+		return MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, id, new VersionRange("[" + version + "," + version + "]"), null, false, false, true);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// A and B need different versions of the singleton C, among many IUs that can be installed
+		units.add(createIU("A", Version.create("1.0.0"), new IRequirement[] {strict("C", "1.0.0")}));
+		units.add(createIU("B", Version.create("2.0.0"), new IRequirement[] {strict("C", "2.0.0")}));
+		units.add(createIU("C", Version.create("1.0.0"), true));
+		units.add(createIU("C", Version.create("2.0.0"), true));
+		for (int i = 0; i < SIZE; i++) {
+			units.add(createIU("X" + i, Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "Y" + i, new VersionRange("[1.0.0,3.0.0)")), NO_PROPERTIES, true));
+			units.add(createIU("Y" + i, Version.create("1.0.0"), true));
+			units.add(createIU("Y" + i, Version.create("2.0.0"), true));
+			reqs[i] = strict("X" + i, "1.0.0");
+		}
+		reqs[SIZE] = strict("A", "1.0.0");
+		reqs[SIZE + 1] = strict("B", "2.0.0");
+	}
+
+	private Set<Explanation> explain(long budget) {
+		return explain(budget, new NullProgressMonitor());
+	}
+
+	private Set<Explanation> explain(long budget, IProgressMonitor monitor) {
+		IInstallableUnit entryPoint = createIU("entry", Version.create("1.0.0"), reqs);
+		Slicer slicer = new Slicer(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), CONTEXT, false);
+		IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull("0.1", slice);
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.setExplanationBudget(budget);
+		projector.encode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), new NullProgressMonitor());
+		assertEquals("0.2", IStatus.ERROR, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+		return projector.getExplanation(monitor);
+	}
+
+	public void testSameExplanation() {
+		Set<Explanation> expected = explain(-1);
+		assertFalse("1.0", expected.isEmpty());
+		assertEquals("1.1", expected, explain(Long.MAX_VALUE));
+	}
+
+	public void testBudgetSpent() {
+		Set<Explanation> minimal = explain(Long.MAX_VALUE);
+		Set<Explanation> partial = explain(0);
+		assertTrue("1.0", partial.containsAll(minimal));
+	}
+
+	public void testPartialExplanationsReported() {
+		final List<String> subTasks = Collections.synchronizedList(new ArrayList<String>());
+		Set<Explanation> explanation = explain(Long.MAX_VALUE, new NullProgressMonitor() {
+			public void subTask(String name) {
+				subTasks.add(name);
+			}
+		});
+		assertFalse("1.0", explanation.isEmpty());
+		//the whole conflict of the solver first, then smaller and smaller sets
+		assertFalse("1.1", subTasks.isEmpty());
+		int last = Integer.MAX_VALUE;
+		for (String subTask : subTasks) {
+			int size = Integer.parseInt(subTask.replaceAll("\\D", ""));
+			assertTrue("1.2", size < last);
+			last = size;
+		}
+	}
+}
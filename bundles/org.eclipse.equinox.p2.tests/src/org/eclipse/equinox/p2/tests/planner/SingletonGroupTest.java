@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.Collector;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that encoding the singleton constraints of all the versions of an IU as one constraint
+ * allows the same solutions with fewer constraints.
+ */
+public class SingletonGroupTest extends AbstractProvisioningTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+	private static final int VERSIONS = 50;
+
+	List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Odd versions are singletons, even versions are not
+		for (int v = 1; v <= VERSIONS; v++)
+			units.add(createIU("S", Version.create(v + ".0.0"), v % 2 == 1));
+	}
+
+	private static IRequirement strict(int version) {
+		return MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "S", new VersionRange(Version.create(version + ".0.0"), true, Version.create(version + ".0.0"), true), null, false, false, true);
+	}
+
+	private Projector solve(IRequirement[] reqs, boolean singletonGroups, int expectedSeverity) {
+		IInstallableUnit entryPoint = createIU("entry", Version.create("1.0.0"), reqs);
+		Slicer slicer = new Slicer(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), CONTEXT, false);
+		IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull("0.1", slice);
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.setSingletonGroups(singletonGroups);
+		projector.encode(entryPoint, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.<IInstallableUnit> emptyList(), new NullProgressMonitor());
+		assertEquals("0.2", expectedSeverity, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+		return projector;
+	}
+
+	private Set<IInstallableUnit> assertSameSolution(IRequirement[] reqs) {
+		Set<IInstallableUnit> expected = new HashSet<IInstallableUnit>(solve(reqs, false, IStatus.OK).extractSolution());
+		assertEquals("0.3", expected, new HashSet<IInstallableUnit>(solve(reqs, true, IStatus.OK).extractSolution()));
+		return expected;
+	}
+
+	public void testHighestVersion() {
+		IRequirement[] reqs = createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "S", new VersionRange("[1.0.0,100.0.0)"));
+		Set<IInstallableUnit> solution = assertSameSolution(reqs);
+		assertEquals("1.0", 1, solution.size());
+		assertEquals("1.1", Version.create(VERSIONS + ".0.0"), solution.iterator().next().getVersion());
+	}
+
+	public void testNonSingletonsTogether() {
+		Set<IInstallableUnit> solution = assertSameSolution(new IRequirement[] {strict(2), strict(4), strict(6)});
+		assertEquals("1.0", 3, solution.size());
+	}
+
+	public void testSingletonAlone() {
+		solve(new IRequirement[] {strict(1), strict(2)}, false, IStatus.ERROR);
+		solve(new IRequirement[] {strict(1), strict(2)}, true, IStatus.ERROR);
+		solve(new IRequirement[] {strict(1), strict(3)}, false, IStatus.ERROR);
+		solve(new IRequirement[] {strict(1), strict(3)}, true, IStatus.ERROR);
+	}
+
+	public void testFewerConstraints() {
+		IRequirement[] reqs = createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "S", new VersionRange("[1.0.0,100.0.0)"));
+		int perNonSingleton = solve(reqs, false, IStatus.OK).getNumberOfConstraints();
+		int grouped = solve(reqs, true, IStatus.OK).getNumberOfConstraints();
+		assertEquals("1.0", VERSIONS / 2 - 1, perNonSingleton - grouped);
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.List;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.p2.engine.IEngine;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.operations.*;
+import org.eclipse.equinox.p2.planner.*;
+import org.eclipse.equinox.p2.tests.*;
+
+/**
+ * Tests that the remedies found by trying the remedy configurations at the same time are the
+ * ones found by trying them one after the other.
+ */
+public class TestRemediationOperationThreads extends AbstractProvisioningTest {
+	@IUDescription(content = "package: sdk \n" + "singleton: true\n" + "version: 1 \n" + "depends: platform = 1")
+	public IInstallableUnit sdk1;
+
+	@IUDescription(content = "package: platform \n" + "singleton: true\n" + "version: 1 \n")
+	public IInstallableUnit platform1;
+
+	@IUDescription(content = "package: sdk \n" + "singleton: true\n" + "version: 2 \n" + "depends: platform = 2")
+	public IInstallableUnit sdk2;
+
+	@IUDescription(content = "package: platform \n" + "singleton: true\n" + "version: 2 \n")
+	public IInstallableUnit platform2;
+
+	@IUDescription(content = "package: tool \n" + "singleton: true\n" + "version: 1 \n" + "depends: platform = 1")
+	public IInstallableUnit tool1;
+
+	IProfile profile;
+	private IPlanner planner;
+	private IEngine engine;
+	private IProfileChangeRequest originalRequest;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		profile = createProfile("TestProfile." + getName());
+		IULoader.loadIUs(this);
+		createTestMetdataRepository(new IInstallableUnit[] {sdk1, platform1, sdk2, platform2, tool1});
+		planner = createPlanner();
+		engine = createEngine();
+		assertOK(install(profile, new IInstallableUnit[] {sdk1}, true, planner, engine));
+
+		originalRequest = planner.createChangeRequest(profile);
+		originalRequest.add(sdk2);
+		originalRequest.add(tool1);
+		originalRequest.setInstallableUnitInclusionRules(sdk2, ProfileInclusionRules.createStrictInclusionRule(sdk2));
+		originalRequest.setInstallableUnitInclusionRules(tool1, ProfileInclusionRules.createStrictInclusionRule(tool1));
+		assertNotOK(planner.getProvisioningPlan(originalRequest, null, null).getStatus());
+	}
+
+	private RemediationOperation remediate(int threads) {
+		RemediationOperation operation = new RemediationOperation(new ProvisioningSession(getAgent()), originalRequest);
+		operation.setRemedyThreads(threads);
+		assertOK(operation.resolveModal(new NullProgressMonitor()));
+		return operation;
+	}
+
+	private static void assertSameRemedy(String message, Remedy expected, Remedy actual) {
+		if (expected == null) {
+			assertNull(message, actual);
+			return;
+		}
+		assertNotNull(message, actual);
+		// Each operation creates its own remedy configurations
+		RemedyConfig expectedConfig = expected.getConfig();
+		RemedyConfig actualConfig = actual.getConfig();
+		assertEquals(message, expectedConfig.allowInstalledUpdate, actualConfig.allowInstalledUpdate);
+		assertEquals(message, expectedConfig.allowInstalledRemoval, actualConfig.allowInstalledRemoval);
+		assertEquals(message, expectedConfig.allowDifferentVersion, actualConfig.allowDifferentVersion);
+		assertEquals(message, expectedConfig.allowPartialInstall, actualConfig.allowPartialInstall);
+		assertEquals(message, expected.getRequest().getAdditions(), actual.getRequest().getAdditions());
+		assertEquals(message, expected.getRequest().getRemovals(), actual.getRequest().getRemovals());
+	}
+
+	public void testSameRemedies() {
+		RemediationOperation serial = remediate(1);
+		RemediationOperation concurrent = remediate(4);
+		List<Remedy> expected = serial.getRemedies();
+		List<Remedy> actual = concurrent.getRemedies();
+		assertFalse("1.0", expected.isEmpty());
+		assertEquals("1.1", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertSameRemedy("1.2." + i, expected.get(i), actual.get(i));
+		assertSameRemedy("1.3", serial.bestSolutionChangingTheRequest(), concurrent.bestSolutionChangingTheRequest());
+		assertSameRemedy("1.4", serial.bestSolutionChangingWhatIsInstalled(), concurrent.bestSolutionChangingWhatIsInstalled());
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Cloudsmith Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Cloudsmith Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that starting the solver from the installed IUs finds the same solution
+ * as a search from scratch, taking fewer decisions.
+ */
+public class WarmStartTest extends AbstractProvisioningTest {
+	private static final Map<String, String> CONTEXT = Collections.<String, String> emptyMap();
+	private static final int SIZE = 50;
+
+	List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+	List<IInstallableUnit> installed = new ArrayList<IInstallableUnit>();
+	IInstallableUnit[] roots = new IInstallableUnit[SIZE];
+	IInstallableUnit updatedRoot;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Each root requires a library of which several versions are available, the
+		// oldest one being installed.
+		for (int i = 0; i < SIZE; i++) {
+			IInstallableUnit lib1 = createIU("L" + i, Version.create("1.0.0"), true);
+			roots[i] = createIU("R" + i, Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "L" + i, new VersionRange("[1.0.0,4.0.0)")));
+			units.add(lib1);
+			units.add(createIU("L" + i, Version.create("2.0.0"), true));
+			units.add(createIU("L" + i, Version.create("3.0.0"), true));
+			units.add(roots[i]);
+			installed.add(lib1);
+			installed.add(roots[i]);
+		}
+		// The update of the first root needs the newer library
+		updatedRoot = createIU("R0", Version.create("2.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "L0", new VersionRange("[2.0.0,4.0.0)")));
+		units.add(updatedRoot);
+	}
+
+	private Projector solve(boolean warmStart) {
+		IRequirement[] reqs = new IRequirement[SIZE];
+		reqs[0] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "R0", new VersionRange("[2.0.0,2.0.0]"), null, false, false, true);
+		for (int i = 1; i < SIZE; i++)
+			reqs[i] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "R" + i, new VersionRange("[1.0.0,1.0.0]"), null, false, false, true);
+		IInstallableUnit entryPoint = createIU("entry", Version.create("1.0.0"), reqs);
+
+		Slicer slicer = new Slicer(new QueryableArray(units.toArray(new IInstallableUnit[units.size()])), CONTEXT, false);
+		IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull("1.0", slice);
+		Projector projector = new Projector(slice, CONTEXT, slicer.getUniverse(), slicer.getNonGreedyIds(), false);
+		projector.setWarmStart(warmStart);
+		IInstallableUnit[] installedRoots = new IInstallableUnit[SIZE - 1];
+		System.arraycopy(roots, 1, installedRoots, 0, SIZE - 1);
+		projector.encode(entryPoint, installedRoots, new QueryableArray(installed.toArray(new IInstallableUnit[installed.size()])), Collections.singletonList(updatedRoot), new NullProgressMonitor());
+		assertEquals("1.1", IStatus.OK, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+		return projector;
+	}
+
+	public void testSameSolution() {
+		Projector cold = solve(false);
+		Projector warm = solve(true);
+		Set<IInstallableUnit> solution = new HashSet<IInstallableUnit>(warm.extractSolution());
+		assertEquals("1.0", new HashSet<IInstallableUnit>(cold.extractSolution()), solution);
+		assertTrue("1.1", solution.contains(updatedRoot));
+		for (int i = 1; i < SIZE; i++)
+			assertTrue("1.2", solution.contains(installed.get(2 * i)));
+	}
+
+	public void testFewerDecisions() {
+		Projector cold = solve(false);
+		Projector warm = solve(true);
+		assertTrue("1.0", cold.getDecisions() > 0);
+		assertTrue("1.1", warm.getDecisions() < cold.getDecisions());
+		assertTrue("1.2", warm.getConflicts() <= cold.getConflicts());
+	}
+}
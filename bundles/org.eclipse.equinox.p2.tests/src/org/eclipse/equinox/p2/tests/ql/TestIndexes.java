@@ -11,8 +11,12 @@
 package org.eclipse.equinox.p2.tests.ql;
 
 import java.net.URI;
+import java.util.*;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.expression.ExpressionFactory;
+import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
 import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
@@ -63,6 +67,49 @@ public class TestIndexes extends AbstractProvisioningTest {
 		assertEquals(queryResultSize(result), 487);
 	}
 
+	public void testCapabilityIndexVersionRange() throws Exception {
+		IInstallableUnit a2 = createIU("a", Version.create("2.0.0"));
+		IInstallableUnit a1 = createIU("a", Version.create("1.0.0"));
+		IInstallableUnit a3 = createIU("a", Version.create("3.0.0"));
+		IInstallableUnit a15 = createIU("a", Version.create("1.5.0"));
+		IInstallableUnit b = createIU("b", Version.create("1.5.0"), new IProvidedCapability[] {MetadataFactory.createProvidedCapability("other", "a", Version.create("1.5.0"))});
+		CapabilityIndex index = new CapabilityIndex(Arrays.asList(a2, a1, a3, a15, b).iterator());
+
+		IRequirement req = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "a", new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+		assertEquals(new HashSet<IInstallableUnit>(Arrays.asList(a1, a15)), getCandidates(index, req));
+
+		req = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "a", new VersionRange("(1.0.0,2.0.0]"), null, false, false);
+		assertEquals(new HashSet<IInstallableUnit>(Arrays.asList(a15, a2)), getCandidates(index, req));
+
+		req = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "a", new VersionRange("[2.0.0,2.0.0]"), null, false, false);
+		assertEquals(Collections.singleton(a2), getCandidates(index, req));
+
+		req = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "a", new VersionRange("1.5.0"), null, false, false);
+		assertEquals(new HashSet<IInstallableUnit>(Arrays.asList(a15, a2, a3)), getCandidates(index, req));
+
+		req = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "a", null, null, false, false);
+		assertEquals(new HashSet<IInstallableUnit>(Arrays.asList(a1, a15, a2, a3)), getCandidates(index, req));
+
+		req = MetadataFactory.createRequirement("other", "a", new VersionRange("[1.0.0,2.0.0)"), null, false, false);
+		assertEquals(Collections.singleton(b), getCandidates(index, req));
+
+		req = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "a", new VersionRange("[4.0.0,5.0.0)"), null, false, false);
+		assertTrue(getCandidates(index, req).isEmpty());
+
+		req = MetadataFactory.createRequirement("unknown", "a", null, null, false, false);
+		assertTrue(getCandidates(index, req).isEmpty());
+	}
+
+	private static Set<IInstallableUnit> getCandidates(CapabilityIndex index, IRequirement requirement) {
+		IMatchExpression<IInstallableUnit> matches = requirement.getMatches();
+		Iterator<IInstallableUnit> itor = index.getCandidates(matches.createContext(), ExpressionFactory.THIS, matches);
+		assertNotNull(itor);
+		Set<IInstallableUnit> result = new HashSet<IInstallableUnit>();
+		while (itor.hasNext())
+			result.add(itor.next());
+		return result;
+	}
+
 	private IMetadataRepository getMDR(String uri) throws Exception {
 		URI metadataRepo = getTestData("1.1", uri).toURI();
 